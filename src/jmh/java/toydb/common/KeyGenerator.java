@@ -0,0 +1,133 @@
+package toydb.common;
+
+import java.util.Random;
+
+/**
+ * Draws the indexes, in [0, keyCount), of the keys a benchmark reads or writes, under one of the
+ * distributions picked by the {@code distribution} parameter of the benchmarks :
+ *
+ * <ul>
+ *   <li>uniform : every key is equally likely.
+ *   <li>zipfian : a few hot keys take most of the accesses (the generator of YCSB, after Gray et
+ *       al., with a skew of 0.99). The hot keys are scattered over the key space, not bunched at
+ *       its start.
+ *   <li>sequential : the keys in order, wrapping around after the last one.
+ * </ul>
+ */
+public abstract class KeyGenerator {
+
+  public static final String UNIFORM = "uniform";
+  public static final String ZIPFIAN = "zipfian";
+  public static final String SEQUENTIAL = "sequential";
+
+  protected final int keyCount;
+
+  protected KeyGenerator(int keyCount) {
+    this.keyCount = keyCount;
+  }
+
+  public static KeyGenerator create(String distribution, int keyCount, long seed) {
+    switch (distribution) {
+      case UNIFORM:
+        return new Uniform(keyCount, seed);
+      case ZIPFIAN:
+        return new Zipfian(keyCount, seed);
+      case SEQUENTIAL:
+        return new Sequential(keyCount);
+      default:
+        throw new IllegalArgumentException("Unknown key distribution " + distribution);
+    }
+  }
+
+  /** The key of index i, all keys having the same length so that they sort by index. */
+  public static String key(int i) {
+    return String.format("Key%08d", i);
+  }
+
+  /** The keys of index [0, keyCount), to keep formatting keys out of the measured code. */
+  public static String[] keys(int keyCount) {
+    String[] keys = new String[keyCount];
+    for (int i = 0; i < keyCount; i++) keys[i] = key(i);
+    return keys;
+  }
+
+  /** A value of size chars, drawn once from a fixed seed, so that runs write the same bytes. */
+  public static String value(int size) {
+    Random random = new Random(size);
+    StringBuilder value = new StringBuilder(size);
+    for (int i = 0; i < size; i++) value.append((char) ('a' + random.nextInt(26)));
+    return value.toString();
+  }
+
+  public abstract int next();
+
+  private static class Uniform extends KeyGenerator {
+    private final Random random;
+
+    Uniform(int keyCount, long seed) {
+      super(keyCount);
+      random = new Random(seed);
+    }
+
+    @Override
+    public int next() {
+      return random.nextInt(keyCount);
+    }
+  }
+
+  private static class Sequential extends KeyGenerator {
+    private int next;
+
+    Sequential(int keyCount) {
+      super(keyCount);
+    }
+
+    @Override
+    public int next() {
+      int i = next;
+      next = next + 1 == keyCount ? 0 : next + 1;
+      return i;
+    }
+  }
+
+  private static class Zipfian extends KeyGenerator {
+    private static final double THETA = 0.99;
+
+    private final Random random;
+    private final double zetaN;
+    private final double alpha;
+    private final double eta;
+
+    Zipfian(int keyCount, long seed) {
+      super(keyCount);
+      random = new Random(seed);
+      zetaN = zeta(keyCount);
+      alpha = 1 / (1 - THETA);
+      eta = (1 - Math.pow(2.0 / keyCount, 1 - THETA)) / (1 - zeta(2) / zetaN);
+    }
+
+    private static double zeta(int n) {
+      double sum = 0;
+      for (int i = 1; i <= n; i++) sum += 1 / Math.pow(i, THETA);
+      return sum;
+    }
+
+    @Override
+    public int next() {
+      double u = random.nextDouble();
+      double uz = u * zetaN;
+      long rank;
+      if (uz < 1) rank = 0;
+      else if (uz < 1 + Math.pow(0.5, THETA)) rank = 1;
+      else rank = (long) (keyCount * Math.pow(eta * u - eta + 1, alpha));
+      return scatter(Math.min(rank, keyCount - 1));
+    }
+
+    // maps a rank to a key : a few ranks collide, which slightly changes the weights of their keys
+    private int scatter(long rank) {
+      long h = rank * 0x9E37_79B9_7F4A_7C15L;
+      h ^= h >>> 32;
+      return (int) Math.floorMod(h, (long) keyCount);
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package toydb.common;
+
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Multi-threaded throughput of the in-memory table of a memtable : the lock-free {@link
+ * ConcurrentSkipList} against the {@link RBTree} guarded by a single global lock.
+ *
+ * <p>Each group runs 4 writer and 4 reader threads against the same table, over a fixed key space.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemtableConcurrencyBenchmark {
+
+  private static final int KEY_SPACE = 100_000;
+
+  interface SortedTable {
+    void put(String key, String value);
+
+    String get(String key);
+  }
+
+  static class SkipListTable implements SortedTable {
+    private final ConcurrentSkipList<String, String> list =
+        new ConcurrentSkipList<>(Comparator.naturalOrder());
+
+    @Override
+    public void put(String key, String value) {
+      list.put(key, value);
+    }
+
+    @Override
+    public String get(String key) {
+      return list.get(key);
+    }
+  }
+
+  static class LockedRBTreeTable implements SortedTable {
+    private final RBTree tree = new RBTree();
+
+    @Override
+    public synchronized void put(String key, String value) {
+      tree.insert(key, value);
+    }
+
+    @Override
+    public synchronized String get(String key) {
+      return tree.get(key);
+    }
+  }
+
+  @Param({"skiplist", "locked-rbtree"})
+  public String table;
+
+  private SortedTable sortedTable;
+  private String[] keys;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    sortedTable = "skiplist".equals(table) ? new SkipListTable() : new LockedRBTreeTable();
+    keys = new String[KEY_SPACE];
+    for (int i = 0; i < KEY_SPACE; i++) {
+      keys[i] = "Key" + i;
+      // half of the key space is present before the measurement starts
+      if (i % 2 == 0) sortedTable.put(keys[i], "Value" + i);
+    }
+  }
+
+  @Benchmark
+  @Group("readWrite")
+  @GroupThreads(4)
+  public void put() {
+    String key = keys[ThreadLocalRandom.current().nextInt(KEY_SPACE)];
+    sortedTable.put(key, key);
+  }
+
+  @Benchmark
+  @Group("readWrite")
+  @GroupThreads(4)
+  public String get() {
+    return sortedTable.get(keys[ThreadLocalRandom.current().nextInt(KEY_SPACE)]);
+  }
+}
@@ -0,0 +1,68 @@
+package toydb.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single threaded insert and get of the {@link RBTree}, filled with keyCount keys in random order.
+ * The tree adds a node for every insert, even of a key it already holds, so it is filled again
+ * before every iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RBTreeBenchmark {
+
+  @Param({"uniform", "zipfian", "sequential"})
+  public String distribution;
+
+  @Param({"100000"})
+  public int keyCount;
+
+  private String[] keys;
+  private RBTree tree;
+  private KeyGenerator generator;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    keys = KeyGenerator.keys(keyCount);
+  }
+
+  @Setup(Level.Iteration)
+  public void fill() {
+    tree = new RBTree();
+    List<String> shuffled = new ArrayList<>(Arrays.asList(keys));
+    Collections.shuffle(shuffled, new Random(7));
+    for (String key : shuffled) tree.insert(key, "Value");
+    generator = KeyGenerator.create(distribution, keyCount, 42);
+  }
+
+  @Benchmark
+  public void insert() {
+    tree.insert(keys[generator.next()], "Value");
+  }
+
+  @Benchmark
+  public String get() {
+    return tree.get(keys[generator.next()]);
+  }
+}
@@ -0,0 +1,73 @@
+package toydb.datafile;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import toydb.toydb.Data;
+
+/**
+ * Cost of one lookup in a 4KB block held in memory, decoding included, as done for every get on a
+ * memory mapped SSTable : a {@link RecordBlock} finds its record boundaries and then binary
+ * searches its keys, a {@link PrefixBlock} binary searches its restart points and walks a few
+ * records.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockLookupBenchmark {
+
+  @Param({"records", "prefix"})
+  public String format;
+
+  private ByteBuffer block;
+  private String[] keys;
+  private Random random = new Random(42);
+
+  @Setup
+  public void setUp() {
+    List<String> blockKeys = new ArrayList<>();
+    ByteBuffer records = ByteBuffer.allocate(DataFile.BLOCK_SIZE_IN_BYTES);
+    PrefixBlockBuilder builder = new PrefixBlockBuilder();
+    for (int i = 0; ; i++) {
+      String key = String.format("user:%010d", i);
+      String value = "Value" + i;
+      if (RecordCodec.encodedSize(key, value) > records.remaining()) break;
+      RecordCodec.encode(key, value, records);
+      builder.add(key, value);
+      blockKeys.add(key);
+    }
+    keys = blockKeys.toArray(new String[0]);
+
+    if (format.equals("records")) {
+      block = ByteBuffer.wrap(records.array());
+    } else {
+      ByteBuffer content = builder.finish();
+      byte[] bytes = new byte[content.remaining()];
+      content.get(bytes);
+      block = ByteBuffer.allocate(BlockCompression.maxFramedSize(null, bytes.length));
+      BlockCompression.compress(null, bytes, bytes.length, true, false, null, block);
+      block.flip();
+    }
+  }
+
+  @Benchmark
+  public Data decodeAndGet() {
+    return Block.decode(block).get(keys[random.nextInt(keys.length)]);
+  }
+}
@@ -0,0 +1,96 @@
+package toydb.datafile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import toydb.common.KeyGenerator;
+import toydb.toydb.Data;
+
+/**
+ * Time to append a record to a {@link DataFile} with {@link DataFile#write}, and to read a record
+ * back from its location with {@link DataFile#read}. Reads go to a file of keyCount records, which
+ * sits in the page cache after the setup : this measures the cost of the read path, not of the
+ * disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataFileBenchmark {
+
+  @Param({"uniform", "zipfian", "sequential"})
+  public String distribution;
+
+  @Param({"100", "1000"})
+  public int valueSize;
+
+  @Param({"100000"})
+  public int keyCount;
+
+  private File dir;
+  private String[] keys;
+  private String value;
+  private DataFile readFile;
+  private long[] locations;
+  private DataFile appendFile;
+  private KeyGenerator generator;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("toydb-datafile-benchmark").toFile();
+    keys = KeyGenerator.keys(keyCount);
+    value = KeyGenerator.value(valueSize);
+
+    DataFile writer = new DataFile(new File(dir, "read.data").getPath());
+    locations = new long[keyCount];
+    for (int i = 0; i < keyCount; i++) locations[i] = writer.write(new Data(keys[i], value));
+    writer.close();
+    readFile = new DataFile(new File(dir, "read.data").getPath(), true);
+  }
+
+  @Setup(Level.Iteration)
+  public void newAppendFile() throws IOException {
+    // a new file every iteration, so that appends do not fill up the disk
+    appendFile = new DataFile(new File(dir, "append.data").getPath());
+    generator = KeyGenerator.create(distribution, keyCount, 42);
+  }
+
+  @TearDown(Level.Iteration)
+  public void deleteAppendFile() throws IOException {
+    appendFile.close();
+    new File(dir, "append.data").delete();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    readFile.close();
+    for (File f : dir.listFiles()) f.delete();
+    dir.delete();
+  }
+
+  @Benchmark
+  public long write() throws IOException {
+    return appendFile.write(new Data(keys[generator.next()], value));
+  }
+
+  @Benchmark
+  public Data read() throws IOException {
+    return readFile.read(locations[generator.next()]);
+  }
+}
@@ -0,0 +1,140 @@
+package toydb.datafile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time per block read when many reads run concurrently : through one {@link ChannelDataFile}
+ * shared by all the readers, against a {@link DataFile} opened and closed by every read, as
+ * lookups used to do.
+ *
+ * <p>Every invocation submits CONCURRENT_READS reads of random blocks, on a pool of platform
+ * threads, or on a virtual thread each. Virtual threads need JDK 21, see the modernJdk profile of
+ * the build : ./gradlew jmh -PmodernJdk -PjmhInclude=PositionalReadBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionalReadBenchmark {
+
+  private static final int BLOCK_COUNT = 2_000;
+  private static final int KEYS_PER_BLOCK = 50;
+  private static final int CONCURRENT_READS = 1_000;
+  private static final int PLATFORM_THREADS = 16;
+
+  @Param({"platform", "virtual"})
+  public String threads;
+
+  private File file;
+  private long[] blockStarts;
+  private ChannelDataFile channelFile;
+  private ExecutorService executor;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    file = Files.createTempFile("toydb-positional-read-benchmark", ".data").toFile();
+    blockStarts = new long[BLOCK_COUNT + 1];
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+      PrefixBlockBuilder builder = new PrefixBlockBuilder();
+      for (int b = 0; b < BLOCK_COUNT; b++) {
+        builder.reset();
+        for (int i = 0; i < KEYS_PER_BLOCK; i++) {
+          builder.add(String.format("Key%08d", b * KEYS_PER_BLOCK + i), "Value" + i);
+        }
+        ByteBuffer content = builder.finish();
+        int length = content.remaining();
+        ByteBuffer framed = ByteBuffer.allocate(BlockCompression.maxFramedSize(null, length));
+        BlockCompression.compress(null, content.array(), length, true, false, null, framed);
+        framed.flip();
+        blockStarts[b] = channel.position();
+        while (framed.hasRemaining()) channel.write(framed);
+      }
+    }
+    blockStarts[BLOCK_COUNT] = file.length();
+    channelFile = ChannelDataFile.open(file.getPath());
+    executor = newExecutor(threads);
+  }
+
+  private static ExecutorService newExecutor(String threads) {
+    if (threads.equals("platform")) return Executors.newFixedThreadPool(PLATFORM_THREADS);
+    try {
+      // looked up at runtime, so that the benchmarks still compile for Java 8
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Virtual threads need JDK 21, see -PmodernJdk", e);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    executor.shutdown();
+    channelFile.close();
+    file.delete();
+  }
+
+  /** A read of a random block, to be run concurrently. */
+  private interface BlockRead {
+    Block read(long location, int size) throws IOException;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CONCURRENT_READS)
+  public int sharedChannel() throws Exception {
+    return readConcurrently(channelFile::readBlock);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CONCURRENT_READS)
+  public int handlePerRead() throws Exception {
+    return readConcurrently(
+        (location, size) -> {
+          try (DataFile df = new DataFile(file.getPath(), true)) {
+            return df.readBlock(location, size);
+          }
+        });
+  }
+
+  private int readConcurrently(BlockRead blockRead) throws Exception {
+    List<Future<Block>> reads = new ArrayList<>(CONCURRENT_READS);
+    for (int i = 0; i < CONCURRENT_READS; i++) {
+      reads.add(
+          executor.submit(
+              () -> {
+                int b = ThreadLocalRandom.current().nextInt(BLOCK_COUNT);
+                return blockRead.read(blockStarts[b], (int) (blockStarts[b + 1] - blockStarts[b]));
+              }));
+    }
+    int records = 0;
+    for (Future<Block> read : reads) records += read.get().getRecordCount();
+    return records;
+  }
+}
@@ -0,0 +1,118 @@
+package toydb.datafile;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import toydb.common.ByteUtil;
+import toydb.toydb.Data;
+
+/**
+ * Encoding and decoding cost of one record with {@link RecordCodec}, against the hex round-trip
+ * that Data used before (kept below as LegacyHexCodec). Run with -prof gc to compare allocations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordCodecBenchmark {
+
+  @Param({"16", "128", "1024"})
+  public int valueSize;
+
+  private String key;
+  private String value;
+  private ByteBuffer encodeBuffer;
+  private ByteBuffer encoded;
+  private byte[] legacyEncoded;
+
+  @Setup
+  public void setUp() {
+    key = "Key1234567";
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < valueSize; i++) sb.append((char) ('a' + i % 26));
+    value = sb.toString();
+
+    encodeBuffer = ByteBuffer.allocate(RecordCodec.encodedSize(key, value));
+    encoded = ByteBuffer.allocate(RecordCodec.encodedSize(key, value));
+    RecordCodec.encode(key, value, encoded);
+    encoded.flip();
+    legacyEncoded = LegacyHexCodec.serialize(key, value);
+  }
+
+  @Benchmark
+  public ByteBuffer encodeBinary() {
+    encodeBuffer.clear();
+    RecordCodec.encode(key, value, encodeBuffer);
+    return encodeBuffer;
+  }
+
+  @Benchmark
+  public byte[] encodeLegacyHex() {
+    return LegacyHexCodec.serialize(key, value);
+  }
+
+  @Benchmark
+  public Data decodeBinary() {
+    return RecordCodec.decode(encoded.duplicate());
+  }
+
+  @Benchmark
+  public String decodeKeyBinary() {
+    return RecordCodec.decodeKey(encoded.duplicate());
+  }
+
+  @Benchmark
+  public Data decodeLegacyHex() {
+    return LegacyHexCodec.deserialize(legacyEncoded);
+  }
+
+  /** The hex based serialization which Data used to do, before {@link RecordCodec}. */
+  static class LegacyHexCodec {
+
+    static byte[] serialize(String key, String value) {
+      return ByteUtil.hexToBytes(stringToHex(key) + "00" + stringToHex(value));
+    }
+
+    static Data deserialize(byte[] byteArr) {
+      String keySeparatorValueHexString = ByteUtil.bytesToHex(byteArr);
+
+      int separatorIndex = -1;
+      for (int i = 0; i < keySeparatorValueHexString.length(); i += 2) {
+        if (keySeparatorValueHexString.charAt(i) == '0'
+            && keySeparatorValueHexString.charAt(i + 1) == '0') separatorIndex = i;
+      }
+
+      String keyHexString = keySeparatorValueHexString.substring(0, separatorIndex);
+      String valueHexString = keySeparatorValueHexString.substring(separatorIndex + 2);
+      return new Data(hexToString(keyHexString), hexToString(valueHexString));
+    }
+
+    static String stringToHex(String str) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < str.length(); i++) {
+        sb.append(Integer.toHexString(str.charAt(i)));
+      }
+      return sb.toString();
+    }
+
+    static String hexToString(String hexStr) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < hexStr.length(); i += 2) {
+        sb.append((char) Integer.parseInt(hexStr.substring(i, i + 2), 16));
+      }
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package toydb.index;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Memory used per key by a {@link HashBasedIndex} and by an {@link OffHeapHashIndex}, reported as
+ * the heapBytesPerKey and offHeapBytesPerKey secondary results, along with the time to build the
+ * index. The heap is measured after a full GC, before and after building the index. Run with -prof
+ * gc to also see the GC time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class IndexFootprintBenchmark {
+
+  @Param({"HashBasedIndex", "OffHeapHashIndex"})
+  public String indexType;
+
+  @Param({"1000000"})
+  public int keyCount;
+
+  /** Bytes per key, averaged over the iterations. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Footprint {
+    public double heapBytesPerKey;
+    public double offHeapBytesPerKey;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      heapBytesPerKey = 0;
+      offHeapBytesPerKey = 0;
+    }
+  }
+
+  private MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+  @Benchmark
+  public DBIndex build(Footprint footprint) {
+    long heapBefore = usedHeap();
+    DBIndex index =
+        indexType.equals("OffHeapHashIndex") ? new OffHeapHashIndex() : new HashBasedIndex();
+    for (int i = 0; i < keyCount; i++) {
+      index.updateLocation("Key" + i, (long) i * 64);
+    }
+    long heapAfter = usedHeap();
+
+    footprint.heapBytesPerKey = (double) (heapAfter - heapBefore) / keyCount;
+    if (index instanceof OffHeapHashIndex) {
+      footprint.offHeapBytesPerKey =
+          (double) ((OffHeapHashIndex) index).getOffHeapSizeInBytes() / keyCount;
+    }
+    return index;
+  }
+
+  private long usedHeap() {
+    System.gc();
+    System.gc();
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+}
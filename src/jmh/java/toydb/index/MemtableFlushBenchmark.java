@@ -0,0 +1,84 @@
+package toydb.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import toydb.cache.BlockCache;
+import toydb.common.KeyGenerator;
+import toydb.toydb.DBOptions;
+import toydb.wal.WalSyncMode;
+
+/**
+ * Time to flush a full memtable of recordCount records to an SSTable with {@link
+ * Memtable#persistOnDisk} : building the blocks, the sparse index and the bloom filter, and writing
+ * the data and index files. Every flush is of a new memtable, filled outside the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MemtableFlushBenchmark {
+
+  @Param({"10000", "100000"})
+  public int recordCount;
+
+  @Param({"100", "1000"})
+  public int valueSize;
+
+  private File dir;
+  private String[] keys;
+  private String value;
+  private DBOptions options = new DBOptions().setWalSyncMode(WalSyncMode.OS_BUFFERED);
+  private BlockCache blockCache = new BlockCache(0);
+  private Memtable memtable;
+  private Memtable persisted;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("toydb-flush-benchmark").toFile();
+    keys = KeyGenerator.keys(recordCount);
+    value = KeyGenerator.value(valueSize);
+  }
+
+  @Setup(Level.Invocation)
+  public void fill() throws IOException {
+    memtable = new Memtable(dir.getPath(), "flush.data", options, blockCache);
+    long sequence = 0;
+    for (String key : keys) memtable.put(key, value, ++sequence);
+  }
+
+  @TearDown(Level.Invocation)
+  public void deleteFiles() throws IOException {
+    memtable.deleteWriteAheadLog();
+    // closes the data file of the persisted memtable
+    persisted.unref();
+    for (File f : dir.listFiles()) f.delete();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    dir.delete();
+  }
+
+  @Benchmark
+  public Memtable flush() throws IOException {
+    persisted = memtable.persistOnDisk();
+    return persisted;
+  }
+}
@@ -0,0 +1,130 @@
+package toydb.toydb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import toydb.datafile.BlockCompression;
+import toydb.index.SparseIndexFile;
+
+/**
+ * Read latency of random gets against SSTables whose blocks are uncompressed, or compressed by
+ * LZ4 or by DEFLATE. The values are JSON-like documents, which compress well. Reads go through
+ * the data files, without mmap and without block cache, so that every get reads and decompresses
+ * one block.
+ *
+ * <p>Besides the time per get, the diskBytes secondary result is the size of the data files, and
+ * ioBytesPerGet the bytes read from files per get, as counted by the rchar field of
+ * /proc/self/io (-1 where it is not available).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BlockCompressionBenchmark {
+
+  private static final int KEY_COUNT = 200_000;
+  private static final int GETS_PER_INVOCATION = 10_000;
+
+  @Param({"none", "lz4", "deflate"})
+  public String codec;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class IoCounters {
+    public double ioBytesPerGet;
+    public long diskBytes;
+  }
+
+  private File dir;
+  private SSTableBasedToyDB db;
+  private long diskBytes;
+  private Random random = new Random(42);
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("toydb-compression-benchmark").toFile();
+    DBOptions options =
+        new DBOptions()
+            .setMemtableMaxSizeInBytes(4 * 1024 * 1024)
+            .setBlockCacheSizeInBytes(0)
+            .setMmapReads(false)
+            .setBlockCodec(
+                codec.equals("lz4")
+                    ? BlockCompression.LZ4
+                    : codec.equals("deflate") ? BlockCompression.DEFLATE : null);
+    SSTableBasedToyDB loader = new SSTableBasedToyDB(dir.getPath(), options);
+    for (int i = 0; i < KEY_COUNT; i++) {
+      loader.put(
+          String.format("Key%08d", i),
+          String.format(
+              "{\"id\":%d,\"name\":\"user%d\",\"status\":\"active\",\"country\":\"FR\","
+                  + "\"tags\":[\"toydb\",\"benchmark\"],\"score\":%d}",
+              i, i, i % 1000));
+    }
+    loader.close();
+
+    for (File f : dir.listFiles()) {
+      if (f.getName().startsWith("sortedStringFile_")
+          && !f.getName().endsWith(SparseIndexFile.FILE_SUFFIX)) {
+        diskBytes += f.length();
+      }
+    }
+    db = new SSTableBasedToyDB(dir.getPath(), options);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    db.close();
+    for (File f : dir.listFiles()) f.delete();
+    dir.delete();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(GETS_PER_INVOCATION)
+  public int randomGets(IoCounters counters) throws IOException {
+    long bytesReadBefore = bytesRead();
+    int found = 0;
+    for (int i = 0; i < GETS_PER_INVOCATION; i++) {
+      if (db.get(String.format("Key%08d", random.nextInt(KEY_COUNT))) != null) found++;
+    }
+    long bytesReadAfter = bytesRead();
+
+    counters.diskBytes = diskBytes;
+    counters.ioBytesPerGet =
+        bytesReadBefore < 0
+            ? -1
+            : (double) (bytesReadAfter - bytesReadBefore) / GETS_PER_INVOCATION;
+    return found;
+  }
+
+  /** Bytes read by the process through read system calls, or -1 if unknown. */
+  private static long bytesRead() throws IOException {
+    File io = new File("/proc/self/io");
+    if (!io.exists()) return -1;
+    for (String line : Files.readAllLines(Paths.get(io.getPath()), StandardCharsets.US_ASCII)) {
+      if (line.startsWith("rchar:")) return Long.parseLong(line.substring(6).trim());
+    }
+    return -1;
+  }
+}
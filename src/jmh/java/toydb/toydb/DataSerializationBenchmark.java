@@ -0,0 +1,48 @@
+package toydb.toydb;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import toydb.common.KeyGenerator;
+
+/** Time to serialize a {@link Data} record to its bytes, and to deserialize it back. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataSerializationBenchmark {
+
+  @Param({"16", "100", "1000"})
+  public int valueSize;
+
+  private Data data;
+  private byte[] serialized;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    data = new Data(KeyGenerator.key(42), KeyGenerator.value(valueSize));
+    serialized = data.serialize();
+  }
+
+  @Benchmark
+  public byte[] serialize() {
+    return data.serialize();
+  }
+
+  @Benchmark
+  public Data deserialize() {
+    return new Data(serialized);
+  }
+}
@@ -0,0 +1,99 @@
+package toydb.toydb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to look up a batch of keys with {@link SSTableBasedToyDB#multiGet}, against calling {@link
+ * SSTableBasedToyDB#get} for every key. The keys of a batch are drawn from a window of the key
+ * space, as the keys fetched together by a request usually are, so that several of them share a
+ * block. Without mmap reads, every block missing from the cache is read from its data file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiGetBenchmark {
+
+  private static final int KEY_COUNT = 200_000;
+
+  @Param({"100", "500"})
+  public int batchSize;
+
+  // the window of the key space the keys of a batch are drawn from
+  @Param({"2000"})
+  public int keyWindow;
+
+  @Param({"true", "false"})
+  public boolean mmapReads;
+
+  private File dir;
+  private SSTableBasedToyDB db;
+  private Random random = new Random(42);
+  private List<String> batch;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("toydb-multiget-benchmark").toFile();
+    DBOptions options =
+        new DBOptions()
+            .setMemtableMaxSizeInBytes(1024 * 1024)
+            .setBlockCacheSizeInBytes(0)
+            .setMmapReads(mmapReads);
+    db = new SSTableBasedToyDB(dir.getPath(), options);
+    for (int i = 0; i < KEY_COUNT; i++) {
+      db.put(String.format("Key%08d", i), "Value" + i);
+    }
+    db.close();
+  }
+
+  @Setup(Level.Invocation)
+  public void nextBatch() {
+    int windowStart = random.nextInt(KEY_COUNT - keyWindow);
+    batch = new ArrayList<>();
+    for (int i = 0; i < batchSize; i++) {
+      batch.add(String.format("Key%08d", windowStart + random.nextInt(keyWindow)));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    for (File f : dir.listFiles()) f.delete();
+    dir.delete();
+  }
+
+  @Benchmark
+  public int getLoop() {
+    int found = 0;
+    for (String key : batch) {
+      if (db.get(key) != null) found++;
+    }
+    return found;
+  }
+
+  @Benchmark
+  public Map<String, String> multiGet() {
+    return db.multiGet(batch);
+  }
+}
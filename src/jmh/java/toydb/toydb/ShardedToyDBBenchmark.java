@@ -0,0 +1,125 @@
+package toydb.toydb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import toydb.common.KeyGenerator;
+
+/**
+ * Throughput of puts and gets of a {@link ShardedToyDB} as the number of shards and the number of
+ * threads grow. With a single shard, the writers contend on its active memtable and its WAL, while
+ * with more shards the writes of different threads mostly go to different shards.
+ *
+ * <p>Every benchmark method is run by 1, 4 and 16 threads, e.g. put_t4. The keys are drawn under a
+ * uniform distribution by a generator of each thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShardedToyDBBenchmark {
+
+  private static final int KEY_COUNT = 200_000;
+
+  @Param({"1", "2", "4", "8"})
+  public int shards;
+
+  @Param({"100"})
+  public int valueSize;
+
+  @State(Scope.Thread)
+  public static class ThreadKeys {
+    private KeyGenerator keyGenerator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      keyGenerator =
+          KeyGenerator.create(
+              KeyGenerator.UNIFORM, KEY_COUNT, ThreadLocalRandom.current().nextLong());
+    }
+
+    String next(String[] keys) {
+      return keys[keyGenerator.next()];
+    }
+  }
+
+  private File dir;
+  private ShardedToyDB db;
+  private String[] keys;
+  private String value;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("toydb-sharded-benchmark").toFile();
+    db = new ShardedToyDB(dir.getPath(), shards);
+    keys = KeyGenerator.keys(KEY_COUNT);
+    value = KeyGenerator.value(valueSize);
+    // the gets find their keys, in the memtables or in the SSTables
+    for (String key : keys) db.put(key, value);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    db.close();
+    try (Stream<Path> files = Files.walk(dir.toPath())) {
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void put_t1(ThreadKeys threadKeys) {
+    db.put(threadKeys.next(keys), value);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void put_t4(ThreadKeys threadKeys) {
+    db.put(threadKeys.next(keys), value);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public void put_t16(ThreadKeys threadKeys) {
+    db.put(threadKeys.next(keys), value);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public String get_t1(ThreadKeys threadKeys) {
+    return db.get(threadKeys.next(keys));
+  }
+
+  @Benchmark
+  @Threads(4)
+  public String get_t4(ThreadKeys threadKeys) {
+    return db.get(threadKeys.next(keys));
+  }
+
+  @Benchmark
+  @Threads(16)
+  public String get_t16(ThreadKeys threadKeys) {
+    return db.get(threadKeys.next(keys));
+  }
+}
@@ -0,0 +1,90 @@
+package toydb.toydb;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import toydb.common.KeyGenerator;
+
+/**
+ * Single threaded put and get of a whole DB, {@link SSTableBasedToyDB} or {@link SimpleToyDB},
+ * loaded with keyCount keys before the measurement. The keys put and got are drawn from the same
+ * key space, under the given distribution, so that puts overwrite existing keys.
+ *
+ * <p>The DBs use their default options : the SSTable based DB flushes and compacts in the
+ * background while puts are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ToyDBBenchmark {
+
+  @Param({"sstable", "simple"})
+  public String db;
+
+  @Param({"uniform", "zipfian", "sequential"})
+  public String distribution;
+
+  @Param({"100", "1000"})
+  public int valueSize;
+
+  @Param({"100000"})
+  public int keyCount;
+
+  private File dir;
+  private ToyDB toyDB;
+  private String[] keys;
+  private String value;
+  private KeyGenerator generator;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("toydb-benchmark").toFile();
+    toyDB =
+        "sstable".equals(db)
+            ? new SSTableBasedToyDB(dir.getPath())
+            : new SimpleToyDB(dir.getPath());
+    keys = KeyGenerator.keys(keyCount);
+    value = KeyGenerator.value(valueSize);
+    for (String key : keys) toyDB.put(key, value);
+  }
+
+  @Setup(Level.Iteration)
+  public void newGenerator() {
+    generator = KeyGenerator.create(distribution, keyCount, 42);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    ((Closeable) toyDB).close();
+    for (File f : dir.listFiles()) f.delete();
+    dir.delete();
+  }
+
+  @Benchmark
+  public void put() {
+    toyDB.put(keys[generator.next()], value);
+  }
+
+  @Benchmark
+  public String get() {
+    return toyDB.get(keys[generator.next()]);
+  }
+}
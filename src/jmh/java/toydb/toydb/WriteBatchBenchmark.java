@@ -0,0 +1,74 @@
+package toydb.toydb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import toydb.wal.WalSyncMode;
+
+/**
+ * Time to write a group of related keys with one {@link WriteBatch}, against a put per key. A put
+ * appends one WAL record per key, which in the EVERY_WRITE mode is one force per key, while a batch
+ * appends a single record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteBatchBenchmark {
+
+  @Param({"EVERY_WRITE", "OS_BUFFERED"})
+  public WalSyncMode syncMode;
+
+  @Param({"50", "500"})
+  public int batchSize;
+
+  private File dir;
+  private SSTableBasedToyDB db;
+  private String[] keys;
+  private long round = 0;
+
+  @Setup(Level.Iteration)
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("toydb-write-batch-benchmark").toFile();
+    db = new SSTableBasedToyDB(dir.getPath(), new DBOptions().setWalSyncMode(syncMode));
+    keys = new String[batchSize];
+    for (int i = 0; i < batchSize; i++) keys[i] = "Key" + i;
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() throws IOException {
+    db.close();
+    for (File f : dir.listFiles()) f.delete();
+    dir.delete();
+  }
+
+  @Benchmark
+  public void putLoop() {
+    String value = "Value" + round++;
+    for (String key : keys) db.put(key, value);
+  }
+
+  @Benchmark
+  public void writeBatch() {
+    String value = "Value" + round++;
+    WriteBatch batch = new WriteBatch();
+    for (String key : keys) batch.put(key, value);
+    db.write(batch);
+  }
+}
@@ -0,0 +1,64 @@
+package toydb.wal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Append throughput of the {@link WriteAheadLog} in each sync mode, with 8 concurrent writers. In
+ * the EVERY_WRITE mode, the writers share the forces of the group commit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class WriteAheadLogBenchmark {
+
+  @Param({"EVERY_WRITE", "INTERVAL", "OS_BUFFERED"})
+  public WalSyncMode syncMode;
+
+  @Param({"100"})
+  public int recordSize;
+
+  private Path dir;
+  private WriteAheadLog wal;
+  private byte[] record;
+
+  @Setup(Level.Iteration)
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("toydb-wal-benchmark");
+    wal = new WriteAheadLog(dir.resolve("wal.log"), syncMode);
+    record = new byte[recordSize];
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() throws IOException {
+    wal.close();
+    Files.delete(dir.resolve("wal.log"));
+    Files.delete(dir);
+  }
+
+  @Benchmark
+  public void append() throws IOException {
+    wal.append(ByteBuffer.wrap(record));
+  }
+}
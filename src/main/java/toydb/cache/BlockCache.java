@@ -0,0 +1,253 @@
+package toydb.cache;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import toydb.datafile.Block;
+
+/**
+ * A size bounded cache of decoded data blocks, shared by all the SSTables of a DB. Blocks are keyed
+ * by the id of their SSTable (see {@link #newFileId()}) and their offset in its data file.
+ *
+ * <p>Eviction is segmented LRU, which resists scans : a block enters the cache on probation, and is
+ * only promoted to the protected segment when it is read a second time. A scan over many blocks
+ * read once therefore only churns the probationary segment, and never evicts the hot blocks of the
+ * protected segment.
+ *
+ * <p>The cache is split into shards, each guarded by its own lock, so that concurrent readers of
+ * different blocks rarely contend. Concurrent misses on the same block are coalesced by {@link
+ * #load} : one reader reads and decodes the block, and the others wait for it.
+ */
+public class BlockCache {
+
+  private static final int SHARD_COUNT = 16;
+  // share of the capacity of a shard which the protected segment may use
+  private static final double PROTECTED_RATIO = 0.8;
+
+  private Shard[] shards = new Shard[SHARD_COUNT];
+  private long capacityInBytes;
+  private AtomicLong nextFileId = new AtomicLong(0);
+
+  private LongAdder hits = new LongAdder();
+  private LongAdder misses = new LongAdder();
+  private LongAdder evictions = new LongAdder();
+  private LongAdder coalescedLoads = new LongAdder();
+
+  // the blocks being read after a miss, until they are added to the cache
+  private ConcurrentHashMap<BlockKey, CompletableFuture<Block>> loads = new ConcurrentHashMap<>();
+
+  /** Reads a block missing from the cache. */
+  public interface BlockLoader {
+    Block load() throws IOException;
+  }
+
+  /** @param capacityInBytes 0 disables the cache */
+  public BlockCache(long capacityInBytes) {
+    if (capacityInBytes < 0) throw new IllegalArgumentException("capacity can not be negative");
+    this.capacityInBytes = capacityInBytes;
+    for (int i = 0; i < SHARD_COUNT; i++) shards[i] = new Shard(capacityInBytes / SHARD_COUNT);
+  }
+
+  /** A new id, to key the blocks of an SSTable. Ids are never reused. */
+  public long newFileId() {
+    return nextFileId.getAndIncrement();
+  }
+
+  /** Returns the cached block, or null. */
+  public Block get(long fileId, long blockOffset) {
+    BlockKey key = new BlockKey(fileId, blockOffset);
+    Block block = shardOf(key).get(key);
+    if (block != null) hits.increment();
+    else misses.increment();
+    return block;
+  }
+
+  public void put(long fileId, long blockOffset, Block block) {
+    BlockKey key = new BlockKey(fileId, blockOffset);
+    shardOf(key).put(key, block);
+  }
+
+  /**
+   * Reads the block with loader, after a miss, and adds it to the cache. If the block is already
+   * being read by another thread, waits for that read instead of reading it again : a hot block
+   * which was just evicted, or the first block of many concurrent readers, is read once.
+   *
+   * @throws IOException the failure of the read, to the reader which made it and to those who
+   *     waited for it
+   */
+  public Block load(long fileId, long blockOffset, BlockLoader loader) throws IOException {
+    BlockKey key = new BlockKey(fileId, blockOffset);
+    CompletableFuture<Block> load = new CompletableFuture<>();
+    CompletableFuture<Block> running = loads.putIfAbsent(key, load);
+    if (running != null) {
+      coalescedLoads.increment();
+      return await(running);
+    }
+
+    try {
+      Block block = loader.load();
+      shardOf(key).put(key, block);
+      load.complete(block);
+      return block;
+    } catch (IOException | RuntimeException | Error e) {
+      load.completeExceptionally(e);
+      throw e;
+    } finally {
+      loads.remove(key, load);
+    }
+  }
+
+  private static Block await(CompletableFuture<Block> load) throws IOException {
+    try {
+      return load.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a block to be read");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw new IOException(cause.getMessage(), cause);
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      throw (Error) cause;
+    }
+  }
+
+  private Shard shardOf(BlockKey key) {
+    return shards[(key.hashCode() & Integer.MAX_VALUE) % SHARD_COUNT];
+  }
+
+  public long getCapacityInBytes() {
+    return capacityInBytes;
+  }
+
+  /** Bytes currently held by the cached blocks. */
+  public long getUsageInBytes() {
+    long usage = 0;
+    for (Shard shard : shards) usage += shard.getUsage();
+    return usage;
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  /** Misses which waited for the read of the same block by another thread, see {@link #load}. */
+  public long getCoalescedLoadCount() {
+    return coalescedLoads.sum();
+  }
+
+  public double getHitRatio() {
+    long hitCount = hits.sum();
+    long lookups = hitCount + misses.sum();
+    return lookups == 0 ? 0 : (double) hitCount / lookups;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "hits=%d, misses=%d, evictions=%d, usage=%d/%d bytes",
+        getHitCount(), getMissCount(), getEvictionCount(), getUsageInBytes(), capacityInBytes);
+  }
+
+  private static class BlockKey {
+    private long fileId;
+    private long blockOffset;
+
+    private BlockKey(long fileId, long blockOffset) {
+      this.fileId = fileId;
+      this.blockOffset = blockOffset;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof BlockKey)) return false;
+      BlockKey other = (BlockKey) o;
+      return fileId == other.fileId && blockOffset == other.blockOffset;
+    }
+
+    @Override
+    public int hashCode() {
+      // compressed blocks are not 4 KB aligned, so every bit of the offset is mixed in
+      long h = (fileId * 0x9E3779B97F4A7C15L + blockOffset) * 0xC2B2AE3D27D4EB4FL;
+      return (int) (h ^ (h >>> 32));
+    }
+  }
+
+  /** A segmented LRU, guarded by its own monitor. */
+  private class Shard {
+    private long capacity;
+    private long protectedCapacity;
+    // access ordered, the eldest entry is the least recently used
+    private LinkedHashMap<BlockKey, Block> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private LinkedHashMap<BlockKey, Block> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long probationSize = 0;
+    private long protectedSize = 0;
+
+    private Shard(long capacity) {
+      this.capacity = capacity;
+      this.protectedCapacity = (long) (capacity * PROTECTED_RATIO);
+    }
+
+    private synchronized Block get(BlockKey key) {
+      Block block = protectedSegment.get(key);
+      if (block != null) return block;
+
+      block = probation.remove(key);
+      if (block == null) return null;
+      // a second hit : promote the block, and demote the least recently used protected blocks
+      probationSize -= block.getSizeInBytes();
+      protectedSegment.put(key, block);
+      protectedSize += block.getSizeInBytes();
+      Iterator<Map.Entry<BlockKey, Block>> it = protectedSegment.entrySet().iterator();
+      while (protectedSize > protectedCapacity && it.hasNext()) {
+        Map.Entry<BlockKey, Block> eldest = it.next();
+        if (eldest.getKey().equals(key)) continue;
+        it.remove();
+        protectedSize -= eldest.getValue().getSizeInBytes();
+        probation.put(eldest.getKey(), eldest.getValue());
+        probationSize += eldest.getValue().getSizeInBytes();
+      }
+      return block;
+    }
+
+    private synchronized void put(BlockKey key, Block block) {
+      if (block.getSizeInBytes() > capacity) return;
+      if (protectedSegment.containsKey(key) || probation.containsKey(key)) return;
+
+      probation.put(key, block);
+      probationSize += block.getSizeInBytes();
+      evictIfNeeded();
+    }
+
+    private void evictIfNeeded() {
+      while (probationSize + protectedSize > capacity) {
+        LinkedHashMap<BlockKey, Block> segment =
+            probation.isEmpty() ? protectedSegment : probation;
+        Iterator<Map.Entry<BlockKey, Block>> it = segment.entrySet().iterator();
+        Map.Entry<BlockKey, Block> eldest = it.next();
+        it.remove();
+        if (segment == probation) probationSize -= eldest.getValue().getSizeInBytes();
+        else protectedSize -= eldest.getValue().getSizeInBytes();
+        evictions.increment();
+      }
+    }
+
+    private synchronized long getUsage() {
+      return probationSize + protectedSize;
+    }
+  }
+}
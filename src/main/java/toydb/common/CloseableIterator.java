@@ -0,0 +1,11 @@
+package toydb.common;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/** An iterator holding resources, such as an open file, which are released by {@link #close()}. */
+public interface CloseableIterator<T> extends Iterator<T>, Closeable {
+
+  @Override
+  void close();
+}
@@ -0,0 +1,220 @@
+package toydb.common;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A lock-free, insert-only skip list, used as the in-memory table of a memtable.
+ *
+ * <p>Nodes are never removed, which keeps the algorithm simple : a node is inserted by a CAS on the
+ * next pointer of its predecessor at level 0, which is the moment it becomes visible to readers.
+ * The upper levels are then linked one by one, and only speed up searches. Inserting an existing
+ * key replaces its value in place.
+ *
+ * <p>Any number of threads can insert and read concurrently. Iterators are weakly consistent : they
+ * never throw, and they see every node which was inserted before they were created.
+ */
+public class ConcurrentSkipList<K, V> implements Iterable<ConcurrentSkipList.Node<K, V>> {
+
+  private static final int MAX_HEIGHT = 12;
+  private static final int BRANCHING_FACTOR = 4; // each level holds 1/4 of the level below
+
+  public static class Node<K, V> {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Node, Object> VALUE_UPDATER =
+        AtomicReferenceFieldUpdater.newUpdater(Node.class, Object.class, "value");
+
+    private final K key;
+    private volatile V value;
+    private final AtomicReferenceArray<Node<K, V>> next;
+
+    Node(K key, V value, int height) {
+      this.key = key;
+      this.value = value;
+      this.next = new AtomicReferenceArray<>(height);
+    }
+
+    public K getKey() {
+      return key;
+    }
+
+    public V getValue() {
+      return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    V swapValue(V newValue) {
+      return (V) VALUE_UPDATER.getAndSet(this, newValue);
+    }
+
+    Node<K, V> next(int level) {
+      return next.get(level);
+    }
+  }
+
+  private final Comparator<? super K> comparator;
+  private final Node<K, V> head = new Node<>(null, null, MAX_HEIGHT);
+  private final AtomicInteger height = new AtomicInteger(1);
+  private final AtomicInteger size = new AtomicInteger(0);
+
+  public ConcurrentSkipList(Comparator<? super K> comparator) {
+    this.comparator = comparator;
+  }
+
+  /**
+   * Inserts the key, or replaces the value of the key if it is already present.
+   *
+   * @return the previous value of the key, or null if the key was not present
+   */
+  public V put(K key, V value) {
+    Node<K, V>[] preds = newNodeArray();
+    Node<K, V>[] succs = newNodeArray();
+    int nodeHeight = randomHeight();
+
+    while (true) {
+      Node<K, V> existing = findSplice(key, preds, succs);
+      if (existing != null) return existing.swapValue(value);
+
+      Node<K, V> node = new Node<>(key, value, nodeHeight);
+      for (int level = 0; level < nodeHeight; level++) node.next.lazySet(level, succs[level]);
+
+      // the node becomes visible once it is linked at level 0. If another thread changed this
+      // splice in the meantime (possibly by inserting the same key), search again.
+      if (!preds[0].next.compareAndSet(0, succs[0], node)) continue;
+
+      for (int level = 1; level < nodeHeight; level++) {
+        while (!preds[level].next.compareAndSet(level, succs[level], node)) {
+          // nodes are never removed, so the old predecessor is still a valid place to resume from
+          findSpliceForLevel(key, preds[level], level, preds, succs);
+          node.next.set(level, succs[level]);
+        }
+      }
+      raiseHeight(nodeHeight);
+      size.incrementAndGet();
+      return null;
+    }
+  }
+
+  public V get(K key) {
+    Node<K, V> x = head;
+    for (int level = height.get() - 1; level >= 0; level--) {
+      Node<K, V> next = x.next(level);
+      while (next != null && comparator.compare(next.key, key) < 0) {
+        x = next;
+        next = x.next(level);
+      }
+      if (next != null && comparator.compare(next.key, key) == 0) return next.value;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the node of the smallest key greater than or equal to key, or null if there is none.
+   * Like {@link #get}, the search takes no lock and does not allocate.
+   */
+  public Node<K, V> ceilingNode(K key) {
+    Node<K, V> x = head;
+    Node<K, V> next = null;
+    for (int level = height.get() - 1; level >= 0; level--) {
+      next = x.next(level);
+      while (next != null && comparator.compare(next.key, key) < 0) {
+        x = next;
+        next = x.next(level);
+      }
+    }
+    return next;
+  }
+
+  /** Returns the number of distinct keys in the list. */
+  public int size() {
+    return size.get();
+  }
+
+  /** Iterates over all the nodes in increasing order of their keys. */
+  @Override
+  public Iterator<Node<K, V>> iterator() {
+    return new NodeIterator(head.next(0));
+  }
+
+  /** Iterates, in increasing order, over the nodes whose keys are greater than or equal to key. */
+  public Iterator<Node<K, V>> iterator(K fromKey) {
+    Node<K, V>[] preds = newNodeArray();
+    Node<K, V>[] succs = newNodeArray();
+    Node<K, V> existing = findSplice(fromKey, preds, succs);
+    return new NodeIterator(existing != null ? existing : succs[0]);
+  }
+
+  /**
+   * Fills preds and succs with the nodes between which key belongs, on every level.
+   *
+   * @return the node holding key, if it is already present
+   */
+  private Node<K, V> findSplice(K key, Node<K, V>[] preds, Node<K, V>[] succs) {
+    Node<K, V> x = head;
+    for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+      findSpliceForLevel(key, x, level, preds, succs);
+      x = preds[level];
+    }
+    Node<K, V> candidate = succs[0];
+    return candidate != null && comparator.compare(candidate.key, key) == 0 ? candidate : null;
+  }
+
+  private void findSpliceForLevel(
+      K key, Node<K, V> start, int level, Node<K, V>[] preds, Node<K, V>[] succs) {
+    Node<K, V> x = start;
+    Node<K, V> next = x.next(level);
+    while (next != null && comparator.compare(next.key, key) < 0) {
+      x = next;
+      next = x.next(level);
+    }
+    preds[level] = x;
+    succs[level] = next;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K, V> Node<K, V>[] newNodeArray() {
+    return (Node<K, V>[]) new Node<?, ?>[MAX_HEIGHT];
+  }
+
+  private void raiseHeight(int nodeHeight) {
+    int currHeight = height.get();
+    while (nodeHeight > currHeight && !height.compareAndSet(currHeight, nodeHeight)) {
+      currHeight = height.get();
+    }
+  }
+
+  private static int randomHeight() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int h = 1;
+    while (h < MAX_HEIGHT && random.nextInt(BRANCHING_FACTOR) == 0) h++;
+    return h;
+  }
+
+  private class NodeIterator implements Iterator<Node<K, V>> {
+
+    private Node<K, V> next;
+
+    NodeIterator(Node<K, V> first) {
+      this.next = first;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Node<K, V> next() {
+      if (next == null) throw new NoSuchElementException();
+      Node<K, V> curr = next;
+      next = curr.next(0);
+      return curr;
+    }
+  }
+}
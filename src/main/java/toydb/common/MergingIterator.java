@@ -0,0 +1,73 @@
+package toydb.common;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import toydb.toydb.Data;
+
+/**
+ * Merges several iterators, each sorted by key and then from the newest version of a key to the
+ * oldest, into a single iterator sorted the same way. Versions are ordered by their sequences.
+ *
+ * <p>The iterators are ordered newest first. When the same version of a key, of the same sequence,
+ * is present in more than one iterator, only the record of the newest iterator is returned, and the
+ * older, shadowed records are skipped. The records written before sequence numbers all have
+ * sequence 0, so that only the newest of them is returned.
+ */
+public class MergingIterator implements Iterator<Data> {
+
+  private static class Source {
+    private Iterator<Data> it;
+    private int rank; // position in the list of iterators, 0 being the newest
+    private Data current;
+
+    private Source(Iterator<Data> it, int rank) {
+      this.it = it;
+      this.rank = rank;
+    }
+
+    private boolean advance() {
+      current = it.hasNext() ? it.next() : null;
+      return current != null;
+    }
+  }
+
+  // smallest key first, and for the same key, largest sequence first, and then newest first
+  private PriorityQueue<Source> heap =
+      new PriorityQueue<>(
+          (s1, s2) -> {
+            int cmp = s1.current.getKey().compareTo(s2.current.getKey());
+            if (cmp == 0) cmp = Long.compare(s2.current.getSequence(), s1.current.getSequence());
+            return cmp != 0 ? cmp : Integer.compare(s1.rank, s2.rank);
+          });
+
+  public MergingIterator(List<? extends Iterator<Data>> iteratorsNewestFirst) {
+    for (int i = 0; i < iteratorsNewestFirst.size(); i++) {
+      Source source = new Source(iteratorsNewestFirst.get(i), i);
+      if (source.advance()) heap.add(source);
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    return !heap.isEmpty();
+  }
+
+  @Override
+  public Data next() {
+    if (heap.isEmpty()) throw new NoSuchElementException();
+
+    Source newest = heap.poll();
+    Data d = newest.current;
+    // drop the copies of the same version in older iterators
+    while (!heap.isEmpty()
+        && heap.peek().current.getSequence() == d.getSequence()
+        && heap.peek().current.getKey().equals(d.getKey())) {
+      Source shadowed = heap.poll();
+      if (shadowed.advance()) heap.add(shadowed);
+    }
+    if (newest.advance()) heap.add(newest);
+    return d;
+  }
+}
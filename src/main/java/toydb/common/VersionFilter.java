@@ -0,0 +1,91 @@
+package toydb.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+import toydb.toydb.Data;
+
+/**
+ * Drops the versions which no reader can see anymore from the records written out by a flush or a
+ * compaction. The records come sorted by key, and the versions of a key from newest to oldest, as
+ * returned by a {@link MergingIterator}.
+ *
+ * <p>A reader reads as of a sequence, either the latest one or the sequence of a live snapshot,
+ * and sees the newest version of a key whose sequence is at most its own. Of the versions of a key,
+ * only the newest one is kept, and for every snapshot, the newest version at most its sequence :
+ * the versions written between two snapshots shadow each other, and only the last one is kept.
+ *
+ * <p>A tombstone which ends up as the oldest version kept of its key is dropped too, unless an
+ * older version of the key may exist outside of the filtered records : a reader can not tell it
+ * apart from no record at all.
+ */
+public class VersionFilter implements Iterator<Data> {
+
+  private Iterator<Data> it;
+  private long[] snapshotSequences;
+  private Predicate<String> olderVersionsMayExist;
+  // the first record of the next key, already read from it
+  private Data pending;
+  // the versions kept of the current key, newest first
+  private List<Data> versions = new ArrayList<>();
+  private int nextVersion = 0;
+
+  /**
+   * @param snapshotSequences the sequences of the live snapshots, in increasing order
+   * @param olderVersionsMayExist whether an older version of a key may exist outside of it, in
+   *     which case the tombstones of the key are all kept
+   */
+  public VersionFilter(
+      Iterator<Data> it, long[] snapshotSequences, Predicate<String> olderVersionsMayExist) {
+    this.it = it;
+    this.snapshotSequences = snapshotSequences;
+    this.olderVersionsMayExist = olderVersionsMayExist;
+    this.pending = it.hasNext() ? it.next() : null;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (nextVersion == versions.size() && pending != null) nextKey();
+    return nextVersion < versions.size();
+  }
+
+  @Override
+  public Data next() {
+    if (!hasNext()) throw new NoSuchElementException();
+    return versions.get(nextVersion++);
+  }
+
+  private void nextKey() {
+    versions.clear();
+    nextVersion = 0;
+    String key = pending.getKey();
+    int lastReader = -1;
+    while (pending != null && pending.getKey().equals(key)) {
+      int reader = reader(pending.getSequence());
+      // the versions are read newest first, so the newest version of every reader comes first
+      if (reader != lastReader) {
+        versions.add(pending);
+        lastReader = reader;
+      }
+      pending = it.hasNext() ? it.next() : null;
+    }
+
+    int last = versions.size() - 1;
+    if (versions.get(last).isTombstone() && !olderVersionsMayExist.test(key)) {
+      while (last >= 0 && versions.get(last).isTombstone()) versions.remove(last--);
+    }
+  }
+
+  /**
+   * The oldest reader which sees a version of the given sequence, if it is the newest one : the
+   * index of the first snapshot of a larger or equal sequence, or the number of snapshots for the
+   * readers of the latest sequence.
+   */
+  private int reader(long sequence) {
+    int i = Arrays.binarySearch(snapshotSequences, sequence);
+    return i >= 0 ? i : -i - 1;
+  }
+}
@@ -0,0 +1,41 @@
+package toydb.compaction;
+
+import java.util.List;
+import toydb.index.Memtable;
+
+/** A set of SSTables to be merged, and where the merged records go. */
+public class Compaction {
+
+  private List<Memtable> inputs;
+  private int outputLevel;
+  private long maxOutputFileSizeInBytes;
+
+  /**
+   * @param inputs the SSTables to merge, newest first, so that the newest version of a key wins
+   * @param outputLevel the level of the SSTables written by the compaction
+   * @param maxOutputFileSizeInBytes size after which a new output SSTable is started
+   */
+  public Compaction(List<Memtable> inputs, int outputLevel, long maxOutputFileSizeInBytes) {
+    this.inputs = inputs;
+    this.outputLevel = outputLevel;
+    this.maxOutputFileSizeInBytes = maxOutputFileSizeInBytes;
+  }
+
+  public List<Memtable> getInputs() {
+    return inputs;
+  }
+
+  public int getOutputLevel() {
+    return outputLevel;
+  }
+
+  public long getMaxOutputFileSizeInBytes() {
+    return maxOutputFileSizeInBytes;
+  }
+
+  public long getInputSizeInBytes() {
+    long size = 0;
+    for (Memtable input : inputs) size += input.getDataFileSize();
+    return size;
+  }
+}
@@ -0,0 +1,21 @@
+package toydb.compaction;
+
+import java.util.List;
+import toydb.index.Memtable;
+
+/**
+ * Decides which SSTables of an SSTableBasedToyDB are merged together, and at which level the merged
+ * SSTables are written.
+ *
+ * <p>A policy is only ever called from the compaction thread of its DB, so it can keep state across
+ * calls without any synchronization.
+ */
+public interface CompactionPolicy {
+
+  /**
+   * @param sstables the persisted SSTables of the DB, as ordered for reads : level 0 newest first,
+   *     followed by every other level, each sorted by key
+   * @return the next compaction to run, or null if no compaction is needed
+   */
+  Compaction pickCompaction(List<Memtable> sstables);
+}
@@ -0,0 +1,77 @@
+package toydb.compaction;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the bytes written by an SSTableBasedToyDB : by flushes of memtables, and by
+ * compactions.
+ */
+public class CompactionStats {
+
+  private AtomicLong flushedBytes = new AtomicLong(0);
+  private AtomicLong compactionBytesRead = new AtomicLong(0);
+  private AtomicLong compactionBytesWritten = new AtomicLong(0);
+  private AtomicLong compactionCount = new AtomicLong(0);
+  private AtomicLong compactionNanos = new AtomicLong(0);
+
+  public void recordFlush(long bytesWritten) {
+    flushedBytes.addAndGet(bytesWritten);
+  }
+
+  public void recordCompaction(long bytesRead, long bytesWritten, long nanos) {
+    compactionBytesRead.addAndGet(bytesRead);
+    compactionBytesWritten.addAndGet(bytesWritten);
+    compactionNanos.addAndGet(nanos);
+    compactionCount.incrementAndGet();
+  }
+
+  public long getFlushedBytes() {
+    return flushedBytes.get();
+  }
+
+  public long getCompactionBytesRead() {
+    return compactionBytesRead.get();
+  }
+
+  public long getCompactionBytesWritten() {
+    return compactionBytesWritten.get();
+  }
+
+  public long getCompactionCount() {
+    return compactionCount.get();
+  }
+
+  public long getCompactionNanos() {
+    return compactionNanos.get();
+  }
+
+  /**
+   * Bytes written to SSTables, by flushes and compactions, per byte flushed from the memtables. 1
+   * when nothing has been compacted yet.
+   */
+  public double getWriteAmplification() {
+    long flushed = flushedBytes.get();
+    if (flushed == 0) return 1;
+    return (double) (flushed + compactionBytesWritten.get()) / flushed;
+  }
+
+  /** Bytes read from the input SSTables per second spent compacting. */
+  public double getCompactionThroughputBytesPerSecond() {
+    long nanos = compactionNanos.get();
+    if (nanos == 0) return 0;
+    return compactionBytesRead.get() * 1e9 / nanos;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "flushed=%d bytes, compactions=%d, compaction read=%d bytes, written=%d bytes,"
+            + " write amplification=%.2f, compaction throughput=%.0f bytes/s",
+        getFlushedBytes(),
+        getCompactionCount(),
+        getCompactionBytesRead(),
+        getCompactionBytesWritten(),
+        getWriteAmplification(),
+        getCompactionThroughputBytesPerSecond());
+  }
+}
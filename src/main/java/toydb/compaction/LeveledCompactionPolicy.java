@@ -0,0 +1,148 @@
+package toydb.compaction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import toydb.index.Memtable;
+
+/**
+ * Organizes SSTables into levels, the way LevelDB does. Level 0 holds the flushed memtables, whose
+ * key ranges overlap. Every other level holds SSTables of about targetFileSizeInBytes with disjoint
+ * key ranges, and is allowed maxBytesForLevelBase x 10^(level-1) bytes.
+ *
+ * <ul>
+ *   <li>Once level 0 holds level0CompactionTrigger SSTables, all of them are merged with the
+ *       overlapping SSTables of level 1.
+ *   <li>Once a level grows past its size, one of its SSTables is merged with the overlapping
+ *       SSTables of the next level. The SSTable to compact is picked round robin across the key
+ *       range of the level.
+ * </ul>
+ *
+ * <p>A key is present at most once per level, so reads look at few SSTables, at the cost of
+ * rewriting every record about 10 times per level.
+ *
+ * <p>When no level is over its size, the SSTables of the last levels are rewritten once tombstones
+ * make up a large share of their records, so that the deleted keys do not linger there.
+ */
+public class LeveledCompactionPolicy implements CompactionPolicy {
+
+  private static final int DEFAULT_LEVEL0_COMPACTION_TRIGGER = 4;
+  private static final long DEFAULT_MAX_BYTES_FOR_LEVEL_BASE = 10 * 1024 * 1024; // 10 MB
+  private static final long DEFAULT_TARGET_FILE_SIZE_IN_BYTES = 2 * 1024 * 1024; // 2 MB
+  private static final int LEVEL_SIZE_MULTIPLIER = 10;
+  private static final int MAX_LEVELS = 7;
+
+  private int level0CompactionTrigger;
+  private long maxBytesForLevelBase;
+  private long targetFileSizeInBytes;
+  // level -> largest key of the last SSTable compacted from that level
+  private Map<Integer, String> compactionPointers = new HashMap<>();
+
+  public LeveledCompactionPolicy() {
+    this(
+        DEFAULT_LEVEL0_COMPACTION_TRIGGER,
+        DEFAULT_MAX_BYTES_FOR_LEVEL_BASE,
+        DEFAULT_TARGET_FILE_SIZE_IN_BYTES);
+  }
+
+  public LeveledCompactionPolicy(
+      int level0CompactionTrigger, long maxBytesForLevelBase, long targetFileSizeInBytes) {
+    if (level0CompactionTrigger < 1)
+      throw new IllegalArgumentException("level0CompactionTrigger must be positive");
+    if (maxBytesForLevelBase <= 0 || targetFileSizeInBytes <= 0)
+      throw new IllegalArgumentException("level sizes must be positive");
+    this.level0CompactionTrigger = level0CompactionTrigger;
+    this.maxBytesForLevelBase = maxBytesForLevelBase;
+    this.targetFileSizeInBytes = targetFileSizeInBytes;
+  }
+
+  @Override
+  public Compaction pickCompaction(List<Memtable> sstables) {
+    List<Memtable> level0 = getLevel(sstables, 0);
+    if (level0.size() >= level0CompactionTrigger) {
+      // level 0 SSTables overlap each other, so they are all compacted together
+      List<Memtable> inputs = new ArrayList<>(level0);
+      inputs.addAll(getOverlapping(getLevel(sstables, 1), smallestKey(level0), largestKey(level0)));
+      return new Compaction(inputs, 1, targetFileSizeInBytes);
+    }
+
+    for (int level = 1; level < MAX_LEVELS - 1; level++) {
+      List<Memtable> levelTables = getLevel(sstables, level);
+      if (totalSize(levelTables) <= maxBytesForLevel(level)) continue;
+
+      Memtable picked = pickRoundRobin(level, levelTables);
+      compactionPointers.put(level, picked.getLargestKey());
+      List<Memtable> inputs = new ArrayList<>();
+      inputs.add(picked);
+      inputs.addAll(
+          getOverlapping(
+              getLevel(sstables, level + 1), picked.getSmallestKey(), picked.getLargestKey()));
+      return new Compaction(inputs, level + 1, targetFileSizeInBytes);
+    }
+    return TombstoneCompaction.pick(sstables, targetFileSizeInBytes);
+  }
+
+  private long maxBytesForLevel(int level) {
+    long maxBytes = maxBytesForLevelBase;
+    for (int i = 1; i < level; i++) maxBytes *= LEVEL_SIZE_MULTIPLIER;
+    return maxBytes;
+  }
+
+  /** The first SSTable after the one compacted last time, wrapping around the key range. */
+  private Memtable pickRoundRobin(int level, List<Memtable> levelTables) {
+    String pointer = compactionPointers.get(level);
+    if (pointer != null) {
+      for (Memtable sstable : levelTables) {
+        if (sstable.getSmallestKey().compareTo(pointer) > 0) return sstable;
+      }
+    }
+    return levelTables.get(0);
+  }
+
+  private static List<Memtable> getLevel(List<Memtable> sstables, int level) {
+    List<Memtable> levelTables = new ArrayList<>();
+    for (Memtable sstable : sstables) {
+      if (sstable.getLevel() == level) levelTables.add(sstable);
+    }
+    return levelTables;
+  }
+
+  private static List<Memtable> getOverlapping(
+      List<Memtable> sstables, String smallestKey, String largestKey) {
+    List<Memtable> overlapping = new ArrayList<>();
+    for (Memtable sstable : sstables) {
+      if (sstable.getLargestKey().compareTo(smallestKey) >= 0
+          && sstable.getSmallestKey().compareTo(largestKey) <= 0) {
+        overlapping.add(sstable);
+      }
+    }
+    return overlapping;
+  }
+
+  private static String smallestKey(List<Memtable> sstables) {
+    String smallest = null;
+    for (Memtable sstable : sstables) {
+      if (smallest == null || sstable.getSmallestKey().compareTo(smallest) < 0) {
+        smallest = sstable.getSmallestKey();
+      }
+    }
+    return smallest;
+  }
+
+  private static String largestKey(List<Memtable> sstables) {
+    String largest = null;
+    for (Memtable sstable : sstables) {
+      if (largest == null || sstable.getLargestKey().compareTo(largest) > 0) {
+        largest = sstable.getLargestKey();
+      }
+    }
+    return largest;
+  }
+
+  private static long totalSize(List<Memtable> sstables) {
+    long size = 0;
+    for (Memtable sstable : sstables) size += sstable.getDataFileSize();
+    return size;
+  }
+}
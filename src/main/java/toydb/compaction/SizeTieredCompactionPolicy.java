@@ -0,0 +1,77 @@
+package toydb.compaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import toydb.index.Memtable;
+
+/**
+ * Merges SSTables of similar sizes into a single, larger SSTable, the way Cassandra's size-tiered
+ * strategy does. Every SSTable stays at level 0.
+ *
+ * <p>Neighbouring SSTables are grouped into buckets : an SSTable joins the bucket of the SSTable
+ * just newer than it if its size is within [bucketLow, bucketHigh] times the average size of the
+ * bucket, or if both are smaller than minSSTableSizeInBytes. The first bucket holding at least
+ * minThreshold SSTables is compacted, up to maxThreshold of them. Only neighbouring SSTables are ever
+ * merged, so that the merged SSTable can take their place in the newest first order of the DB.
+ *
+ * <p>Writes are cheap, each record being rewritten about once per tier, but a key can be present in
+ * every tier, and reads may have to look at all of them.
+ *
+ * <p>When no bucket is ready, the oldest SSTables, whose tombstones can be dropped, are rewritten
+ * once tombstones make up a large share of their records.
+ */
+public class SizeTieredCompactionPolicy implements CompactionPolicy {
+
+  private static final int DEFAULT_MIN_THRESHOLD = 4;
+  private static final int DEFAULT_MAX_THRESHOLD = 32;
+  private static final long DEFAULT_MIN_SSTABLE_SIZE_IN_BYTES = 4 * 1024 * 1024; // 4 MB
+  private static final double BUCKET_LOW = 0.5;
+  private static final double BUCKET_HIGH = 1.5;
+
+  private int minThreshold;
+  private int maxThreshold;
+  private long minSSTableSizeInBytes;
+
+  public SizeTieredCompactionPolicy() {
+    this(DEFAULT_MIN_THRESHOLD, DEFAULT_MAX_THRESHOLD, DEFAULT_MIN_SSTABLE_SIZE_IN_BYTES);
+  }
+
+  public SizeTieredCompactionPolicy(
+      int minThreshold, int maxThreshold, long minSSTableSizeInBytes) {
+    if (minThreshold < 2) throw new IllegalArgumentException("minThreshold must be at least 2");
+    if (maxThreshold < minThreshold)
+      throw new IllegalArgumentException("maxThreshold must be at least minThreshold");
+    this.minThreshold = minThreshold;
+    this.maxThreshold = maxThreshold;
+    this.minSSTableSizeInBytes = minSSTableSizeInBytes;
+  }
+
+  @Override
+  public Compaction pickCompaction(List<Memtable> sstables) {
+    List<Memtable> bucket = new ArrayList<>();
+    long bucketSize = 0;
+
+    for (Memtable sstable : sstables) {
+      // SSTables at other levels are left alone, e.g. when the DB was written with another policy
+      if (sstable.getLevel() != 0) break;
+
+      long size = sstable.getDataFileSize();
+      if (!bucket.isEmpty() && !fitsBucket(size, bucketSize / bucket.size())) {
+        if (bucket.size() >= minThreshold) break;
+        bucket.clear();
+        bucketSize = 0;
+      }
+      bucket.add(sstable);
+      bucketSize += size;
+      if (bucket.size() == maxThreshold) break;
+    }
+
+    if (bucket.size() < minThreshold) return TombstoneCompaction.pick(sstables, Long.MAX_VALUE);
+    return new Compaction(bucket, 0, Long.MAX_VALUE);
+  }
+
+  private boolean fitsBucket(long size, long averageBucketSize) {
+    if (size < minSSTableSizeInBytes && averageBucketSize < minSSTableSizeInBytes) return true;
+    return size >= averageBucketSize * BUCKET_LOW && size <= averageBucketSize * BUCKET_HIGH;
+  }
+}
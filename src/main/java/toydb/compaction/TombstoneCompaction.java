@@ -0,0 +1,52 @@
+package toydb.compaction;
+
+import java.util.Collections;
+import java.util.List;
+import toydb.index.Memtable;
+
+/**
+ * Picks a single SSTable made mostly of tombstones, to rewrite it on its own once none of the
+ * policies has a regular compaction to run.
+ *
+ * <p>A compaction drops a tombstone only when no older SSTable may still hold the deleted key, so
+ * only an SSTable which no older SSTable overlaps is picked : all of its tombstones are dropped,
+ * and the same SSTable is never picked twice.
+ */
+class TombstoneCompaction {
+
+  // share of tombstones among the records of an SSTable above which it is rewritten
+  static final double TOMBSTONE_RATIO_THRESHOLD = 0.2;
+
+  private TombstoneCompaction() {}
+
+  /**
+   * @param sstables as passed to {@link CompactionPolicy#pickCompaction}
+   * @return a compaction of a single SSTable, written back at its own level, or null
+   */
+  static Compaction pick(List<Memtable> sstables, long maxOutputFileSizeInBytes) {
+    for (int i = 0; i < sstables.size(); i++) {
+      Memtable sstable = sstables.get(i);
+      if (sstable.getTombstoneCount() == 0
+          || sstable.getTombstoneCount()
+              < sstable.getRecordCount() * TOMBSTONE_RATIO_THRESHOLD) {
+        continue;
+      }
+      if (overlapsOlder(sstables, i)) continue;
+      return new Compaction(
+          Collections.singletonList(sstable), sstable.getLevel(), maxOutputFileSizeInBytes);
+    }
+    return null;
+  }
+
+  private static boolean overlapsOlder(List<Memtable> sstables, int index) {
+    Memtable sstable = sstables.get(index);
+    for (int i = index + 1; i < sstables.size(); i++) {
+      Memtable older = sstables.get(i);
+      if (older.getLargestKey().compareTo(sstable.getSmallestKey()) >= 0
+          && older.getSmallestKey().compareTo(sstable.getLargestKey()) <= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
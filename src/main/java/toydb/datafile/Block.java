@@ -0,0 +1,57 @@
+package toydb.datafile;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import toydb.toydb.Data;
+
+/**
+ * A data block of a {@link DataFile}, read back whole, whose records are sorted by key. A block is
+ * either a {@link RecordBlock}, a plain sequence of records as written by older versions, or a
+ * {@link PrefixBlock} built by {@link PrefixBlockBuilder}, whose keys are prefix compressed.
+ *
+ * <p>The bytes of a block are either a copy read from the file, or a slice of a {@link
+ * MappedDataFile}, in which case the block is a view over the mapping. A block written behind a
+ * {@link BlockCompression} header is decompressed into a copy first, unless it is stored as is.
+ */
+public abstract class Block implements Iterable<Data> {
+
+  /** Decodes a block of records sorted by key. */
+  public static Block decode(byte[] data) {
+    return decode(ByteBuffer.wrap(data));
+  }
+
+  /**
+   * Decodes the block held by data, from position 0 to its limit. The header of the block, if any,
+   * tells its kind, else the block is a {@link RecordBlock}.
+   */
+  public static Block decode(ByteBuffer data) {
+    if (!BlockCompression.isFramed(data)) return RecordBlock.wrap(data);
+    boolean prefixEncoded = BlockCompression.isPrefixEncoded(data);
+    boolean sequenced = BlockCompression.isSequenced(data);
+    ByteBuffer content = BlockCompression.decompress(data);
+    return prefixEncoded ? PrefixBlock.wrap(content, sequenced) : RecordBlock.wrap(content);
+  }
+
+  public abstract int getRecordCount();
+
+  /** Returns the record of key, which may be a tombstone, or null if the block has no such key. */
+  public Data get(String key) {
+    return get(key, Long.MAX_VALUE);
+  }
+
+  /**
+   * Returns the newest version of key whose sequence is at most sequence, or null if the block has
+   * no such version. The records of blocks written without sequences have sequence 0.
+   */
+  public abstract Data get(String key, long sequence);
+
+  /** Memory held by the block, as charged to a block cache. */
+  public abstract int getSizeInBytes();
+
+  /**
+   * Iterates over the records of the block, tombstones included, sorted by key, and the versions of
+   * a key from newest to oldest.
+   */
+  @Override
+  public abstract Iterator<Data> iterator();
+}
@@ -0,0 +1,35 @@
+package toydb.datafile;
+
+/**
+ * Compresses the data blocks of an SSTable, see {@link BlockCompression} for the built-in codecs
+ * and for the layout of a compressed block. Implementations must be thread safe : a codec is
+ * shared by all the SSTables of a DB.
+ */
+public interface BlockCodec {
+
+  /**
+   * Identifies the codec in the header of every block it compressed, from 1 to 255. Once blocks
+   * have been written with an id, the id must keep meaning the same codec.
+   */
+  int getId();
+
+  String getName();
+
+  /** Upper bound of the size of length bytes once compressed. */
+  int maxCompressedLength(int length);
+
+  /**
+   * Compresses src[srcOffset, srcOffset + length) into dst, which holds at least {@link
+   * #maxCompressedLength(int)} bytes from dstOffset.
+   *
+   * @return the number of bytes written to dst
+   */
+  int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset);
+
+  /**
+   * Decompresses src[srcOffset, srcOffset + length) into exactly dstLength bytes of dst.
+   *
+   * @throws IllegalArgumentException if src is not a valid compressed block of dstLength bytes
+   */
+  void decompress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int dstLength);
+}
@@ -0,0 +1,186 @@
+package toydb.datafile;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Layout of the framed blocks : all the blocks written by {@link toydb.index.SSTableBuilder}, and
+ * the compressed blocks of records of the SSTables of older versions. Also the registry of the
+ * codecs by id.
+ *
+ * <p>A framed block is not padded, and starts with a header :
+ *
+ * <pre>
+ *   byte 0 | byte flags | varint stored length | varint content length | stored bytes
+ * </pre>
+ *
+ * <p>The low 6 bits of the flags are the id of the codec which compressed the content, or 0 if the
+ * content is stored as is : either no codec was given, or the content did not shrink. The high bit
+ * is set if the content is a {@link PrefixBlock}, else it is a sequence of records. The next bit is
+ * set if the records of the prefix block carry sequence numbers.
+ *
+ * <p>A block of records written by older versions without a codec is not framed, and never starts
+ * with a 0 byte (see {@link RecordCodec}), so readers tell both kinds of blocks apart from their
+ * first byte.
+ */
+public final class BlockCompression {
+
+  public static final BlockCodec DEFLATE = new DeflateCodec();
+  public static final BlockCodec LZ4 = new Lz4Codec();
+
+  /** Two bytes, and two varints of at most 5 bytes each. */
+  public static final int MAX_HEADER_SIZE = 12;
+
+  private static final byte MARKER = 0;
+  private static final int STORED = 0;
+  private static final int CODEC_ID_MASK = 0x3F;
+  private static final int SEQUENCED = 0x40;
+  private static final int PREFIX_ENCODED = 0x80;
+
+  private static final Map<Integer, BlockCodec> codecs = new ConcurrentHashMap<>();
+
+  static {
+    register(DEFLATE);
+    register(LZ4);
+  }
+
+  private BlockCompression() {}
+
+  /** Makes the blocks compressed by codec readable. */
+  public static void register(BlockCodec codec) {
+    int id = codec.getId();
+    if (id <= STORED || id > CODEC_ID_MASK) {
+      throw new IllegalArgumentException("Invalid codec id " + id);
+    }
+    BlockCodec registered = codecs.putIfAbsent(id, codec);
+    if (registered != null && registered != codec) {
+      throw new IllegalArgumentException("Codec id " + id + " is taken by " + registered.getName());
+    }
+  }
+
+  /** Upper bound of the size of the framed block of length bytes compressed by codec. */
+  public static int maxFramedSize(BlockCodec codec, int length) {
+    if (codec == null) return MAX_HEADER_SIZE + length;
+    return MAX_HEADER_SIZE + Math.max(length, codec.maxCompressedLength(length));
+  }
+
+  /**
+   * Appends the header followed by the bytes of block[0, length), compressed by codec, to out, e.g.
+   * to a direct buffer reused for every block of a file.
+   *
+   * @param codec null to store the bytes as is
+   * @param prefixEncoded whether the block is a {@link PrefixBlock}, else a sequence of records
+   * @param sequenced whether the records of the {@link PrefixBlock} carry sequence numbers
+   * @param scratch reused to compress the block, holds at least {@link
+   *     BlockCodec#maxCompressedLength} bytes if codec is not null
+   * @param out holds at least {@link #maxFramedSize} remaining bytes
+   * @return the size of the framed block
+   */
+  public static int compress(
+      BlockCodec codec,
+      byte[] block,
+      int length,
+      boolean prefixEncoded,
+      boolean sequenced,
+      byte[] scratch,
+      ByteBuffer out) {
+    byte[] stored = block;
+    int storedLength = length;
+    int codecId = STORED;
+    if (codec != null) {
+      int compressedLength = codec.compress(block, 0, length, scratch, 0);
+      if (compressedLength < length) {
+        stored = scratch;
+        storedLength = compressedLength;
+        codecId = codec.getId();
+      }
+    }
+
+    int start = out.position();
+    putHeader(out, codecId, prefixEncoded, sequenced, storedLength, length);
+    out.put(stored, 0, storedLength);
+    return out.position() - start;
+  }
+
+  private static void putHeader(
+      ByteBuffer out,
+      int codecId,
+      boolean prefixEncoded,
+      boolean sequenced,
+      int storedLength,
+      int length) {
+    out.put(MARKER);
+    int flags = codecId | (prefixEncoded ? PREFIX_ENCODED : 0) | (sequenced ? SEQUENCED : 0);
+    out.put((byte) flags);
+    RecordCodec.putVarInt(out, storedLength);
+    RecordCodec.putVarInt(out, length);
+  }
+
+  /** Whether the block held by data, from position 0, starts with a header. */
+  public static boolean isFramed(ByteBuffer data) {
+    return data.limit() > 0 && data.get(0) == MARKER;
+  }
+
+  /** Whether the framed block held by data, from position 0, is a {@link PrefixBlock}. */
+  public static boolean isPrefixEncoded(ByteBuffer data) {
+    return (data.get(1) & PREFIX_ENCODED) != 0;
+  }
+
+  /** Whether the records of the framed block held by data, from position 0, carry sequences. */
+  public static boolean isSequenced(ByteBuffer data) {
+    return (data.get(1) & SEQUENCED) != 0;
+  }
+
+  /**
+   * Returns the total size of the framed block at the position of src, header included,
+   * without moving the position, or -1 if src does not hold the whole header.
+   */
+  public static int peekBlockSize(ByteBuffer src) {
+    ByteBuffer header = src.duplicate();
+    try {
+      if (header.get() != MARKER) throw new IllegalArgumentException("Not a framed block");
+      header.get();
+      int compressedLength = RecordCodec.getVarInt(header);
+      RecordCodec.getVarInt(header);
+      return header.position() - src.position() + compressedLength;
+    } catch (BufferUnderflowException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Decompresses the framed block held by data, from position 0 to its limit.
+   *
+   * @return the content of the block, from position 0, a slice of data if it is stored as is
+   */
+  public static ByteBuffer decompress(ByteBuffer data) {
+    ByteBuffer bb = data.duplicate();
+    bb.position(1);
+    int codecId = bb.get() & CODEC_ID_MASK;
+    int compressedLength = RecordCodec.getVarInt(bb);
+    int length = RecordCodec.getVarInt(bb);
+    if (compressedLength != bb.remaining()) {
+      throw new IllegalArgumentException("Framed block of unexpected size " + bb.remaining());
+    }
+    if (codecId == STORED) return bb.slice();
+
+    BlockCodec codec = codecs.get(codecId);
+    if (codec == null) throw new IllegalArgumentException("Unknown codec id " + codecId);
+    byte[] src;
+    int srcOffset;
+    if (bb.hasArray()) {
+      src = bb.array();
+      srcOffset = bb.arrayOffset() + bb.position();
+    } else {
+      // a block of a mapped data file
+      src = new byte[compressedLength];
+      bb.get(src);
+      srcOffset = 0;
+    }
+    byte[] block = new byte[length];
+    codec.decompress(src, srcOffset, compressedLength, block, 0, length);
+    return ByteBuffer.wrap(block);
+  }
+}
@@ -0,0 +1,72 @@
+package toydb.datafile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import toydb.common.CloseableIterator;
+import toydb.toydb.Data;
+
+/**
+ * Iterates over the records of a {@link DataFile} whose blocks are framed (see {@link
+ * BlockCompression}), compressed or prefix encoded, starting at the block at a given location.
+ * Blocks are read and decoded one at a time, using the size recorded in their header.
+ */
+public class BlockIterator implements CloseableIterator<Data> {
+
+  private DataFile f;
+  private long fileSize;
+  private long blockLocation;
+  private Iterator<Data> records = Collections.emptyIterator();
+  private ByteBuffer header = ByteBuffer.allocate(BlockCompression.MAX_HEADER_SIZE);
+
+  public BlockIterator(DataFile f, long blockLocation) {
+    this.f = f;
+    this.blockLocation = blockLocation;
+    try {
+      this.fileSize = f.getFileSize();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (!records.hasNext() && blockLocation < fileSize) readNextBlock();
+    return records.hasNext();
+  }
+
+  @Override
+  public Data next() {
+    if (!hasNext()) throw new NoSuchElementException();
+    return records.next();
+  }
+
+  private void readNextBlock() {
+    try {
+      header.clear();
+      f.read(blockLocation, header);
+      header.flip();
+      int blockSize = BlockCompression.peekBlockSize(header);
+      if (blockSize < 0 || blockLocation + blockSize > fileSize) {
+        throw new IOException("Truncated block at location " + blockLocation);
+      }
+      records = f.readBlock(blockLocation, blockSize).iterator();
+      blockLocation += blockSize;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Closes the data file this iterator reads from. */
+  @Override
+  public void close() {
+    try {
+      f.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
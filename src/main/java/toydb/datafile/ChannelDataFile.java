@@ -0,0 +1,107 @@
+package toydb.datafile;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A read only view of a finished data file, shared by all its readers : blocks are read with
+ * positional {@link FileChannel} reads, which keep no file pointer, so that any number of threads
+ * read through the same channel concurrently, without a lock and without opening the file.
+ *
+ * <p>A FileChannel is closed when a thread blocked in one of its reads is interrupted, which would
+ * fail the reads of all the other threads. The channel is then reopened : the interrupted reader
+ * gets its {@link ClosedByInterruptException}, and the other readers retry on the new channel.
+ *
+ * <p>The read path takes no monitor, so that virtual threads blocked in a read do not pin their
+ * carrier thread beyond the read itself.
+ */
+public class ChannelDataFile implements Closeable {
+
+  private final Path path;
+  private final ReentrantLock reopenLock = new ReentrantLock();
+  private volatile FileChannel channel;
+  private volatile boolean closed = false;
+
+  private ChannelDataFile(Path path) throws IOException {
+    this.path = path;
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+  }
+
+  public static ChannelDataFile open(String filePath) throws IOException {
+    return new ChannelDataFile(Paths.get(filePath));
+  }
+
+  public long getFileSize() throws IOException {
+    return channel.size();
+  }
+
+  /** Reads and decodes the block of size bytes starting at location, compressed or not. */
+  public Block readBlock(long location, int size) throws IOException {
+    byte[] data = new byte[size];
+    if (read(location, ByteBuffer.wrap(data)) < size) {
+      throw new EOFException("Unexpected end of file at location " + location);
+    }
+    return Block.decode(data);
+  }
+
+  /**
+   * Reads the bytes of the file starting at location into the remaining space of dst, stopping
+   * early at the end of the file. Can be called by any number of threads concurrently.
+   *
+   * @return the number of bytes read
+   */
+  public int read(long location, ByteBuffer dst) throws IOException {
+    int totalRead = 0;
+    while (dst.hasRemaining()) {
+      FileChannel current = channel;
+      int read;
+      try {
+        read = current.read(dst, location + totalRead);
+      } catch (ClosedByInterruptException e) {
+        // this reader was interrupted, and closed the channel of all the readers
+        reopen(current);
+        throw e;
+      } catch (ClosedChannelException e) {
+        // closed by the interrupt of another reader, AsynchronousCloseException included
+        if (closed) throw e;
+        reopen(current);
+        continue;
+      }
+      if (read < 0) break;
+      totalRead += read;
+    }
+    return totalRead;
+  }
+
+  /** Replaces the channel closed by an interrupt, unless another reader already replaced it. */
+  private void reopen(FileChannel closedChannel) throws IOException {
+    reopenLock.lock();
+    try {
+      if (!closed && channel == closedChannel) {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+      }
+    } finally {
+      reopenLock.unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    reopenLock.lock();
+    try {
+      closed = true;
+      channel.close();
+    } finally {
+      reopenLock.unlock();
+    }
+  }
+}
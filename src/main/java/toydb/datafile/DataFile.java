@@ -1,113 +1,124 @@
 package toydb.datafile;
 
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Iterator;
 import toydb.toydb.Data;
 
 /**
- * Data or payload to the file will be written in the following format :
- * size_in_bytes_of_the_payload followed by the payload
+ * Data or payload to the file will be written as a sequence of records, each record being encoded
+ * by {@link RecordCodec} : the varint lengths of the key and of the value, followed by their UTF-8
+ * bytes.
  *
- * <p>The first two bytes would represent the size in bytes [say N] of the payload, and the next N
- * bytes would represent the actual payload.
+ * <p>Records are appended one by one ({@link #write}). The data files of SSTables are written by
+ * {@link toydb.index.SSTableBuilder}, and read back block by block : framed blocks (see {@link
+ * BlockCompression}), or, in the SSTables of older versions, blocks of records of BLOCK_SIZE bytes,
+ * padded with zeros after their last record.
  *
- * <p>In two bytes, we can represent a length of upto 2^16-1, which is 65,535. [Determine what is
- * the max total size of key+val that we can support].
+ * <p>Reads are positional, and never move the file pointer : writes are plain sequential writes at
+ * the end of the file, even when reads are interleaved with them.
  */
 public class DataFile implements Iterable<Data>, Closeable {
 
-  private static final int BLOCK_SIZE_IN_BYTES = 4 * 1024; // 4KB
-  private int currBlockStartPointerInFile = 0;
-  private ByteBuffer bb= ByteBuffer.allocate(BLOCK_SIZE_IN_BYTES);
+  public static final int BLOCK_SIZE_IN_BYTES = 4 * 1024; // 4KB
+  // reused by write(), grown when a record does not fit
+  private ByteBuffer recordBuffer = ByteBuffer.allocate(256);
+  // location of the next record appended by write()
+  private long appendOffset;
   private String dataFilePath;
 
   private RandomAccessFile file;
 
   public DataFile(String filePath) throws FileNotFoundException {
+    this(filePath, false);
+  }
+
+  /** A read only data file is never created, and can not be written to. */
+  public DataFile(String filePath, boolean readOnly) throws FileNotFoundException {
     this.dataFilePath = filePath;
-    this.file = new RandomAccessFile(dataFilePath, "rw");
+    this.file = new RandomAccessFile(dataFilePath, readOnly ? "r" : "rw");
+    if (!readOnly) {
+      try {
+        appendOffset = file.length();
+        file.seek(appendOffset);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
   }
 
   /**
-   * Writes data to the underlying file. This method buffers the writes in memory, and actually flushes them on the file
-   * only when the size of the block reaches BLOCK_SIZE.
+   * Appends a single record at the end of the file, with one sequential write.
    *
-   * @param d
-   * @return The pointer starting which the data was written. This should later be used for querying
-   *     the data.
-   * @throws IOException
+   * @return the location of the record
    */
-  public long writeInBlocks(Data d) throws IOException {
-    byte[] payload = d.serialize();
-
-    // If addition of this key can cause the block to overflow, flush this block to disk, and create a new block, to
-    // which this new data will be written.
-    int addressOfCurrBlock = -1;
-    if(causesBlockOverflow(payload.length)){
-      file.write(bb.array());
-      bb = ByteBuffer.allocate(BLOCK_SIZE_IN_BYTES);
-      currBlockStartPointerInFile += BLOCK_SIZE_IN_BYTES;
+  public long write(Data d) throws IOException {
+    int recordSize = RecordCodec.encodedSize(d.getKey(), d.getValue());
+    if (recordBuffer.capacity() < recordSize) {
+      recordBuffer = ByteBuffer.allocate(Math.max(recordSize, 2 * recordBuffer.capacity()));
     }
+    recordBuffer.clear();
+    RecordCodec.encode(d.getKey(), d.getValue(), recordBuffer);
 
-    // If a new ByteBuffer has been created, the new block's start address needs to be returned
-    if(bb.position() == 0){
-      addressOfCurrBlock = currBlockStartPointerInFile;
-    }
-    writeToByteBuffer(payload);
-    return addressOfCurrBlock;
+    long appendLocation = appendOffset;
+    file.write(recordBuffer.array(), 0, recordSize);
+    appendOffset += recordSize;
+    return appendLocation;
   }
 
-  private void writeToByteBuffer(byte[] payload){
-    short payloadSize = (short) payload.length;
-    byte payloadSizeByteFirst = (byte) (payloadSize & 0xFF00);
-    byte payloadSizeByteSecond = (byte) (payloadSize & 0x00FF);
-    bb.put(payloadSizeByteFirst).put(payloadSizeByteSecond).put(payload);
+  public Data read(long location) throws IOException {
+    return RecordCodec.decode(ByteBuffer.wrap(readBytes(location)));
   }
 
-  public long write(Data d) throws IOException {
-    byte[] payload = d.serialize();
-    long appendLocation = file.length();
-    file.seek(appendLocation);
-    ByteBuffer byteBuffer = ByteBuffer.allocate(2 + payload.length);
-    short payloadSize = (short) payload.length;
-
-    byte payloadSizeByteFirst = (byte) (payloadSize & 0xFF00);
-    byte payloadSizeByteSecond = (byte) (payloadSize & 0x00FF);
-
-    byteBuffer.put(0, payloadSizeByteFirst);
-    byteBuffer.put(1, payloadSizeByteSecond);
-    byteBuffer.put(2, payload);
-    file.write(byteBuffer.array());
-    return appendLocation;
-  }
+  /** Returns the encoded bytes of the record starting at location. */
+  public byte[] readBytes(long location) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(RecordCodec.MAX_HEADER_SIZE);
+    read(location, header);
+    header.flip();
 
-  public Data read(long location) throws IOException {
-    byte[] payload = readBytes(location);
+    int recordSize = RecordCodec.peekRecordSize(header);
+    if (recordSize < 0) throw new IOException("Truncated record at location " + location);
 
-    Data d = new Data();
-    d.deserialize(payload);
-    return d;
+    byte[] record = new byte[recordSize];
+    readFully(location, ByteBuffer.wrap(record));
+    return record;
   }
 
-  private boolean causesBlockOverflow(int payloadLength){
-    return (bb.position() + (2 + payloadLength)) > bb.capacity();
+  /** Reads and decodes the block of size bytes starting at location, compressed or not. */
+  public Block readBlock(long location, int size) throws IOException {
+    byte[] data = new byte[size];
+    readFully(location, ByteBuffer.wrap(data));
+    return Block.decode(data);
   }
 
-  public byte[] readBytes(long location) throws IOException {
-    file.seek(location);
-    byte[] payloadSizeArr = new byte[2];
-    file.read(payloadSizeArr);
-
-    short payloadSize = (short) (payloadSizeArr[0] | payloadSizeArr[1]);
-    byte[] payload = new byte[payloadSize];
-    file.seek(location + 2);
-    file.read(payload);
+  /**
+   * Reads the bytes of the file starting at location into the remaining space of dst, stopping
+   * early at the end of the file.
+   *
+   * @return the number of bytes read
+   */
+  public int read(long location, ByteBuffer dst) throws IOException {
+    FileChannel channel = file.getChannel();
+    int totalRead = 0;
+    while (dst.hasRemaining()) {
+      int read = channel.read(dst, location + totalRead);
+      if (read < 0) break;
+      totalRead += read;
+    }
+    return totalRead;
+  }
 
-    return payload;
+  private void readFully(long location, ByteBuffer dst) throws IOException {
+    int size = dst.remaining();
+    if (read(location, dst) < size) {
+      throw new EOFException("Unexpected end of file at location " + location);
+    }
   }
 
   public Iterator<Data> iterator() {
@@ -122,9 +133,29 @@ public class DataFile implements Iterable<Data>, Closeable {
     return file.length();
   }
 
+  /** Location of the next record appended by {@link #write}. */
+  public long getAppendOffset() {
+    return appendOffset;
+  }
+
+  /**
+   * Drops the bytes of the file from size on, e.g. a record torn by a crash, and appends the next
+   * records from there.
+   */
+  public void truncate(long size) throws IOException {
+    file.setLength(size);
+    file.seek(size);
+    appendOffset = size;
+  }
+
+  /** Forces all the writes to the storage device. */
+  public void sync() throws IOException {
+    file.getFD().sync();
+  }
+
   @Override
   public void close() throws IOException {
-    file.write(bb.array());
+    file.close();
   }
 
   public String getDataFilePath() {
@@ -1,48 +1,145 @@
 package toydb.datafile;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.util.Iterator;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import toydb.common.CloseableIterator;
 import toydb.toydb.Data;
 
-public class DataFileIterator implements Iterator<Data> {
+/**
+ * Iterates over the records of a {@link DataFile}, starting at a given location.
+ *
+ * <p>The file is read through a window of READ_AHEAD_SIZE bytes, and records are decoded straight
+ * from it. Zero padding at the end of a block is skipped.
+ *
+ * <p>The size of the file is read once, when the iterator is created : records appended later are
+ * not returned. Read errors are thrown as {@link UncheckedIOException}s, by hasNext() as well. A
+ * record cut short by the end of the file is thrown as an {@link EOFException}.
+ */
+public class DataFileIterator implements CloseableIterator<Data> {
+
+  private static final int READ_AHEAD_SIZE = 2 * DataFile.BLOCK_SIZE_IN_BYTES;
 
   private DataFile f;
+  private long fileSize;
   private long readLocation = 0;
 
+  // holds the bytes of the file starting at windowStart
+  private ByteBuffer window = ByteBuffer.allocate(READ_AHEAD_SIZE);
+  private long windowStart = 0;
+  // offset in the window of the record returned by the last call to nextKey()
+  private int currRecordOffset = -1;
+
   public DataFileIterator(DataFile f) {
     this.f = f;
+    try {
+      this.fileSize = f.getFileSize();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    window.limit(0);
   }
 
   public DataFileIterator(DataFile f, long readLocation) {
-    this.f = f;
+    this(f);
     this.readLocation = readLocation;
   }
 
   @Override
   public boolean hasNext() {
     try {
-      return readLocation < f.getFileSize();
-    } catch (IOException e) {
-      e.printStackTrace();
+      while (readLocation < fileSize) {
+        fill(1);
+        if (!RecordCodec.isPadding(window)) return true;
+        // skip the padding till the start of the next block
+        readLocation =
+            (readLocation / DataFile.BLOCK_SIZE_IN_BYTES + 1) * DataFile.BLOCK_SIZE_IN_BYTES;
+      }
       return false;
+    } catch (IOException e) {
+      // returning false would pass a read error off as the end of the file
+      throw new UncheckedIOException(e);
     }
   }
 
   @Override
   public Data next() {
-    Data d = new Data();
+    positionAtNextRecord();
+    int start = window.position();
+    Data d = RecordCodec.decode(window);
+    readLocation += window.position() - start;
+    return d;
+  }
+
+  /**
+   * Moves past the next record, and returns only its key. The value of that record can then be
+   * decoded with {@link #currentValue()}, without having to read it again.
+   */
+  public String nextKey() {
+    positionAtNextRecord();
+    currRecordOffset = window.position();
+    String key = RecordCodec.decodeKey(window);
+    readLocation += window.position() - currRecordOffset;
+    return key;
+  }
+
+  /** Returns the value of the record whose key was returned by the last call to nextKey(). */
+  public String currentValue() {
+    if (currRecordOffset < 0) throw new IllegalStateException("nextKey() has not been called");
+    ByteBuffer record = window.duplicate();
+    record.position(currRecordOffset);
+    return RecordCodec.decodeValue(record);
+  }
+
+  public long getReadLocation() {
+    return readLocation;
+  }
+
+  /** Closes the data file this iterator reads from. */
+  @Override
+  public void close() {
     try {
-      byte[] payload = f.readBytes(readLocation);
-      readLocation += payload.length + 2;
-      d.deserialize(payload);
+      f.close();
     } catch (IOException e) {
-      e.printStackTrace();
+      throw new UncheckedIOException(e);
     }
+  }
 
-    return d;
+  private void positionAtNextRecord() {
+    if (!hasNext()) throw new NoSuchElementException();
+    try {
+      int recordSize = RecordCodec.peekRecordSize(window);
+      if (recordSize < 0) {
+        fill(RecordCodec.MAX_HEADER_SIZE);
+        recordSize = RecordCodec.peekRecordSize(window);
+      }
+      if (recordSize < 0 || !fill(recordSize)) {
+        throw new EOFException("Truncated record at location " + readLocation);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 
-  public long getReadLocation() {
-    return readLocation;
+  /**
+   * Makes sure that the window holds at least minBytes bytes starting at readLocation (less if the
+   * file ends before), and positions the window at readLocation.
+   *
+   * @return whether the window holds minBytes bytes
+   */
+  private boolean fill(int minBytes) throws IOException {
+    long windowEnd = windowStart + window.limit();
+    if (readLocation < windowStart || readLocation + minBytes > windowEnd) {
+      if (window.capacity() < minBytes) window = ByteBuffer.allocate(minBytes);
+      window.clear();
+      f.read(readLocation, window);
+      window.flip();
+      windowStart = readLocation;
+      currRecordOffset = -1;
+    }
+    window.position((int) (readLocation - windowStart));
+    return window.remaining() >= minBytes;
   }
 }
@@ -0,0 +1,93 @@
+package toydb.datafile;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raw DEFLATE (no zlib header), from the JDK. Compresses better than {@link Lz4Codec}, but
+ * decompresses several times slower.
+ */
+public class DeflateCodec implements BlockCodec {
+
+  public static final int ID = 1;
+
+  // the inflater of decompress(), reset and reused by the blocks decompressed by the same thread
+  private static final ThreadLocal<Inflater> INFLATERS =
+      ThreadLocal.withInitial(() -> new Inflater(true));
+
+  private final int level;
+  // the deflater of compress() at this level, reset and reused by the blocks of the same thread
+  private final ThreadLocal<Deflater> deflaters;
+
+  public DeflateCodec() {
+    this(Deflater.BEST_SPEED);
+  }
+
+  /** @param level from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION} */
+  public DeflateCodec(int level) {
+    if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("Invalid deflate level " + level);
+    }
+    this.level = level;
+    this.deflaters = ThreadLocal.withInitial(() -> new Deflater(this.level, true));
+  }
+
+  @Override
+  public int getId() {
+    return ID;
+  }
+
+  @Override
+  public String getName() {
+    return "deflate";
+  }
+
+  @Override
+  public int maxCompressedLength(int length) {
+    // the bound of deflateBound() in zlib, whatever the level
+    return length + ((length + 7) >> 3) + ((length + 63) >> 6) + 5;
+  }
+
+  @Override
+  public int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+    Deflater deflater = deflaters.get();
+    try {
+      deflater.setInput(src, srcOffset, length);
+      deflater.finish();
+      int written = 0;
+      int capacity = maxCompressedLength(length);
+      while (!deflater.finished()) {
+        if (written == capacity) throw new IllegalStateException("Deflate output overflow");
+        written += deflater.deflate(dst, dstOffset + written, capacity - written);
+      }
+      return written;
+    } finally {
+      deflater.reset();
+    }
+  }
+
+  @Override
+  public void decompress(
+      byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int dstLength) {
+    Inflater inflater = INFLATERS.get();
+    try {
+      inflater.setInput(src, srcOffset, length);
+      int read = 0;
+      while (read < dstLength) {
+        int n = inflater.inflate(dst, dstOffset + read, dstLength - read);
+        if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        read += n;
+      }
+      if (read != dstLength) {
+        throw new IllegalArgumentException("Deflate block shorter than " + dstLength + " bytes");
+      }
+    } catch (DataFormatException e) {
+      throw new IllegalArgumentException("Corrupt deflate block", e);
+    } finally {
+      inflater.reset();
+    }
+  }
+}
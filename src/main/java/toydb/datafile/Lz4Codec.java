@@ -0,0 +1,185 @@
+package toydb.datafile;
+
+import java.util.Arrays;
+
+/**
+ * A pure Java implementation of the LZ4 block format : greedy matching through a hash table of the
+ * last position of every 4 byte sequence, and a decompressor which only copies bytes. It trades
+ * compression ratio for speed, decompression being much faster than with {@link DeflateCodec}.
+ *
+ * <p>A compressed block is a sequence of
+ *
+ * <pre>
+ *   token | literal length | literals | match distance | match length
+ * </pre>
+ *
+ * <p>where the high 4 bits of the token are the literal length and the low 4 bits the match length
+ * minus 4, both extended by bytes of 255 and a final byte below 255 when they are 15. The match
+ * distance takes 2 bytes, little endian. The last sequence only holds literals.
+ */
+public class Lz4Codec implements BlockCodec {
+
+  public static final int ID = 2;
+
+  private static final int MIN_MATCH = 4;
+  // the last 5 bytes are always literals, and the last match starts 12 bytes before the end
+  private static final int LAST_LITERALS = 5;
+  private static final int MATCH_FIND_LIMIT = 12;
+  private static final int MAX_DISTANCE = 65_535;
+  private static final int HASH_LOG = 12;
+
+  // the hash table of compress(), reused by the blocks compressed by the same thread
+  private static final ThreadLocal<int[]> HASH_TABLES =
+      ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+
+  @Override
+  public int getId() {
+    return ID;
+  }
+
+  @Override
+  public String getName() {
+    return "lz4";
+  }
+
+  @Override
+  public int maxCompressedLength(int length) {
+    return length + length / 255 + 16;
+  }
+
+  @Override
+  public int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+    int end = srcOffset + length;
+    int matchLimit = end - LAST_LITERALS;
+    int matchFindLimit = end - MATCH_FIND_LIMIT;
+    // position + 1 of the last occurrence of every hashed sequence, 0 if none
+    int[] table = HASH_TABLES.get();
+    Arrays.fill(table, 0);
+
+    int ip = srcOffset;
+    int anchor = srcOffset;
+    int op = dstOffset;
+    while (ip < matchFindLimit) {
+      int sequence = readInt(src, ip);
+      int h = hash(sequence);
+      int ref = table[h] - 1;
+      table[h] = ip + 1;
+      if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+        ip++;
+        continue;
+      }
+
+      // extend the match backwards over the pending literals, and then forwards
+      while (ip > anchor && ref > srcOffset && src[ip - 1] == src[ref - 1]) {
+        ip--;
+        ref--;
+      }
+      int matchLength = MIN_MATCH;
+      while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+        matchLength++;
+      }
+
+      op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dst, op);
+      ip += matchLength;
+      anchor = ip;
+    }
+    return writeSequence(src, anchor, end - anchor, 0, 0, dst, op) - dstOffset;
+  }
+
+  /** Writes a sequence, or the last literals if matchLength is 0. Returns the new output offset. */
+  private static int writeSequence(
+      byte[] src,
+      int literalOffset,
+      int literalLength,
+      int matchDistance,
+      int matchLength,
+      byte[] dst,
+      int op) {
+    int tokenOffset = op++;
+    int token = Math.min(literalLength, 15) << 4;
+    if (literalLength >= 15) op = writeLengthExtension(literalLength - 15, dst, op);
+    System.arraycopy(src, literalOffset, dst, op, literalLength);
+    op += literalLength;
+
+    if (matchLength > 0) {
+      dst[op++] = (byte) matchDistance;
+      dst[op++] = (byte) (matchDistance >>> 8);
+      int extraLength = matchLength - MIN_MATCH;
+      token |= Math.min(extraLength, 15);
+      if (extraLength >= 15) op = writeLengthExtension(extraLength - 15, dst, op);
+    }
+    dst[tokenOffset] = (byte) token;
+    return op;
+  }
+
+  private static int writeLengthExtension(int length, byte[] dst, int op) {
+    while (length >= 255) {
+      dst[op++] = (byte) 255;
+      length -= 255;
+    }
+    dst[op++] = (byte) length;
+    return op;
+  }
+
+  @Override
+  public void decompress(
+      byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int dstLength) {
+    int ip = srcOffset;
+    int end = srcOffset + length;
+    int op = dstOffset;
+    int dstEnd = dstOffset + dstLength;
+    try {
+      while (true) {
+        int token = src[ip++] & 0xFF;
+        int literalLength = token >>> 4;
+        if (literalLength == 15) {
+          int b;
+          do {
+            b = src[ip++] & 0xFF;
+            literalLength += b;
+          } while (b == 255);
+        }
+        if (literalLength > end - ip || literalLength > dstEnd - op) throw corruptBlock();
+        System.arraycopy(src, ip, dst, op, literalLength);
+        ip += literalLength;
+        op += literalLength;
+        if (ip == end) break;
+
+        int distance = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+        ip += 2;
+        int matchLength = token & 0x0F;
+        if (matchLength == 15) {
+          int b;
+          do {
+            b = src[ip++] & 0xFF;
+            matchLength += b;
+          } while (b == 255);
+        }
+        matchLength += MIN_MATCH;
+        int ref = op - distance;
+        if (distance == 0 || ref < dstOffset || matchLength > dstEnd - op) throw corruptBlock();
+        // the match may overlap the bytes it produces, so it is copied byte by byte
+        for (int i = 0; i < matchLength; i++) dst[op + i] = dst[ref + i];
+        op += matchLength;
+      }
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("Corrupt LZ4 block", e);
+    }
+    if (op != dstEnd) throw corruptBlock();
+  }
+
+  private static IllegalArgumentException corruptBlock() {
+    return new IllegalArgumentException("Corrupt LZ4 block");
+  }
+
+  private static int readInt(byte[] b, int i) {
+    return (b[i] & 0xFF)
+        | (b[i + 1] & 0xFF) << 8
+        | (b[i + 2] & 0xFF) << 16
+        | (b[i + 3] & 0xFF) << 24;
+  }
+
+  private static int hash(int sequence) {
+    return (sequence * -1_640_531_535) >>> (32 - HASH_LOG);
+  }
+}
@@ -0,0 +1,134 @@
+package toydb.datafile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import toydb.common.CloseableIterator;
+import toydb.toydb.Data;
+
+/**
+ * A read only view of a finished data file, memory mapped in one piece. Blocks and records are read
+ * straight from the mapping, without any system call or copy : {@link #readBlock} returns a {@link
+ * Block} over a slice of the mapping, and {@link #blockIterator} decodes the framed blocks of the
+ * file one at a time from it.
+ *
+ * <p>A single mapping is limited to {@link #MAX_MAPPED_SIZE} bytes. Larger files must be read
+ * through a {@link DataFile}.
+ *
+ * <p>The mapping is released by the garbage collector once the MappedDataFile is no longer
+ * referenced, so the file can be deleted while it is still mapped.
+ */
+public class MappedDataFile {
+
+  public static final long MAX_MAPPED_SIZE = Integer.MAX_VALUE;
+
+  private MappedByteBuffer mapping;
+
+  private MappedDataFile(MappedByteBuffer mapping) {
+    this.mapping = mapping;
+  }
+
+  /** @return the mapped file, or null if the file is too large to be mapped in one piece */
+  public static MappedDataFile map(String filePath) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > MAX_MAPPED_SIZE) return null;
+      return new MappedDataFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+    }
+  }
+
+  public long getFileSize() {
+    return mapping.capacity();
+  }
+
+  /** The block of size bytes starting at location, decoded over the mapping without a copy. */
+  public Block readBlock(long location, int size) {
+    return Block.decode(slice(location, size));
+  }
+
+  /** The record starting at location. */
+  public Data read(long location) {
+    ByteBuffer record = mapping.duplicate();
+    record.position((int) location);
+    return RecordCodec.decode(record);
+  }
+
+  private ByteBuffer slice(long location, int size) {
+    ByteBuffer view = mapping.duplicate();
+    view.position((int) location);
+    view.limit((int) location + size);
+    return view.slice();
+  }
+
+  /** Iterates over the records of the file starting at location, skipping the block padding. */
+  public CloseableIterator<Data> iterator(long location) {
+    ByteBuffer view = mapping.duplicate();
+    view.position((int) location);
+
+    return new CloseableIterator<Data>() {
+      @Override
+      public boolean hasNext() {
+        while (view.hasRemaining() && RecordCodec.isPadding(view)) {
+          // skip the padding till the start of the next block
+          int nextBlock =
+              (view.position() / DataFile.BLOCK_SIZE_IN_BYTES + 1) * DataFile.BLOCK_SIZE_IN_BYTES;
+          view.position(Math.min(nextBlock, view.limit()));
+        }
+        return view.hasRemaining();
+      }
+
+      @Override
+      public Data next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return RecordCodec.decode(view);
+      }
+
+      @Override
+      public void close() {}
+    };
+  }
+
+  /**
+   * Iterates over the records of the framed blocks of the file (see {@link BlockCompression}),
+   * starting at the block at location. Every block is decoded over a slice of the mapping, using
+   * the size recorded in its header.
+   */
+  public CloseableIterator<Data> blockIterator(long location) {
+    return new CloseableIterator<Data>() {
+      private long blockLocation = location;
+      private Iterator<Data> records = Collections.emptyIterator();
+
+      @Override
+      public boolean hasNext() {
+        while (!records.hasNext() && blockLocation < mapping.capacity()) {
+          ByteBuffer view = mapping.duplicate();
+          view.position((int) blockLocation);
+          int blockSize = BlockCompression.peekBlockSize(view);
+          if (blockSize < 0 || blockLocation + blockSize > mapping.capacity()) {
+            throw new UncheckedIOException(
+                new IOException("Truncated block at location " + blockLocation));
+          }
+          records = readBlock(blockLocation, blockSize).iterator();
+          blockLocation += blockSize;
+        }
+        return records.hasNext();
+      }
+
+      @Override
+      public Data next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return records.next();
+      }
+
+      @Override
+      public void close() {}
+    };
+  }
+}
@@ -0,0 +1,176 @@
+package toydb.datafile;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import toydb.toydb.Data;
+
+/**
+ * A block built by {@link PrefixBlockBuilder}, whose keys are prefix compressed. Format :
+ *
+ * <pre>
+ *   record count x ( varint shared | varint unshared | varint value field | unshared key bytes
+ *                    | value bytes )
+ *   restart count x int restart offset | int restart count | int record count
+ * </pre>
+ *
+ * <p>where shared is the length of the prefix of the key shared with the previous key, and the
+ * value field is 0 for a tombstone, else the length of the value + 1 as in {@link RecordCodec}. A
+ * restart point is a record whose key is not prefix compressed. In a sequenced block, the value
+ * field is followed by the varlong sequence number of the record, and the versions of a key follow
+ * each other, newest first.
+ *
+ * <p>Decoding a block only reads its trailer. A lookup binary searches the keys of the restart
+ * points, and then walks the records of one restart interval, comparing the key bytes without
+ * decoding them : only the value of the record found is decoded.
+ */
+public class PrefixBlock extends Block {
+
+  private static final int TRAILER_SIZE = 8;
+
+  // the block starts at position 0
+  private ByteBuffer data;
+  private int restartsOffset;
+  private int restartCount;
+  private int recordCount;
+  private boolean sequenced;
+
+  private PrefixBlock(
+      ByteBuffer data, int restartsOffset, int restartCount, int recordCount, boolean sequenced) {
+    this.data = data;
+    this.sequenced = sequenced;
+    this.restartsOffset = restartsOffset;
+    this.restartCount = restartCount;
+    this.recordCount = recordCount;
+  }
+
+  /** Decodes the trailer of the block held by data, from position 0 to its limit. */
+  static PrefixBlock wrap(ByteBuffer data, boolean sequenced) {
+    int limit = data.limit();
+    if (limit < TRAILER_SIZE) throw new IllegalArgumentException("Truncated prefix block");
+    int restartCount = data.getInt(limit - TRAILER_SIZE);
+    int recordCount = data.getInt(limit - 4);
+    int restartsOffset = limit - TRAILER_SIZE - 4 * restartCount;
+    if (restartCount < 0
+        || restartsOffset < 0
+        || recordCount < restartCount
+        || (restartCount == 0) != (recordCount == 0)) {
+      throw new IllegalArgumentException("Corrupt prefix block trailer");
+    }
+    return new PrefixBlock(data, restartsOffset, restartCount, recordCount, sequenced);
+  }
+
+  @Override
+  public int getRecordCount() {
+    return recordCount;
+  }
+
+  @Override
+  public Data get(String key, long sequence) {
+    // the last restart point whose key is smaller than or equal to key
+    int low = 0;
+    int high = restartCount - 1;
+    int restart = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = restartKey(mid).compareTo(key);
+      if (cmp < 0) {
+        restart = mid;
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        restart = mid;
+        break;
+      }
+    }
+    if (restart < 0) return null;
+
+    byte[] target = key.getBytes(StandardCharsets.UTF_8);
+    int end = restart + 1 < restartCount ? restartOffset(restart + 1) : restartsOffset;
+    ByteBuffer bb = data.duplicate();
+    bb.position(restartOffset(restart));
+    // length of the prefix shared by the current key and the target
+    int matched = 0;
+    while (bb.position() < end) {
+      int shared = RecordCodec.getVarInt(bb);
+      int unshared = RecordCodec.getVarInt(bb);
+      int valueField = RecordCodec.getVarInt(bb);
+      long seq = sequenced ? RecordCodec.getVarLong(bb) : 0;
+      int keyStart = bb.position();
+      int keyLength = shared + unshared;
+      // a key which does not extend the matched prefix differs from the target where the previous
+      // key did
+      if (matched >= shared) {
+        matched = shared;
+        while (matched < keyLength
+            && matched < target.length
+            && bb.get(keyStart + matched - shared) == target[matched]) {
+          matched++;
+        }
+      }
+      bb.position(keyStart + unshared);
+      // the next versions of the key, if any, are older
+      if (matched == keyLength && keyLength == target.length && seq <= sequence) {
+        if (valueField == 0) return Data.tombstone(key, seq);
+        return new Data(key, RecordCodec.getUtf8(bb, valueField - 1), seq);
+      }
+      bb.position(keyStart + unshared + RecordCodec.valueLength(valueField));
+    }
+    return null;
+  }
+
+  @Override
+  public int getSizeInBytes() {
+    return data.limit();
+  }
+
+  @Override
+  public Iterator<Data> iterator() {
+    return new Iterator<Data>() {
+      private ByteBuffer bb = positionedAt(0);
+      private byte[] key = new byte[64];
+
+      @Override
+      public boolean hasNext() {
+        return bb.position() < restartsOffset;
+      }
+
+      @Override
+      public Data next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        int shared = RecordCodec.getVarInt(bb);
+        int unshared = RecordCodec.getVarInt(bb);
+        int valueField = RecordCodec.getVarInt(bb);
+        long seq = sequenced ? RecordCodec.getVarLong(bb) : 0;
+        if (shared + unshared > key.length) key = Arrays.copyOf(key, 2 * (shared + unshared));
+        bb.get(key, shared, unshared);
+        String k = new String(key, 0, shared + unshared, StandardCharsets.UTF_8);
+        if (valueField == 0) return Data.tombstone(k, seq);
+        return new Data(k, RecordCodec.getUtf8(bb, valueField - 1), seq);
+      }
+    };
+  }
+
+  private int restartOffset(int i) {
+    return data.getInt(restartsOffset + 4 * i);
+  }
+
+  /** The key of a restart point, which shares no prefix with the previous key. */
+  private String restartKey(int i) {
+    ByteBuffer bb = positionedAt(restartOffset(i));
+    RecordCodec.getVarInt(bb);
+    int keyLength = RecordCodec.getVarInt(bb);
+    RecordCodec.getVarInt(bb);
+    if (sequenced) RecordCodec.getVarLong(bb);
+    return RecordCodec.getUtf8(bb, keyLength);
+  }
+
+  private ByteBuffer positionedAt(int offset) {
+    ByteBuffer bb = data.duplicate();
+    bb.position(offset);
+    return bb;
+  }
+}
@@ -0,0 +1,157 @@
+package toydb.datafile;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Builds a {@link PrefixBlock} from records added in increasing order of their keys. Every key is
+ * written as the length of the prefix it shares with the previous key, followed by the rest of its
+ * bytes, except every RESTART_INTERVAL records : a restart point holds its whole key, so that a
+ * lookup can binary search the restart points and then decode a few records only.
+ *
+ * <p>A sequenced builder also writes the sequence number of every record, and takes several
+ * versions of a key, newest first. A restart point is then delayed past the versions of the
+ * previous key, so that all the versions of a key are in the restart interval of the first one.
+ *
+ * <p>The builder is reused for the next block once {@link #reset} is called.
+ */
+public class PrefixBlockBuilder {
+
+  public static final int RESTART_INTERVAL = 16;
+
+  // varints of the shared length, of the unshared length and of the value field
+  private static final int MAX_ENTRY_HEADER_SIZE = 15;
+  private static final int MAX_SEQUENCE_SIZE = 10;
+  private static final int TRAILER_SIZE = 8;
+
+  private final boolean sequenced;
+  private ByteBuffer buffer = ByteBuffer.allocate(DataFile.BLOCK_SIZE_IN_BYTES);
+  private int[] restarts = new int[16];
+  private int restartCount = 0;
+  private int recordCount = 0;
+  // records added since the last restart point
+  private int sinceRestart = 0;
+  private byte[] lastKey = new byte[0];
+
+  public PrefixBlockBuilder() {
+    this(false);
+  }
+
+  /** @param sequenced whether the records carry sequence numbers */
+  public PrefixBlockBuilder(boolean sequenced) {
+    this.sequenced = sequenced;
+  }
+
+  /**
+   * Keys must be added in strictly increasing order.
+   *
+   * @param value null for a tombstone
+   */
+  public void add(String key, String value) {
+    if (sequenced) throw new IllegalStateException("The records of the block need a sequence");
+    append(key, value, 0);
+  }
+
+  /**
+   * Keys must be added in increasing order, and the versions of a key in decreasing order of
+   * their sequences.
+   *
+   * @param value null for a tombstone
+   */
+  public void add(String key, String value, long sequence) {
+    if (!sequenced) throw new IllegalStateException("The block does not hold sequences");
+    append(key, value, sequence);
+  }
+
+  private void append(String key, String value, long sequence) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    byte[] valueBytes = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    int shared = 0;
+    if (recordCount == 0
+        || (sinceRestart >= RESTART_INTERVAL && !Arrays.equals(lastKey, keyBytes))) {
+      if (restartCount == restarts.length) restarts = Arrays.copyOf(restarts, 2 * restartCount);
+      restarts[restartCount++] = buffer.position();
+      sinceRestart = 0;
+    } else {
+      int maxShared = Math.min(lastKey.length, keyBytes.length);
+      while (shared < maxShared && lastKey[shared] == keyBytes[shared]) shared++;
+    }
+
+    int unshared = keyBytes.length - shared;
+    ensureRemaining(
+        maxEntryHeaderSize() + unshared + (valueBytes == null ? 0 : valueBytes.length));
+    RecordCodec.putVarInt(buffer, shared);
+    RecordCodec.putVarInt(buffer, unshared);
+    RecordCodec.putVarInt(buffer, valueBytes == null ? 0 : valueBytes.length + 1);
+    if (sequenced) RecordCodec.putVarLong(buffer, sequence);
+    buffer.put(keyBytes, shared, unshared);
+    if (valueBytes != null) buffer.put(valueBytes);
+    lastKey = keyBytes;
+    recordCount++;
+    sinceRestart++;
+  }
+
+  public boolean isSequenced() {
+    return sequenced;
+  }
+
+  private int maxEntryHeaderSize() {
+    return sequenced ? MAX_ENTRY_HEADER_SIZE + MAX_SEQUENCE_SIZE : MAX_ENTRY_HEADER_SIZE;
+  }
+
+  /**
+   * Size of the block, once finished, if a record of key and value was added to it. Shared
+   * prefixes are not accounted for, so the size is an upper bound.
+   */
+  public int sizeWith(String key, String value) {
+    int entrySize =
+        maxEntryHeaderSize()
+            + RecordCodec.utf8Length(key)
+            + (value == null ? 0 : RecordCodec.utf8Length(value));
+    return getSizeInBytes() + entrySize + 4;
+  }
+
+  /** Size of the block, once finished. */
+  public int getSizeInBytes() {
+    return buffer.position() + 4 * restartCount + TRAILER_SIZE;
+  }
+
+  public boolean isEmpty() {
+    return recordCount == 0;
+  }
+
+  /**
+   * Appends the restart points and the trailer to the records.
+   *
+   * @return the bytes of the block, from position 0 to the limit, valid until {@link #reset}
+   */
+  public ByteBuffer finish() {
+    ensureRemaining(4 * restartCount + TRAILER_SIZE);
+    for (int i = 0; i < restartCount; i++) buffer.putInt(restarts[i]);
+    buffer.putInt(restartCount);
+    buffer.putInt(recordCount);
+    ByteBuffer block = buffer.duplicate();
+    block.flip();
+    return block;
+  }
+
+  /** Starts a new block. */
+  public void reset() {
+    if (buffer.capacity() == DataFile.BLOCK_SIZE_IN_BYTES) buffer.clear();
+    else buffer = ByteBuffer.allocate(DataFile.BLOCK_SIZE_IN_BYTES);
+    restartCount = 0;
+    recordCount = 0;
+    sinceRestart = 0;
+    lastKey = new byte[0];
+  }
+
+  private void ensureRemaining(int size) {
+    if (buffer.remaining() >= size) return;
+    ByteBuffer grown =
+        ByteBuffer.allocate(Math.max(buffer.position() + size, 2 * buffer.capacity()));
+    buffer.flip();
+    grown.put(buffer);
+    buffer = grown;
+  }
+}
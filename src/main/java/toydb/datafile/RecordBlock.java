@@ -0,0 +1,108 @@
+package toydb.datafile;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import toydb.toydb.Data;
+
+/**
+ * A block of the SSTables of older versions : its records one after the other, followed by zero
+ * padding unless the block was compressed. The start of every record is found up front, and
+ * records are found by a binary search on their keys.
+ *
+ * <p>Only the record boundaries are decoded up front. Keys and values are decoded from the bytes of
+ * the block when they are looked at.
+ */
+public class RecordBlock extends Block {
+
+  // the block starts at position 0
+  private ByteBuffer data;
+  private int[] recordOffsets;
+
+  private RecordBlock(ByteBuffer data, int[] recordOffsets) {
+    this.data = data;
+    this.recordOffsets = recordOffsets;
+  }
+
+  /** Decodes the record boundaries of the records held by data, from position 0 to its limit. */
+  static RecordBlock wrap(ByteBuffer data) {
+    ByteBuffer bb = data.duplicate();
+    bb.position(0);
+    int[] offsets = new int[16];
+    int count = 0;
+    while (bb.hasRemaining() && !RecordCodec.isPadding(bb)) {
+      int recordSize = RecordCodec.peekRecordSize(bb);
+      if (recordSize < 0 || recordSize > bb.remaining()) {
+        throw new IllegalArgumentException("Truncated record at offset " + bb.position());
+      }
+      if (count == offsets.length) offsets = Arrays.copyOf(offsets, 2 * count);
+      offsets[count++] = bb.position();
+      bb.position(bb.position() + recordSize);
+    }
+    return new RecordBlock(data, Arrays.copyOf(offsets, count));
+  }
+
+  @Override
+  public int getRecordCount() {
+    return recordOffsets.length;
+  }
+
+  public String getKey(int i) {
+    return RecordCodec.decodeKey(recordAt(i));
+  }
+
+  /** null for a tombstone */
+  public String getValue(int i) {
+    return RecordCodec.decodeValue(recordAt(i));
+  }
+
+  /** The i-th record of the block, which may be a tombstone. */
+  public Data getRecord(int i) {
+    return RecordCodec.decode(recordAt(i));
+  }
+
+  /** The records of a record block have no sequence, and are older than any sequence. */
+  @Override
+  public Data get(String key, long sequence) {
+    int low = 0;
+    int high = recordOffsets.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = getKey(mid).compareTo(key);
+      if (cmp < 0) low = mid + 1;
+      else if (cmp > 0) high = mid - 1;
+      else return RecordCodec.decode(recordAt(mid));
+    }
+    return null;
+  }
+
+  @Override
+  public int getSizeInBytes() {
+    return data.limit() + 4 * recordOffsets.length;
+  }
+
+  @Override
+  public Iterator<Data> iterator() {
+    return new Iterator<Data>() {
+      private int i = 0;
+
+      @Override
+      public boolean hasNext() {
+        return i < recordOffsets.length;
+      }
+
+      @Override
+      public Data next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return getRecord(i++);
+      }
+    };
+  }
+
+  private ByteBuffer recordAt(int i) {
+    ByteBuffer record = data.duplicate();
+    record.position(recordOffsets[i]);
+    return record;
+  }
+}
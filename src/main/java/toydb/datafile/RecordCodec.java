@@ -0,0 +1,282 @@
+package toydb.datafile;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import toydb.toydb.Data;
+
+/**
+ * Binary encoding of a key,value record :
+ *
+ * <pre>
+ *   varint(k) | varint(v + 1) | k bytes of the UTF-8 key | v bytes of the UTF-8 value
+ * </pre>
+ *
+ * <p>or of a tombstone, which records the deletion of a key and has no value :
+ *
+ * <pre>
+ *   varint(k) | varint(0) | k bytes of the UTF-8 key
+ * </pre>
+ *
+ * <p>Lengths are unsigned LEB128 varints, so a record with a key and value shorter than 127 bytes
+ * carries only two bytes of overhead. Records are encoded straight into a caller-supplied {@link
+ * ByteBuffer}, without any intermediate String or byte array.
+ *
+ * <p>Keys can not be empty. A record therefore never starts with a 0 byte, which lets readers tell
+ * records apart from the zero padding at the end of a data block.
+ */
+public class RecordCodec {
+
+  /** Two varints of at most 5 bytes each. */
+  public static final int MAX_HEADER_SIZE = 10;
+
+  /** @param value null for a tombstone */
+  public static int encodedSize(String key, String value) {
+    int keyLength = utf8Length(key);
+    if (value == null) return varIntSize(keyLength) + varIntSize(0) + keyLength;
+    int valueLength = utf8Length(value);
+    return varIntSize(keyLength) + varIntSize(valueLength + 1) + keyLength + valueLength;
+  }
+
+  /**
+   * Encodes the record at the position of dst, and advances the position past it.
+   *
+   * @param value null for a tombstone
+   * @return the number of bytes written
+   * @throws java.nio.BufferOverflowException if dst does not have {@link #encodedSize} bytes left
+   */
+  public static int encode(String key, String value, ByteBuffer dst) {
+    if (key.isEmpty()) throw new IllegalArgumentException("Keys can not be empty");
+
+    int start = dst.position();
+    putVarInt(dst, utf8Length(key));
+    putVarInt(dst, value == null ? 0 : utf8Length(value) + 1);
+    putUtf8(dst, key);
+    if (value != null) putUtf8(dst, value);
+    return dst.position() - start;
+  }
+
+  /** Decodes the record at the position of src, and advances the position past it. */
+  public static Data decode(ByteBuffer src) {
+    int keyLength = getVarInt(src);
+    int valueField = getVarInt(src);
+    String key = getUtf8(src, keyLength);
+    if (valueField == 0) return Data.tombstone(key);
+    return new Data(key, getUtf8(src, valueField - 1));
+  }
+
+  /**
+   * Decodes only the key of the record at the position of src, without materializing its value,
+   * and advances the position past the whole record.
+   */
+  public static String decodeKey(ByteBuffer src) {
+    int keyLength = getVarInt(src);
+    int valueLength = valueLength(getVarInt(src));
+    String key = getUtf8(src, keyLength);
+    src.position(src.position() + valueLength);
+    return key;
+  }
+
+  /**
+   * Decodes only the value of the record at the position of src, and advances the position past
+   * the whole record.
+   *
+   * @return null for a tombstone
+   */
+  public static String decodeValue(ByteBuffer src) {
+    int keyLength = getVarInt(src);
+    int valueField = getVarInt(src);
+    src.position(src.position() + keyLength);
+    if (valueField == 0) return null;
+    return getUtf8(src, valueField - 1);
+  }
+
+  /** Whether the record at the position of src is a tombstone, without moving the position. */
+  public static boolean isTombstone(ByteBuffer src) {
+    ByteBuffer header = src.duplicate();
+    getVarInt(header);
+    return getVarInt(header) == 0;
+  }
+
+  static int valueLength(int valueField) {
+    return valueField == 0 ? 0 : valueField - 1;
+  }
+
+  /**
+   * Returns the total size in bytes of the record at the position of src, without moving the
+   * position, or -1 if src does not hold the whole header of the record.
+   */
+  public static int peekRecordSize(ByteBuffer src) {
+    ByteBuffer header = src.duplicate();
+    try {
+      int keyLength = getVarInt(header);
+      int valueLength = valueLength(getVarInt(header));
+      return header.position() - src.position() + keyLength + valueLength;
+    } catch (BufferUnderflowException e) {
+      return -1;
+    }
+  }
+
+  /** Whether the next byte of src is block padding, rather than the start of a record. */
+  public static boolean isPadding(ByteBuffer src) {
+    return src.get(src.position()) == 0;
+  }
+
+  static int varIntSize(int value) {
+    int size = 1;
+    while ((value & ~0x7F) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  static void putVarInt(ByteBuffer dst, int value) {
+    while ((value & ~0x7F) != 0) {
+      dst.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    dst.put((byte) value);
+  }
+
+  static int getVarInt(ByteBuffer src) {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      byte b = src.get();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) return value;
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+
+  /** Sequence numbers are written as varlongs, by the blocks and by the write ahead logs. */
+  public static int varLongSize(long value) {
+    int size = 1;
+    while ((value & ~0x7FL) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  public static void putVarLong(ByteBuffer dst, long value) {
+    while ((value & ~0x7FL) != 0) {
+      dst.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    dst.put((byte) value);
+  }
+
+  public static long getVarLong(ByteBuffer src) {
+    long value = 0;
+    for (int shift = 0; shift < 70; shift += 7) {
+      byte b = src.get();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) return value;
+    }
+    throw new IllegalArgumentException("Malformed varlong");
+  }
+
+  /** Number of bytes of the UTF-8 encoding of str. Unpaired surrogates are encoded as '?'. */
+  public static int utf8Length(String str) {
+    int length = 0;
+    for (int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      if (c < 0x80) length += 1;
+      else if (c < 0x800) length += 2;
+      else if (Character.isHighSurrogate(c)
+          && i + 1 < str.length()
+          && Character.isLowSurrogate(str.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) length += 1;
+      else length += 3;
+    }
+    return length;
+  }
+
+  /** Encodes str at the position of dst, and advances the position past it. */
+  public static void putUtf8(ByteBuffer dst, String str) {
+    for (int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      if (c < 0x80) {
+        dst.put((byte) c);
+      } else if (c < 0x800) {
+        dst.put((byte) (0xC0 | (c >>> 6)));
+        dst.put((byte) (0x80 | (c & 0x3F)));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < str.length()
+          && Character.isLowSurrogate(str.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, str.charAt(++i));
+        dst.put((byte) (0xF0 | (codePoint >>> 18)));
+        dst.put((byte) (0x80 | ((codePoint >>> 12) & 0x3F)));
+        dst.put((byte) (0x80 | ((codePoint >>> 6) & 0x3F)));
+        dst.put((byte) (0x80 | (codePoint & 0x3F)));
+      } else if (Character.isSurrogate(c)) {
+        dst.put((byte) '?');
+      } else {
+        dst.put((byte) (0xE0 | (c >>> 12)));
+        dst.put((byte) (0x80 | ((c >>> 6) & 0x3F)));
+        dst.put((byte) (0x80 | (c & 0x3F)));
+      }
+    }
+  }
+
+  /**
+   * Whether the length bytes of src starting at index are the UTF-8 encoding of str, compared
+   * without decoding them nor allocating. The position of src is not used.
+   */
+  public static boolean utf8Equals(ByteBuffer src, int index, int length, String str) {
+    int end = index + length;
+    int i = index;
+    for (int c = 0; c < str.length(); c++) {
+      char ch = str.charAt(c);
+      if (ch < 0x80) {
+        if (i >= end || src.get(i++) != (byte) ch) return false;
+      } else if (ch < 0x800) {
+        if (i + 2 > end
+            || src.get(i++) != (byte) (0xC0 | (ch >>> 6))
+            || src.get(i++) != (byte) (0x80 | (ch & 0x3F))) {
+          return false;
+        }
+      } else if (Character.isHighSurrogate(ch)
+          && c + 1 < str.length()
+          && Character.isLowSurrogate(str.charAt(c + 1))) {
+        int codePoint = Character.toCodePoint(ch, str.charAt(++c));
+        if (i + 4 > end
+            || src.get(i++) != (byte) (0xF0 | (codePoint >>> 18))
+            || src.get(i++) != (byte) (0x80 | ((codePoint >>> 12) & 0x3F))
+            || src.get(i++) != (byte) (0x80 | ((codePoint >>> 6) & 0x3F))
+            || src.get(i++) != (byte) (0x80 | (codePoint & 0x3F))) {
+          return false;
+        }
+      } else if (Character.isSurrogate(ch)) {
+        if (i >= end || src.get(i++) != (byte) '?') return false;
+      } else {
+        if (i + 3 > end
+            || src.get(i++) != (byte) (0xE0 | (ch >>> 12))
+            || src.get(i++) != (byte) (0x80 | ((ch >>> 6) & 0x3F))
+            || src.get(i++) != (byte) (0x80 | (ch & 0x3F))) {
+          return false;
+        }
+      }
+    }
+    return i == end;
+  }
+
+  static String getUtf8(ByteBuffer src, int length) {
+    if (src.remaining() < length) throw new BufferUnderflowException();
+
+    String str;
+    if (src.hasArray()) {
+      int offset = src.arrayOffset() + src.position();
+      str = new String(src.array(), offset, length, StandardCharsets.UTF_8);
+    } else {
+      byte[] bytes = new byte[length];
+      src.duplicate().get(bytes);
+      str = new String(bytes, StandardCharsets.UTF_8);
+    }
+    src.position(src.position() + length);
+    return str;
+  }
+}
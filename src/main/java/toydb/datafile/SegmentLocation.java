@@ -0,0 +1,34 @@
+package toydb.datafile;
+
+/**
+ * Packs the location of a record in a segmented data file into a single long, so that it can be
+ * stored in a {@link toydb.index.DBIndex} : the id of the segment is kept in the high bits, and the
+ * offset of the record in the segment in the low OFFSET_BITS bits.
+ */
+public final class SegmentLocation {
+
+  private static final int OFFSET_BITS = 40; // segments of up to 1 TB
+  private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+  // keeps the encoded location positive, as a negative location means an absent key
+  public static final int MAX_SEGMENT_ID = (1 << (Long.SIZE - 1 - OFFSET_BITS)) - 1;
+
+  private SegmentLocation() {}
+
+  public static long of(int segmentId, long offset) {
+    if (segmentId < 0 || segmentId > MAX_SEGMENT_ID) {
+      throw new IllegalArgumentException("Invalid segment id " + segmentId);
+    }
+    if (offset < 0 || offset > OFFSET_MASK) {
+      throw new IllegalArgumentException("Invalid segment offset " + offset);
+    }
+    return ((long) segmentId << OFFSET_BITS) | offset;
+  }
+
+  public static int segmentId(long location) {
+    return (int) (location >>> OFFSET_BITS);
+  }
+
+  public static long offset(long location) {
+    return location & OFFSET_MASK;
+  }
+}
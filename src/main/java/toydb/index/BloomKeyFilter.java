@@ -0,0 +1,206 @@
+package toydb.index;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A bloom filter built once all the keys of an SSTable are known, from the 64 bit hashes of its
+ * keys (see {@link #hash}), and sized for a target false positive rate.
+ *
+ * <p>A standard filter sets k bits spread over the whole bit array for every key, so a lookup may
+ * touch k cache lines. A blocked filter first picks a block of 512 bits, the size of a cache line,
+ * and sets all the k bits of a key in that block : a lookup reads 64 contiguous bytes, instead of
+ * k scattered words. Blocks fill up unevenly, which raises the false positive rate for a given
+ * number of bits : a blocked filter is given the number of bits per key for which the expected
+ * rate, over the Poisson distribution of the number of keys per block, meets the target. That is
+ * about 4% more bits than a standard filter at 1%, and 8% more at 0.1%.
+ *
+ * <p>Format, after the type byte written by {@link #writeTo} :
+ *
+ * <pre>
+ *   byte hash count | int word count | word count x long
+ * </pre>
+ */
+public class BloomKeyFilter implements KeyFilter {
+
+  static final int TYPE = 1;
+  static final int BLOCKED_TYPE = 2;
+
+  private static final int BLOCK_WORDS = 8;
+  private static final int BLOCK_BITS = 64 * BLOCK_WORDS;
+  private static final int BLOCK_BIT_SHIFT = 9;
+  // the bits of a key in its block are the high bits of its hash, times powers of this multiplier
+  private static final long PROBE_MULTIPLIER = 0xC6A4_A793_5BD1_E995L;
+  private static final int MAX_HASH_COUNT = 30;
+
+  private long[] words;
+  private int hashCount;
+  private boolean blocked;
+
+  private BloomKeyFilter(long[] words, int hashCount, boolean blocked) {
+    this.words = words;
+    this.hashCount = hashCount;
+    this.blocked = blocked;
+  }
+
+  /**
+   * Builds a filter of the keys whose hashes are keyHashes[0, keyCount).
+   *
+   * @param falsePositiveRate target false positive rate, in (0, 1)
+   */
+  public static BloomKeyFilter build(
+      long[] keyHashes, int keyCount, double falsePositiveRate, boolean blocked) {
+    double ln2 = Math.log(2);
+    double bitsPerKey = -Math.log(falsePositiveRate) / (ln2 * ln2);
+    int hashCount = (int) Math.max(1, Math.min(MAX_HASH_COUNT, Math.round(bitsPerKey * ln2)));
+    while (blocked && blockedFalsePositiveRate(bitsPerKey, hashCount) > falsePositiveRate) {
+      bitsPerKey *= 1.02;
+    }
+
+    long wordCount = Math.max(1, (long) Math.ceil(keyCount * bitsPerKey / 64));
+    if (blocked) wordCount = (wordCount + BLOCK_WORDS - 1) / BLOCK_WORDS * BLOCK_WORDS;
+    if (wordCount > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many keys");
+
+    BloomKeyFilter filter = new BloomKeyFilter(new long[(int) wordCount], hashCount, blocked);
+    for (int i = 0; i < keyCount; i++) filter.put(keyHashes[i]);
+    return filter;
+  }
+
+  /** Expected false positive rate of a blocked filter. */
+  private static double blockedFalsePositiveRate(double bitsPerKey, int hashCount) {
+    double keysPerBlock = BLOCK_BITS / bitsPerKey;
+    double rate = 0;
+    // probability that a block holds j keys
+    double p = Math.exp(-keysPerBlock);
+    for (int j = 0; j < 3 * keysPerBlock + 50; j++) {
+      rate += p * Math.pow(1 - Math.pow(1 - 1.0 / BLOCK_BITS, hashCount * j), hashCount);
+      p *= keysPerBlock / (j + 1);
+    }
+    return rate;
+  }
+
+  static BloomKeyFilter read(DataInputStream in, boolean blocked) throws IOException {
+    int hashCount = in.readUnsignedByte();
+    int wordCount = in.readInt();
+    if (hashCount == 0
+        || hashCount > MAX_HASH_COUNT
+        || wordCount <= 0
+        || (blocked && wordCount % BLOCK_WORDS != 0)) {
+      throw new IOException("Corrupt bloom filter");
+    }
+    long[] words = new long[wordCount];
+    for (int i = 0; i < wordCount; i++) words[i] = in.readLong();
+    return new BloomKeyFilter(words, hashCount, blocked);
+  }
+
+  @Override
+  public void writeTo(DataOutputStream out) throws IOException {
+    out.writeByte(blocked ? BLOCKED_TYPE : TYPE);
+    out.writeByte(hashCount);
+    out.writeInt(words.length);
+    for (long word : words) out.writeLong(word);
+  }
+
+  /**
+   * The 64 bit hash of a key, computed over its chars : one round of MurmurHash3 mixing per 4
+   * chars, and the MurmurHash3 finalizer. Allocation free.
+   */
+  public static long hash(String key) {
+    int length = key.length();
+    long h = 0x9E37_79B9_7F4A_7C15L ^ length;
+    int i = 0;
+    for (; i + 4 <= length; i += 4) {
+      long chunk =
+          key.charAt(i)
+              | (long) key.charAt(i + 1) << 16
+              | (long) key.charAt(i + 2) << 32
+              | (long) key.charAt(i + 3) << 48;
+      h = Long.rotateLeft(h ^ mixChunk(chunk), 27) * 5 + 0x52DC_E729;
+    }
+    if (i < length) {
+      long chunk = 0;
+      for (int shift = 0; i < length; i++, shift += 16) chunk |= (long) key.charAt(i) << shift;
+      h ^= mixChunk(chunk);
+    }
+    return finalizeHash(h);
+  }
+
+  private static long mixChunk(long chunk) {
+    return Long.rotateLeft(chunk * 0x87C3_7B91_1142_53D5L, 31) * 0x4CF5_AD43_2745_937FL;
+  }
+
+  private static long finalizeHash(long h) {
+    h ^= h >>> 33;
+    h *= 0xFF51_AFD7_ED55_8CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CE_B9FE_1A85_EC53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  @Override
+  public boolean mightContain(String key) {
+    return mightContainHash(hash(key));
+  }
+
+  public boolean mightContainHash(long keyHash) {
+    if (blocked) {
+      int blockStart = blockStart(keyHash);
+      long h = keyHash;
+      for (int i = 0; i < hashCount; i++) {
+        h *= PROBE_MULTIPLIER;
+        int bit = (int) (h >>> (64 - BLOCK_BIT_SHIFT));
+        if ((words[blockStart + (bit >>> 6)] & (1L << bit)) == 0) return false;
+      }
+    } else {
+      long bitCount = 64L * words.length;
+      long h = keyHash;
+      long delta = Long.rotateLeft(keyHash, 32) | 1;
+      for (int i = 0; i < hashCount; i++, h += delta) {
+        long bit = (h & Long.MAX_VALUE) % bitCount;
+        if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+      }
+    }
+    return true;
+  }
+
+  private void put(long keyHash) {
+    if (blocked) {
+      int blockStart = blockStart(keyHash);
+      long h = keyHash;
+      for (int i = 0; i < hashCount; i++) {
+        h *= PROBE_MULTIPLIER;
+        int bit = (int) (h >>> (64 - BLOCK_BIT_SHIFT));
+        words[blockStart + (bit >>> 6)] |= 1L << bit;
+      }
+    } else {
+      long bitCount = 64L * words.length;
+      long h = keyHash;
+      long delta = Long.rotateLeft(keyHash, 32) | 1;
+      for (int i = 0; i < hashCount; i++, h += delta) {
+        long bit = (h & Long.MAX_VALUE) % bitCount;
+        words[(int) (bit >>> 6)] |= 1L << bit;
+      }
+    }
+  }
+
+  /** The first word of the block of a key, picked by the high 32 bits of its hash. */
+  private int blockStart(long keyHash) {
+    long blockCount = words.length / BLOCK_WORDS;
+    return (int) (((keyHash >>> 32) * blockCount) >>> 32) * BLOCK_WORDS;
+  }
+
+  public boolean isBlocked() {
+    return blocked;
+  }
+
+  public int getHashCount() {
+    return hashCount;
+  }
+
+  @Override
+  public long getSizeInBytes() {
+    return 8L * words.length;
+  }
+}
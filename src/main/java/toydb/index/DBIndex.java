@@ -1,9 +1,50 @@
 package toydb.index;
 
+import java.util.TreeMap;
+import java.util.function.ObjLongConsumer;
+
 public interface DBIndex {
 
   public Long getLocationFromIndex(String key);
 
   /* stores a mapping of key to its corresponding starting location in db file */
   public void updateIndex(String key, Long value);
+
+  /* forgets a deleted key */
+  public void removeFromIndex(String key);
+
+  /* location of the key in db file, or -1 if the key is not indexed. Implementations can avoid
+  boxing the location */
+  public default long getLocation(String key) {
+    Long location = getLocationFromIndex(key);
+    return location == null ? -1 : location;
+  }
+
+  public default void updateLocation(String key, long location) {
+    updateIndex(key, location);
+  }
+
+  /* number of keys indexed */
+  public int size();
+
+  /* passes every key and its location to consumer, in no particular order */
+  public void forEachLocation(ObjLongConsumer<String> consumer);
+
+  /* passes the maxKeys smallest keys greater than or equal to fromKey and their locations to
+  consumer, in increasing order of the keys. This default walks the whole index, keeping the
+  smallest keys seen so far : indexes which keep their keys sorted only visit the keys passed */
+  public default void forEachLocationFrom(
+      String fromKey, int maxKeys, ObjLongConsumer<String> consumer) {
+    TreeMap<String, Long> smallest = new TreeMap<>();
+    forEachLocation(
+        (key, location) -> {
+          if (key.compareTo(fromKey) < 0) return;
+          if (smallest.size() == maxKeys) {
+            if (key.compareTo(smallest.lastKey()) > 0) return;
+            smallest.pollLastEntry();
+          }
+          smallest.put(key, location);
+        });
+    smallest.forEach(consumer::accept);
+  }
 }
@@ -0,0 +1,66 @@
+package toydb.index;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the key filter of one SSTable, for the lookups of gets and multi gets, to tune the
+ * false positive rate of the filters, see {@link
+ * toydb.toydb.DBOptions#setBloomFilterFalsePositiveRate}.
+ *
+ * <p>A lookup is useful when the filter rules the key out, so that no block is read. A positive is
+ * a lookup the filter lets through : a false positive if the SSTable turns out not to hold the key.
+ */
+public class FilterStats {
+
+  private long filterSizeInBytes;
+  private long keyCount;
+  private LongAdder useful = new LongAdder();
+  private LongAdder positives = new LongAdder();
+  private LongAdder falsePositives = new LongAdder();
+
+  public FilterStats(long filterSizeInBytes, long keyCount) {
+    this.filterSizeInBytes = filterSizeInBytes;
+    this.keyCount = keyCount;
+  }
+
+  public void recordUseful() {
+    useful.increment();
+  }
+
+  /** @param found whether the SSTable held the key which passed the filter */
+  public void recordPositive(boolean found) {
+    positives.increment();
+    if (!found) falsePositives.increment();
+  }
+
+  public long getUsefulCount() {
+    return useful.sum();
+  }
+
+  public long getPositiveCount() {
+    return positives.sum();
+  }
+
+  public long getFalsePositiveCount() {
+    return falsePositives.sum();
+  }
+
+  /**
+   * Share of the lookups of keys absent from the SSTable which the filter let through, to compare
+   * with the target rate. 0 before any such lookup.
+   */
+  public double getFalsePositiveRate() {
+    long falsePositiveCount = falsePositives.sum();
+    long absentCount = falsePositiveCount + useful.sum();
+    return absentCount == 0 ? 0 : (double) falsePositiveCount / absentCount;
+  }
+
+  public long getFilterSizeInBytes() {
+    return filterSizeInBytes;
+  }
+
+  /** Bits of the filter per key of the SSTable, tombstones included. */
+  public double getBitsPerKey() {
+    return keyCount == 0 ? 0 : 8.0 * filterSizeInBytes / keyCount;
+  }
+}
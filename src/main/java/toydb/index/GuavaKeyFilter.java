@@ -0,0 +1,49 @@
+package toydb.index;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The Guava bloom filter of the SSTables written before {@link BloomKeyFilter}, which was always
+ * sized for 100,000 keys.
+ */
+class GuavaKeyFilter implements KeyFilter {
+
+  static final int TYPE = 0;
+
+  // the filter was sized for 100,000 keys, at the default false positive rate of 3%
+  private static final long SIZE_IN_BYTES =
+      (long) (-100_000 * Math.log(0.03) / (Math.log(2) * Math.log(2))) / 8;
+
+  private BloomFilter<String> bloomFilter;
+
+  private GuavaKeyFilter(BloomFilter<String> bloomFilter) {
+    this.bloomFilter = bloomFilter;
+  }
+
+  /** Reads the serialized form of a Guava bloom filter, without any type byte. */
+  static GuavaKeyFilter read(DataInputStream in) throws IOException {
+    return new GuavaKeyFilter(
+        BloomFilter.readFrom(in, Funnels.stringFunnel(StandardCharsets.UTF_8)));
+  }
+
+  @Override
+  public boolean mightContain(String key) {
+    return bloomFilter.mightContain(key);
+  }
+
+  @Override
+  public long getSizeInBytes() {
+    return SIZE_IN_BYTES;
+  }
+
+  @Override
+  public void writeTo(DataOutputStream out) throws IOException {
+    out.writeByte(TYPE);
+    bloomFilter.writeTo(out);
+  }
+}
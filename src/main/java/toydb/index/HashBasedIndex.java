@@ -2,6 +2,7 @@ package toydb.index;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.ObjLongConsumer;
 
 public class HashBasedIndex implements DBIndex {
 
@@ -20,4 +21,19 @@ public class HashBasedIndex implements DBIndex {
   public void updateIndex(String key, Long value) {
     keyToLocationMap.put(key, value);
   }
+
+  @Override
+  public void removeFromIndex(String key) {
+    keyToLocationMap.remove(key);
+  }
+
+  @Override
+  public int size() {
+    return keyToLocationMap.size();
+  }
+
+  @Override
+  public void forEachLocation(ObjLongConsumer<String> consumer) {
+    keyToLocationMap.forEach(consumer::accept);
+  }
 }
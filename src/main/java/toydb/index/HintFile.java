@@ -0,0 +1,141 @@
+package toydb.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.function.LongPredicate;
+import java.util.function.ObjLongConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A snapshot of the {@link DBIndex} of the data files, from which the index can be bulk loaded
+ * instead of being rebuilt by scanning the data files, as Bitcask does. Only the records appended
+ * after the snapshot still have to be scanned.
+ *
+ * <p>Format :
+ *
+ * <pre>
+ *   int magic | int version | long covered location | int entry count
+ *   entry count x ( key | long location )
+ *   long CRC32 of all the preceding bytes
+ * </pre>
+ *
+ * <p>where every key is written as its int length followed by its UTF-8 bytes, and the covered
+ * location is the location in the data files up to which the index is complete. The hint file does
+ * not interpret locations : it is up to the DB to encode them, e.g. as a {@link
+ * toydb.datafile.SegmentLocation}.
+ */
+public class HintFile {
+
+  public static final String FILE_SUFFIX = ".hint";
+
+  private static final int MAGIC = 0x5448_4E54; // "THNT"
+  private static final int VERSION = 2;
+
+  private HintFile() {}
+
+  /**
+   * Writes the entries to a temporary file, syncs it, and then renames it to path, so that a crash
+   * never leaves a partial hint file behind.
+   *
+   * @param keys the keys of a snapshot of the index, e.g. taken with {@link
+   *     DBIndex#forEachLocation}
+   * @param locations the location of every key
+   * @param coveredLocation the location up to which the index is complete. The data written
+   *     before it must be synced.
+   */
+  public static void write(String path, String[] keys, long[] locations, long coveredLocation)
+      throws IOException {
+    String tmpPath = path + ".tmp";
+    try (FileOutputStream fos = new FileOutputStream(tmpPath)) {
+      CheckedOutputStream checked =
+          new CheckedOutputStream(new BufferedOutputStream(fos), new CRC32());
+      DataOutputStream out = new DataOutputStream(checked);
+
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(coveredLocation);
+      out.writeInt(keys.length);
+      for (int i = 0; i < keys.length; i++) {
+        byte[] bytes = keys[i].getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeLong(locations[i]);
+      }
+
+      out.flush();
+      out.writeLong(checked.getChecksum().getValue());
+      out.flush();
+      fos.getFD().sync();
+    }
+    Files.move(Paths.get(tmpPath), Paths.get(path), StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Passes every entry of the hint file to consumer. The hint file is validated before the first
+   * entry is passed on, so that nothing is loaded from a corrupt or stale hint file.
+   *
+   * @param isValidCoverage tells whether the covered location of the hint file is still present in
+   *     the data files
+   * @return the location up to which the index is complete
+   * @throws IOException if the file can not be read, if its checksum does not match, or if its
+   *     covered location is not valid
+   */
+  public static long load(
+      String path, LongPredicate isValidCoverage, ObjLongConsumer<String> consumer)
+      throws IOException {
+    verifyChecksum(path);
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+      if (in.readInt() != MAGIC) throw new IOException("Not a hint file : " + path);
+      int version = in.readInt();
+      if (version != VERSION) throw new IOException("Unsupported hint file version " + version);
+
+      long coveredLocation = in.readLong();
+      if (!isValidCoverage.test(coveredLocation)) {
+        throw new IOException("Hint file covers more than the data files : " + path);
+      }
+      int entryCount = in.readInt();
+      for (int i = 0; i < entryCount; i++) {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        consumer.accept(new String(bytes, StandardCharsets.UTF_8), in.readLong());
+      }
+      return coveredLocation;
+    }
+  }
+
+  private static void verifyChecksum(String path) throws IOException {
+    long fileSize = Files.size(Paths.get(path));
+    if (fileSize < Long.BYTES) throw new IOException("Truncated hint file : " + path);
+    try (FileInputStream fis = new FileInputStream(path)) {
+      CheckedInputStream checked =
+          new CheckedInputStream(new BufferedInputStream(fis), new CRC32());
+      skipFully(checked, fileSize - Long.BYTES);
+      long expectedChecksum = checked.getChecksum().getValue();
+      if (new DataInputStream(checked).readLong() != expectedChecksum) {
+        throw new IOException("Checksum mismatch in hint file : " + path);
+      }
+    }
+  }
+
+  private static void skipFully(InputStream in, long length) throws IOException {
+    byte[] buffer = new byte[64 * 1024];
+    while (length > 0) {
+      int read = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+      if (read < 0) throw new IOException("Unexpected end of hint file");
+      length -= read;
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package toydb.index;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A compact summary of the keys of an SSTable, which tells that a key is certainly absent without
+ * reading the SSTable. False positives are possible, false negatives are not.
+ */
+public interface KeyFilter {
+
+  boolean mightContain(String key);
+
+  /** Memory held by the filter. */
+  long getSizeInBytes();
+
+  /** Writes the type of the filter, followed by the filter. */
+  void writeTo(DataOutputStream out) throws IOException;
+
+  /** Reads a filter written by {@link #writeTo}. */
+  static KeyFilter readFrom(DataInputStream in) throws IOException {
+    int type = in.readUnsignedByte();
+    switch (type) {
+      case GuavaKeyFilter.TYPE:
+        return GuavaKeyFilter.read(in);
+      case BloomKeyFilter.TYPE:
+      case BloomKeyFilter.BLOCKED_TYPE:
+        return BloomKeyFilter.read(in, type == BloomKeyFilter.BLOCKED_TYPE);
+      default:
+        throw new IOException("Unknown key filter type " + type);
+    }
+  }
+}
@@ -1,38 +1,90 @@
 package toydb.index;
 
-import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
-
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
-import kotlin.text.Charsets;
-import toydb.common.Pair;
-import toydb.common.RBTree;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import toydb.cache.BlockCache;
+import toydb.common.CloseableIterator;
+import toydb.common.ConcurrentSkipList;
+import toydb.common.VersionFilter;
+import toydb.datafile.Block;
+import toydb.datafile.BlockCompression;
+import toydb.datafile.BlockIterator;
+import toydb.datafile.ChannelDataFile;
 import toydb.datafile.DataFile;
 import toydb.datafile.DataFileIterator;
+import toydb.datafile.MappedDataFile;
+import toydb.datafile.RecordCodec;
+import toydb.toydb.DBOptions;
 import toydb.toydb.Data;
+import toydb.wal.WriteAheadLog;
 
 /**
  * This class represents an in memory table, and its associated on-disk file.
  *
  * <p>The memtable contains an in memory table of key_value pairs, and when the table gets filled
- * up, it is serialized and written on the disk.
+ * up, it is serialized and written on the disk. Along with the data file, a {@link SparseIndexFile}
+ * is written, from which the memtable can later be re-opened without scanning the data file.
+ *
+ * <p>Every write carries a sequence number, given by the DB. The in-memory table holds every
+ * version of a key, and reads are made as of a sequence : they see the newest version of a key
+ * whose sequence is at most the sequence read at.
  */
 public class Memtable {
 
-  private DataFile df;
-  private RBTree index;
-  private INDEX_TYPE indexType;
-  private BloomFilter<String> bloomFilter;
-  private File writeAheadLogFile;
-  private FileWriter walFW;
+  private String dataFileName;
+  private String dataFilePath;
+  private long dataFileSize;
+  private String smallestKey;
+  private String largestKey;
+  // level of the SSTable in the LSM tree, memtables are flushed at level 0
+  private volatile int level = 0;
+  // one reference is held by the DB while the memtable is live, and one by every in-flight read
+  private AtomicInteger refCount = new AtomicInteger(1);
+  // (key, sequence) -> value, of a memtable in memory, null for a persisted memtable. A deleted key
+  // maps to TOMBSTONE.
+  private ConcurrentSkipList<VersionedKey, String> index;
+  private AtomicInteger sizeInBytes = new AtomicInteger(0);
+  // the first key and the location in the data file of every block, sorted by key, once the
+  // memtable is persisted on disk
+  private String[] blockFirstKeys;
+  private long[] blockOffsets;
+  // whether the blocks of the data file are compressed, and whether they are framed by a header,
+  // see BlockCompression
+  private boolean compressed;
+  private boolean framed;
+  private DBOptions options;
+  private BlockCache blockCache;
+  // the data file mapped in memory, null if mmap reads are disabled or the file is too large
+  private MappedDataFile mappedFile;
+  // the data file read with positional reads, shared by all the lookups, when it is not mapped
+  private ChannelDataFile channelFile;
+  // key of the blocks of this memtable in the block cache
+  private long fileId;
+  private final INDEX_TYPE indexType;
+  private KeyFilter keyFilter;
+  private FilterStats filterStats;
+  // bytes of the blocks read from the data file, or viewed in its mapping, by lookups
+  private LongAdder bytesRead = new LongAdder();
+  private long recordCount;
+  private long tombstoneCount;
+  private long maxSequence;
+  private WriteAheadLog wal;
   private
 
   enum INDEX_TYPE {
@@ -40,74 +92,351 @@ public class Memtable {
     SPARSE_INDEX
   }
 
-  public Memtable(String dataFileBasePath, String dataFileName) throws IOException {
-    String datafilePath = dataFileBasePath + "/" + dataFileName;
-    df = new DataFile(datafilePath);
-    index = new RBTree();
-    indexType = INDEX_TYPE.DENSE_INDEX;
-    writeAheadLogFile = new File(dataFileBasePath + "/write_ahead_log_" + dataFileName + ".txt");
-    walFW = new FileWriter(writeAheadLogFile, true);
+  // value of a deleted key in the in-memory table, compared by reference
+  private static final String TOMBSTONE = new String();
+
+  public static final String WAL_FILE_PREFIX = "write_ahead_log_";
+  public static final String WAL_FILE_SUFFIX = ".log";
+
+  // first byte of the payloads of the write ahead log which start with a sequence number. Older
+  // payloads start with a record, whose first byte is never 0, see RecordCodec
+  private static final byte SEQUENCED_PAYLOAD = 0;
+
+  /**
+   * Creates a new, empty memtable which accepts writes. Every write is first appended to the write
+   * ahead log of the memtable, and synced according to {@link DBOptions#getWalSyncMode()}.
+   */
+  public Memtable(
+      String dataFileBasePath, String dataFileName, DBOptions options, BlockCache blockCache)
+      throws IOException {
+    this(dataFileBasePath, dataFileName, INDEX_TYPE.DENSE_INDEX, options, blockCache);
+    index = new ConcurrentSkipList<>(Comparator.naturalOrder());
+    wal =
+        new WriteAheadLog(
+            Paths.get(dataFileBasePath, WAL_FILE_PREFIX + dataFileName + WAL_FILE_SUFFIX),
+            options.getWalSyncMode());
+  }
+
+  private Memtable(
+      String dataFileBasePath,
+      String dataFileName,
+      INDEX_TYPE indexType,
+      DBOptions options,
+      BlockCache blockCache) {
+    this.dataFileName = dataFileName;
+    this.options = options;
+    this.blockCache = blockCache;
+    this.dataFilePath = dataFileBasePath + "/" + dataFileName;
+    this.indexType = indexType;
+  }
+
+  /**
+   * Opens a memtable which was persisted on disk earlier. Only its sparse index file is read. If
+   * the sparse index file is missing or corrupt, it is rebuilt by scanning the data file.
+   *
+   * @param blockCache caches the blocks read from the data file, shared with the other memtables
+   */
+  public static Memtable open(
+      String dataFileBasePath,
+      String dataFileName,
+      int level,
+      DBOptions options,
+      BlockCache blockCache)
+      throws IOException {
+    Memtable memtable =
+        new Memtable(
+            dataFileBasePath, dataFileName, INDEX_TYPE.SPARSE_INDEX, options, blockCache);
+    memtable.level = level;
+    File dataFile = new File(memtable.dataFilePath);
+    if (!dataFile.exists()) throw new FileNotFoundException("Missing SSTable : " + dataFileName);
+
+    SparseIndexFile indexFile;
+    try {
+      indexFile = SparseIndexFile.read(memtable.getIndexFilePath());
+      if (indexFile.getDataFileSize() != dataFile.length()) {
+        throw new IOException("Data file size does not match its sparse index : " + dataFileName);
+      }
+    } catch (IOException e) {
+      System.out.println("Rebuilding sparse index of " + dataFileName + " | " + e);
+      indexFile = memtable.rebuildIndexFile();
+    }
+    memtable.installIndexFile(indexFile);
+    return memtable;
+  }
+
+  /**
+   * The sparse index holds the first key of every block of the data file. The data file is
+   * rewritten with the block codec of the options.
+   */
+  private SparseIndexFile rebuildIndexFile() throws IOException {
+    String tmpDataFilePath = dataFilePath + ".rebuild";
+    try (SSTableBuilder builder = new SSTableBuilder(tmpDataFilePath, options);
+        DataFile dataFile = new DataFile(dataFilePath, true)) {
+      // the first byte of the file tells whether its blocks are framed
+      ByteBuffer firstBlock = ByteBuffer.allocate(1);
+      dataFile.read(0, firstBlock);
+      firstBlock.flip();
+      Iterator<Data> it =
+          BlockCompression.isFramed(firstBlock)
+              ? new BlockIterator(dataFile, 0)
+              : new DataFileIterator(dataFile);
+      while (it.hasNext()) {
+        Data d = it.next();
+        builder.add(d.getKey(), d.getValue(), d.getSequence());
+      }
+      builder.finish();
+    }
+
+    // swap the rewritten data file in, along with its index
+    Files.move(
+        Paths.get(tmpDataFilePath + SparseIndexFile.FILE_SUFFIX),
+        Paths.get(getIndexFilePath()),
+        StandardCopyOption.REPLACE_EXISTING);
+    Files.move(
+        Paths.get(tmpDataFilePath), Paths.get(dataFilePath), StandardCopyOption.REPLACE_EXISTING);
+    return SparseIndexFile.read(getIndexFilePath());
+  }
+
+  private void installIndexFile(SparseIndexFile indexFile) throws IOException {
+    dataFileSize = indexFile.getDataFileSize();
+    smallestKey = indexFile.getSmallestKey();
+    largestKey = indexFile.getLargestKey();
+    keyFilter = indexFile.getKeyFilter();
+    filterStats = new FilterStats(keyFilter.getSizeInBytes(), indexFile.getRecordCount());
+    recordCount = indexFile.getRecordCount();
+    tombstoneCount = indexFile.getTombstoneCount();
+    maxSequence = indexFile.getMaxSequence();
+    compressed = indexFile.isCompressed();
+    framed = compressed || indexFile.isPrefixEncoded();
+
+    List<Data> entries = indexFile.getSparseIndex().getAllElements();
+    String[] firstKeys = new String[entries.size()];
+    long[] offsets = new long[entries.size()];
+    for (int i = 0; i < entries.size(); i++) {
+      firstKeys[i] = entries.get(i).getKey();
+      offsets[i] = Long.parseLong(entries.get(i).getValue());
+    }
+    blockFirstKeys = firstKeys;
+    blockOffsets = offsets;
+    fileId = blockCache.newFileId();
+    if (options.isMmapReads()) mappedFile = MappedDataFile.map(dataFilePath);
+    if (mappedFile == null) channelFile = ChannelDataFile.open(dataFilePath);
   }
 
-  public void put(String key, String value) throws IOException {
-    /*Files.write(
-        writeAheadLogFilePath,
-        new Data(key, value).serialize(),
-        StandardOpenOption.CREATE,
-        StandardOpenOption.APPEND);*/
-    walFW.append(key + "\0\0" + value);
-    walFW.flush();
-    index.insert(key, value);
+  /**
+   * Can be called concurrently by any number of threads, until the memtable is persisted. The older
+   * versions of key are kept, for the readers of older sequences.
+   */
+  public void put(String key, String value, long sequence) throws IOException {
+    write(key, value, value, sequence);
   }
 
-  public String get(String key) throws IOException {
+  /**
+   * Records a tombstone for key, which shadows the values of key in the older memtables. Can be
+   * called concurrently with {@link #put}, until the memtable is persisted.
+   */
+  public void delete(String key, long sequence) throws IOException {
+    write(key, null, TOMBSTONE, sequence);
+  }
+
+  private void write(String key, String value, String indexValue, long sequence)
+      throws IOException {
+    ByteBuffer payload =
+        ByteBuffer.allocate(
+            1 + RecordCodec.varLongSize(sequence) + RecordCodec.encodedSize(key, value));
+    payload.put(SEQUENCED_PAYLOAD);
+    RecordCodec.putVarLong(payload, sequence);
+    RecordCodec.encode(key, value, payload);
+    payload.flip();
+    wal.append(payload);
+    insert(key, sequence, indexValue);
+  }
+
+  /**
+   * Writes several records, tombstones included, as a single record of the write ahead log : after
+   * a crash, either all of them or none of them are replayed. Readers may see some of the records
+   * before the others while they are inserted.
+   *
+   * @param firstSequence the sequence of the first record, the next records take the next
+   *     sequences
+   */
+  public void write(List<Data> records, long firstSequence) throws IOException {
+    int payloadSize = 1 + RecordCodec.varLongSize(firstSequence);
+    for (Data d : records) payloadSize += RecordCodec.encodedSize(d.getKey(), d.getValue());
+    ByteBuffer payload = ByteBuffer.allocate(payloadSize);
+    payload.put(SEQUENCED_PAYLOAD);
+    RecordCodec.putVarLong(payload, firstSequence);
+    for (Data d : records) RecordCodec.encode(d.getKey(), d.getValue(), payload);
+    payload.flip();
+    wal.append(payload);
+
+    long sequence = firstSequence;
+    for (Data d : records) {
+      insert(d.getKey(), sequence++, d.isTombstone() ? TOMBSTONE : d.getValue());
+    }
+  }
+
+  private void insert(String key, long sequence, String indexValue) {
+    // a version is only put twice by a replay of the same log
+    String oldValue = index.put(new VersionedKey(key, sequence), indexValue);
+    sizeInBytes.addAndGet(
+        oldValue == null
+            ? key.length() + indexValue.length()
+            : indexValue.length() - oldValue.length());
+  }
+
+  /**
+   * Returns the newest record of key, which is a tombstone if the key was deleted, or null if the
+   * memtable does not hold key.
+   */
+  public Data get(String key) throws IOException {
+    return get(key, Long.MAX_VALUE);
+  }
+
+  /**
+   * Returns the newest record of key whose sequence is at most sequence, which is a tombstone if
+   * the key was deleted, or null if the memtable holds no such record. Takes no lock.
+   */
+  public Data get(String key, long sequence) throws IOException {
     // STEP 01 : If it is DENSE_INDEX, then check for key,value in memory
-    if (indexType == INDEX_TYPE.DENSE_INDEX) return index.get(key);
+    if (indexType == INDEX_TYPE.DENSE_INDEX) return find(index, key, sequence);
     /*
        STEP 02 : It is a SPARSE INDEX
-       - First check if this key is present in the sparse index itself. If yes, then get the location pointer from memory,
-         and read the value at this location.
-       - If key not present in sparse index, get the predecessor and successor location pointers for this key, from sparse index.
-       - Iterate between this predecessor and successor on the disk, and see if this key is found. If found, return value.
+       - Find the block which may hold this key : the last block whose first key is smaller than or equal to the key.
+       - Get this block from the block cache, or read it from the disk and add it to the cache.
+       - Binary search the key in the block. If found, return the record.
        - If not, return null.
     */
-    else {
-      // If not present in BloomFilter return null
-      if (!bloomFilter.mightContain(key)) return null;
-
-      DataFile localDataFileCopy = new DataFile(df.getDataFilePath());
-
-      // check if this key is present in the sparse index
-      String locationPointerStr = index.get(key);
-      if (locationPointerStr != null) {
-        Long locationPointer = Long.parseLong(locationPointerStr);
-        Data data = localDataFileCopy.read(locationPointer);
-        return data.getValue();
+    // If not present in the key filter return null
+    if (!keyFilter.mightContain(key)) {
+      filterStats.recordUseful();
+      return null;
+    }
+
+    int blockIndex = findBlock(key);
+    if (blockIndex < 0) {
+      filterStats.recordPositive(false);
+      return null;
+    }
+    Block block = cachedBlock(blockIndex);
+    if (block == null) block = loadBlock(blockIndex);
+    Data d = block.get(key, sequence);
+    filterStats.recordPositive(d != null);
+    return d;
+  }
+
+  /**
+   * Looks up several keys at once. The keys falling into the same block share a single read of the
+   * block.
+   *
+   * @param sortedKeys distinct keys, in increasing order
+   * @param sequence the records are read as of this sequence, see {@link #get(String, long)}
+   * @return the records found, tombstones included, in increasing order of their keys
+   */
+  public List<Data> get(List<String> sortedKeys, long sequence) throws IOException {
+    List<Data> found = new ArrayList<>();
+    if (indexType == INDEX_TYPE.DENSE_INDEX) {
+      for (String key : sortedKeys) {
+        Data d = find(index, key, sequence);
+        if (d != null) found.add(d);
       }
+      return found;
+    }
 
-      Pair<Data, Data> predSuccPair = index.getInorderSuccessorPredecessor(key);
-      Data inorderPredecessor = predSuccPair.getFirst();
-      Data inorderSuccessor = predSuccPair.getSecond();
+    int blockIndex = -1;
+    Block block = null;
+    for (String key : sortedKeys) {
+      if (!keyFilter.mightContain(key)) {
+        filterStats.recordUseful();
+        continue;
+      }
+      int keyBlockIndex = findBlock(key);
+      if (keyBlockIndex < 0) {
+        filterStats.recordPositive(false);
+        continue;
+      }
+      // the keys are sorted, so the keys of a block come one after the other
+      if (keyBlockIndex != blockIndex) {
+        blockIndex = keyBlockIndex;
+        block = cachedBlock(blockIndex);
+        if (block == null) block = loadBlock(blockIndex);
+      }
+      Data d = block.get(key, sequence);
+      filterStats.recordPositive(d != null);
+      if (d != null) found.add(d);
+    }
+    return found;
+  }
 
-      Long floorPointer =
-          inorderPredecessor == null ? 0 : Long.parseLong(inorderPredecessor.getValue());
-      Long ceilingPointer =
-          inorderSuccessor == null
-              ? localDataFileCopy.getFileSize()
-              : Long.parseLong(inorderSuccessor.getValue());
-      DataFileIterator it = new DataFileIterator(localDataFileCopy, floorPointer);
+  /** The last block starting with a key smaller than or equal to key, -1 if there is none. */
+  private int findBlock(String key) {
+    int blockIndex = Arrays.binarySearch(blockFirstKeys, key);
+    return blockIndex < 0 ? -blockIndex - 2 : blockIndex;
+  }
 
-      while (it.hasNext()) {
-        if (it.getReadLocation() > ceilingPointer) break;
+  /** The versions of a key are sorted newest first : the first one at most sequence is visible. */
+  private static Data find(
+      ConcurrentSkipList<VersionedKey, String> denseIndex, String key, long sequence) {
+    ConcurrentSkipList.Node<VersionedKey, String> node =
+        denseIndex.ceilingNode(new VersionedKey(key, sequence));
+    if (node == null || !node.getKey().key.equals(key)) return null;
+    return toData(node);
+  }
 
-        Data d = it.next();
-        if (key.equals(d.getKey())) {
-          return d.getValue();
-        }
-      }
+  private static Data toData(ConcurrentSkipList.Node<VersionedKey, String> node) {
+    VersionedKey versionedKey = node.getKey();
+    String indexValue = node.getValue();
+    return indexValue == TOMBSTONE
+        ? Data.tombstone(versionedKey.key, versionedKey.sequence)
+        : new Data(versionedKey.key, indexValue, versionedKey.sequence);
+  }
 
-      return null;
+  /**
+   * Whether this persisted memtable may hold a record of key. False positives are possible, as
+   * with its key filter. Not counted in the {@link FilterStats}.
+   */
+  public boolean mightContain(String key) {
+    return key.compareTo(smallestKey) >= 0
+        && key.compareTo(largestKey) <= 0
+        && keyFilter.mightContain(key);
+  }
+
+  /**
+   * Returns the block as a view over the mapped data file, if its blocks are not compressed. Else,
+   * returns the block from the block cache, or null on a miss, in which case the block is read with
+   * {@link #loadBlock} : compressed blocks are only decompressed on a miss, even when mapped.
+   */
+  private Block cachedBlock(int blockIndex) {
+    if (mappedFile != null && !compressed) {
+      int size = blockSize(blockIndex);
+      bytesRead.add(size);
+      return mappedFile.readBlock(blockOffsets[blockIndex], size);
     }
+    return blockCache.get(fileId, blockOffsets[blockIndex]);
+  }
+
+  /**
+   * Reads the block from the mapped data file if there is one, else with a positional read of the
+   * shared channel, decompresses it, and adds it to the block cache. Concurrent loads of the same
+   * block are coalesced, see {@link BlockCache#load}.
+   */
+  private Block loadBlock(int blockIndex) throws IOException {
+    return blockCache.load(fileId, blockOffsets[blockIndex], () -> readBlock(blockIndex));
+  }
+
+  private Block readBlock(int blockIndex) throws IOException {
+    long blockOffset = blockOffsets[blockIndex];
+    int size = blockSize(blockIndex);
+    bytesRead.add(size);
+    return mappedFile != null
+        ? mappedFile.readBlock(blockOffset, size)
+        : channelFile.readBlock(blockOffset, size);
+  }
+
+  private int blockSize(int blockIndex) {
+    long blockEnd =
+        blockIndex + 1 < blockOffsets.length ? blockOffsets[blockIndex + 1] : dataFileSize;
+    return (int) (blockEnd - blockOffsets[blockIndex]);
   }
 
   /**
@@ -115,39 +444,294 @@ public class Memtable {
    * last element of the in memory index, insert the key in the index, along with the location
    * pointer in the file for the corresponding index.
    *
+   * <p>The memtable must no longer receive writes. It is left unchanged : the readers which still
+   * hold it keep reading its in-memory table, every version included, while the new readers are
+   * given the returned memtable.
+   *
+   * @return the persisted memtable, read through the sparse index of the data file
    * @throws IOException
    */
-  public void persistOnDisk() throws IOException {
-    long startMillis = System.currentTimeMillis();
-    this.bloomFilter = BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), 100_000);
+  public Memtable persistOnDisk() throws IOException {
+    return persistOnDisk(new long[0]);
+  }
+
+  /**
+   * Only the versions read by the latest sequence or by one of snapshotSequences are written, see
+   * {@link VersionFilter}. Tombstones are all kept, as the older memtables may hold their keys.
+   *
+   * @param snapshotSequences the sequences of the live snapshots, in increasing order
+   */
+  public Memtable persistOnDisk(long[] snapshotSequences) throws IOException {
+    SparseIndexFile indexFile;
+    // a failed flush deletes its partial SSTable, and leaves the memtable in memory
+    try (SSTableBuilder builder = new SSTableBuilder(dataFilePath, options)) {
+      Iterator<Data> versions =
+          new VersionFilter(records(index.iterator()), snapshotSequences, key -> true);
+      while (versions.hasNext()) {
+        Data d = versions.next();
+        builder.add(d.getKey(), d.getValue(), d.getSequence());
+      }
+      indexFile = builder.finish();
+    }
+
+    Memtable persisted =
+        new Memtable(
+            new File(dataFilePath).getParent(),
+            dataFileName,
+            INDEX_TYPE.SPARSE_INDEX,
+            options,
+            blockCache);
+    persisted.installIndexFile(indexFile);
+    return persisted;
+  }
+
+  /**
+   * Puts all the records of the write ahead log at walPath, left by a memtable which was never
+   * persisted, into this memtable. A log record holds one or more data records, which are written
+   * back together, with their sequences.
+   *
+   * @param lastSequence the largest sequence of the DB, raised to the largest sequence replayed.
+   *     The records of a log written before sequence numbers are given the next sequences.
+   * @return the number of log records replayed
+   */
+  public long replay(Path walPath, AtomicLong lastSequence) throws IOException {
+    try {
+      return WriteAheadLog.replay(
+          walPath,
+          payload -> {
+            long firstSequence = lastSequence.get() + 1;
+            if (payload.hasRemaining() && payload.get(payload.position()) == SEQUENCED_PAYLOAD) {
+              payload.get();
+              firstSequence = RecordCodec.getVarLong(payload);
+            }
+            List<Data> records = new ArrayList<>();
+            while (payload.hasRemaining()) records.add(RecordCodec.decode(payload));
+            try {
+              write(records, firstSequence);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+            long last = firstSequence + records.size() - 1;
+            lastSequence.accumulateAndGet(last, Math::max);
+          });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /** Writes and forces the write ahead log of this memtable. */
+  public void syncWriteAheadLog() throws IOException {
+    if (wal != null) wal.sync();
+  }
+
+  /**
+   * Deletes the write ahead log of this memtable. Must only be called once the persisted memtable
+   * has been recorded in the manifest, else its data would be lost on a crash.
+   */
+  public void deleteWriteAheadLog() throws IOException {
+    if (wal == null) return;
+    wal.close();
+    Files.deleteIfExists(wal.getPath());
+  }
+
+  public boolean isPersisted() {
+    return indexType == INDEX_TYPE.SPARSE_INDEX;
+  }
+
+  /**
+   * Iterates over the records of a persisted memtable, sorted by key, and the versions of a key
+   * newest first. The iterator reads from the mapped data file if there is one, else from a data
+   * file it opens, and must be closed.
+   */
+  public CloseableIterator<Data> iterator() throws IOException {
+    return dataFileIterator(0);
+  }
+
+  private CloseableIterator<Data> dataFileIterator(long blockOffset) throws IOException {
+    if (mappedFile != null) {
+      return framed ? mappedFile.blockIterator(blockOffset) : mappedFile.iterator(blockOffset);
+    }
+    if (framed) return new BlockIterator(new DataFile(dataFilePath, true), blockOffset);
+    return new DataFileIterator(new DataFile(dataFilePath, true), blockOffset);
+  }
 
-    RBTree oldIndex = index;
-    RBTree newIndex = new RBTree();
-    List<Data> dataList = oldIndex.getAllElements();
+  /**
+   * Iterates lazily, sorted by key, over the records whose key is greater than or equal to fromKey,
+   * every version of a key included, newest first. Works whether or not the memtable is persisted.
+   * Records put into the in-memory table while the iterator is in use may or may not be returned.
+   * The iterator must be closed.
+   */
+  public CloseableIterator<Data> iterator(String fromKey) throws IOException {
+    if (indexType == INDEX_TYPE.DENSE_INDEX) {
+      return records(index.iterator(new VersionedKey(fromKey, Long.MAX_VALUE)));
+    }
 
-    for (int i = 0; i < dataList.size(); i++) {
-      Data data = dataList.get(i);
-      long writeLocation = df.writeInBlocks(data); // write to file
-      // update sparse index if a new data block has started
-      if(writeLocation != -1){
-        newIndex.insert(data.getKey(), Long.toString(writeLocation));
+    // start at the block which may hold fromKey, and skip the smaller keys of that block
+    int blockIndex = Arrays.binarySearch(blockFirstKeys, fromKey);
+    if (blockIndex < 0) blockIndex = Math.max(-blockIndex - 2, 0);
+    long blockOffset = blockOffsets.length == 0 ? dataFileSize : blockOffsets[blockIndex];
+    return new SeekingIterator(dataFileIterator(blockOffset), fromKey);
+  }
+
+  private static CloseableIterator<Data> records(
+      Iterator<ConcurrentSkipList.Node<VersionedKey, String>> it) {
+    return new CloseableIterator<Data>() {
+      @Override
+      public boolean hasNext() {
+        return it.hasNext();
+      }
+
+      @Override
+      public Data next() {
+        return toData(it.next());
       }
-      bloomFilter.put(data.getKey()); // add key to bloomFilter
+
+      @Override
+      public void close() {}
+    };
+  }
+
+  /** Key of the in-memory table, sorted by key and then from the newest version to the oldest. */
+  private static final class VersionedKey implements Comparable<VersionedKey> {
+    private final String key;
+    private final long sequence;
+
+    private VersionedKey(String key, long sequence) {
+      this.key = key;
+      this.sequence = sequence;
     }
-    df.close();// This is important else the last block will not be written to disk.
 
-    index = newIndex;
-    indexType = INDEX_TYPE.SPARSE_INDEX;
+    @Override
+    public int compareTo(VersionedKey o) {
+      int cmp = key.compareTo(o.key);
+      return cmp != 0 ? cmp : Long.compare(o.sequence, sequence);
+    }
+  }
 
-    long endMillis = System.currentTimeMillis();
-    System.out.println("Serialization time : " + Long.toString(endMillis - startMillis) + " ms");
-    walFW.close();
-    System.out.println("Deleting WAL : " + writeAheadLogFile.getPath());
-    writeAheadLogFile.delete();
+  /** Skips the records of an iterator whose key is smaller than fromKey. */
+  private static class SeekingIterator implements CloseableIterator<Data> {
+    private CloseableIterator<Data> it;
+    private Data next;
 
+    private SeekingIterator(CloseableIterator<Data> it, String fromKey) {
+      this.it = it;
+      while (it.hasNext()) {
+        Data d = it.next();
+        if (d.getKey().compareTo(fromKey) >= 0) {
+          next = d;
+          break;
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Data next() {
+      if (next == null) throw new NoSuchElementException();
+      Data d = next;
+      next = it.hasNext() ? it.next() : null;
+      return d;
+    }
+
+    @Override
+    public void close() {
+      it.close();
+    }
+  }
+
+  /**
+   * Takes a reference on the memtable, which keeps its files from being deleted until it is
+   * released with {@link #unref()}.
+   *
+   * @return false if the memtable has already been dropped from the DB, and must not be used
+   */
+  public boolean tryRef() {
+    int count;
+    do {
+      count = refCount.get();
+      if (count == 0) return false;
+    } while (!refCount.compareAndSet(count, count + 1));
+    return true;
+  }
+
+  /**
+   * Releases a reference. The files of a persisted memtable are deleted with the last reference.
+   * Those of a memtable in memory belong to the memtable it was persisted into, if any.
+   */
+  public void unref() {
+    if (refCount.decrementAndGet() == 0 && indexType == INDEX_TYPE.SPARSE_INDEX) {
+      if (channelFile != null) {
+        try {
+          channelFile.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+      new File(dataFilePath).delete();
+      new File(getIndexFilePath()).delete();
+    }
+  }
+
+  public String getDataFileName() {
+    return dataFileName;
+  }
+
+  private String getIndexFilePath() {
+    return dataFilePath + SparseIndexFile.FILE_SUFFIX;
   }
 
   public int getSizeInBytes() {
-    return index.getSizeInBytes();
+    return sizeInBytes.get();
+  }
+
+  public int getLevel() {
+    return level;
+  }
+
+  /** Size of the data file, once the memtable is persisted. */
+  public long getDataFileSize() {
+    return dataFileSize;
+  }
+
+  /** Number of records of the data file, tombstones included, once the memtable is persisted. */
+  public long getRecordCount() {
+    return recordCount;
+  }
+
+  /** Counters of the key filter of the data file, once the memtable is persisted. */
+  public FilterStats getFilterStats() {
+    return filterStats;
+  }
+
+  /**
+   * Bytes of the blocks read by gets and multi gets, from the data file or its mapping. Blocks
+   * found in the block cache are not counted.
+   */
+  public long getBytesRead() {
+    return bytesRead.sum();
+  }
+
+  /** The largest sequence of the records of the data file, once the memtable is persisted. */
+  public long getMaxSequence() {
+    return maxSequence;
+  }
+
+  /** Number of tombstones of the data file, once the memtable is persisted. */
+  public long getTombstoneCount() {
+    return tombstoneCount;
+  }
+
+  /** Smallest key of the data file, once the memtable is persisted. */
+  public String getSmallestKey() {
+    return smallestKey;
+  }
+
+  /** Largest key of the data file, once the memtable is persisted. */
+  public String getLargestKey() {
+    return largestKey;
   }
 }
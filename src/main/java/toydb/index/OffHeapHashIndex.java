@@ -0,0 +1,349 @@
+package toydb.index;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ObjLongConsumer;
+import toydb.datafile.RecordCodec;
+
+/**
+ * A {@link DBIndex} which keeps its keys and locations out of the Java heap, in direct
+ * ByteBuffers, so that the number of keys is not bounded by the heap, and the index adds nothing
+ * for the garbage collector to trace.
+ *
+ * <p>The index is an open addressing hash table with linear probing. Every slot of the table is
+ *
+ * <pre>
+ *   int address of the key + 1 | byte tag
+ * </pre>
+ *
+ * <p>where the address is 0 for an empty slot, and -1 for a removed key, and the tag is the low
+ * byte of the hash of the key, which skips almost all the keys of other hashes without reading
+ * them. The keys are appended to 1 MB chunks along with their locations, as {@code varint length |
+ * UTF-8 bytes | long location}, at most 2 GB of them, so that a key address fits in an int. A
+ * lookup compares the stored UTF-8 bytes with the key without decoding them, and neither a lookup
+ * nor an update allocates on the heap, except when the table grows. The hash is computed from the
+ * code points of the key, so that growing the table computes it again from the stored bytes.
+ * Growing the table also drops the bytes of the removed keys from the chunks.
+ *
+ * <p>Footprint : a key costs its slot, 5 bytes divided by the load factor of the table, between 0.6
+ * and 0.9, plus 1 byte of length for keys shorter than 128 bytes, its UTF-8 bytes and its 8 byte
+ * location. On 1M keys of 9 or 10 bytes, that is about 25 bytes per key, against about 120 heap
+ * bytes per key for a {@link HashBasedIndex} : close to 5 times smaller. More than half of the 25
+ * bytes are the key bytes and the locations themselves.
+ *
+ * <p>The index is not thread safe, like {@link HashBasedIndex}.
+ */
+public class OffHeapHashIndex implements DBIndex {
+
+  private static final int SLOT_SIZE = 5;
+  private static final int TAG_OFFSET = 4;
+  private static final int LOCATION_SIZE = 8;
+  private static final int EMPTY = 0;
+  private static final int REMOVED = -1;
+  private static final int KEY_CHUNK_SIZE = 1024 * 1024; // 1 MB
+  // the key addresses are positive ints
+  private static final int MAX_KEY_CHUNKS = Integer.MAX_VALUE / KEY_CHUNK_SIZE;
+  private static final int MAX_KEY_LENGTH = 0xFFFF;
+  private static final double MAX_LOAD_FACTOR = 0.9;
+  // the table grows by half, so that its load factor stays above MAX_LOAD_FACTOR / GROWTH_FACTOR
+  private static final double GROWTH_FACTOR = 1.5;
+  // the slot table is a single ByteBuffer, indexed by int
+  private static final int MAX_CAPACITY = Integer.MAX_VALUE / SLOT_SIZE;
+  private static final int MIN_CAPACITY = 16;
+  private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+  private ByteBuffer slots;
+  // not a power of 2 : a hash is mapped to a slot by a multiplication, see firstSlot()
+  private int capacity;
+  private int size = 0;
+  private int removed = 0;
+  private List<ByteBuffer> keyChunks = new ArrayList<>();
+
+  public OffHeapHashIndex() {
+    this(DEFAULT_INITIAL_CAPACITY);
+  }
+
+  /** @param expectedKeys number of keys the index holds before it has to grow */
+  public OffHeapHashIndex(int expectedKeys) {
+    long minCapacity = (long) Math.ceil(Math.max(expectedKeys, 1) / MAX_LOAD_FACTOR);
+    if (minCapacity > MAX_CAPACITY) throw new IllegalArgumentException("Too many keys");
+    capacity = (int) Math.max(MIN_CAPACITY, minCapacity);
+    slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+  }
+
+  @Override
+  public Long getLocationFromIndex(String key) {
+    long location = getLocation(key);
+    return location < 0 ? null : location;
+  }
+
+  @Override
+  public void updateIndex(String key, Long value) {
+    updateLocation(key, value);
+  }
+
+  @Override
+  public long getLocation(String key) {
+    int slot = findSlot(key, hash(key));
+    if (slot < 0) return -1;
+    int keyAddress = slots.getInt(slot * SLOT_SIZE);
+    return keyChunks.get(chunkIndex(keyAddress)).getLong(locationOffset(keyAddress));
+  }
+
+  @Override
+  public void updateLocation(String key, long location) {
+    if (location < 0) throw new IllegalArgumentException("location must not be negative");
+    int hash = hash(key);
+    int slot = findSlot(key, hash);
+    if (slot >= 0) {
+      int keyAddress = slots.getInt(slot * SLOT_SIZE);
+      keyChunks.get(chunkIndex(keyAddress)).putLong(locationOffset(keyAddress), location);
+      return;
+    }
+
+    if (size + removed + 1 > capacity * MAX_LOAD_FACTOR) {
+      // only grow if the live keys need it, else rehash to get rid of the removed slots
+      boolean grow = size + 1 > capacity * MAX_LOAD_FACTOR / GROWTH_FACTOR;
+      rehash(grow ? (long) Math.ceil(capacity * GROWTH_FACTOR) : capacity);
+    }
+    int keyAddress = appendKey(keyChunks, key, location);
+    slot = insertSlot(slots, capacity, hash);
+    if (slots.getInt(slot * SLOT_SIZE) == REMOVED) removed--;
+    writeSlot(slots, slot, keyAddress, hash);
+    size++;
+  }
+
+  @Override
+  public void removeFromIndex(String key) {
+    int slot = findSlot(key, hash(key));
+    if (slot < 0) return;
+    slots.putInt(slot * SLOT_SIZE, REMOVED);
+    size--;
+    removed++;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /** Decodes every key, the only method of the index which allocates for each key. */
+  @Override
+  public void forEachLocation(ObjLongConsumer<String> consumer) {
+    for (int slot = 0; slot < capacity; slot++) {
+      int keyAddress = slots.getInt(slot * SLOT_SIZE);
+      if (keyAddress == EMPTY || keyAddress == REMOVED) continue;
+      consumer.accept(
+          decodeKey(keyAddress),
+          keyChunks.get(chunkIndex(keyAddress)).getLong(locationOffset(keyAddress)));
+    }
+  }
+
+  /** Bytes allocated out of the heap for the slots and the keys. */
+  public long getOffHeapSizeInBytes() {
+    return (long) slots.capacity() + (long) keyChunks.size() * KEY_CHUNK_SIZE;
+  }
+
+  /** The slot holding key, or -1. */
+  private int findSlot(String key, int hash) {
+    byte tag = (byte) hash;
+    for (int slot = firstSlot(hash, capacity); ; slot = nextSlot(slot, capacity)) {
+      int offset = slot * SLOT_SIZE;
+      int keyAddress = slots.getInt(offset);
+      if (keyAddress == EMPTY) return -1;
+      if (keyAddress != REMOVED
+          && slots.get(offset + TAG_OFFSET) == tag
+          && keyEquals(keyAddress, key)) {
+        return slot;
+      }
+    }
+  }
+
+  /** The first empty or removed slot for hash. The table always has an empty slot. */
+  private static int insertSlot(ByteBuffer slots, int capacity, int hash) {
+    for (int slot = firstSlot(hash, capacity); ; slot = nextSlot(slot, capacity)) {
+      int keyAddress = slots.getInt(slot * SLOT_SIZE);
+      if (keyAddress == EMPTY || keyAddress == REMOVED) return slot;
+    }
+  }
+
+  /** Maps the high bits of the hash to [0, capacity), the tag being its low bits. */
+  private static int firstSlot(int hash, int capacity) {
+    return (int) (((hash & 0xFFFFFFFFL) * capacity) >>> 32);
+  }
+
+  private static int nextSlot(int slot, int capacity) {
+    return slot + 1 == capacity ? 0 : slot + 1;
+  }
+
+  private static void writeSlot(ByteBuffer slots, int slot, int keyAddress, int hash) {
+    int offset = slot * SLOT_SIZE;
+    slots.putInt(offset, keyAddress);
+    slots.put(offset + TAG_OFFSET, (byte) hash);
+  }
+
+  /** Moves the live keys to a new table and to new key chunks. */
+  private void rehash(long newCapacity) {
+    if (newCapacity > MAX_CAPACITY) throw new IllegalStateException("OffHeapHashIndex is full");
+    int newSlotCount = (int) newCapacity;
+    ByteBuffer newSlots = ByteBuffer.allocateDirect(newSlotCount * SLOT_SIZE);
+    List<ByteBuffer> newKeyChunks = new ArrayList<>();
+    for (int slot = 0; slot < capacity; slot++) {
+      int keyAddress = slots.getInt(slot * SLOT_SIZE);
+      if (keyAddress == EMPTY || keyAddress == REMOVED) continue;
+      int hash = storedHash(keyAddress);
+      writeSlot(
+          newSlots,
+          insertSlot(newSlots, newSlotCount, hash),
+          copyKey(keyAddress, newKeyChunks),
+          hash);
+    }
+    slots = newSlots;
+    capacity = newSlotCount;
+    keyChunks = newKeyChunks;
+    removed = 0;
+  }
+
+  private static int appendKey(List<ByteBuffer> chunks, String key, long location) {
+    int length = RecordCodec.utf8Length(key);
+    if (length > MAX_KEY_LENGTH) throw new IllegalArgumentException("Key is too long");
+    ByteBuffer chunk =
+        chunkFor(chunks, RecordCodec.varLongSize(length) + length + LOCATION_SIZE);
+    int keyAddress = address(chunks.size() - 1, chunk.position());
+    RecordCodec.putVarLong(chunk, length);
+    RecordCodec.putUtf8(chunk, key);
+    chunk.putLong(location);
+    return keyAddress;
+  }
+
+  private int copyKey(int keyAddress, List<ByteBuffer> newChunks) {
+    ByteBuffer key = keyChunks.get(chunkIndex(keyAddress)).duplicate();
+    key.limit(locationOffset(keyAddress) + LOCATION_SIZE).position(chunkOffset(keyAddress));
+    ByteBuffer chunk = chunkFor(newChunks, key.remaining());
+    int newKeyAddress = address(newChunks.size() - 1, chunk.position());
+    chunk.put(key);
+    return newKeyAddress;
+  }
+
+  /** The last chunk, or a new one if the last chunk has less than length bytes left. */
+  private static ByteBuffer chunkFor(List<ByteBuffer> chunks, int length) {
+    if (chunks.isEmpty() || chunks.get(chunks.size() - 1).remaining() < length) {
+      if (chunks.size() == MAX_KEY_CHUNKS) {
+        throw new IllegalStateException("OffHeapHashIndex is full");
+      }
+      chunks.add(ByteBuffer.allocateDirect(KEY_CHUNK_SIZE));
+    }
+    return chunks.get(chunks.size() - 1);
+  }
+
+  private String decodeKey(int keyAddress) {
+    ByteBuffer chunk = keyChunks.get(chunkIndex(keyAddress));
+    int offset = chunkOffset(keyAddress);
+    int length = keyLength(chunk, offset);
+    byte[] bytes = new byte[length];
+    ByteBuffer key = chunk.duplicate();
+    key.position(offset + RecordCodec.varLongSize(length));
+    key.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private boolean keyEquals(int keyAddress, String key) {
+    ByteBuffer chunk = keyChunks.get(chunkIndex(keyAddress));
+    int offset = chunkOffset(keyAddress);
+    int length = keyLength(chunk, offset);
+    return RecordCodec.utf8Equals(
+        chunk, offset + RecordCodec.varLongSize(length), length, key);
+  }
+
+  /** Offset in its chunk of the location of the key at keyAddress, after the key bytes. */
+  private int locationOffset(int keyAddress) {
+    ByteBuffer chunk = keyChunks.get(chunkIndex(keyAddress));
+    int offset = chunkOffset(keyAddress);
+    int length = keyLength(chunk, offset);
+    return offset + RecordCodec.varLongSize(length) + length;
+  }
+
+  /** The varint length of the key bytes starting at offset, at most 3 bytes. */
+  private static int keyLength(ByteBuffer chunk, int offset) {
+    int length = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = chunk.get(offset++);
+      length |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) return length;
+    }
+  }
+
+  private static int address(int chunkIndex, int chunkOffset) {
+    return chunkIndex * KEY_CHUNK_SIZE + chunkOffset + 1;
+  }
+
+  private static int chunkIndex(int keyAddress) {
+    return (keyAddress - 1) / KEY_CHUNK_SIZE;
+  }
+
+  private static int chunkOffset(int keyAddress) {
+    return (keyAddress - 1) % KEY_CHUNK_SIZE;
+  }
+
+  /**
+   * A hash of the code points of the key, an unpaired surrogate counting as the '?' it is stored
+   * as, so that {@link #storedHash} computes the same hash from the stored bytes.
+   */
+  private static int hash(String key) {
+    int h = 0;
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      int codePoint = c;
+      if (Character.isHighSurrogate(c)
+          && i + 1 < key.length()
+          && Character.isLowSurrogate(key.charAt(i + 1))) {
+        codePoint = Character.toCodePoint(c, key.charAt(++i));
+      } else if (Character.isSurrogate(c)) {
+        codePoint = '?';
+      }
+      h = 31 * h + codePoint;
+    }
+    return spread(h);
+  }
+
+  /** The hash of the key stored at keyAddress, decoded from its UTF-8 bytes without allocating. */
+  private int storedHash(int keyAddress) {
+    ByteBuffer chunk = keyChunks.get(chunkIndex(keyAddress));
+    int offset = chunkOffset(keyAddress);
+    int length = keyLength(chunk, offset);
+    int i = offset + RecordCodec.varLongSize(length);
+    int end = i + length;
+    int h = 0;
+    while (i < end) {
+      int b = chunk.get(i++) & 0xFF;
+      int codePoint;
+      if (b < 0x80) {
+        codePoint = b;
+      } else if (b < 0xE0) {
+        codePoint = (b & 0x1F) << 6 | (chunk.get(i++) & 0x3F);
+      } else if (b < 0xF0) {
+        codePoint = (b & 0x0F) << 12 | (chunk.get(i++) & 0x3F) << 6 | (chunk.get(i++) & 0x3F);
+      } else {
+        codePoint =
+            (b & 0x07) << 18
+                | (chunk.get(i++) & 0x3F) << 12
+                | (chunk.get(i++) & 0x3F) << 6
+                | (chunk.get(i++) & 0x3F);
+      }
+      h = 31 * h + codePoint;
+    }
+    return spread(h);
+  }
+
+  /** Spreads the bits of h over the whole int : the slot takes the high bits, the tag the low. */
+  private static int spread(int h) {
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    h ^= h >>> 16;
+    return h;
+  }
+}
@@ -0,0 +1,223 @@
+package toydb.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import toydb.common.RBTree;
+import toydb.datafile.BlockCodec;
+import toydb.datafile.BlockCompression;
+import toydb.datafile.DataFile;
+import toydb.datafile.PrefixBlock;
+import toydb.datafile.PrefixBlockBuilder;
+import toydb.toydb.DBOptions;
+
+/**
+ * Writes an SSTable from records added in increasing order of their keys, and the versions of a key
+ * from newest to oldest. The sparse index is built in the same pass, along with the hashes of the
+ * keys, from which {@link #finish()} builds a {@link BloomKeyFilter} sized for the actual number of
+ * keys. Both are written to the {@link SparseIndexFile} of the SSTable. The blocks of the data file
+ * are sequenced {@link PrefixBlock}s of about BLOCK_SIZE bytes, compressed if the options have a
+ * {@link BlockCodec}. All the versions of a key are written to the same block.
+ *
+ * <p>Records are encoded into the buffer of the block builder, and every block is framed, and
+ * compressed, straight into a direct write buffer, without an array of its own. The write buffer is
+ * written to the data file by large sequential {@link FileChannel} writes, and is reused by the
+ * next builder of the same thread, such as the flusher or the compactor of a DB.
+ *
+ * <p>A builder must be closed : closing a builder which is not finished, e.g. because adding a
+ * record failed, deletes the partial SSTable.
+ */
+public class SSTableBuilder implements Closeable {
+
+  private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+  // the write buffer of the last builder finished by each thread, taken by its next builder
+  private static final ThreadLocal<ByteBuffer> WRITE_BUFFERS = new ThreadLocal<>();
+
+  private String dataFilePath;
+  private FileChannel channel;
+  private ByteBuffer writeBuffer;
+  // where the next block starts in the data file, the blocks still in the write buffer included
+  private long writeOffset = 0;
+  private BlockCodec blockCodec;
+  // reused to compress every block
+  private byte[] compressed = new byte[0];
+  private PrefixBlockBuilder block = new PrefixBlockBuilder(true);
+  private RBTree sparseIndex = new RBTree();
+  // hashes of the distinct keys added so far, tombstones included
+  private long[] keyHashes = new long[1024];
+  private int keyCount = 0;
+  private String smallestKey;
+  private String largestKey;
+  private long recordCount = 0;
+  private long tombstoneCount = 0;
+  private long maxSequence = 0;
+  private int blockCodecId;
+  private double bloomFilterFalsePositiveRate;
+  private boolean blockedBloomFilter;
+  // set once finish() returns, or once the builder is closed
+  private boolean done = false;
+
+  public SSTableBuilder(String dataFilePath) throws IOException {
+    this(dataFilePath, new DBOptions());
+  }
+
+  /** The block codec and the bloom filter settings are taken from options. */
+  public SSTableBuilder(String dataFilePath, DBOptions options) throws IOException {
+    this.blockCodec = options.getBlockCodec();
+    this.dataFilePath = dataFilePath;
+    this.channel =
+        FileChannel.open(
+            Paths.get(dataFilePath),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    ByteBuffer reused = WRITE_BUFFERS.get();
+    WRITE_BUFFERS.remove();
+    this.writeBuffer = reused != null ? reused : ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    this.writeBuffer.clear();
+    this.blockCodecId = blockCodec == null ? 0 : blockCodec.getId();
+    this.bloomFilterFalsePositiveRate = options.getBloomFilterFalsePositiveRate();
+    this.blockedBloomFilter = options.isBlockedBloomFilter();
+  }
+
+  /**
+   * Keys must be added in increasing order, and the versions of a key in decreasing order of their
+   * sequences.
+   *
+   * @param value null for a tombstone
+   */
+  public void add(String key, String value, long sequence) throws IOException {
+    boolean newKey = !key.equals(largestKey);
+    // a record larger than a block gets a block of its own. The versions of a key are never split
+    if (newKey && !block.isEmpty() && block.sizeWith(key, value) > DataFile.BLOCK_SIZE_IN_BYTES) {
+      flushBlock();
+    }
+    // update sparse index if a new data block has started
+    if (block.isEmpty()) {
+      sparseIndex.insert(key, Long.toString(writeOffset));
+    }
+    block.add(key, value, sequence);
+    // tombstones are added as well, so that a lookup finds the tombstone instead of an older value
+    if (newKey) {
+      if (keyCount == keyHashes.length) {
+        keyHashes = Arrays.copyOf(keyHashes, (int) Math.min(2L * keyCount, Integer.MAX_VALUE));
+      }
+      keyHashes[keyCount++] = BloomKeyFilter.hash(key);
+    }
+    if (value == null) tombstoneCount++;
+    maxSequence = Math.max(maxSequence, sequence);
+
+    if (smallestKey == null) smallestKey = key;
+    largestKey = key;
+    recordCount++;
+  }
+
+  /** Number of records added, every version of a key included. */
+  public long getRecordCount() {
+    return recordCount;
+  }
+
+  /** Size of the data file, once the records added so far are written. */
+  public long getEstimatedFileSize() {
+    return writeOffset + block.getSizeInBytes();
+  }
+
+  /** Frames the block into the write buffer, which is written out first if it is too full. */
+  private void flushBlock() throws IOException {
+    ByteBuffer content = block.finish();
+    int length = content.remaining();
+    int maxFramedSize = BlockCompression.maxFramedSize(blockCodec, length);
+    if (writeBuffer.remaining() < maxFramedSize) drainWriteBuffer();
+    if (blockCodec != null && compressed.length < blockCodec.maxCompressedLength(length)) {
+      compressed = new byte[blockCodec.maxCompressedLength(length)];
+    }
+
+    // a record larger than the write buffer gets a buffer of its own
+    ByteBuffer out =
+        maxFramedSize <= writeBuffer.capacity() ? writeBuffer : ByteBuffer.allocate(maxFramedSize);
+    writeOffset +=
+        BlockCompression.compress(
+            blockCodec, content.array(), length, true, true, compressed, out);
+    if (out != writeBuffer) {
+      out.flip();
+      write(out);
+    }
+    block.reset();
+  }
+
+  private void drainWriteBuffer() throws IOException {
+    writeBuffer.flip();
+    write(writeBuffer);
+    writeBuffer.clear();
+  }
+
+  private void write(ByteBuffer src) throws IOException {
+    while (src.hasRemaining()) channel.write(src);
+  }
+
+  /**
+   * Writes the last block, syncs the data file, and then writes the sparse index file. The SSTable
+   * can be opened with {@link Memtable#open} once this method returns.
+   */
+  public SparseIndexFile finish() throws IOException {
+    if (!block.isEmpty()) flushBlock();
+    long dataFileSize = writeOffset;
+    try {
+      drainWriteBuffer();
+      channel.force(true);
+    } finally {
+      releaseChannel();
+    }
+
+    KeyFilter keyFilter =
+        BloomKeyFilter.build(
+            keyHashes, keyCount, bloomFilterFalsePositiveRate, blockedBloomFilter);
+    keyHashes = null;
+    SparseIndexFile indexFile =
+        new SparseIndexFile(
+            sparseIndex,
+            keyFilter,
+            dataFileSize,
+            smallestKey,
+            largestKey,
+            recordCount,
+            tombstoneCount,
+            maxSequence,
+            blockCodecId);
+    indexFile.write(dataFilePath + SparseIndexFile.FILE_SUFFIX);
+    done = true;
+    return indexFile;
+  }
+
+  /**
+   * Closes the data file and hands the write buffer back, if finish() did not already do it, and
+   * deletes the files written so far. Has no effect once finish() has returned.
+   */
+  @Override
+  public void close() throws IOException {
+    if (done) return;
+    done = true;
+    try {
+      releaseChannel();
+    } finally {
+      Files.deleteIfExists(Paths.get(dataFilePath));
+      Files.deleteIfExists(Paths.get(dataFilePath + SparseIndexFile.FILE_SUFFIX));
+    }
+  }
+
+  /** Closes the data file, and keeps the write buffer for the next builder of this thread. */
+  private void releaseChannel() throws IOException {
+    if (writeBuffer == null) return;
+    try {
+      channel.close();
+    } finally {
+      WRITE_BUFFERS.set(writeBuffer);
+      writeBuffer = null;
+    }
+  }
+}
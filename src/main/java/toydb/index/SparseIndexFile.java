@@ -0,0 +1,231 @@
+package toydb.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import toydb.common.RBTree;
+import toydb.toydb.Data;
+
+/**
+ * The sidecar file of an SSTable, which holds everything needed to serve reads from the SSTable
+ * without scanning its data file : the sparse block index and the key filter.
+ *
+ * <p>Format :
+ *
+ * <pre>
+ *   int magic | int version | long data file size | smallest key | largest key
+ *   long record count | long tombstone count | long max sequence | int block codec id
+ *   int entry count
+ *   entry count x ( key | long block location )
+ *   serialized key filter
+ *   long CRC32 of all the preceding bytes
+ * </pre>
+ *
+ * <p>where every key is written as its int length followed by its UTF-8 bytes. The block codec id
+ * is 0 if the blocks are not compressed. Compressed blocks are not padded, so the on-disk size of a
+ * block is the distance from its location to the location of the next block.
+ *
+ * <p>The key filter is written by {@link KeyFilter#writeTo}, led by its type. Files older than
+ * version 6 hold a Guava bloom filter sized for 100,000 keys, with no type byte.
+ *
+ * <p>The blocks of a data file of version 5 and later are {@link toydb.datafile.PrefixBlock}s,
+ * behind a header even when they are not compressed. Older versions have blocks of plain records,
+ * and version 3 files, which have no block codec id, are read as uncompressed.
+ *
+ * <p>The max sequence is the largest sequence number of the records of the data file. Files older
+ * than version 7 have no max sequence, and their records have no sequence number : they are read
+ * as of sequence 0.
+ */
+public class SparseIndexFile {
+
+  public static final String FILE_SUFFIX = ".index";
+
+  private static final int MAGIC = 0x5449_4458; // "TIDX"
+  private static final int VERSION = 7;
+  private static final int UNSEQUENCED_VERSION = 6;
+  private static final int GUAVA_FILTER_VERSION = 5;
+  private static final int RECORD_BLOCKS_VERSION = 4;
+  private static final int UNCOMPRESSED_VERSION = 3;
+
+  private RBTree sparseIndex;
+  private KeyFilter keyFilter;
+  private long dataFileSize;
+  private String smallestKey;
+  private String largestKey;
+  private long recordCount;
+  private long tombstoneCount;
+  private long maxSequence;
+  private int blockCodecId;
+  // always true for the index of an SSTable written by SSTableBuilder
+  private boolean prefixEncoded = true;
+
+  public SparseIndexFile(
+      RBTree sparseIndex,
+      KeyFilter keyFilter,
+      long dataFileSize,
+      String smallestKey,
+      String largestKey,
+      long recordCount,
+      long tombstoneCount,
+      long maxSequence,
+      int blockCodecId) {
+    this.sparseIndex = sparseIndex;
+    this.keyFilter = keyFilter;
+    this.dataFileSize = dataFileSize;
+    this.smallestKey = smallestKey;
+    this.largestKey = largestKey;
+    this.recordCount = recordCount;
+    this.tombstoneCount = tombstoneCount;
+    this.maxSequence = maxSequence;
+    this.blockCodecId = blockCodecId;
+  }
+
+  /** Writes this index, and syncs it to disk before returning. */
+  public void write(String path) throws IOException {
+    try (FileOutputStream fos = new FileOutputStream(path)) {
+      CheckedOutputStream checked =
+          new CheckedOutputStream(new BufferedOutputStream(fos), new CRC32());
+      DataOutputStream out = new DataOutputStream(checked);
+
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(dataFileSize);
+      writeKey(out, smallestKey);
+      writeKey(out, largestKey);
+      out.writeLong(recordCount);
+      out.writeLong(tombstoneCount);
+      out.writeLong(maxSequence);
+      out.writeInt(blockCodecId);
+      List<Data> entries = sparseIndex.getAllElements();
+      out.writeInt(entries.size());
+      for (Data entry : entries) {
+        writeKey(out, entry.getKey());
+        out.writeLong(Long.parseLong(entry.getValue()));
+      }
+      keyFilter.writeTo(out);
+
+      out.flush();
+      out.writeLong(checked.getChecksum().getValue());
+      out.flush();
+      fos.getFD().sync();
+    }
+  }
+
+  /** @throws IOException if the file can not be read, or if its checksum does not match */
+  public static SparseIndexFile read(String path) throws IOException {
+    try (FileInputStream fis = new FileInputStream(path)) {
+      CheckedInputStream checked =
+          new CheckedInputStream(new BufferedInputStream(fis), new CRC32());
+      DataInputStream in = new DataInputStream(checked);
+
+      if (in.readInt() != MAGIC) throw new IOException("Not a sparse index file : " + path);
+      int version = in.readInt();
+      if (version < UNCOMPRESSED_VERSION || version > VERSION) {
+        throw new IOException("Unsupported sparse index version " + version);
+      }
+
+      long dataFileSize = in.readLong();
+      String smallestKey = readKey(in);
+      String largestKey = readKey(in);
+      long recordCount = in.readLong();
+      long tombstoneCount = in.readLong();
+      long maxSequence = version <= UNSEQUENCED_VERSION ? 0 : in.readLong();
+      int blockCodecId = version == UNCOMPRESSED_VERSION ? 0 : in.readInt();
+      int entryCount = in.readInt();
+      RBTree sparseIndex = new RBTree();
+      for (int i = 0; i < entryCount; i++) {
+        sparseIndex.insert(readKey(in), Long.toString(in.readLong()));
+      }
+      KeyFilter keyFilter =
+          version <= GUAVA_FILTER_VERSION ? GuavaKeyFilter.read(in) : KeyFilter.readFrom(in);
+
+      long expectedChecksum = checked.getChecksum().getValue();
+      if (in.readLong() != expectedChecksum) {
+        throw new IOException("Checksum mismatch in sparse index file : " + path);
+      }
+      SparseIndexFile indexFile =
+          new SparseIndexFile(
+              sparseIndex,
+              keyFilter,
+              dataFileSize,
+              smallestKey,
+              largestKey,
+              recordCount,
+              tombstoneCount,
+              maxSequence,
+              blockCodecId);
+      indexFile.prefixEncoded = version > RECORD_BLOCKS_VERSION;
+      return indexFile;
+    }
+  }
+
+  private static void writeKey(DataOutputStream out, String key) throws IOException {
+    byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readKey(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  public RBTree getSparseIndex() {
+    return sparseIndex;
+  }
+
+  public KeyFilter getKeyFilter() {
+    return keyFilter;
+  }
+
+  public String getSmallestKey() {
+    return smallestKey;
+  }
+
+  public String getLargestKey() {
+    return largestKey;
+  }
+
+  /** Number of records of the data file, tombstones included. */
+  public long getRecordCount() {
+    return recordCount;
+  }
+
+  public long getTombstoneCount() {
+    return tombstoneCount;
+  }
+
+  /** The largest sequence number of the records, 0 if they have no sequence number. */
+  public long getMaxSequence() {
+    return maxSequence;
+  }
+
+  /** Id of the {@link toydb.datafile.BlockCodec} of the blocks, 0 if they are not compressed. */
+  public int getBlockCodecId() {
+    return blockCodecId;
+  }
+
+  public boolean isCompressed() {
+    return blockCodecId != 0;
+  }
+
+  /** Whether the blocks are {@link toydb.datafile.PrefixBlock}s, else blocks of plain records. */
+  public boolean isPrefixEncoded() {
+    return prefixEncoded;
+  }
+
+  /** Size of the data file when the index was written, to detect a truncated data file. */
+  public long getDataFileSize() {
+    return dataFileSize;
+  }
+}
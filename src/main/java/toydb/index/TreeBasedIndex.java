@@ -0,0 +1,51 @@
+package toydb.index;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * A {@link DBIndex} which keeps its keys sorted, so that a batch of a scan costs a lookup and the
+ * keys of the batch, instead of a walk over the whole index. Lookups and updates cost log(n) key
+ * comparisons, against one hash and one comparison for a {@link HashBasedIndex}.
+ *
+ * <p>The index is not thread safe, like {@link HashBasedIndex}.
+ */
+public class TreeBasedIndex implements DBIndex {
+
+  private TreeMap<String, Long> keyToLocationMap = new TreeMap<>();
+
+  @Override
+  public Long getLocationFromIndex(String key) {
+    return keyToLocationMap.get(key);
+  }
+
+  @Override
+  public void updateIndex(String key, Long value) {
+    keyToLocationMap.put(key, value);
+  }
+
+  @Override
+  public void removeFromIndex(String key) {
+    keyToLocationMap.remove(key);
+  }
+
+  @Override
+  public int size() {
+    return keyToLocationMap.size();
+  }
+
+  @Override
+  public void forEachLocation(ObjLongConsumer<String> consumer) {
+    keyToLocationMap.forEach(consumer::accept);
+  }
+
+  @Override
+  public void forEachLocationFrom(String fromKey, int maxKeys, ObjLongConsumer<String> consumer) {
+    int count = 0;
+    for (Map.Entry<String, Long> entry : keyToLocationMap.tailMap(fromKey, true).entrySet()) {
+      if (count++ == maxKeys) return;
+      consumer.accept(entry.getKey(), entry.getValue());
+    }
+  }
+}
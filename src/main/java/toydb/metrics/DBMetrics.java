@@ -0,0 +1,95 @@
+package toydb.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics recorded by a DB as it runs : the latency of its operations, and counters. Recording
+ * does not allocate and takes no lock. The figures a DB can compute from its current state, e.g.
+ * its number of SSTables, are only gathered when a snapshot is taken, see {@link
+ * #snapshot(Map)}.
+ */
+public class DBMetrics {
+
+  private LatencyHistogram putLatency = new LatencyHistogram();
+  private LatencyHistogram getLatency = new LatencyHistogram();
+  private LatencyHistogram deleteLatency = new LatencyHistogram();
+  private LatencyHistogram multiGetLatency = new LatencyHistogram();
+  private LatencyHistogram flushLatency = new LatencyHistogram();
+
+  private LongAdder flushedBytes = new LongAdder();
+  private LongAdder bytesRead = new LongAdder();
+  private LongAdder multiGetKeys = new LongAdder();
+  private LongAdder errors = new LongAdder();
+  private LongAdder filterNegatives = new LongAdder();
+  private LongAdder filterPositives = new LongAdder();
+  private LongAdder filterFalsePositives = new LongAdder();
+
+  public void recordPut(long nanos) {
+    putLatency.record(nanos);
+  }
+
+  public void recordGet(long nanos) {
+    getLatency.record(nanos);
+  }
+
+  public void recordDelete(long nanos) {
+    deleteLatency.record(nanos);
+  }
+
+  public void recordFlush(long nanos, long bytesWritten) {
+    flushLatency.record(nanos);
+    flushedBytes.add(bytesWritten);
+  }
+
+  /** Bytes read from the data files by lookups. */
+  public void recordBytesRead(long bytes) {
+    bytesRead.add(bytes);
+  }
+
+  /** A multi get of keyCount keys, which took nanos for all of them. */
+  public void recordMultiGet(int keyCount, long nanos) {
+    multiGetLatency.record(nanos);
+    multiGetKeys.add(keyCount);
+  }
+
+  /** An operation which failed, and whose exception was not thrown to the caller. */
+  public void recordError() {
+    errors.increment();
+  }
+
+  /** Counts the lookups of the key filter of an SSTable which is dropped, e.g. by a compaction. */
+  public void recordFilterLookups(long negatives, long positives, long falsePositives) {
+    filterNegatives.add(negatives);
+    filterPositives.add(positives);
+    filterFalsePositives.add(falsePositives);
+  }
+
+  /**
+   * @param current the figures computed by the DB from its current state. A figure named as one of
+   *     the counters of this class is added to it, e.g. the bytes read from the live SSTables to
+   *     the bytes read from the SSTables which were compacted away.
+   */
+  public MetricsSnapshot snapshot(Map<String, Long> current) {
+    Map<String, HistogramSnapshot> histograms = new LinkedHashMap<>();
+    histograms.put(MetricsSnapshot.PUT, putLatency.snapshot());
+    histograms.put(MetricsSnapshot.GET, getLatency.snapshot());
+    histograms.put(MetricsSnapshot.DELETE, deleteLatency.snapshot());
+    histograms.put(MetricsSnapshot.MULTI_GET, multiGetLatency.snapshot());
+    histograms.put(MetricsSnapshot.FLUSH, flushLatency.snapshot());
+
+    Map<String, Long> counters = new LinkedHashMap<>();
+    counters.put(MetricsSnapshot.FLUSH_BYTES, flushedBytes.sum());
+    counters.put(MetricsSnapshot.BYTES_READ, bytesRead.sum());
+    counters.put(MetricsSnapshot.MULTI_GET_KEYS, multiGetKeys.sum());
+    counters.put(MetricsSnapshot.ERRORS, errors.sum());
+    counters.put(MetricsSnapshot.FILTER_NEGATIVES, filterNegatives.sum());
+    counters.put(MetricsSnapshot.FILTER_POSITIVES, filterPositives.sum());
+    counters.put(MetricsSnapshot.FILTER_FALSE_POSITIVES, filterFalsePositives.sum());
+    for (Map.Entry<String, Long> figure : current.entrySet()) {
+      counters.merge(figure.getKey(), figure.getValue(), Long::sum);
+    }
+    return new MetricsSnapshot(histograms, counters);
+  }
+}
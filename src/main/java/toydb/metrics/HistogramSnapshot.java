@@ -0,0 +1,76 @@
+package toydb.metrics;
+
+import java.util.Collection;
+
+/** The counts of a {@link LatencyHistogram} at one point in time. Durations are in nanoseconds. */
+public class HistogramSnapshot {
+
+  private long[] counts;
+  private long count;
+  private long sum;
+  private long max;
+
+  HistogramSnapshot(long[] counts, long sum, long max) {
+    this.counts = counts;
+    this.sum = sum;
+    this.max = max;
+    for (long c : counts) count += c;
+  }
+
+  /** The histogram of all the durations counted by the snapshots. */
+  static HistogramSnapshot merge(Collection<HistogramSnapshot> snapshots) {
+    long[] counts = new long[LatencyHistogram.BUCKET_COUNT];
+    long sum = 0;
+    long max = 0;
+    for (HistogramSnapshot snapshot : snapshots) {
+      for (int i = 0; i < counts.length; i++) counts[i] += snapshot.counts[i];
+      sum += snapshot.sum;
+      max = Math.max(max, snapshot.max);
+    }
+    return new HistogramSnapshot(counts, sum, max);
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public double getMean() {
+    return count == 0 ? 0 : (double) sum / count;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  /**
+   * The smallest duration which percentile % of the recorded durations do not exceed, rounded up
+   * to the highest value of its bucket, 0 if nothing was recorded.
+   *
+   * @param percentile in [0, 100]
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("percentile must be in [0, 100]");
+    }
+    if (count == 0) return 0;
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) return Math.min(LatencyHistogram.highestValue(i), max);
+    }
+    return max;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "count=%d, mean=%.0f ns, p50=%d ns, p99=%d ns, p99.9=%d ns, max=%d ns",
+        count,
+        getMean(),
+        getValueAtPercentile(50),
+        getValueAtPercentile(99),
+        getValueAtPercentile(99.9),
+        max);
+  }
+}
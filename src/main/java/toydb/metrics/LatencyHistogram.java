@@ -0,0 +1,64 @@
+package toydb.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds, with log linear buckets as in HdrHistogram : every power
+ * of two is split into 128 buckets of the same width, so that a duration is known within 1%, from
+ * 1 ns up to {@link #MAX_VALUE}, with a fixed array of about 4,400 counters. Longer durations are
+ * counted as MAX_VALUE.
+ *
+ * <p>Recording does not allocate and takes no lock, and can be called by any number of threads.
+ * Percentiles are computed on a {@link #snapshot()}.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  /** About 18 minutes. */
+  public static final long MAX_VALUE = (1L << 40) - 1;
+
+  static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+  private AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private LongAdder sum = new LongAdder();
+  private AtomicLong max = new AtomicLong();
+
+  public void record(long nanos) {
+    long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+    counts.incrementAndGet(bucketIndex(value));
+    sum.add(value);
+    long currentMax;
+    while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {}
+  }
+
+  /**
+   * Values below 2 x SUB_BUCKETS have a bucket of their own. Above, a value is bucketed by its top
+   * SUB_BUCKET_BITS + 1 bits.
+   */
+  static int bucketIndex(long value) {
+    if (value < 2 * SUB_BUCKETS) return (int) value;
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return ((shift + 1) << SUB_BUCKET_BITS) + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  /** The highest value counted in the bucket. */
+  static long highestValue(int bucketIndex) {
+    if (bucketIndex < 2 * SUB_BUCKETS) return bucketIndex;
+    int shift = (bucketIndex >>> SUB_BUCKET_BITS) - 1;
+    long top = (bucketIndex & (SUB_BUCKETS - 1)) + SUB_BUCKETS;
+    return ((top + 1) << shift) - 1;
+  }
+
+  /**
+   * Copies the counts. Values recorded while the snapshot is taken may be counted in some of its
+   * figures and not in others.
+   */
+  public HistogramSnapshot snapshot() {
+    long[] copy = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) copy[i] = counts.get(i);
+    return new HistogramSnapshot(copy, sum.sum(), max.get());
+  }
+}
@@ -0,0 +1,127 @@
+package toydb.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The metrics of a DB at one point in time : a latency histogram per operation, and named
+ * counters. {@link #toMap()} flattens them into a map from metric name to value, to be scraped.
+ */
+public class MetricsSnapshot {
+
+  // histograms
+  public static final String PUT = "put";
+  public static final String GET = "get";
+  public static final String DELETE = "delete";
+  public static final String MULTI_GET = "multi_get";
+  public static final String FLUSH = "flush";
+
+  // counters
+  public static final String FLUSH_BYTES = "flush.bytes";
+  public static final String BYTES_READ = "read.bytes";
+  public static final String MULTI_GET_KEYS = "multi_get.keys";
+  public static final String ERRORS = "errors";
+  public static final String FILTER_NEGATIVES = "filter.negatives";
+  public static final String FILTER_POSITIVES = "filter.positives";
+  public static final String FILTER_FALSE_POSITIVES = "filter.false_positives";
+  // figures of the current state of the DB
+  public static final String SSTABLE_COUNT = "sstable.count";
+  public static final String MEMTABLE_BYTES = "memtable.bytes";
+  public static final String SEGMENT_COUNT = "segment.count";
+
+  private Map<String, HistogramSnapshot> histograms;
+  private Map<String, Long> counters;
+
+  MetricsSnapshot(Map<String, HistogramSnapshot> histograms, Map<String, Long> counters) {
+    this.histograms = Collections.unmodifiableMap(histograms);
+    this.counters = Collections.unmodifiableMap(counters);
+  }
+
+  /**
+   * The metrics of several DBs as those of a single one, e.g. the shards of a {@link
+   * toydb.toydb.ShardedToyDB} : the histograms of the same operation are merged, and the counters
+   * of the same name are added up.
+   */
+  public static MetricsSnapshot merge(Collection<MetricsSnapshot> snapshots) {
+    Map<String, List<HistogramSnapshot>> histogramsByName = new LinkedHashMap<>();
+    Map<String, Long> counters = new LinkedHashMap<>();
+    for (MetricsSnapshot snapshot : snapshots) {
+      for (Map.Entry<String, HistogramSnapshot> entry : snapshot.histograms.entrySet()) {
+        histogramsByName.computeIfAbsent(entry.getKey(), name -> new ArrayList<>());
+        histogramsByName.get(entry.getKey()).add(entry.getValue());
+      }
+      for (Map.Entry<String, Long> entry : snapshot.counters.entrySet()) {
+        counters.merge(entry.getKey(), entry.getValue(), Long::sum);
+      }
+    }
+    Map<String, HistogramSnapshot> histograms = new LinkedHashMap<>();
+    for (Map.Entry<String, List<HistogramSnapshot>> entry : histogramsByName.entrySet()) {
+      histograms.put(entry.getKey(), HistogramSnapshot.merge(entry.getValue()));
+    }
+    return new MetricsSnapshot(histograms, counters);
+  }
+
+  /** The latency histogram of an operation, e.g. {@link #GET}. */
+  public HistogramSnapshot getHistogram(String operation) {
+    return histograms.get(operation);
+  }
+
+  public Map<String, HistogramSnapshot> getHistograms() {
+    return histograms;
+  }
+
+  /** The value of a counter, 0 if the DB does not have it. */
+  public long getCounter(String name) {
+    return counters.getOrDefault(name, 0L);
+  }
+
+  public Map<String, Long> getCounters() {
+    return counters;
+  }
+
+  /**
+   * Bytes read from the data files per key looked up, by gets and multi gets. Reads served from
+   * memory, by memtables, the block cache or mapped files, read no byte.
+   */
+  public double getBytesReadPerGet() {
+    long lookups = histograms.get(GET).getCount() + getCounter(MULTI_GET_KEYS);
+    return lookups == 0 ? 0 : (double) getCounter(BYTES_READ) / lookups;
+  }
+
+  /**
+   * All the metrics by name : the count, mean, percentiles and max of every histogram, as
+   * get.count or get.p99_nanos, then the counters.
+   */
+  public Map<String, Number> toMap() {
+    Map<String, Number> metrics = new LinkedHashMap<>();
+    for (Map.Entry<String, HistogramSnapshot> entry : histograms.entrySet()) {
+      String name = entry.getKey();
+      HistogramSnapshot histogram = entry.getValue();
+      metrics.put(name + ".count", histogram.getCount());
+      metrics.put(name + ".mean_nanos", histogram.getMean());
+      metrics.put(name + ".p50_nanos", histogram.getValueAtPercentile(50));
+      metrics.put(name + ".p99_nanos", histogram.getValueAtPercentile(99));
+      metrics.put(name + ".p999_nanos", histogram.getValueAtPercentile(99.9));
+      metrics.put(name + ".max_nanos", histogram.getMax());
+    }
+    metrics.putAll(counters);
+    metrics.put("read.bytes_per_get", getBytesReadPerGet());
+    return metrics;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, HistogramSnapshot> entry : histograms.entrySet()) {
+      sb.append(entry.getKey()).append(" : ").append(entry.getValue()).append('\n');
+    }
+    for (Map.Entry<String, Long> entry : counters.entrySet()) {
+      sb.append(entry.getKey()).append(" : ").append(entry.getValue()).append('\n');
+    }
+    return sb.toString();
+  }
+}
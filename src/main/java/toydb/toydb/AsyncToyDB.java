@@ -0,0 +1,226 @@
+package toydb.toydb;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import toydb.common.CloseableIterator;
+
+/**
+ * A non-blocking front of an {@link SSTableBasedToyDB}, for callers which must not block, such as
+ * event loops : every operation returns a {@link CompletableFuture} right away, and runs on a
+ * bounded pool of I/O threads.
+ *
+ * <p>Unlike the methods of {@link ToyDB}, which print their failures, the futures complete
+ * exceptionally with the failure of the operation, e.g. the IOException of a read.
+ *
+ * <p>Reads and writes are queued on two separate pools, in the order they are submitted : a write
+ * may wait for a memtable to be flushed, and the reads queued behind it would wait as well. At most
+ * maxInFlight operations are queued or running at a time. Beyond that, operations are not queued,
+ * and their futures fail right away with a {@link RejectedExecutionException}, so that the caller
+ * sheds load instead of queuing without bound. The reads of the same block by concurrent gets are
+ * coalesced by the block cache into a single read, see {@link toydb.cache.BlockCache#load}.
+ *
+ * <p>The futures are completed on the I/O threads, which run their dependent stages unless these
+ * are given an executor of their own, e.g. with {@link CompletableFuture#thenApplyAsync(
+ * java.util.function.Function, java.util.concurrent.Executor)}.
+ */
+public class AsyncToyDB implements Closeable {
+
+  private static final int DEFAULT_WRITE_THREADS = 2;
+  private static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+
+  /** An operation of the DB, which may fail. */
+  private interface Operation<T> {
+    T run() throws IOException;
+  }
+
+  private final SSTableBasedToyDB db;
+  private final ThreadPoolExecutor readers;
+  private final ThreadPoolExecutor writers;
+  private final Semaphore inFlight;
+  private final int maxInFlight;
+  private final LongAdder rejected = new LongAdder();
+  private volatile boolean closed = false;
+
+  public AsyncToyDB(SSTableBasedToyDB db) {
+    this(
+        db,
+        Runtime.getRuntime().availableProcessors(),
+        DEFAULT_WRITE_THREADS,
+        DEFAULT_MAX_IN_FLIGHT);
+  }
+
+  /**
+   * @param readThreads the number of threads running gets, multi gets and scans
+   * @param writeThreads the number of threads running puts, deletes and batches
+   * @param maxInFlight the number of operations which may be queued or running at a time
+   */
+  public AsyncToyDB(SSTableBasedToyDB db, int readThreads, int writeThreads, int maxInFlight) {
+    if (readThreads <= 0 || writeThreads <= 0) {
+      throw new IllegalArgumentException("The thread counts must be positive");
+    }
+    if (maxInFlight <= 0) throw new IllegalArgumentException("maxInFlight must be positive");
+    this.db = db;
+    this.readers = newPool(readThreads, "toydb-async-reader");
+    this.writers = newPool(writeThreads, "toydb-async-writer");
+    this.maxInFlight = maxInFlight;
+    this.inFlight = new Semaphore(maxInFlight);
+  }
+
+  /** A fixed pool, whose FIFO queue is bounded by the in-flight operations. */
+  private static ThreadPoolExecutor newPool(int threads, String name) {
+    AtomicInteger threadNumber = new AtomicInteger(0);
+    ThreadFactory threadFactory =
+        r -> {
+          Thread t = new Thread(r, name + "-" + threadNumber.getAndIncrement());
+          t.setDaemon(true);
+          return t;
+        };
+    return new ThreadPoolExecutor(
+        threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), threadFactory);
+  }
+
+  public CompletableFuture<String> get(String key) {
+    return get(key, null);
+  }
+
+  /** @param snapshot null to read the last published write */
+  public CompletableFuture<String> get(String key, Snapshot snapshot) {
+    return submit(readers, () -> db.getOrThrow(key, snapshot));
+  }
+
+  /** See {@link SSTableBasedToyDB#multiGet(Collection, Snapshot)}. */
+  public CompletableFuture<Map<String, String>> multiGet(Collection<String> keys) {
+    return multiGet(keys, null);
+  }
+
+  /** @param snapshot null to read the last published write */
+  public CompletableFuture<Map<String, String>> multiGet(
+      Collection<String> keys, Snapshot snapshot) {
+    return submit(readers, () -> db.multiGet(keys, snapshot));
+  }
+
+  /**
+   * Reads the records whose key is in [startKey, endKey), at most limit of them, sorted by key. The
+   * records are collected on the I/O thread, which is why their number is bounded.
+   *
+   * @param endKey exclusive, or null to scan till the last key
+   */
+  public CompletableFuture<List<Data>> scan(String startKey, String endKey, int limit) {
+    return submit(
+        readers,
+        () -> {
+          List<Data> records = new ArrayList<>();
+          try (CloseableIterator<Data> it = db.scan(startKey, endKey)) {
+            while (records.size() < limit && it.hasNext()) records.add(it.next());
+          }
+          return records;
+        });
+  }
+
+  public CompletableFuture<Void> put(String key, String value) {
+    return submit(
+        writers,
+        () -> {
+          db.putOrThrow(key, value);
+          return null;
+        });
+  }
+
+  public CompletableFuture<Void> delete(String key) {
+    return submit(
+        writers,
+        () -> {
+          db.deleteOrThrow(key);
+          return null;
+        });
+  }
+
+  /** Applies the batch atomically, see {@link SSTableBasedToyDB#write(WriteBatch)}. */
+  public CompletableFuture<Void> write(WriteBatch batch) {
+    return submit(
+        writers,
+        () -> {
+          db.writeOrThrow(batch);
+          return null;
+        });
+  }
+
+  private <T> CompletableFuture<T> submit(ThreadPoolExecutor pool, Operation<T> operation) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    if (closed) {
+      future.completeExceptionally(new IllegalStateException("The AsyncToyDB is closed"));
+      return future;
+    }
+    if (!inFlight.tryAcquire()) {
+      rejected.increment();
+      future.completeExceptionally(
+          new RejectedExecutionException(maxInFlight + " operations are already in flight"));
+      return future;
+    }
+
+    try {
+      pool.execute(
+          () -> {
+            T result;
+            try {
+              result = operation.run();
+            } catch (Throwable t) {
+              inFlight.release();
+              // multi gets and scans wrap the IOExceptions of their reads
+              future.completeExceptionally(t instanceof UncheckedIOException ? t.getCause() : t);
+              return;
+            }
+            // released first, so that the dependent stages can submit operations of their own
+            inFlight.release();
+            future.complete(result);
+          });
+    } catch (RejectedExecutionException e) {
+      // the pool was shut down by close() in the meantime
+      inFlight.release();
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /** The operations queued or running. */
+  public int getInFlightCount() {
+    return maxInFlight - inFlight.availablePermits();
+  }
+
+  /** The operations whose futures failed because maxInFlight operations were in flight. */
+  public long getRejectedCount() {
+    return rejected.sum();
+  }
+
+  /**
+   * Stops taking operations, and waits for those in flight to complete. The DB itself is left
+   * open, to be closed by its owner.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    readers.shutdown();
+    writers.shutdown();
+    try {
+      readers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      writers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the operations in flight", e);
+    }
+  }
+}
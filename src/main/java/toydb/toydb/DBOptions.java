@@ -0,0 +1,173 @@
+package toydb.toydb;
+
+import toydb.compaction.CompactionPolicy;
+import toydb.compaction.SizeTieredCompactionPolicy;
+import toydb.datafile.BlockCodec;
+import toydb.wal.WalSyncMode;
+
+/**
+ * Tunables for an {@link SSTableBasedToyDB} instance. Every setter returns this options object, so
+ * that options can be chained at the call site :
+ *
+ * <pre>
+ *   new DBOptions().setMemtableMaxSizeInBytes(4 * 1024 * 1024).setMaxImmutableMemtables(4)
+ * </pre>
+ */
+public class DBOptions {
+
+  private static final int DEFAULT_MEMTABLE_MAX_SIZE_IN_BYTES = 2 * 1024 * 1024; // 2 MB
+  private static final int DEFAULT_MAX_IMMUTABLE_MEMTABLES = 2;
+  private static final long DEFAULT_WAL_SYNC_INTERVAL_MILLIS = 100;
+  private static final long DEFAULT_BLOCK_CACHE_SIZE_IN_BYTES = 8 * 1024 * 1024; // 8 MB
+  private static final double DEFAULT_BLOOM_FILTER_FALSE_POSITIVE_RATE = 0.01;
+
+  private int memtableMaxSizeInBytes = DEFAULT_MEMTABLE_MAX_SIZE_IN_BYTES;
+  private int maxImmutableMemtables = DEFAULT_MAX_IMMUTABLE_MEMTABLES;
+  private CompactionPolicy compactionPolicy = new SizeTieredCompactionPolicy();
+  private WalSyncMode walSyncMode = WalSyncMode.OS_BUFFERED;
+  private long walSyncIntervalMillis = DEFAULT_WAL_SYNC_INTERVAL_MILLIS;
+  private long blockCacheSizeInBytes = DEFAULT_BLOCK_CACHE_SIZE_IN_BYTES;
+  private boolean mmapReads = true;
+  private BlockCodec blockCodec = null;
+  private double bloomFilterFalsePositiveRate = DEFAULT_BLOOM_FILTER_FALSE_POSITIVE_RATE;
+  private boolean blockedBloomFilter = false;
+
+  /** Size after which the active memtable is frozen and handed over to the flusher thread. */
+  public int getMemtableMaxSizeInBytes() {
+    return memtableMaxSizeInBytes;
+  }
+
+  public DBOptions setMemtableMaxSizeInBytes(int memtableMaxSizeInBytes) {
+    if (memtableMaxSizeInBytes <= 0)
+      throw new IllegalArgumentException("memtableMaxSizeInBytes must be positive");
+    this.memtableMaxSizeInBytes = memtableMaxSizeInBytes;
+    return this;
+  }
+
+  /**
+   * Number of full (immutable) memtables that may wait for the flusher thread. Once this many
+   * memtables are waiting, writers block until the flusher has written one of them to disk.
+   */
+  public int getMaxImmutableMemtables() {
+    return maxImmutableMemtables;
+  }
+
+  public DBOptions setMaxImmutableMemtables(int maxImmutableMemtables) {
+    if (maxImmutableMemtables <= 0)
+      throw new IllegalArgumentException("maxImmutableMemtables must be positive");
+    this.maxImmutableMemtables = maxImmutableMemtables;
+    return this;
+  }
+
+  /**
+   * Picks the SSTables merged by the background compaction thread. Size-tiered by default, see
+   * {@link toydb.compaction.LeveledCompactionPolicy} for fewer SSTables per read. A policy may keep
+   * state, so an instance must not be shared by several DBs.
+   */
+  public CompactionPolicy getCompactionPolicy() {
+    return compactionPolicy;
+  }
+
+  public DBOptions setCompactionPolicy(CompactionPolicy compactionPolicy) {
+    if (compactionPolicy == null)
+      throw new IllegalArgumentException("compactionPolicy can not be null");
+    this.compactionPolicy = compactionPolicy;
+    return this;
+  }
+
+  /** Durability of writes, see {@link WalSyncMode}. OS_BUFFERED by default. */
+  public WalSyncMode getWalSyncMode() {
+    return walSyncMode;
+  }
+
+  public DBOptions setWalSyncMode(WalSyncMode walSyncMode) {
+    if (walSyncMode == null) throw new IllegalArgumentException("walSyncMode can not be null");
+    this.walSyncMode = walSyncMode;
+    return this;
+  }
+
+  /** Interval at which the write ahead log is synced, in the INTERVAL sync mode. */
+  public long getWalSyncIntervalMillis() {
+    return walSyncIntervalMillis;
+  }
+
+  public DBOptions setWalSyncIntervalMillis(long walSyncIntervalMillis) {
+    if (walSyncIntervalMillis <= 0)
+      throw new IllegalArgumentException("walSyncIntervalMillis must be positive");
+    this.walSyncIntervalMillis = walSyncIntervalMillis;
+    return this;
+  }
+
+  /**
+   * Memory for the data blocks cached by reads from SSTables which are not memory mapped. 0
+   * disables the block cache.
+   */
+  public long getBlockCacheSizeInBytes() {
+    return blockCacheSizeInBytes;
+  }
+
+  public DBOptions setBlockCacheSizeInBytes(long blockCacheSizeInBytes) {
+    if (blockCacheSizeInBytes < 0)
+      throw new IllegalArgumentException("blockCacheSizeInBytes can not be negative");
+    this.blockCacheSizeInBytes = blockCacheSizeInBytes;
+    return this;
+  }
+
+  /**
+   * Whether SSTables are memory mapped, so that their reads are plain memory accesses. true by
+   * default. SSTables too large to be mapped in one piece are read through the block cache.
+   */
+  public boolean isMmapReads() {
+    return mmapReads;
+  }
+
+  public DBOptions setMmapReads(boolean mmapReads) {
+    this.mmapReads = mmapReads;
+    return this;
+  }
+
+  /**
+   * Compresses the data blocks of the SSTables written from now on, e.g. {@link
+   * toydb.datafile.BlockCompression#LZ4} or {@link toydb.datafile.BlockCompression#DEFLATE}. null,
+   * the default, writes uncompressed blocks. SSTables written with any codec stay readable, as long
+   * as the codec is registered with {@link toydb.datafile.BlockCompression#register}.
+   */
+  public BlockCodec getBlockCodec() {
+    return blockCodec;
+  }
+
+  public DBOptions setBlockCodec(BlockCodec blockCodec) {
+    this.blockCodec = blockCodec;
+    return this;
+  }
+
+  /**
+   * Target false positive rate of the bloom filters of the SSTables written from now on, 1% by
+   * default. Every filter is sized for the number of keys of its SSTable : halving the rate costs
+   * about 1.44 more bits per key.
+   */
+  public double getBloomFilterFalsePositiveRate() {
+    return bloomFilterFalsePositiveRate;
+  }
+
+  public DBOptions setBloomFilterFalsePositiveRate(double bloomFilterFalsePositiveRate) {
+    if (!(bloomFilterFalsePositiveRate > 0 && bloomFilterFalsePositiveRate < 1))
+      throw new IllegalArgumentException("bloomFilterFalsePositiveRate must be in (0, 1)");
+    this.bloomFilterFalsePositiveRate = bloomFilterFalsePositiveRate;
+    return this;
+  }
+
+  /**
+   * Whether the bloom filters of the SSTables written from now on are blocked : a lookup then
+   * touches a single cache line of the filter, instead of one per hash function, at the cost of
+   * more bits for the same false positive rate : about 4% more at 1%. false by default.
+   */
+  public boolean isBlockedBloomFilter() {
+    return blockedBloomFilter;
+  }
+
+  public DBOptions setBlockedBloomFilter(boolean blockedBloomFilter) {
+    this.blockedBloomFilter = blockedBloomFilter;
+    return this;
+  }
+}
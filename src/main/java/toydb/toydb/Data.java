@@ -1,16 +1,39 @@
 package toydb.toydb;
 
-import toydb.common.ByteUtil;
-
+import java.nio.ByteBuffer;
+import toydb.datafile.RecordCodec;
+
+/**
+ * A key,value pair, or a tombstone recording that the key was deleted. See {@link RecordCodec} for
+ * its binary representation.
+ *
+ * <p>A record written by {@link SSTableBasedToyDB} carries the sequence number of its write : the
+ * newer of two versions of a key has the larger sequence number. Records written before sequence
+ * numbers, and the records of {@link SimpleToyDB}, have sequence number 0.
+ */
 public class Data {
 
   private String key; // key = Test012 =>
-  private String value;
-  private static final String HEX_KEY_VALUE_SEPARATOR = "00";
+  private String value; // null for a tombstone
+  private long sequence;
 
   public Data(String key, String value) {
+    this(key, value, 0);
+  }
+
+  public Data(String key, String value, long sequence) {
     this.key = key;
     this.value = value;
+    this.sequence = sequence;
+  }
+
+  /** A tombstone, which shadows the older values of key. */
+  public static Data tombstone(String key) {
+    return new Data(key, null);
+  }
+
+  public static Data tombstone(String key, long sequence) {
+    return new Data(key, null, sequence);
   }
 
   public Data() {
@@ -23,68 +46,38 @@ public class Data {
   }
 
   public byte[] serialize() {
-    String keyHexString = stringToHex(key);
-    String valueHexString = stringToHex(value);
-    String keySeparatorValueHexString = keyHexString + HEX_KEY_VALUE_SEPARATOR + valueHexString;
-    return ByteUtil.hexToBytes(keySeparatorValueHexString);
+    ByteBuffer bb = ByteBuffer.allocate(RecordCodec.encodedSize(key, value));
+    RecordCodec.encode(key, value, bb);
+    return bb.array();
   }
 
   public void deserialize(byte[] byteArr) {
-    String keySeparatorValueHexString = ByteUtil.bytesToHex(byteArr);
-
-    // find the index of the separator in the hex string
-    boolean prevZero = false;
-    int separatorIndex = -1;
-    for (int i = 0; i < keySeparatorValueHexString.length(); i += 2) {
-      if (keySeparatorValueHexString.charAt(i) == '0'
-          && keySeparatorValueHexString.charAt(i + 1) == '0') separatorIndex = i;
-    }
-
-    if (separatorIndex == -1)
-      throw new IllegalArgumentException(
-          "This byte array does not represent a valid key value pair. No separator found."
-              + keySeparatorValueHexString);
-
-    String keyHexString = keySeparatorValueHexString.substring(0, separatorIndex);
-    String valueHexString = keySeparatorValueHexString.substring(separatorIndex + 2);
-
-    key = hexToString(keyHexString);
-    value = hexToString(valueHexString);
-  }
-
-  public String stringToHex(String str) {
-    StringBuilder sb = new StringBuilder();
-    for (int i = 0; i < str.length(); i++) {
-      char c = str.charAt(i);
-      int asciiValue = (int) c;
-      sb.append(Integer.toHexString(asciiValue));
-    }
-
-    return sb.toString();
-  }
-
-  public String hexToString(String hexStr) {
-    StringBuilder sb = new StringBuilder();
-    for (int i = 0; i < hexStr.length(); i += 2) {
-      String hexSubstring = hexStr.substring(i, i + 2);
-      int asciiValue = Integer.parseInt(hexSubstring, 16);
-      char c = (char) asciiValue;
-      sb.append(c);
-    }
-
-    return sb.toString();
+    Data d = RecordCodec.decode(ByteBuffer.wrap(byteArr));
+    key = d.key;
+    value = d.value;
   }
 
   @Override
   public String toString() {
-    return "Data{" + "key='" + key + '\'' + ", value='" + value + '\'' + '}';
+    String seq = sequence == 0 ? "" : ", sequence=" + sequence;
+    if (isTombstone()) return "Data{" + "key='" + key + '\'' + ", tombstone" + seq + '}';
+    return "Data{" + "key='" + key + '\'' + ", value='" + value + '\'' + seq + '}';
+  }
+
+  public boolean isTombstone() {
+    return value == null;
   }
 
   public String getKey() {
     return key;
   }
 
+  /** null for a tombstone */
   public String getValue() {
     return value;
   }
+
+  public long getSequence() {
+    return sequence;
+  }
 }
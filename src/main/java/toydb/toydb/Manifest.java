@@ -0,0 +1,129 @@
+package toydb.toydb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import toydb.common.Pair;
+
+/**
+ * The MANIFEST file of an SSTableBasedToyDB lists its live SSTables, newest first, with the level
+ * of each SSTable in the LSM tree, along with the number to use for the next file. It is a small
+ * text file :
+ *
+ * <pre>
+ *   toydb-manifest 1
+ *   next_file_number 7
+ *   sstable sortedStringFile_5 0
+ *   sstable sortedStringFile_3 1
+ * </pre>
+ *
+ * <p>An SSTable line without a level is at level 0.
+ *
+ * <p>The manifest is never modified in place : a new version is written to a temporary file, synced,
+ * and then atomically renamed over the old one. A crash therefore leaves either the old or the new
+ * version.
+ */
+public class Manifest {
+
+  public static final String MANIFEST_FILE_NAME = "MANIFEST";
+  private static final String HEADER = "toydb-manifest 1";
+  private static final String NEXT_FILE_NUMBER = "next_file_number ";
+  private static final String SSTABLE = "sstable ";
+
+  private File manifestFile;
+  // sstable name -> level, newest first
+  private List<Pair<String, Integer>> sstables = Collections.emptyList();
+  private long nextFileNumber = 0;
+
+  public Manifest(String dbDirectoryPath) {
+    this.manifestFile = new File(dbDirectoryPath, MANIFEST_FILE_NAME);
+  }
+
+  public boolean exists() {
+    return manifestFile.exists();
+  }
+
+  /** Reads the manifest from disk. */
+  public void load() throws IOException {
+    List<Pair<String, Integer>> entries = new ArrayList<>();
+    long fileNumber = 0;
+    try (BufferedReader reader = Files.newBufferedReader(manifestFile.toPath())) {
+      String line = reader.readLine();
+      if (!HEADER.equals(line)) throw new IOException("Invalid manifest header : " + line);
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith(NEXT_FILE_NUMBER)) {
+          fileNumber = Long.parseLong(line.substring(NEXT_FILE_NUMBER.length()));
+        } else if (line.startsWith(SSTABLE)) {
+          entries.add(parseSSTable(line.substring(SSTABLE.length())));
+        } else if (!line.isEmpty()) {
+          throw new IOException("Invalid manifest line : " + line);
+        }
+      }
+    }
+    this.sstables = entries;
+    this.nextFileNumber = fileNumber;
+  }
+
+  private static Pair<String, Integer> parseSSTable(String entry) throws IOException {
+    int separator = entry.indexOf(' ');
+    if (separator < 0) return new Pair<>(entry, 0);
+    try {
+      int level = Integer.parseInt(entry.substring(separator + 1));
+      return new Pair<>(entry.substring(0, separator), level);
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid sstable level : " + entry);
+    }
+  }
+
+  /**
+   * Atomically replaces the manifest on disk. sstables are (name, level) pairs, and must be ordered
+   * newest first.
+   */
+  public synchronized void write(List<Pair<String, Integer>> sstables, long nextFileNumber)
+      throws IOException {
+    File tmpFile = new File(manifestFile.getPath() + ".tmp");
+    try (FileOutputStream fos = new FileOutputStream(tmpFile)) {
+      Writer writer = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
+      writer.write(HEADER + "\n");
+      writer.write(NEXT_FILE_NUMBER + nextFileNumber + "\n");
+      for (Pair<String, Integer> sstable : sstables) {
+        writer.write(SSTABLE + sstable.getFirst() + " " + sstable.getSecond() + "\n");
+      }
+      writer.flush();
+      fos.getFD().sync();
+    }
+    Files.move(
+        tmpFile.toPath(),
+        manifestFile.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+
+    this.sstables = new ArrayList<>(sstables);
+    this.nextFileNumber = nextFileNumber;
+  }
+
+  /** The live SSTables, newest first. */
+  public List<String> getSSTableNames() {
+    List<String> names = new ArrayList<>();
+    for (Pair<String, Integer> sstable : sstables) names.add(sstable.getFirst());
+    return names;
+  }
+
+  /** The live SSTables as (name, level) pairs, newest first. */
+  public List<Pair<String, Integer>> getSSTables() {
+    return sstables;
+  }
+
+  public long getNextFileNumber() {
+    return nextFileNumber;
+  }
+}
@@ -1,74 +1,1008 @@
 package toydb.toydb;
 
-import java.io.FileNotFoundException;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import toydb.cache.BlockCache;
+import toydb.common.CloseableIterator;
+import toydb.common.MergingIterator;
+import toydb.common.Pair;
+import toydb.common.VersionFilter;
+import toydb.compaction.Compaction;
+import toydb.compaction.CompactionStats;
+import toydb.index.FilterStats;
 import toydb.index.Memtable;
+import toydb.index.SSTableBuilder;
+import toydb.index.SparseIndexFile;
+import toydb.metrics.DBMetrics;
+import toydb.metrics.MetricsSnapshot;
+import toydb.wal.WalSyncMode;
 
-public class SSTableBasedToyDB implements ToyDB {
+/**
+ * A ToyDB backed by memtables and SSTables.
+ *
+ * <p>Writes go to the active memtable, which is always at index 0 of {@code memTables}. Once the
+ * active memtable is full, it becomes immutable : a new active memtable is created right away and
+ * the full one is handed over to a dedicated flusher thread, which serializes it into an SSTable.
+ * Until the flush completes, reads are still served from the immutable memtable in memory, and the
+ * SSTable then takes its place in a new list of memtables.
+ *
+ * <p>Writers only block when {@link DBOptions#getMaxImmutableMemtables()} memtables are already
+ * waiting to be flushed.
+ *
+ * <p>Every write is first appended to the write ahead log of the active memtable, and synced as
+ * configured by {@link DBOptions#getWalSyncMode()}. The logs of the memtables which were not
+ * persisted are replayed when the DB is opened.
+ *
+ * <p>The SSTables which have been written are listed in the {@link Manifest}. Opening a DB only
+ * reads the manifest and the sparse index file of each SSTable, never the data files.
+ *
+ * <p>After every flush, a dedicated compaction thread asks the {@link
+ * DBOptions#getCompactionPolicy() compaction policy} for SSTables to merge. The merged SSTables
+ * replace their inputs in the manifest, and the files of the inputs are deleted once no reader
+ * uses them any more.
+ *
+ * <p>Any number of threads can read and write concurrently. Writers share the active memtable, and
+ * only exclude each other for the short moment when the active memtable is switched. Readers never
+ * take a lock.
+ *
+ * <p>Every write takes the next sequence number, and is kept with it in the memtables and the
+ * SSTables. Writes are published in the order of their sequences : a read sees every write up to
+ * the last published sequence, and none after. A {@link Snapshot} pins a sequence, and the reads
+ * made with it see the DB as of that sequence for as long as it is open. Flushes and compactions
+ * keep the versions of a key which the live snapshots read, and drop the others.
+ */
+public class SSTableBasedToyDB implements ToyDB, Closeable {
 
-  private List<Memtable> memTables;
+  private static final String SSTABLE_FILE_PREFIX = "sortedStringFile_";
+
+  // Newest first : the active memtable, the immutable memtables, the SSTables of level 0, and then
+  // the SSTables of every other level sorted by key. The list is never modified : a new list is
+  // published under the monitor of the DB, so that readers can iterate over a snapshot.
+  private volatile List<Memtable> memTables;
   private String dbDirectoryPath;
+  private DBOptions options;
+  private Manifest manifest;
+  private AtomicLong nextFileNumber = new AtomicLong(0);
 
-  private static final Integer SSTABLE_MAX_SIZE_IN_BYTES = 2 * 1024 * 1024; // 2 MB
+  private ExecutorService flusher;
+  private ExecutorService compactor;
+  // only in the INTERVAL sync mode
+  private ScheduledExecutorService walSyncer;
+  private AtomicBoolean compactionScheduled = new AtomicBoolean(false);
+  private CompactionStats compactionStats = new CompactionStats();
+  private DBMetrics metrics = new DBMetrics();
+  private BlockCache blockCache;
+  private Semaphore immutableMemtableSlots;
+  // held shared while writing to the active memtable, and exclusively to switch it
+  private ReadWriteLock memtableSwitchLock = new ReentrantReadWriteLock();
+  // the last sequence given to a write, and the last sequence published to readers, up to which
+  // all the writes have been applied
+  private AtomicLong lastSequence = new AtomicLong(0);
+  private volatile long visibleSequence = 0;
+  // first sequence -> last sequence of the writes applied but not published yet, waiting for the
+  // writes of smaller sequences
+  private final Map<Long, Long> appliedWrites = new HashMap<>();
+  // sequence -> number of open snapshots of that sequence
+  private final TreeMap<Long, Integer> liveSnapshots = new TreeMap<>();
 
   public SSTableBasedToyDB(String dbDirectoryPath) throws IOException {
+    this(dbDirectoryPath, new DBOptions());
+  }
+
+  public SSTableBasedToyDB(String dbDirectoryPath, DBOptions options) throws IOException {
     this.dbDirectoryPath = dbDirectoryPath;
+    this.options = options;
+    this.blockCache = new BlockCache(options.getBlockCacheSizeInBytes());
+    this.flusher = Executors.newSingleThreadExecutor(backgroundThreadFactory("toydb-flusher"));
+    this.compactor = Executors.newSingleThreadExecutor(backgroundThreadFactory("toydb-compactor"));
+    this.immutableMemtableSlots = new Semaphore(options.getMaxImmutableMemtables());
     initDB();
+
+    if (options.getWalSyncMode() == WalSyncMode.INTERVAL) {
+      walSyncer =
+          Executors.newSingleThreadScheduledExecutor(backgroundThreadFactory("toydb-wal-syncer"));
+      long interval = options.getWalSyncIntervalMillis();
+      walSyncer.scheduleWithFixedDelay(
+          this::syncWriteAheadLog, interval, interval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private static ThreadFactory backgroundThreadFactory(String name) {
+    return r -> {
+      Thread t = new Thread(r, name);
+      t.setDaemon(true);
+      return t;
+    };
   }
 
   private void initDB() throws IOException {
-    // STEP 01 : read all the serialized files from disk and create the SPARSE memTables list
-    memTables = new ArrayList<>(); // TODO : read from disk
+    Files.createDirectories(Paths.get(dbDirectoryPath));
+    manifest = new Manifest(dbDirectoryPath);
+
+    // STEP 01 : read the manifest, and open the SPARSE memTables of all the serialized files
+    List<Memtable> tables = new ArrayList<>();
+    if (manifest.exists()) {
+      manifest.load();
+      for (Pair<String, Integer> sstable : manifest.getSSTables()) {
+        tables.add(
+            Memtable.open(
+                dbDirectoryPath, sstable.getFirst(), sstable.getSecond(), options, blockCache));
+      }
+    }
+    nextFileNumber.set(Math.max(manifest.getNextFileNumber(), maxFileNumberInUse() + 1));
+    deleteObsoleteFiles();
+    for (Memtable sstable : tables) {
+      lastSequence.set(Math.max(lastSequence.get(), sstable.getMaxSequence()));
+    }
+
+    // STEP 02 : create the current DENSE memtable, and replay into it the write ahead logs of the
+    // memtables which were not persisted
+    Memtable activeMemtable = newMemtable();
+    replayWriteAheadLogs(activeMemtable);
+    visibleSequence = lastSequence.get();
+    tables.add(0, activeMemtable);
+    memTables = Collections.unmodifiableList(tables);
+
+    // the SSTables left by the previous run may already need compacting
+    scheduleCompaction();
+  }
+
+  private Memtable newMemtable() throws IOException {
+    return new Memtable(
+        dbDirectoryPath,
+        SSTABLE_FILE_PREFIX + nextFileNumber.getAndIncrement(),
+        options,
+        blockCache);
+  }
+
+  /**
+   * Replays the write ahead logs left by the previous run, oldest first, into the active memtable.
+   * The replayed records are synced to the write ahead log of the active memtable before the old
+   * logs are deleted.
+   */
+  private void replayWriteAheadLogs(Memtable activeMemtable) throws IOException {
+    Set<String> persisted = new HashSet<>(manifest.getSSTableNames());
+    List<String> walFileNames = new ArrayList<>();
+    for (String fileName : listFileNames()) {
+      if (fileName.startsWith(Memtable.WAL_FILE_PREFIX)
+          && fileName.endsWith(Memtable.WAL_FILE_SUFFIX)
+          && fileNumber(fileName) != fileNumber(activeMemtable.getDataFileName())) {
+        walFileNames.add(fileName);
+      }
+    }
+    walFileNames.sort((f1, f2) -> Long.compare(fileNumber(f1), fileNumber(f2)));
+
+    List<File> replayed = new ArrayList<>();
+    for (String walFileName : walFileNames) {
+      File walFile = new File(dbDirectoryPath, walFileName);
+      String memtableName =
+          walFileName.substring(
+              Memtable.WAL_FILE_PREFIX.length(),
+              walFileName.length() - Memtable.WAL_FILE_SUFFIX.length());
+      // the memtable was persisted, but the process stopped before its log was deleted
+      if (!persisted.contains(memtableName)) {
+        activeMemtable.replay(walFile.toPath(), lastSequence);
+      }
+      replayed.add(walFile);
+    }
+
+    if (replayed.isEmpty()) return;
+    activeMemtable.syncWriteAheadLog();
+    for (File walFile : replayed) walFile.delete();
+  }
+
+  private void syncWriteAheadLog() {
+    try {
+      memTables.get(0).syncWriteAheadLog();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  /** The highest file number used by any file of the DB directory, so that none is ever reused. */
+  private long maxFileNumberInUse() {
+    long max = -1;
+    for (String fileName : listFileNames()) {
+      max = Math.max(max, fileNumber(fileName));
+    }
+    return max;
+  }
+
+  /**
+   * The number embedded in the name of a file of the DB : data files, their sparse index files and
+   * their write ahead logs all embed the name of the memtable. -1 for any other file.
+   */
+  private static long fileNumber(String fileName) {
+    int start = fileName.indexOf(SSTABLE_FILE_PREFIX);
+    if (start < 0) return -1;
+    int numberStart = start + SSTABLE_FILE_PREFIX.length();
+    int numberEnd = numberStart;
+    while (numberEnd < fileName.length() && Character.isDigit(fileName.charAt(numberEnd))) {
+      numberEnd++;
+    }
+    if (numberEnd == numberStart) return -1;
+    return Long.parseLong(fileName.substring(numberStart, numberEnd));
+  }
+
+  /** Deletes the SSTable files which are not in the manifest, e.g. left over by a crash. */
+  private void deleteObsoleteFiles() {
+    Set<String> liveFiles = new HashSet<>();
+    for (String sstableName : manifest.getSSTableNames()) {
+      liveFiles.add(sstableName);
+      liveFiles.add(sstableName + SparseIndexFile.FILE_SUFFIX);
+    }
+    for (String fileName : listFileNames()) {
+      if (fileName.startsWith(SSTABLE_FILE_PREFIX) && !liveFiles.contains(fileName)) {
+        new File(dbDirectoryPath, fileName).delete();
+      }
+    }
+  }
 
-    // STEP 02 : read from the writeAheadLog and create the current DENSE memtable
-    memTables.add(0, new Memtable(dbDirectoryPath, "sortedStringFile_" + memTables.size()));
+  private String[] listFileNames() {
+    String[] fileNames = new File(dbDirectoryPath).list();
+    return fileNames == null ? new String[0] : fileNames;
+  }
+
+  /**
+   * Records the persisted memtables of tables, newest first, as the live SSTables of the DB. Must
+   * be called while holding the monitor of the DB.
+   */
+  private void writeManifest(List<Memtable> tables) throws IOException {
+    List<Pair<String, Integer>> sstables = new ArrayList<>();
+    for (Memtable memtable : tables) {
+      if (memtable.isPersisted()) {
+        sstables.add(new Pair<>(memtable.getDataFileName(), memtable.getLevel()));
+      }
+    }
+    manifest.write(sstables, nextFileNumber.get());
   }
 
   @Override
   public void put(String key, String value) {
-    Memtable currMemTable = memTables.get(0);
+    try {
+      putOrThrow(key, value);
+    } catch (IOException | RuntimeException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /** Like {@link #put}, but throws the failure of the write instead of printing it. */
+  void putOrThrow(String key, String value) throws IOException {
+    long startNanos = System.nanoTime();
+    write(key, value);
+    metrics.recordPut(System.nanoTime() - startNanos);
+  }
 
-    if (currMemTable.getSizeInBytes() + key.length() + value.length() > SSTABLE_MAX_SIZE_IN_BYTES) {
-      try {
-        // System.out.println("Serializing current memtable to file on disk.");
-        // this can be done in the background
-        currMemTable.persistOnDisk();
-        // System.out.println("Creating a new memtable");
-        currMemTable = new Memtable(dbDirectoryPath, "sortedStringFile_" + memTables.size());
-        memTables.add(0, currMemTable);
-      } catch (Exception e) {
-        e.printStackTrace();
+  /**
+   * Writes a tombstone for key. The key reads as missing right away, and the tombstone is dropped
+   * by the compaction which reaches the oldest SSTables that may hold the key.
+   */
+  @Override
+  public void delete(String key) {
+    try {
+      deleteOrThrow(key);
+    } catch (IOException | RuntimeException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /** Like {@link #delete}, but throws the failure of the write instead of printing it. */
+  void deleteOrThrow(String key) throws IOException {
+    long startNanos = System.nanoTime();
+    write(key, null);
+    metrics.recordDelete(System.nanoTime() - startNanos);
+  }
+
+  /** @param value null to delete the key */
+  private void write(String key, String value) throws IOException {
+    int payloadSize = key.length() + (value == null ? 0 : value.length());
+    write(
+        payloadSize,
+        1,
+        (memtable, sequence) -> {
+          if (value == null) memtable.delete(key, sequence);
+          else memtable.put(key, value, sequence);
+        });
+  }
+
+  /**
+   * Applies the puts and deletes of the batch atomically : they are appended to the write ahead log
+   * as a single record, and all of them go to the same memtable, which is switched beforehand if
+   * the batch does not fit in it. The records of the batch take consecutive sequences, which are
+   * published together : readers see either all of the batch or none of it.
+   */
+  public void write(WriteBatch batch) {
+    try {
+      writeOrThrow(batch);
+    } catch (IOException | RuntimeException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /** Like {@link #write(WriteBatch)}, but throws the failure of the write. */
+  void writeOrThrow(WriteBatch batch) throws IOException {
+    if (batch.size() == 0) return;
+    List<Data> records = new ArrayList<>(batch.getRecords());
+    write(
+        batch.getPayloadSizeInBytes(),
+        records.size(),
+        (memtable, firstSequence) -> memtable.write(records, firstSequence));
+  }
+
+  /** A write to the active memtable, of records taking sequences from firstSequence on. */
+  private interface MemtableWrite {
+    void apply(Memtable memtable, long firstSequence) throws IOException;
+  }
+
+  private void write(int payloadSize, int recordCount, MemtableWrite write) throws IOException {
+    memtableSwitchLock.readLock().lock();
+    try {
+      Memtable currMemTable = memTables.get(0);
+      if (!isFull(currMemTable, payloadSize)) {
+        apply(currMemTable, recordCount, write);
+        return;
       }
+    } catch (IOException | RuntimeException e) {
+      metrics.recordError();
+      throw e;
+    } finally {
+      memtableSwitchLock.readLock().unlock();
     }
 
+    // The active memtable is full. Only one writer switches it, the others will find the new one.
+    memtableSwitchLock.writeLock().lock();
+    try {
+      Memtable currMemTable = memTables.get(0);
+      if (isFull(currMemTable, payloadSize)) currMemTable = switchMemtable(currMemTable);
+      apply(currMemTable, recordCount, write);
+    } catch (IOException | RuntimeException e) {
+      metrics.recordError();
+      throw e;
+    } catch (InterruptedException e) {
+      metrics.recordError();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a memtable to be flushed");
+    } finally {
+      memtableSwitchLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Gives the write the next recordCount sequences, applies it, and then publishes its sequences
+   * once the writes of all the smaller sequences are published. Called while holding the memtable
+   * switch lock, so that every sequence of a memtable is smaller than the sequences of the newer
+   * memtables, and is published before the memtable is flushed.
+   */
+  private void apply(Memtable memtable, int recordCount, MemtableWrite write) throws IOException {
+    long last = lastSequence.addAndGet(recordCount);
+    long first = last - recordCount + 1;
     try {
-      currMemTable.put(key, value);
+      write.apply(memtable, first);
+    } finally {
+      // a failed write is published as well, so as not to hold the next writes back
+      publish(first, last);
+    }
+  }
+
+  /**
+   * Publishes the applied sequences first to last, and waits until all the smaller sequences are
+   * published as well. The write which completes the published sequences publishes at once all the
+   * writes applied after it, e.g. those committed in the same group of the write ahead log, and
+   * wakes their writers up.
+   */
+  private void publish(long first, long last) {
+    boolean interrupted = false;
+    synchronized (appliedWrites) {
+      appliedWrites.put(first, last);
+      long visible = visibleSequence;
+      Long appliedLast;
+      while ((appliedLast = appliedWrites.remove(visible + 1)) != null) visible = appliedLast;
+      if (visible != visibleSequence) {
+        visibleSequence = visible;
+        appliedWrites.notifyAll();
+      }
+      while (visibleSequence < last) {
+        try {
+          appliedWrites.wait();
+        } catch (InterruptedException e) {
+          // the write is applied, and must be published before the writer returns
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) Thread.currentThread().interrupt();
+  }
+
+  /** An empty memtable takes any write, even one larger than the memtable size. */
+  private boolean isFull(Memtable memtable, int payloadSize) {
+    return memtable.getSizeInBytes() > 0
+        && memtable.getSizeInBytes() + payloadSize > options.getMemtableMaxSizeInBytes();
+  }
+
+  /**
+   * Freezes the full memtable, installs a new active memtable and schedules the full one for
+   * flushing. Blocks while the maximum number of immutable memtables are waiting to be flushed.
+   */
+  private Memtable switchMemtable(Memtable fullMemtable) throws IOException, InterruptedException {
+    immutableMemtableSlots.acquire();
+
+    Memtable newMemtable;
+    try {
+      newMemtable = newMemtable();
+      synchronized (this) {
+        List<Memtable> tables = new ArrayList<>(memTables);
+        tables.add(0, newMemtable);
+        memTables = Collections.unmodifiableList(tables);
+      }
+      flusher.submit(() -> flush(fullMemtable));
+    } catch (IOException | RuntimeException e) {
+      immutableMemtableSlots.release();
+      throw e;
+    }
+
+    return newMemtable;
+  }
+
+  /**
+   * Writes the immutable memtable into an SSTable, and swaps the persisted memtable in for it. The
+   * readers which still hold the previous list of memtables keep reading the in-memory table.
+   */
+  private void flush(Memtable immutableMemtable) {
+    long startNanos = System.nanoTime();
+    try {
+      // in the INTERVAL sync mode, the tail of the log may not have been synced yet
+      immutableMemtable.syncWriteAheadLog();
+      Memtable sstable = immutableMemtable.persistOnDisk(liveSnapshotSequences());
+      synchronized (this) {
+        List<Memtable> tables = new ArrayList<>(memTables);
+        tables.set(tables.indexOf(immutableMemtable), sstable);
+        writeManifest(tables);
+        memTables = Collections.unmodifiableList(tables);
+      }
+      immutableMemtable.unref();
+      immutableMemtable.deleteWriteAheadLog();
+      compactionStats.recordFlush(sstable.getDataFileSize());
+      metrics.recordFlush(System.nanoTime() - startNanos, sstable.getDataFileSize());
+      scheduleCompaction();
     } catch (Exception e) {
+      // the memtable stays in memory, and is still served to readers
+      metrics.recordError();
       e.printStackTrace();
+    } finally {
+      immutableMemtableSlots.release();
+    }
+  }
+
+  private void scheduleCompaction() {
+    if (compactionScheduled.compareAndSet(false, true)) compactor.submit(this::compact);
+  }
+
+  /** Runs the compactions picked by the compaction policy, until it picks none. */
+  private void compact() {
+    compactionScheduled.set(false);
+    try {
+      Compaction compaction;
+      while ((compaction = options.getCompactionPolicy().pickCompaction(getSSTables())) != null) {
+        runCompaction(compaction);
+      }
+    } catch (Exception e) {
+      // the inputs stay live, and are compacted again after the next flush
+      metrics.recordError();
+      e.printStackTrace();
+    }
+  }
+
+  private List<Memtable> getSSTables() {
+    List<Memtable> sstables = new ArrayList<>();
+    for (Memtable memtable : memTables) {
+      if (memtable.isPersisted()) sstables.add(memtable);
     }
+    return sstables;
+  }
+
+  /**
+   * Merges the inputs of the compaction into new SSTables, keeping only the newest version of every
+   * key and the versions read by the live snapshots, see {@link VersionFilter}, and then swaps the
+   * new SSTables for the inputs. A tombstone is dropped when no SSTable older than the inputs may
+   * hold its key.
+   */
+  private void runCompaction(Compaction compaction) throws IOException {
+    long startNanos = System.nanoTime();
+    List<Memtable> olderTables = olderTables(compaction);
+    // the snapshots taken from now on read newer sequences than those of the inputs
+    long[] snapshotSequences = liveSnapshotSequences();
+
+    List<Memtable> outputs = new ArrayList<>();
+    List<CloseableIterator<Data>> inputIterators = new ArrayList<>();
+    SSTableBuilder builder = null;
+    try {
+      for (Memtable input : compaction.getInputs()) inputIterators.add(input.iterator());
+      VersionFilter versions =
+          new VersionFilter(
+              new MergingIterator(inputIterators),
+              snapshotSequences,
+              key -> mayBeShadowed(olderTables, key));
+      int outputLevel = compaction.getOutputLevel();
+
+      String outputName = null;
+      String lastKey = null;
+      while (versions.hasNext()) {
+        Data d = versions.next();
+        // the versions of a key all go to the same output
+        if (builder != null
+            && !d.getKey().equals(lastKey)
+            && builder.getEstimatedFileSize() >= compaction.getMaxOutputFileSizeInBytes()) {
+          builder.finish();
+          outputs.add(Memtable.open(dbDirectoryPath, outputName, outputLevel, options, blockCache));
+          builder = null;
+        }
+        if (builder == null) {
+          outputName = SSTABLE_FILE_PREFIX + nextFileNumber.getAndIncrement();
+          builder = new SSTableBuilder(dbDirectoryPath + "/" + outputName, options);
+        }
+        builder.add(d.getKey(), d.getValue(), d.getSequence());
+        lastKey = d.getKey();
+      }
+      if (builder != null) {
+        builder.finish();
+        outputs.add(Memtable.open(dbDirectoryPath, outputName, outputLevel, options, blockCache));
+        builder = null;
+      }
+    } catch (IOException | RuntimeException e) {
+      // the inputs stay live, and the outputs written so far are deleted
+      for (Memtable output : outputs) output.unref();
+      throw e;
+    } finally {
+      // deletes the partial output, if any
+      if (builder != null) builder.close();
+      for (CloseableIterator<Data> inputIterator : inputIterators) inputIterator.close();
+    }
+
+    installCompaction(compaction, outputs);
+
+    long bytesWritten = 0;
+    for (Memtable output : outputs) bytesWritten += output.getDataFileSize();
+    compactionStats.recordCompaction(
+        compaction.getInputSizeInBytes(), bytesWritten, System.nanoTime() - startNanos);
+  }
+
+  /**
+   * The SSTables which are not inputs of the compaction, but come after its newest input in the
+   * order of reads, and may hold older versions of the keys of the inputs. Only the compaction
+   * thread removes SSTables, so the list stays valid for the whole compaction.
+   */
+  private List<Memtable> olderTables(Compaction compaction) {
+    Set<Memtable> inputs = new HashSet<>(compaction.getInputs());
+    List<Memtable> olderTables = new ArrayList<>();
+    boolean afterFirstInput = false;
+    for (Memtable memtable : memTables) {
+      if (inputs.contains(memtable)) afterFirstInput = true;
+      else if (afterFirstInput) olderTables.add(memtable);
+    }
+    return olderTables;
+  }
+
+  private static boolean mayBeShadowed(List<Memtable> olderTables, String key) {
+    for (Memtable memtable : olderTables) {
+      if (memtable.mightContain(key)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Replaces the inputs of the compaction with its outputs, first in the manifest and then in the
+   * list of memtables. The files of the inputs are deleted once the last reader releases them.
+   */
+  private void installCompaction(Compaction compaction, List<Memtable> outputs)
+      throws IOException {
+    Set<Memtable> inputs = new HashSet<>(compaction.getInputs());
+    int outputLevel = compaction.getOutputLevel();
+
+    synchronized (this) {
+      List<Memtable> tables = new ArrayList<>();
+      int insertAt = -1;
+      for (Memtable memtable : memTables) {
+        if (inputs.contains(memtable)) {
+          // level 0 outputs take the place of the newest input, which was the first one
+          if (outputLevel == 0 && insertAt < 0) insertAt = tables.size();
+          continue;
+        }
+        tables.add(memtable);
+      }
+      if (outputLevel == 0) {
+        tables.addAll(insertAt, outputs);
+      } else {
+        for (Memtable output : outputs) {
+          tables.add(levelPosition(tables, output), output);
+        }
+      }
+
+      writeManifest(tables);
+      memTables = Collections.unmodifiableList(tables);
+    }
+
+    for (Memtable input : inputs) {
+      // reads still in flight on the input after this point are not counted
+      FilterStats filterStats = input.getFilterStats();
+      metrics.recordFilterLookups(
+          filterStats.getUsefulCount(),
+          filterStats.getPositiveCount(),
+          filterStats.getFalsePositiveCount());
+      metrics.recordBytesRead(input.getBytesRead());
+      input.unref();
+    }
+  }
+
+  /** Index before which an SSTable of level 1 or more goes, to keep its level sorted by key. */
+  private static int levelPosition(List<Memtable> tables, Memtable sstable) {
+    for (int i = 0; i < tables.size(); i++) {
+      Memtable memtable = tables.get(i);
+      if (!memtable.isPersisted()) continue;
+      if (memtable.getLevel() > sstable.getLevel()
+          || (memtable.getLevel() == sstable.getLevel()
+              && memtable.getSmallestKey().compareTo(sstable.getSmallestKey()) > 0)) {
+        return i;
+      }
+    }
+    return tables.size();
+  }
+
+  /**
+   * Opens a snapshot of the DB as of the last published write. The reads made with the snapshot do
+   * not see the writes made after it, and the versions it reads are kept by flushes and compactions
+   * until it is closed.
+   */
+  public Snapshot getSnapshot() {
+    synchronized (liveSnapshots) {
+      long sequence = visibleSequence;
+      liveSnapshots.merge(sequence, 1, Integer::sum);
+      return new Snapshot(this, sequence);
+    }
+  }
+
+  void releaseSnapshot(Snapshot snapshot) {
+    synchronized (liveSnapshots) {
+      liveSnapshots.computeIfPresent(
+          snapshot.getSequence(), (sequence, count) -> count == 1 ? null : count - 1);
+    }
+  }
+
+  /** The sequences of the open snapshots, in increasing order. */
+  private long[] liveSnapshotSequences() {
+    synchronized (liveSnapshots) {
+      long[] sequences = new long[liveSnapshots.size()];
+      int i = 0;
+      for (long sequence : liveSnapshots.keySet()) sequences[i++] = sequence;
+      return sequences;
+    }
+  }
+
+  private void checkSnapshot(Snapshot snapshot) {
+    if (snapshot == null) return;
+    if (snapshot.getDB() != this) {
+      throw new IllegalArgumentException("The snapshot was taken from another DB");
+    }
+    if (snapshot.isClosed()) throw new IllegalStateException("The snapshot is closed");
   }
 
   @Override
   public String get(String key) {
+    return get(key, null);
+  }
+
+  /**
+   * Returns the value of key as of the snapshot. Takes no lock.
+   *
+   * @param snapshot null to read the last published write
+   */
+  public String get(String key, Snapshot snapshot) {
+    checkSnapshot(snapshot);
+    long startNanos = System.nanoTime();
     String value = null;
+    try {
+      value = find(key, snapshot);
+    } catch (IOException | RuntimeException e) {
+      System.out.print("Exception encountered while searching for key : " + key + " | " + e);
+    }
+    metrics.recordGet(System.nanoTime() - startNanos);
+    return value;
+  }
 
+  /**
+   * Like {@link #get(String, Snapshot)}, but throws the failure of the read instead of printing it.
+   */
+  String getOrThrow(String key, Snapshot snapshot) throws IOException {
+    checkSnapshot(snapshot);
+    long startNanos = System.nanoTime();
+    String value = find(key, snapshot);
+    metrics.recordGet(System.nanoTime() - startNanos);
+    return value;
+  }
+
+  private String find(String key, Snapshot snapshot) throws IOException {
+    try {
+      while (true) {
+        boolean stale = false;
+        List<Memtable> tables = memTables;
+        // read after the memtables : the compactions which replaced some of them since then only
+        // dropped versions shadowed as of this sequence, and the memtables flushed since then keep
+        // their in-memory table, every version included
+        long sequence = snapshot != null ? snapshot.getSequence() : visibleSequence;
+        for (Memtable memtable : tables) {
+          if (memtable.isPersisted()
+              && (key.compareTo(memtable.getSmallestKey()) < 0
+                  || key.compareTo(memtable.getLargestKey()) > 0)) {
+            continue;
+          }
+          // a memtable which can not be referenced has been compacted away, start over with the
+          // memtables which replaced it
+          if (!memtable.tryRef()) {
+            stale = true;
+            break;
+          }
+          try {
+            Data d = memtable.get(key, sequence);
+            // the newest record of a deleted key is its tombstone
+            if (d != null) return d.isTombstone() ? null : d.getValue();
+          } finally {
+            memtable.unref();
+          }
+        }
+        if (!stale) return null;
+      }
+    } catch (IOException | RuntimeException e) {
+      metrics.recordError();
+      throw e;
+    }
+  }
+
+  /**
+   * Looks up several keys at once. The keys are sorted, and every memtable is only asked for the
+   * keys which are still missing and fall into its key range, so that an SSTable checks its bloom
+   * filter for all of them in one pass and reads each of its blocks at most once.
+   *
+   * @return the value of every key which is found, sorted by key
+   */
+  public Map<String, String> multiGet(Collection<String> keys) {
+    return multiGet(keys, null);
+  }
+
+  /**
+   * Looks up several keys at once, as of the snapshot. Without a snapshot, all the keys are read as
+   * of the same sequence as well.
+   *
+   * @param snapshot null to read the last published write
+   */
+  public Map<String, String> multiGet(Collection<String> keys, Snapshot snapshot) {
+    checkSnapshot(snapshot);
+    long startNanos = System.nanoTime();
+    List<String> sortedKeys = new ArrayList<>(new TreeSet<>(keys));
     try {
+      while (true) {
+        Map<String, String> values = new TreeMap<>();
+        // keys are removed once their newest record is found
+        NavigableSet<String> pending = new TreeSet<>(sortedKeys);
+        boolean stale = false;
+        List<Memtable> tables = memTables;
+        // read after the memtables, see find()
+        long sequence = snapshot != null ? snapshot.getSequence() : visibleSequence;
+        for (Memtable memtable : tables) {
+          if (pending.isEmpty()) break;
+          List<String> candidates = candidateKeys(memtable, pending);
+          if (candidates.isEmpty()) continue;
+          // compacted away, start over with the memtables which replaced it
+          if (!memtable.tryRef()) {
+            stale = true;
+            break;
+          }
+          try {
+            for (Data d : memtable.get(candidates, sequence)) {
+              pending.remove(d.getKey());
+              if (!d.isTombstone()) values.put(d.getKey(), d.getValue());
+            }
+          } finally {
+            memtable.unref();
+          }
+        }
+        if (!stale) return values;
+      }
+    } catch (IOException e) {
+      metrics.recordError();
+      throw new UncheckedIOException(e);
+    } catch (RuntimeException e) {
+      metrics.recordError();
+      throw e;
+    } finally {
+      metrics.recordMultiGet(sortedKeys.size(), System.nanoTime() - startNanos);
+    }
+  }
+
+  /** The keys of pending, in increasing order, which fall into the key range of the memtable. */
+  private static List<String> candidateKeys(Memtable memtable, NavigableSet<String> pending) {
+    if (!memtable.isPersisted()) return new ArrayList<>(pending);
+    return new ArrayList<>(
+        pending.subSet(memtable.getSmallestKey(), true, memtable.getLargestKey(), true));
+  }
+
+  /**
+   * Merges the memtables which may hold keys in [startKey, endKey), newest first, so that only the
+   * newest version of each key is returned. The iterator is lazy : records are read from the
+   * memtables and SSTables as the iterator advances. The scan reads as of the last write published
+   * when it starts.
+   */
+  @Override
+  public CloseableIterator<Data> scan(String startKey, String endKey) {
+    return scan(startKey, endKey, null);
+  }
+
+  /** @param snapshot null to read the last published write */
+  public CloseableIterator<Data> scan(String startKey, String endKey, Snapshot snapshot) {
+    return newScanIterator(startKey, endKey, null, snapshot);
+  }
+
+  @Override
+  public CloseableIterator<Data> prefixScan(String prefix) {
+    return prefixScan(prefix, null);
+  }
+
+  /** @param snapshot null to read the last published write */
+  public CloseableIterator<Data> prefixScan(String prefix, Snapshot snapshot) {
+    return newScanIterator(prefix, null, prefix, snapshot);
+  }
+
+  private CloseableIterator<Data> newScanIterator(
+      String startKey, String endKey, String prefix, Snapshot snapshot) {
+    checkSnapshot(snapshot);
+    List<Memtable> referenced = referenceMemtables(startKey, endKey);
+    // read after the memtables, see find(). Their versions are kept until they are released
+    long sequence = snapshot != null ? snapshot.getSequence() : visibleSequence;
+    List<CloseableIterator<Data>> sources = new ArrayList<>();
+    try {
+      for (Memtable memtable : referenced) sources.add(memtable.iterator(startKey));
+    } catch (IOException | RuntimeException e) {
+      for (CloseableIterator<Data> source : sources) source.close();
+      for (Memtable memtable : referenced) memtable.unref();
+      if (e instanceof IOException) throw new UncheckedIOException((IOException) e);
+      throw (RuntimeException) e;
+    }
+    return new ScanIterator(referenced, sources, endKey, prefix, sequence);
+  }
+
+  /** References the memtables, newest first, which may hold keys in [startKey, endKey). */
+  private List<Memtable> referenceMemtables(String startKey, String endKey) {
+    while (true) {
+      List<Memtable> referenced = new ArrayList<>();
+      boolean stale = false;
       for (Memtable memtable : memTables) {
-        String val = memtable.get(key);
-        if (val != null) {
-          value = val;
+        if (memtable.isPersisted()
+            && (memtable.getLargestKey().compareTo(startKey) < 0
+                || (endKey != null && memtable.getSmallestKey().compareTo(endKey) >= 0))) {
+          continue;
+        }
+        // compacted away, start over with the memtables which replaced it
+        if (!memtable.tryRef()) {
+          stale = true;
           break;
         }
+        referenced.add(memtable);
       }
-    } catch (Exception e) {
-      System.out.print("Exception encountered while searching for key : " + key + " | " + e);
+      if (!stale) return referenced;
+      for (Memtable memtable : referenced) memtable.unref();
     }
+  }
 
-    return value;
+  /** The cache of the data blocks read from SSTables, with its hit and miss counters. */
+  public BlockCache getBlockCache() {
+    return blockCache;
+  }
+
+  /** Counters of the bytes written by flushes and compactions. */
+  public CompactionStats getCompactionStats() {
+    return compactionStats;
+  }
+
+  /** Counters of the key filter of every SSTable, by name of its data file, newest first. */
+  public Map<String, FilterStats> getFilterStats() {
+    Map<String, FilterStats> stats = new LinkedHashMap<>();
+    for (Memtable memtable : memTables) {
+      if (memtable.isPersisted()) stats.put(memtable.getDataFileName(), memtable.getFilterStats());
+    }
+    return stats;
+  }
+
+  /**
+   * A snapshot of the metrics of the DB : the latency of puts, gets, deletes and flushes, the
+   * lookups of the key filters and the bytes read from the SSTables, including those of the
+   * SSTables which were compacted away, and the current number of SSTables and bytes held by the
+   * memtables.
+   */
+  @Override
+  public MetricsSnapshot getMetrics() {
+    long sstableCount = 0;
+    long memtableBytes = 0;
+    long bytesRead = 0;
+    long filterNegatives = 0;
+    long filterPositives = 0;
+    long filterFalsePositives = 0;
+    for (Memtable memtable : memTables) {
+      if (!memtable.isPersisted()) {
+        memtableBytes += memtable.getSizeInBytes();
+        continue;
+      }
+      sstableCount++;
+      bytesRead += memtable.getBytesRead();
+      FilterStats filterStats = memtable.getFilterStats();
+      filterNegatives += filterStats.getUsefulCount();
+      filterPositives += filterStats.getPositiveCount();
+      filterFalsePositives += filterStats.getFalsePositiveCount();
+    }
+
+    Map<String, Long> current = new LinkedHashMap<>();
+    current.put(MetricsSnapshot.SSTABLE_COUNT, sstableCount);
+    current.put(MetricsSnapshot.MEMTABLE_BYTES, memtableBytes);
+    current.put(MetricsSnapshot.BYTES_READ, bytesRead);
+    current.put(MetricsSnapshot.FILTER_NEGATIVES, filterNegatives);
+    current.put(MetricsSnapshot.FILTER_POSITIVES, filterPositives);
+    current.put(MetricsSnapshot.FILTER_FALSE_POSITIVES, filterFalsePositives);
+    return metrics.snapshot(current);
   }
 
+  /**
+   * Flushes the active memtable, waits for all the immutable memtables to be written to disk and
+   * for the running compactions, and stops the background threads. The DB can still be read after
+   * it is closed, but not written to.
+   */
   @Override
-  public void delete(String key) {}
+  public void close() throws IOException {
+    memtableSwitchLock.writeLock().lock();
+    try {
+      Memtable activeMemtable = memTables.get(0);
+      if (activeMemtable.getSizeInBytes() > 0) {
+        immutableMemtableSlots.acquireUninterruptibly();
+        flusher.submit(() -> flush(activeMemtable));
+      } else {
+        activeMemtable.deleteWriteAheadLog();
+      }
+      flusher.shutdown();
+      if (walSyncer != null) walSyncer.shutdown();
+    } finally {
+      memtableSwitchLock.writeLock().unlock();
+    }
+    try {
+      flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      // the last flush may have scheduled a compaction, which is allowed to complete
+      compactor.shutdown();
+      compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for memtables to be flushed", e);
+    }
+  }
 }
@@ -0,0 +1,88 @@
+package toydb.toydb;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import toydb.common.CloseableIterator;
+import toydb.common.MergingIterator;
+import toydb.index.Memtable;
+
+/**
+ * The iterator returned by the scans of an {@link SSTableBasedToyDB} : merges the records of every
+ * memtable, newest first, returns the newest version of every key as of the sequence of the scan,
+ * skips the deleted keys, and stops at the end of the scanned range.
+ *
+ * <p>The scanned memtables are referenced until the iterator is closed, so that their files are not
+ * deleted by a compaction in the meantime.
+ */
+class ScanIterator implements CloseableIterator<Data> {
+
+  private List<Memtable> memtables;
+  private List<CloseableIterator<Data>> sources;
+  private MergingIterator merged;
+  // exclusive, null for no upper bound
+  private String endKey;
+  // null when not scanning a prefix
+  private String prefix;
+  // the versions of larger sequences are skipped
+  private long sequence;
+  // key of the last version returned or skipped as deleted, whose older versions are skipped
+  private String lastKey;
+  private Data next;
+  private boolean closed = false;
+
+  /**
+   * @param memtables referenced memtables, released by {@link #close()}
+   * @param sources one iterator per memtable, newest first, positioned at the start of the range
+   */
+  ScanIterator(
+      List<Memtable> memtables,
+      List<CloseableIterator<Data>> sources,
+      String endKey,
+      String prefix,
+      long sequence) {
+    this.memtables = memtables;
+    this.sources = sources;
+    this.merged = new MergingIterator(sources);
+    this.endKey = endKey;
+    this.prefix = prefix;
+    this.sequence = sequence;
+    advance();
+  }
+
+  private void advance() {
+    next = null;
+    while (merged.hasNext()) {
+      Data d = merged.next();
+      if (endKey != null && d.getKey().compareTo(endKey) >= 0) return;
+      if (prefix != null && !d.getKey().startsWith(prefix)) return;
+      if (d.getSequence() > sequence || d.getKey().equals(lastKey)) continue;
+      lastKey = d.getKey();
+      // a deleted key, whose older versions are skipped
+      if (d.isTombstone()) continue;
+      next = d;
+      return;
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    return next != null;
+  }
+
+  @Override
+  public Data next() {
+    if (next == null) throw new NoSuchElementException();
+    Data d = next;
+    advance();
+    return d;
+  }
+
+  @Override
+  public void close() {
+    if (closed) return;
+    closed = true;
+    next = null;
+    for (CloseableIterator<Data> source : sources) source.close();
+    for (Memtable memtable : memtables) memtable.unref();
+  }
+}
@@ -0,0 +1,241 @@
+package toydb.toydb;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import toydb.common.CloseableIterator;
+import toydb.common.MergingIterator;
+import toydb.metrics.MetricsSnapshot;
+
+/**
+ * A ToyDB made of several independent {@link SSTableBasedToyDB} shards, so that writes scale with
+ * the number of cores : a single DB applies its writes to one active memtable and one write ahead
+ * log, while every shard has its own, along with its own flusher and compaction threads and its
+ * own SSTables, in the subdirectory shard_i of the DB directory.
+ *
+ * <p>Keys are spread over the shards by their hash. Gets, puts and deletes go to the shard of their
+ * key, and scans merge the scans of all the shards, which hold disjoint keys. The number of shards
+ * is recorded in the SHARDS file of the DB directory when the DB is created, and can not be changed
+ * afterwards.
+ *
+ * <p>The shards are independent : a {@link WriteBatch} is only atomic for the keys of the same
+ * shard, and a scan sees each shard as of the time its own scan started.
+ */
+public class ShardedToyDB implements ToyDB, Closeable {
+
+  public static final String SHARDS_FILE_NAME = "SHARDS";
+  private static final String HEADER = "toydb-shards ";
+  private static final String SHARD_DIRECTORY_PREFIX = "shard_";
+
+  private SSTableBasedToyDB[] shards;
+
+  public ShardedToyDB(String dbDirectoryPath, int shardCount) throws IOException {
+    this(dbDirectoryPath, shardCount, DBOptions::new);
+  }
+
+  /**
+   * @param optionsPerShard called once per shard : the options of a shard, e.g. its compaction
+   *     policy, must not be shared with the other shards. The memtable and block cache sizes are
+   *     those of every shard.
+   */
+  public ShardedToyDB(String dbDirectoryPath, int shardCount, Supplier<DBOptions> optionsPerShard)
+      throws IOException {
+    if (shardCount <= 0) throw new IllegalArgumentException("shardCount must be positive");
+    Files.createDirectories(Paths.get(dbDirectoryPath));
+    checkShardCount(Paths.get(dbDirectoryPath, SHARDS_FILE_NAME), shardCount);
+
+    shards = new SSTableBasedToyDB[shardCount];
+    try {
+      for (int i = 0; i < shardCount; i++) {
+        String shardPath = Paths.get(dbDirectoryPath, SHARD_DIRECTORY_PREFIX + i).toString();
+        shards[i] = new SSTableBasedToyDB(shardPath, optionsPerShard.get());
+      }
+    } catch (IOException | RuntimeException e) {
+      for (SSTableBasedToyDB shard : shards) {
+        if (shard != null) shard.close();
+      }
+      throw e;
+    }
+  }
+
+  /** Records the number of shards of a new DB, or checks it against that of an existing DB. */
+  private static void checkShardCount(Path shardsFile, int shardCount) throws IOException {
+    if (Files.exists(shardsFile)) {
+      String content = new String(Files.readAllBytes(shardsFile), StandardCharsets.UTF_8).trim();
+      if (!content.startsWith(HEADER)) throw new IOException("Corrupt shards file : " + shardsFile);
+      int existing = Integer.parseInt(content.substring(HEADER.length()));
+      if (existing != shardCount) {
+        throw new IOException("The DB has " + existing + " shards, not " + shardCount);
+      }
+      return;
+    }
+    // written to a temporary file first, so that a crash never leaves a partial file
+    Path tmp = shardsFile.resolveSibling(SHARDS_FILE_NAME + ".tmp");
+    Files.write(tmp, (HEADER + shardCount + "\n").getBytes(StandardCharsets.UTF_8));
+    Files.move(tmp, shardsFile, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  public int getShardCount() {
+    return shards.length;
+  }
+
+  /**
+   * The shard of key. String.hashCode is the same in every JVM, and its bits are mixed as in the
+   * finalizer of MurmurHash3, so that similar keys are spread evenly.
+   */
+  int shardIndex(String key) {
+    int h = key.hashCode();
+    h ^= h >>> 16;
+    h *= 0x85eb_ca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2_ae35;
+    h ^= h >>> 16;
+    return Math.floorMod(h, shards.length);
+  }
+
+  private SSTableBasedToyDB shard(String key) {
+    return shards[shardIndex(key)];
+  }
+
+  @Override
+  public void put(String key, String value) {
+    shard(key).put(key, value);
+  }
+
+  @Override
+  public String get(String key) {
+    return shard(key).get(key);
+  }
+
+  @Override
+  public void delete(String key) {
+    shard(key).delete(key);
+  }
+
+  /**
+   * Splits the batch by shard, and writes the part of every shard as a batch of its own : the
+   * writes of a shard are applied atomically, but not the writes of different shards.
+   */
+  public void write(WriteBatch batch) {
+    WriteBatch[] shardBatches = new WriteBatch[shards.length];
+    for (Data d : batch.getRecords()) {
+      int shardIndex = shardIndex(d.getKey());
+      if (shardBatches[shardIndex] == null) shardBatches[shardIndex] = new WriteBatch();
+      if (d.isTombstone()) shardBatches[shardIndex].delete(d.getKey());
+      else shardBatches[shardIndex].put(d.getKey(), d.getValue());
+    }
+    for (int i = 0; i < shards.length; i++) {
+      if (shardBatches[i] != null) shards[i].write(shardBatches[i]);
+    }
+  }
+
+  /**
+   * Looks up the keys of every shard with a single {@link SSTableBasedToyDB#multiGet} call.
+   *
+   * @return the value of every key which is found, sorted by key
+   */
+  public Map<String, String> multiGet(Collection<String> keys) {
+    List<List<String>> shardKeys = new ArrayList<>();
+    for (int i = 0; i < shards.length; i++) shardKeys.add(new ArrayList<>());
+    for (String key : keys) shardKeys.get(shardIndex(key)).add(key);
+
+    Map<String, String> values = new TreeMap<>();
+    for (int i = 0; i < shards.length; i++) {
+      if (!shardKeys.get(i).isEmpty()) values.putAll(shards[i].multiGet(shardKeys.get(i)));
+    }
+    return values;
+  }
+
+  @Override
+  public CloseableIterator<Data> scan(String startKey, String endKey) {
+    List<CloseableIterator<Data>> shardIterators = new ArrayList<>();
+    try {
+      for (SSTableBasedToyDB shard : shards) shardIterators.add(shard.scan(startKey, endKey));
+    } catch (RuntimeException e) {
+      closeAll(shardIterators);
+      throw e;
+    }
+    return merge(shardIterators);
+  }
+
+  @Override
+  public CloseableIterator<Data> prefixScan(String prefix) {
+    List<CloseableIterator<Data>> shardIterators = new ArrayList<>();
+    try {
+      for (SSTableBasedToyDB shard : shards) shardIterators.add(shard.prefixScan(prefix));
+    } catch (RuntimeException e) {
+      closeAll(shardIterators);
+      throw e;
+    }
+    return merge(shardIterators);
+  }
+
+  /** The shards hold disjoint keys, so the merge never drops a record. */
+  private static CloseableIterator<Data> merge(List<CloseableIterator<Data>> shardIterators) {
+    MergingIterator merged = new MergingIterator(shardIterators);
+    return new CloseableIterator<Data>() {
+      @Override
+      public boolean hasNext() {
+        return merged.hasNext();
+      }
+
+      @Override
+      public Data next() {
+        return merged.next();
+      }
+
+      @Override
+      public void close() {
+        closeAll(shardIterators);
+      }
+    };
+  }
+
+  private static void closeAll(List<CloseableIterator<Data>> iterators) {
+    for (CloseableIterator<Data> it : iterators) it.close();
+  }
+
+  /**
+   * The metrics of all the shards, merged as those of a single DB, see {@link
+   * MetricsSnapshot#merge}.
+   */
+  @Override
+  public MetricsSnapshot getMetrics() {
+    List<MetricsSnapshot> snapshots = new ArrayList<>();
+    for (SSTableBasedToyDB shard : shards) snapshots.add(shard.getMetrics());
+    return MetricsSnapshot.merge(snapshots);
+  }
+
+  /** The metrics of every shard, in the order of the shards. */
+  public List<MetricsSnapshot> getShardMetrics() {
+    List<MetricsSnapshot> snapshots = new ArrayList<>();
+    for (SSTableBasedToyDB shard : shards) snapshots.add(shard.getMetrics());
+    return Collections.unmodifiableList(snapshots);
+  }
+
+  /** Closes every shard, see {@link SSTableBasedToyDB#close()}. */
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for (SSTableBasedToyDB shard : shards) {
+      try {
+        shard.close();
+      } catch (IOException e) {
+        if (failure == null) failure = e;
+        else failure.addSuppressed(e);
+      }
+    }
+    if (failure != null) throw failure;
+  }
+}
@@ -1,80 +1,630 @@
 package toydb.toydb;
 
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import toydb.common.CloseableIterator;
 import toydb.datafile.DataFile;
 import toydb.datafile.DataFileIterator;
+import toydb.datafile.RecordCodec;
+import toydb.datafile.SegmentLocation;
 import toydb.index.DBIndex;
-import toydb.index.HashBasedIndex;
+import toydb.index.HintFile;
+import toydb.index.TreeBasedIndex;
+import toydb.metrics.DBMetrics;
+import toydb.metrics.MetricsSnapshot;
 
 /**
- * SimpleToyDB uses one file to persist data.
+ * SimpleToyDB appends the data to a log split into segments.
  *
- * <p>Persistence: The <Key, Value> pairs are written sequentially to the file.
+ * <p>Persistence: The <Key, Value> pairs are written sequentially to the active segment. Once it
+ * reaches segmentMaxSizeInBytes, the active segment becomes immutable, and a new one is started.
  *
- * <p>Index : An in memory hash based index is used. This index stores a Key to corresponding latest
- * entry location in the file.
+ * <p>Index : An in memory index is used, a {@link TreeBasedIndex} by default. This index stores a
+ * Key to corresponding latest entry location, a {@link SegmentLocation} made of the segment id and
+ * the offset in the segment. An {@link toydb.index.OffHeapHashIndex} keeps it out of the heap.
  *
- * <p>Read : In memory index is used to find the location of the key in the file. Then the file is
- * read that location to get the corresponding value.
+ * <p>Read : In memory index is used to find the location of the key. Then the segment is read at
+ * that offset to get the corresponding value.
  *
- * <p>Delete : Key is stored with a tombstone in the file.
+ * <p>Delete : A tombstone of the key is appended to the active segment, and the key is removed from
+ * the index.
  *
- * <p>Limitations : - All keys need to be present in the memory. - No range search based queries
- * possible.
+ * <p>Merge : Once there are mergeTriggerSegments immutable segments, a background thread copies
+ * their live records, the ones the index still points to, into a new segment, points the index to
+ * the copies, and deletes the old segments. Overwritten values and tombstones are dropped, so that
+ * the size on disk follows the size of the live data. Reads and writes only wait for the merge
+ * while it checks or swaps a batch of MERGE_BATCH_SIZE index entries.
+ *
+ * <p>Startup : The index is written to a {@link HintFile} by the background thread every
+ * HINT_INTERVAL_IN_BYTES bytes written, after a merge, and on close. On startup, the index is
+ * loaded from the hint file, and only the records written after it are read from the segments. A
+ * missing or corrupt hint file falls back to reading all the segments, oldest first.
+ *
+ * <p>Scan : The keys of the range are taken from the index in sorted batches of SCAN_BATCH_SIZE
+ * keys, each batch starting after the last key of the previous one, and their values are read one
+ * at a time.
+ *
+ * <p>Limitations : - All keys need to be present in the memory. - With an index which does not
+ * keep its keys sorted, every batch of a scan walks the whole index.
  */
-public class SimpleToyDB implements ToyDB {
+public class SimpleToyDB implements ToyDB, Closeable {
+
+  public static final long DEFAULT_SEGMENT_MAX_SIZE_IN_BYTES = 64 * 1024 * 1024; // 64 MB
+  public static final int DEFAULT_MERGE_TRIGGER_SEGMENTS = 4;
+
+  private static final String SEGMENT_FILE_PREFIX = "toydb_datafile_";
+  private static final Pattern SEGMENT_FILE_NAME = Pattern.compile("toydb_datafile_(\\d+)");
+  private static final String MERGE_FILE_SUFFIX = ".merge";
+  private static final String HINT_FILE_NAME = "toydb_datafile" + HintFile.FILE_SUFFIX;
+  private static final long HINT_INTERVAL_IN_BYTES = 16 * 1024 * 1024; // 16 MB
+  private static final int MERGE_BATCH_SIZE = 1000;
+  private static final int SCAN_BATCH_SIZE = 1000;
 
   private String dbBasePath;
 
-  private DataFile dataFile;
+  private long segmentMaxSizeInBytes;
+
+  private int mergeTriggerSegments;
 
   private DBIndex index;
 
+  // guards the index, the segments, and all the fields below
+  private final Object lock = new Object();
+
+  // read only handles of all the segments, including the active one, by segment id
+  private TreeMap<Integer, DataFile> segments = new TreeMap<>();
+
+  private DataFile activeSegment;
+
+  private int activeSegmentId;
+
+  private int nextSegmentId;
+
+  private boolean mergeScheduled = false;
+
+  private long bytesWrittenSinceHint = 0;
+
+  private boolean hintScheduled = false;
+
+  // held while a hint file is written, taken before the lock
+  private final Object hintLock = new Object();
+
+  private DBMetrics metrics = new DBMetrics();
+
+  private ExecutorService merger =
+      Executors.newSingleThreadExecutor(
+          r -> {
+            Thread t = new Thread(r, "toydb-merger");
+            t.setDaemon(true);
+            return t;
+          });
+
   public SimpleToyDB(String dbPath) throws IOException {
+    this(dbPath, new TreeBasedIndex());
+  }
+
+  /**
+   * @param index an empty index, e.g. an {@link toydb.index.OffHeapHashIndex} to hold more keys
+   *     than fit in the heap
+   */
+  public SimpleToyDB(String dbPath, DBIndex index) throws IOException {
+    this(dbPath, index, DEFAULT_SEGMENT_MAX_SIZE_IN_BYTES, DEFAULT_MERGE_TRIGGER_SEGMENTS);
+  }
+
+  /**
+   * @param segmentMaxSizeInBytes size after which the active segment is rolled over
+   * @param mergeTriggerSegments number of immutable segments which triggers a merge
+   */
+  public SimpleToyDB(
+      String dbPath, DBIndex index, long segmentMaxSizeInBytes, int mergeTriggerSegments)
+      throws IOException {
     this.dbBasePath = dbPath;
-    dataFile = new DataFile(dbBasePath + "/toydb_datafile_1");
-    index = new HashBasedIndex();
+    this.index = index;
+    this.segmentMaxSizeInBytes = segmentMaxSizeInBytes;
+    this.mergeTriggerSegments = mergeTriggerSegments;
     initDB();
   }
 
-  private void initDB() {
-    // Read all data in dataFile and initialize the hashIndex
-    DataFileIterator it = new DataFileIterator(dataFile);
-    while (it.hasNext()) {
-      long location = it.getReadLocation();
-      Data d = it.next();
-      index.updateIndex(d.getKey(), location);
+  private void initDB() throws IOException {
+    // STEP 01 : open all the segments, the last one being the active one. The output of a merge
+    // interrupted by a crash is dropped : the segments it was merging are still there.
+    Files.createDirectories(Paths.get(dbBasePath));
+    for (File f : new File(dbBasePath).listFiles()) {
+      Matcher m = SEGMENT_FILE_NAME.matcher(f.getName());
+      if (m.matches()) {
+        segments.put(Integer.parseInt(m.group(1)), new DataFile(f.getPath(), true));
+      } else if (f.getName().endsWith(MERGE_FILE_SUFFIX)) {
+        Files.delete(f.toPath());
+      }
+    }
+    activeSegmentId = segments.isEmpty() ? 1 : segments.lastKey();
+    nextSegmentId = activeSegmentId + 1;
+    activeSegment = new DataFile(getSegmentPath(activeSegmentId));
+    if (!segments.containsKey(activeSegmentId)) {
+      segments.put(activeSegmentId, new DataFile(getSegmentPath(activeSegmentId), true));
+    }
+
+    // STEP 02 : bulk load the index from the hint file, if there is a valid one
+    long scanStart = SegmentLocation.of(segments.firstKey(), 0);
+    File hintFile = new File(getHintFilePath());
+    if (hintFile.exists()) {
+      try {
+        // the hint file is validated before any entry is added to the index
+        scanStart = HintFile.load(getHintFilePath(), this::isWritten, index::updateLocation);
+      } catch (IOException e) {
+        System.out.println("Ignoring hint file | " + e);
+      }
+    }
+
+    // STEP 03 : read the data written after the hint file, or all data in the segments, and update
+    // the index with it
+    int scanStartSegmentId = SegmentLocation.segmentId(scanStart);
+    for (Map.Entry<Integer, DataFile> segment :
+        segments.tailMap(scanStartSegmentId, true).entrySet()) {
+      int segmentId = segment.getKey();
+      long offset = segmentId == scanStartSegmentId ? SegmentLocation.offset(scanStart) : 0;
+      DataFileIterator it = new DataFileIterator(segment.getValue(), offset);
+      // end of the last complete record read
+      long end = offset;
+      try {
+        while (it.hasNext()) {
+          long location = SegmentLocation.of(segmentId, it.getReadLocation());
+          Data d = it.next();
+          if (d.isTombstone()) index.removeFromIndex(d.getKey());
+          else index.updateLocation(d.getKey(), location);
+          end = it.getReadLocation();
+        }
+      } catch (UncheckedIOException e) {
+        // an index built from part of the sealed segments would silently lose keys. Only the
+        // active segment can end with a record torn by a crash in the middle of an append.
+        if (segmentId != activeSegmentId || !(e.getCause() instanceof EOFException)) {
+          throw e.getCause();
+        }
+        System.out.println(
+            "Dropping the torn record of segment " + segmentId + " | " + e.getCause());
+      }
+      // drop the torn record, or the zeros a crash may leave at the end of the file, so that the
+      // next records are appended right after the last complete one
+      if (segmentId == activeSegmentId && end < activeSegment.getAppendOffset()) {
+        activeSegment.truncate(end);
+        activeSegment.sync();
+      }
     }
   }
 
+  private boolean isWritten(long location) {
+    int segmentId = SegmentLocation.segmentId(location);
+    return segments.containsKey(segmentId)
+        && new File(getSegmentPath(segmentId)).length() >= SegmentLocation.offset(location);
+  }
+
+  /**
+   * Syncs the active segment, and writes the whole index to the hint file. Called every
+   * HINT_INTERVAL_IN_BYTES bytes written, on the merger thread, after a merge, and on close.
+   *
+   * <p>Reads and writes only wait for the copy of the index : the segment and the hint file are
+   * synced outside the lock.
+   */
+  public void writeHintFile() throws IOException {
+    // hint files are written one at a time, in the order of their snapshots
+    synchronized (hintLock) {
+      DataFile segment;
+      long coveredLocation;
+      String[] keys;
+      long[] locations;
+      synchronized (lock) {
+        segment = activeSegment;
+        coveredLocation = SegmentLocation.of(activeSegmentId, activeSegment.getAppendOffset());
+        keys = new String[index.size()];
+        locations = new long[keys.length];
+        int[] count = new int[1];
+        index.forEachLocation(
+            (key, location) -> {
+              keys[count[0]] = key;
+              locations[count[0]++] = location;
+            });
+        bytesWrittenSinceHint = 0;
+        hintScheduled = false;
+      }
+
+      try {
+        segment.sync();
+      } catch (IOException e) {
+        // the segment was rolled over since the snapshot, and synced before being closed
+        synchronized (lock) {
+          if (segment == activeSegment) throw e;
+        }
+      }
+      HintFile.write(getHintFilePath(), keys, locations, coveredLocation);
+    }
+  }
+
+  /** Writes the hint file on the merger thread, unless it is already scheduled. Under the lock. */
+  private void scheduleHintFile() {
+    if (hintScheduled) return;
+    hintScheduled = true;
+    try {
+      merger.submit(
+          () -> {
+            try {
+              writeHintFile();
+            } catch (Exception e) {
+              // the next hint file covers the writes of this one
+              metrics.recordError();
+              e.printStackTrace();
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      // the DB is being closed, and writes the hint file on close
+      hintScheduled = false;
+    }
+  }
+
+  private String getHintFilePath() {
+    return dbBasePath + "/" + HINT_FILE_NAME;
+  }
+
+  private String getSegmentPath(int segmentId) {
+    return dbBasePath + "/" + SEGMENT_FILE_PREFIX + segmentId;
+  }
+
   @Override
   public void put(String key, String value) {
+    long startNanos = System.nanoTime();
     try {
-      Data data = new Data(key, value);
-      long location = dataFile.write(data);
-      index.updateIndex(key, location);
+      synchronized (lock) {
+        long location = append(new Data(key, value));
+        index.updateLocation(key, location);
+        if (bytesWrittenSinceHint >= HINT_INTERVAL_IN_BYTES) scheduleHintFile();
+      }
     } catch (Exception e) {
+      metrics.recordError();
       System.out.println("An exception occurred. The data could not be written. " + e);
     }
+    metrics.recordPut(System.nanoTime() - startNanos);
   }
 
   @Override
   public String get(String key) {
-    String value = "";
+    long startNanos = System.nanoTime();
+    String value = find(key);
+    metrics.recordGet(System.nanoTime() - startNanos);
+    return value;
+  }
+
+  private String find(String key) {
     try {
-      Long location = index.getLocationFromIndex(key);
-      if (location == null) return "";
-      Data data = dataFile.read(location);
-      value = data.getValue();
+      Data d = read(key);
+      return d == null ? "" : d.getValue();
     } catch (Exception e) {
+      metrics.recordError();
       System.out.println("An exception occurred. The data could not be read. " + e);
+      return "";
     }
+  }
 
-    return value;
+  /** Reads the latest record of key, or returns null if the key is not in the index. */
+  private Data read(String key) throws IOException {
+    while (true) {
+      long location;
+      DataFile segment;
+      synchronized (lock) {
+        location = index.getLocation(key);
+        if (location < 0) return null;
+        segment = segments.get(SegmentLocation.segmentId(location));
+      }
+      // the segment is read outside the lock, so that reads do not wait for each other
+      try {
+        Data d = segment.read(SegmentLocation.offset(location));
+        metrics.recordBytesRead(RecordCodec.encodedSize(d.getKey(), d.getValue()));
+        return d;
+      } catch (ClosedChannelException e) {
+        // a merge retired the segment after the lookup : the key has a new location
+        synchronized (lock) {
+          if (segments.containsValue(segment)) throw e;
+        }
+      }
+    }
   }
 
   @Override
   public void delete(String key) {
-    System.out.println("Delete method is not yet implemented.");
+    long startNanos = System.nanoTime();
+    try {
+      synchronized (lock) {
+        append(Data.tombstone(key));
+        index.removeFromIndex(key);
+        if (bytesWrittenSinceHint >= HINT_INTERVAL_IN_BYTES) scheduleHintFile();
+      }
+    } catch (Exception e) {
+      metrics.recordError();
+      System.out.println("An exception occurred. The key could not be deleted. " + e);
+    }
+    metrics.recordDelete(System.nanoTime() - startNanos);
+  }
+
+  /** Appends d to the active segment, and returns its location. Called under the lock. */
+  private long append(Data d) throws IOException {
+    if (activeSegment.getAppendOffset() >= segmentMaxSizeInBytes) rollSegment();
+    long offset = activeSegment.write(d);
+    bytesWrittenSinceHint += activeSegment.getAppendOffset() - offset;
+    return SegmentLocation.of(activeSegmentId, offset);
+  }
+
+  /**
+   * Starts a new active segment, and schedules a merge if there are enough immutable segments. The
+   * id of the merge output is taken before the id of the new active segment : the output is newer
+   * than all the segments it merges, and older than all the segments written during the merge.
+   * Called under the lock.
+   */
+  private void rollSegment() throws IOException {
+    activeSegment.sync();
+    activeSegment.close();
+
+    boolean merge = !mergeScheduled && segments.size() >= mergeTriggerSegments;
+    int mergeOutputId = merge ? nextSegmentId++ : -1;
+
+    activeSegmentId = nextSegmentId++;
+    activeSegment = new DataFile(getSegmentPath(activeSegmentId));
+    segments.put(activeSegmentId, new DataFile(getSegmentPath(activeSegmentId), true));
+
+    if (merge) {
+      mergeScheduled = true;
+      merger.submit(() -> merge(mergeOutputId));
+    }
+  }
+
+  private void merge(int outputId) {
+    try {
+      mergeSegments(outputId);
+    } catch (Exception e) {
+      // the segments stay live, and are merged again after the next roll over
+      metrics.recordError();
+      e.printStackTrace();
+    } finally {
+      synchronized (lock) {
+        mergeScheduled = false;
+      }
+    }
+  }
+
+  /** Merges all the segments older than outputId into the segment outputId. */
+  private void mergeSegments(int outputId) throws IOException {
+    List<Integer> inputIds;
+    synchronized (lock) {
+      inputIds = new ArrayList<>(segments.headMap(outputId).keySet());
+    }
+
+    // STEP 01 : copy the live records of the inputs to the merge file. Records overwritten after
+    // being copied are detected in STEP 03.
+    String mergeFilePath = getSegmentPath(outputId) + MERGE_FILE_SUFFIX;
+    // location of the i-th record of the output in the inputs
+    long[] inputLocations = new long[MERGE_BATCH_SIZE];
+    int outputRecordCount = 0;
+    try {
+      try (DataFile output = new DataFile(mergeFilePath)) {
+        for (int inputId : inputIds) {
+          try (DataFileIterator it =
+              new DataFileIterator(new DataFile(getSegmentPath(inputId), true))) {
+            List<Data> batch = new ArrayList<>(MERGE_BATCH_SIZE);
+            long[] batchLocations = new long[MERGE_BATCH_SIZE];
+            while (it.hasNext()) {
+              batchLocations[batch.size()] = SegmentLocation.of(inputId, it.getReadLocation());
+              batch.add(it.next());
+              if (batch.size() < MERGE_BATCH_SIZE && it.hasNext()) continue;
+
+              boolean[] live = new boolean[batch.size()];
+              synchronized (lock) {
+                for (int i = 0; i < batch.size(); i++) {
+                  // tombstones are never live : the records they shadow are all in the inputs
+                  live[i] = index.getLocation(batch.get(i).getKey()) == batchLocations[i];
+                }
+              }
+              for (int i = 0; i < batch.size(); i++) {
+                if (!live[i]) continue;
+                output.write(batch.get(i));
+                if (outputRecordCount == inputLocations.length) {
+                  inputLocations = Arrays.copyOf(inputLocations, 2 * inputLocations.length);
+                }
+                inputLocations[outputRecordCount++] = batchLocations[i];
+              }
+              batch.clear();
+            }
+          }
+        }
+        output.sync();
+      }
+    } catch (IOException | RuntimeException e) {
+      // a read error fails the merge, which keeps its inputs
+      Files.deleteIfExists(Paths.get(mergeFilePath));
+      throw e;
+    }
+
+    // STEP 02 : make the output a segment
+    Files.move(
+        Paths.get(mergeFilePath),
+        Paths.get(getSegmentPath(outputId)),
+        StandardCopyOption.ATOMIC_MOVE);
+    DataFile output = new DataFile(getSegmentPath(outputId), true);
+    synchronized (lock) {
+      segments.put(outputId, output);
+    }
+
+    // STEP 03 : point the index to the output, for the keys which were not written again since
+    DataFileIterator it = new DataFileIterator(output);
+    List<String> keys = new ArrayList<>(MERGE_BATCH_SIZE);
+    long[] outputLocations = new long[MERGE_BATCH_SIZE];
+    int swapped = 0;
+    while (it.hasNext()) {
+      outputLocations[keys.size()] = SegmentLocation.of(outputId, it.getReadLocation());
+      keys.add(it.nextKey());
+      if (keys.size() < MERGE_BATCH_SIZE && it.hasNext()) continue;
+
+      synchronized (lock) {
+        for (int i = 0; i < keys.size(); i++) {
+          String key = keys.get(i);
+          if (index.getLocation(key) == inputLocations[swapped + i]) {
+            index.updateLocation(key, outputLocations[i]);
+          }
+        }
+      }
+      swapped += keys.size();
+      keys.clear();
+    }
+
+    // STEP 04 : delete the inputs. The hint file may point to them, and is written again.
+    synchronized (lock) {
+      Files.deleteIfExists(Paths.get(getHintFilePath()));
+      for (int inputId : inputIds) {
+        segments.remove(inputId).close();
+        Files.delete(Paths.get(getSegmentPath(inputId)));
+      }
+    }
+    writeHintFile();
+  }
+
+  /**
+   * A snapshot of the metrics of the DB : the latency of puts, gets and deletes, the bytes of the
+   * records read by gets, and the current number of segments. SimpleToyDB has no memtable and no
+   * SSTable : the flush and filter metrics stay at 0.
+   */
+  @Override
+  public MetricsSnapshot getMetrics() {
+    Map<String, Long> current = new LinkedHashMap<>();
+    synchronized (lock) {
+      current.put(MetricsSnapshot.SEGMENT_COUNT, (long) segments.size());
+    }
+    return metrics.snapshot(current);
+  }
+
+  /** Waits for a running merge, writes the hint file, and closes the segments. */
+  @Override
+  public void close() throws IOException {
+    merger.shutdown();
+    try {
+      merger.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the merge", e);
+    }
+    try {
+      writeHintFile();
+    } finally {
+      synchronized (lock) {
+        activeSegment.close();
+        for (DataFile segment : segments.values()) segment.close();
+        segments.clear();
+      }
+    }
+  }
+
+  /**
+   * The keys in [startKey, endKey) are taken from the index in batches, under the lock, so that a
+   * scan holds at most SCAN_BATCH_SIZE keys, and puts and gets only wait for one batch at a time.
+   * The values are read lazily, at their latest location : a key written after the scan started has
+   * its new value, and a key deleted since is skipped. A key put after the scan went past it is not
+   * returned.
+   */
+  @Override
+  public CloseableIterator<Data> scan(String startKey, String endKey) {
+    return new IndexScanIterator(startKey, endKey, null);
+  }
+
+  /** See {@link #scan(String, String)}. */
+  @Override
+  public CloseableIterator<Data> prefixScan(String prefix) {
+    return new IndexScanIterator(prefix, null, prefix);
+  }
+
+  /** Reads the values of the keys of a scan one at a time, taking the keys from the index. */
+  private class IndexScanIterator implements CloseableIterator<Data> {
+
+    private final String endKey;
+    private final String prefix;
+    // the next batch starts at this key, null once the last batch has been taken
+    private String fromKey;
+    private List<String> keys = new ArrayList<>(SCAN_BATCH_SIZE);
+    private int position = 0;
+    private Data next;
+
+    IndexScanIterator(String startKey, String endKey, String prefix) {
+      this.fromKey = startKey;
+      this.endKey = endKey;
+      this.prefix = prefix;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (next == null) {
+        if (position == keys.size() && !nextBatch()) return false;
+        try {
+          next = read(keys.get(position++));
+        } catch (IOException e) {
+          metrics.recordError();
+          throw new UncheckedIOException(e);
+        }
+      }
+      return true;
+    }
+
+    /** Takes the next keys of the scan from the index, and returns false if there are none. */
+    private boolean nextBatch() {
+      keys.clear();
+      position = 0;
+      if (fromKey == null) return false;
+      boolean[] ended = new boolean[1];
+      synchronized (lock) {
+        index.forEachLocationFrom(
+            fromKey,
+            SCAN_BATCH_SIZE,
+            (key, location) -> {
+              if ((endKey != null && key.compareTo(endKey) >= 0)
+                  || (prefix != null && !key.startsWith(prefix))) {
+                ended[0] = true;
+              }
+              if (!ended[0]) keys.add(key);
+            });
+      }
+      // the smallest key greater than the last key of the batch
+      fromKey =
+          ended[0] || keys.size() < SCAN_BATCH_SIZE ? null : keys.get(keys.size() - 1) + '\0';
+      return !keys.isEmpty();
+    }
+
+    @Override
+    public Data next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      Data d = next;
+      next = null;
+      return d;
+    }
+
+    @Override
+    public void close() {
+      fromKey = null;
+      keys.clear();
+      position = 0;
+      next = null;
+    }
   }
 }
@@ -1,11 +1,14 @@
 package toydb.toydb;
 
 import java.io.IOException;
+import java.nio.file.Files;
 
 public class SimpleToyDBMain {
 
+  /** @param args the directory of the DB, a new temporary directory if none is given */
   public static void main(String[] args) throws IOException {
-    SimpleToyDB db = new SimpleToyDB("/Users/priyanka/Desktop/MyProjects/toydb/database");
+    String dbPath = args.length > 0 ? args[0] : Files.createTempDirectory("toydb").toString();
+    SimpleToyDB db = new SimpleToyDB(dbPath);
     /*db.put("Test1","Value1");
     db.put("Test2","Value2");
     db.put("Test3","Value3");
@@ -0,0 +1,48 @@
+package toydb.toydb;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A consistent, read-only view of an {@link SSTableBasedToyDB}, as of the sequence of the last
+ * write published when the snapshot was taken. Reads made with the snapshot take no lock, and any
+ * number of threads can share it.
+ *
+ * <p>A snapshot keeps the versions it reads from being dropped by flushes and compactions, and
+ * must be closed once it is no longer needed.
+ */
+public class Snapshot implements Closeable {
+
+  private final SSTableBasedToyDB db;
+  private final long sequence;
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+
+  Snapshot(SSTableBasedToyDB db, long sequence) {
+    this.db = db;
+    this.sequence = sequence;
+  }
+
+  /** The sequence of the last write seen by the snapshot. */
+  public long getSequence() {
+    return sequence;
+  }
+
+  SSTableBasedToyDB getDB() {
+    return db;
+  }
+
+  public boolean isClosed() {
+    return closed.get();
+  }
+
+  /** Releases the versions read by the snapshot. Closing a snapshot twice has no effect. */
+  @Override
+  public void close() {
+    if (closed.compareAndSet(false, true)) db.releaseSnapshot(this);
+  }
+
+  @Override
+  public String toString() {
+    return "Snapshot{sequence=" + sequence + (isClosed() ? ", closed}" : "}");
+  }
+}
@@ -1,5 +1,8 @@
 package toydb.toydb;
 
+import toydb.common.CloseableIterator;
+import toydb.metrics.MetricsSnapshot;
+
 public interface ToyDB {
 
   public void put(String key, String value);
@@ -7,4 +10,18 @@ public interface ToyDB {
   public String get(String key);
 
   public void delete(String key);
+
+  /**
+   * Iterates lazily, sorted by key, over the records whose key is in [startKey, endKey). The
+   * iterator must be closed.
+   *
+   * @param endKey exclusive, or null to scan till the last key
+   */
+  public CloseableIterator<Data> scan(String startKey, String endKey);
+
+  /** Iterates lazily, sorted by key, over the records whose key starts with prefix. */
+  public CloseableIterator<Data> prefixScan(String prefix);
+
+  /** A snapshot of the metrics of the DB, see {@link MetricsSnapshot#toMap()}. */
+  public MetricsSnapshot getMetrics();
 }
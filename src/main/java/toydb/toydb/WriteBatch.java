@@ -0,0 +1,52 @@
+package toydb.toydb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Puts and deletes which are applied together by {@link SSTableBasedToyDB#write(WriteBatch)} : they
+ * are appended to the write ahead log as a single record, so that after a crash either all of them
+ * or none of them are recovered, and they all go to the same memtable.
+ *
+ * <p>The entries are applied in the order they were added, so a later entry for a key overrides an
+ * earlier one. A batch is not thread safe, and can be reused after {@link #clear()}.
+ */
+public class WriteBatch {
+
+  // a delete is a tombstone, see Data#tombstone
+  private List<Data> records = new ArrayList<>();
+  private int payloadSizeInBytes = 0;
+
+  public WriteBatch put(String key, String value) {
+    if (key.isEmpty()) throw new IllegalArgumentException("key must not be empty");
+    records.add(new Data(key, value));
+    payloadSizeInBytes += key.length() + value.length();
+    return this;
+  }
+
+  public WriteBatch delete(String key) {
+    if (key.isEmpty()) throw new IllegalArgumentException("key must not be empty");
+    records.add(Data.tombstone(key));
+    payloadSizeInBytes += key.length();
+    return this;
+  }
+
+  /** Number of puts and deletes in the batch. */
+  public int size() {
+    return records.size();
+  }
+
+  public void clear() {
+    records.clear();
+    payloadSizeInBytes = 0;
+  }
+
+  List<Data> getRecords() {
+    return records;
+  }
+
+  /** Size of the keys and values of the batch, as counted against the size of a memtable. */
+  int getPayloadSizeInBytes() {
+    return payloadSizeInBytes;
+  }
+}
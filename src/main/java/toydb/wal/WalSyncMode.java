@@ -0,0 +1,23 @@
+package toydb.wal;
+
+/** When the writes appended to a {@link WriteAheadLog} are forced to the storage device. */
+public enum WalSyncMode {
+  /**
+   * Every write is forced to the storage device before it is acknowledged. Concurrent writers share
+   * a single force, so the cost of a sync is spread over all the writes waiting for it.
+   */
+  EVERY_WRITE,
+
+  /**
+   * Writes are buffered in memory, and written and forced by a background thread every {@code
+   * walSyncIntervalMillis}. A crash, of the process or of the machine, loses at most the writes of
+   * the last interval.
+   */
+  INTERVAL,
+
+  /**
+   * Every write is handed over to the operating system before it is acknowledged, but never forced.
+   * The writes survive a crash of the process, but not of the machine.
+   */
+  OS_BUFFERED
+}
@@ -0,0 +1,196 @@
+package toydb.wal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * A binary write ahead log. Every record is framed as :
+ *
+ * <pre>
+ *   int length of the payload | int CRC32 of the payload | payload
+ * </pre>
+ *
+ * <p>so that {@link #replay} can find the record boundaries, and stop at a record which was only
+ * partially written when the process crashed.
+ *
+ * <p>Appending a record only copies it into an in-memory buffer. The buffer is then written to the
+ * file, and forced to the storage device, depending on the {@link WalSyncMode}. Writes are group
+ * committed : a single writer (the leader) writes the records appended by all the writers so far,
+ * with one write and one force, while the other writers wait for it to complete.
+ */
+public class WriteAheadLog implements Closeable {
+
+  public static final int FRAME_HEADER_SIZE = 8;
+  // appenders write the buffer out themselves beyond this size, even in INTERVAL mode
+  private static final int MAX_PENDING_BYTES = 1024 * 1024; // 1 MB
+
+  private Path path;
+  private FileChannel channel;
+  private WalSyncMode syncMode;
+
+  // guarded by this : the records appended but not yet written to the file
+  private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+  private long appendedOffset = 0;
+  private CRC32 crc = new CRC32();
+
+  // guarded by commitLock : only the leader writes to and forces the file
+  private final Object commitLock = new Object();
+  private ByteBuffer writing = ByteBuffer.allocate(64 * 1024);
+  private volatile long writtenOffset = 0;
+  private volatile long syncedOffset = 0;
+
+  public WriteAheadLog(Path path, WalSyncMode syncMode) throws IOException {
+    this.path = path;
+    this.syncMode = syncMode;
+    this.channel =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    long size = channel.size();
+    this.appendedOffset = size;
+    this.writtenOffset = size;
+    this.syncedOffset = size;
+  }
+
+  /**
+   * Appends a record, and returns once it is as durable as the sync mode requires.
+   *
+   * @param payload the bytes between its position and its limit are appended, payload must be
+   *     backed by an array
+   */
+  public void append(ByteBuffer payload) throws IOException {
+    long offset = appendToBuffer(payload);
+    switch (syncMode) {
+      case EVERY_WRITE:
+        commit(offset, true);
+        break;
+      case OS_BUFFERED:
+        commit(offset, false);
+        break;
+      case INTERVAL:
+        if (offset - writtenOffset > MAX_PENDING_BYTES) commit(offset, false);
+        break;
+    }
+  }
+
+  private synchronized long appendToBuffer(ByteBuffer payload) {
+    int length = payload.remaining();
+    if (pending.remaining() < FRAME_HEADER_SIZE + length) {
+      int capacity =
+          Math.max(2 * pending.capacity(), pending.position() + FRAME_HEADER_SIZE + length);
+      ByteBuffer grown = ByteBuffer.allocate(capacity);
+      pending.flip();
+      grown.put(pending);
+      pending = grown;
+    }
+
+    crc.reset();
+    crc.update(payload.array(), payload.arrayOffset() + payload.position(), length);
+    pending.putInt(length);
+    pending.putInt((int) crc.getValue());
+    pending.put(payload.duplicate());
+
+    appendedOffset += FRAME_HEADER_SIZE + length;
+    return appendedOffset;
+  }
+
+  /**
+   * Makes sure that the file holds every record up to offset, forced to the storage device if
+   * force is true. If another writer is already committing, waits for it, and returns right away if
+   * its commit covered offset.
+   */
+  private void commit(long offset, boolean force) throws IOException {
+    synchronized (commitLock) {
+      if (force ? syncedOffset >= offset : writtenOffset >= offset) return;
+
+      // become the leader : take every record appended so far, including those of other writers
+      long targetOffset;
+      synchronized (this) {
+        ByteBuffer full = pending;
+        pending = writing;
+        writing = full;
+        pending.clear();
+        targetOffset = appendedOffset;
+      }
+
+      writing.flip();
+      while (writing.hasRemaining()) channel.write(writing);
+      writing.clear();
+      writtenOffset = targetOffset;
+
+      if (force) {
+        channel.force(false);
+        syncedOffset = targetOffset;
+      }
+    }
+  }
+
+  /** Writes and forces every record appended so far. */
+  public void sync() throws IOException {
+    long offset;
+    synchronized (this) {
+      offset = appendedOffset;
+    }
+    commit(offset, true);
+  }
+
+  /** Syncs the records appended so far, and closes the file. */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (channel.isOpen()) sync();
+    } finally {
+      channel.close();
+    }
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * Reads back the payloads of all the records of the log at path, in the order they were appended.
+   * Replay stops at the first record which is truncated or whose checksum does not match, which is
+   * where the last run of the process crashed.
+   *
+   * @return the number of records replayed
+   */
+  public static long replay(Path path, Consumer<ByteBuffer> consumer) throws IOException {
+    long records = 0;
+    try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+      CRC32 crc = new CRC32();
+      while (true) {
+        header.clear();
+        if (!readFully(in, header)) break;
+        header.flip();
+        int length = header.getInt();
+        int checksum = header.getInt();
+        if (length < 0 || length > in.size() - in.position()) break;
+
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        if (!readFully(in, payload)) break;
+        crc.reset();
+        crc.update(payload.array(), 0, length);
+        if ((int) crc.getValue() != checksum) break;
+
+        payload.flip();
+        consumer.accept(payload);
+        records++;
+      }
+    }
+    return records;
+  }
+
+  private static boolean readFully(FileChannel in, ByteBuffer dst) throws IOException {
+    while (dst.hasRemaining()) {
+      if (in.read(dst) < 0) return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,140 @@
+package toydb.cache;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import toydb.datafile.Block;
+import toydb.datafile.RecordCodec;
+
+public class BlockCacheTest {
+
+  @Test
+  public void blockLookupTest() {
+    ByteBuffer bb = ByteBuffer.allocate(4096);
+    for (int i = 10; i < 60; i++) RecordCodec.encode("Key" + i, "Value" + i, bb);
+    Block block = Block.decode(bb.array());
+
+    Assert.assertEquals(50, block.getRecordCount());
+    Assert.assertEquals("Key10", block.iterator().next().getKey());
+    Assert.assertEquals("Value10", block.get("Key10").getValue());
+    Assert.assertEquals("Value37", block.get("Key37").getValue());
+    Assert.assertEquals("Value59", block.get("Key59").getValue());
+    Assert.assertNull(block.get("Key0"));
+    Assert.assertNull(block.get("Key375"));
+  }
+
+  @Test
+  public void hitMissTest() {
+    BlockCache cache = new BlockCache(1024 * 1024);
+    long fileId = cache.newFileId();
+    Assert.assertNotEquals(fileId, cache.newFileId());
+
+    Assert.assertNull(cache.get(fileId, 0));
+    cache.put(fileId, 0, block(100));
+    Assert.assertNotNull(cache.get(fileId, 0));
+    Assert.assertNull(cache.get(fileId, 4096));
+
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertEquals(2, cache.getMissCount());
+    Assert.assertEquals(0, cache.getEvictionCount());
+  }
+
+  @Test
+  public void scanResistanceTest() {
+    // 16 shards of 4 KB each
+    BlockCache cache = new BlockCache(16 * 4096);
+    long hotFile = cache.newFileId();
+    long scannedFile = cache.newFileId();
+
+    // the hot blocks are read twice, and get promoted to the protected segment
+    for (int i = 0; i < 16; i++) cache.put(hotFile, i * 4096L, block(1024));
+    for (int i = 0; i < 16; i++) Assert.assertNotNull(cache.get(hotFile, i * 4096L));
+
+    // a long scan of blocks read once
+    for (int i = 0; i < 1000; i++) cache.put(scannedFile, i * 4096L, block(1024));
+
+    Assert.assertTrue(cache.getEvictionCount() > 0);
+    Assert.assertTrue(cache.getUsageInBytes() <= cache.getCapacityInBytes());
+    for (int i = 0; i < 16; i++) Assert.assertNotNull(cache.get(hotFile, i * 4096L));
+  }
+
+  @Test
+  public void coalescedLoadTest() throws Exception {
+    BlockCache cache = new BlockCache(1024 * 1024);
+    long fileId = cache.newFileId();
+    AtomicInteger reads = new AtomicInteger(0);
+    CountDownLatch readStarted = new CountDownLatch(1);
+    CountDownLatch waitersStarted = new CountDownLatch(4);
+    ExecutorService executor = Executors.newFixedThreadPool(5);
+
+    // the first load holds the read until the other loads of the block wait for it
+    Future<Block> first =
+        executor.submit(
+            () ->
+                cache.load(
+                    fileId,
+                    0,
+                    () -> {
+                      reads.incrementAndGet();
+                      readStarted.countDown();
+                      try {
+                        waitersStarted.await();
+                        Thread.sleep(50);
+                      } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                      }
+                      return block(100);
+                    }));
+    readStarted.await();
+    List<Future<Block>> waiters = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      waiters.add(
+          executor.submit(
+              () -> {
+                waitersStarted.countDown();
+                return cache.load(fileId, 0, () -> block(reads.incrementAndGet()));
+              }));
+    }
+    Block block = first.get();
+    for (Future<Block> waiter : waiters) Assert.assertSame(block, waiter.get());
+    executor.shutdown();
+
+    Assert.assertEquals(1, reads.get());
+    Assert.assertEquals(4, cache.getCoalescedLoadCount());
+    Assert.assertSame(block, cache.get(fileId, 0));
+  }
+
+  @Test
+  public void failedLoadTest() {
+    BlockCache cache = new BlockCache(1024 * 1024);
+    long fileId = cache.newFileId();
+    try {
+      cache.load(
+          fileId,
+          0,
+          () -> {
+            throw new IOException("disk failure");
+          });
+      Assert.fail();
+    } catch (IOException e) {
+      Assert.assertEquals("disk failure", e.getMessage());
+    }
+    // a failed read is not cached, the next load reads the block again
+    Assert.assertNull(cache.get(fileId, 0));
+  }
+
+  private static Block block(int valueSize) {
+    ByteBuffer bb = ByteBuffer.allocate(valueSize + 16);
+    RecordCodec.encode("Key", new String(new char[valueSize]).replace('\0', 'v'), bb);
+    return Block.decode(bb.array());
+  }
+}
@@ -0,0 +1,87 @@
+package toydb.common;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentSkipListTest {
+
+  @Test
+  public void putGetTest() {
+    ConcurrentSkipList<String, String> list = new ConcurrentSkipList<>(Comparator.naturalOrder());
+    TreeMap<String, String> expected = new TreeMap<>();
+    Random random = new Random(42);
+
+    for (int i = 0; i < 10_000; i++) {
+      String key = "Key" + random.nextInt(5_000);
+      String value = "Value" + i;
+      Assert.assertEquals(expected.put(key, value), list.put(key, value));
+    }
+
+    Assert.assertEquals(expected.size(), list.size());
+    for (Map.Entry<String, String> e : expected.entrySet()) {
+      Assert.assertEquals(e.getValue(), list.get(e.getKey()));
+    }
+    Assert.assertNull(list.get("Key"));
+    Assert.assertNull(list.get("Key99999"));
+
+    // iteration is in sorted order, and can start from any key
+    Iterator<ConcurrentSkipList.Node<String, String>> it = list.iterator();
+    for (Map.Entry<String, String> e : expected.entrySet()) {
+      ConcurrentSkipList.Node<String, String> node = it.next();
+      Assert.assertEquals(e.getKey(), node.getKey());
+      Assert.assertEquals(e.getValue(), node.getValue());
+    }
+    Assert.assertFalse(it.hasNext());
+
+    it = list.iterator("Key25");
+    for (String key : expected.tailMap("Key25").keySet()) {
+      Assert.assertEquals(key, it.next().getKey());
+    }
+    Assert.assertFalse(it.hasNext());
+  }
+
+  @Test
+  public void concurrentPutTest() throws Exception {
+    ConcurrentSkipList<String, String> list = new ConcurrentSkipList<>(Comparator.naturalOrder());
+    int threads = 8;
+    int keysPerThread = 20_000;
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      int threadId = t;
+      futures.add(
+          executorService.submit(
+              () -> {
+                for (int i = 0; i < keysPerThread; i++) {
+                  // half of the keys are shared between all the threads
+                  String key = i % 2 == 0 ? "Key" + i : "Key" + threadId + "_" + i;
+                  list.put(key, "Value" + i);
+                  Assert.assertEquals("Value" + i, list.get(key));
+                }
+              }));
+    }
+    for (Future<?> f : futures) f.get();
+    executorService.shutdown();
+
+    Assert.assertEquals(keysPerThread / 2 + threads * keysPerThread / 2, list.size());
+    String prevKey = null;
+    int count = 0;
+    for (ConcurrentSkipList.Node<String, String> node : list) {
+      if (prevKey != null) Assert.assertTrue(prevKey.compareTo(node.getKey()) < 0);
+      prevKey = node.getKey();
+      count++;
+    }
+    Assert.assertEquals(list.size(), count);
+  }
+}
@@ -0,0 +1,67 @@
+package toydb.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import toydb.toydb.Data;
+
+public class MergingIteratorTest {
+
+  @Test
+  public void newestVersionWinsTest() {
+    List<Data> newest = Arrays.asList(new Data("b", "b2"), new Data("d", "d2"));
+    List<Data> middle = Arrays.asList(new Data("a", "a1"), new Data("b", "b1"), new Data("c", "c1"));
+    List<Data> oldest = Arrays.asList(new Data("b", "b0"), new Data("d", "d0"), new Data("e", "e0"));
+
+    List<Iterator<Data>> iterators =
+        Arrays.asList(newest.iterator(), middle.iterator(), oldest.iterator());
+    List<String> merged = new ArrayList<>();
+    MergingIterator it = new MergingIterator(iterators);
+    while (it.hasNext()) {
+      Data d = it.next();
+      merged.add(d.getKey() + "=" + d.getValue());
+    }
+
+    Assert.assertEquals(Arrays.asList("a=a1", "b=b2", "c=c1", "d=d2", "e=e0"), merged);
+  }
+
+  @Test
+  public void versionsTest() {
+    // the iterators hold several versions of a key, newest first. A version present in two
+    // iterators is only returned once
+    List<Data> newest = Arrays.asList(new Data("a", "a9", 9), new Data("b", "b8", 8));
+    List<Data> oldest =
+        Arrays.asList(
+            new Data("a", "a7", 7),
+            new Data("a", "a2", 2),
+            new Data("b", "b8", 8),
+            Data.tombstone("b", 5));
+
+    List<Iterator<Data>> iterators = Arrays.asList(newest.iterator(), oldest.iterator());
+    List<String> merged = new ArrayList<>();
+    MergingIterator it = new MergingIterator(iterators);
+    while (it.hasNext()) {
+      Data d = it.next();
+      merged.add(d.getKey() + "@" + d.getSequence() + "=" + d.getValue());
+    }
+
+    Assert.assertEquals(Arrays.asList("a@9=a9", "a@7=a7", "a@2=a2", "b@8=b8", "b@5=null"), merged);
+  }
+
+  @Test
+  public void emptyIteratorsTest() {
+    List<Iterator<Data>> iterators =
+        Arrays.asList(
+            Collections.<Data>emptyIterator(),
+            Collections.singletonList(new Data("a", "a0")).iterator(),
+            Collections.<Data>emptyIterator());
+    MergingIterator it = new MergingIterator(iterators);
+    Assert.assertTrue(it.hasNext());
+    Assert.assertEquals("a0", it.next().getValue());
+    Assert.assertFalse(it.hasNext());
+  }
+}
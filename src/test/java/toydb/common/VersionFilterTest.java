@@ -0,0 +1,57 @@
+package toydb.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import toydb.toydb.Data;
+
+public class VersionFilterTest {
+
+  private static final List<Data> VERSIONS =
+      Arrays.asList(
+          new Data("a", "a9", 9),
+          new Data("a", "a7", 7),
+          new Data("a", "a5", 5),
+          new Data("a", "a2", 2),
+          new Data("b", "b3", 3),
+          Data.tombstone("c", 8),
+          new Data("c", "c6", 6),
+          Data.tombstone("c", 4),
+          Data.tombstone("d", 9));
+
+  @Test
+  public void newestVersionOnlyTest() {
+    Assert.assertEquals(Arrays.asList("a@9", "b@3", "c@8", "d@9"), filter(new long[0], true));
+    // without older versions, a deleted key leaves nothing behind
+    Assert.assertEquals(Arrays.asList("a@9", "b@3"), filter(new long[0], false));
+  }
+
+  @Test
+  public void snapshotsTest() {
+    // the snapshot of sequence 6 reads a@5 and c@6, the one of sequence 2 reads a@2 only
+    Assert.assertEquals(
+        Arrays.asList("a@9", "a@5", "a@2", "b@3", "c@8", "c@6", "d@9"),
+        filter(new long[] {2, 6}, true));
+    // the snapshot of sequence 4 reads the tombstone of c. Without older versions of c, neither
+    // the snapshot nor the latest readers see c, and both its tombstones are dropped
+    Assert.assertEquals(
+        Arrays.asList("a@9", "a@2", "b@3", "c@8", "c@4", "d@9"), filter(new long[] {4}, true));
+    Assert.assertEquals(Arrays.asList("a@9", "a@2", "b@3"), filter(new long[] {4}, false));
+    // a snapshot of the sequence of a version reads it
+    Assert.assertEquals(
+        Arrays.asList("a@9", "a@7", "b@3", "c@8", "c@6", "d@9"), filter(new long[] {7}, true));
+  }
+
+  private static List<String> filter(long[] snapshots, boolean olderVersionsMayExist) {
+    VersionFilter it =
+        new VersionFilter(VERSIONS.iterator(), snapshots, key -> olderVersionsMayExist);
+    List<String> kept = new ArrayList<>();
+    while (it.hasNext()) {
+      Data d = it.next();
+      kept.add(d.getKey() + "@" + d.getSequence());
+    }
+    return kept;
+  }
+}
@@ -0,0 +1,167 @@
+package toydb.datafile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.zip.Deflater;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import toydb.toydb.Data;
+
+public class BlockCompressionTest {
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static final BlockCodec[] CODECS = {BlockCompression.LZ4, BlockCompression.DEFLATE};
+
+  @Test
+  public void roundTripTest() {
+    Random random = new Random(42);
+    byte[] noise = new byte[4096];
+    random.nextBytes(noise);
+    byte[] text = new byte[10_000];
+    for (int i = 0; i < text.length; i++) text[i] = (byte) ("Value" + i / 7).charAt(i % 5);
+    byte[] zeros = new byte[70_000]; // matches further away than the LZ4 window
+    byte[][] inputs = {new byte[0], {1}, "0123456789abcdef".getBytes(), noise, text, zeros};
+
+    for (BlockCodec codec : CODECS) {
+      for (byte[] input : inputs) {
+        byte[] compressed = new byte[codec.maxCompressedLength(input.length)];
+        int length = codec.compress(input, 0, input.length, compressed, 0);
+        Assert.assertTrue(length <= compressed.length);
+        byte[] decompressed = new byte[input.length];
+        codec.decompress(compressed, 0, length, decompressed, 0, input.length);
+        Assert.assertArrayEquals(codec.getName(), input, decompressed);
+      }
+    }
+  }
+
+  @Test
+  public void blockHeaderTest() {
+    byte[] block = new byte[DataFile.BLOCK_SIZE_IN_BYTES];
+    Arrays.fill(block, (byte) 'x');
+    byte[] noise = new byte[DataFile.BLOCK_SIZE_IN_BYTES];
+    new Random(42).nextBytes(noise);
+
+    for (BlockCodec codec : CODECS) {
+      byte[] compressed = BlockFileWriter.frame(codec, block, block.length, false, false);
+      Assert.assertTrue(compressed.length < 100);
+      ByteBuffer bb = ByteBuffer.wrap(compressed);
+      Assert.assertTrue(BlockCompression.isFramed(bb));
+      Assert.assertEquals(compressed.length, BlockCompression.peekBlockSize(bb));
+      Assert.assertEquals(ByteBuffer.wrap(block), BlockCompression.decompress(bb));
+
+      // a block which does not shrink is stored as is, behind the header
+      byte[] stored = BlockFileWriter.frame(codec, noise, noise.length, false, false);
+      Assert.assertTrue(stored.length <= noise.length + BlockCompression.MAX_HEADER_SIZE);
+      Assert.assertEquals(
+          ByteBuffer.wrap(noise), BlockCompression.decompress(ByteBuffer.wrap(stored)));
+    }
+  }
+
+  @Test
+  public void compressIntoBufferTest() {
+    byte[] block = new byte[DataFile.BLOCK_SIZE_IN_BYTES];
+    Arrays.fill(block, (byte) 'x');
+    byte[] noise = new byte[DataFile.BLOCK_SIZE_IN_BYTES];
+    new Random(42).nextBytes(noise);
+
+    for (BlockCodec codec : new BlockCodec[] {null, BlockCompression.LZ4}) {
+      // two blocks framed one after the other into the same direct buffer
+      ByteBuffer out = ByteBuffer.allocateDirect(2 * BlockCompression.maxFramedSize(codec, 4096));
+      byte[] scratch = new byte[codec == null ? 0 : codec.maxCompressedLength(4096)];
+      int first = BlockCompression.compress(codec, block, block.length, true, true, scratch, out);
+      int second = BlockCompression.compress(codec, noise, noise.length, true, true, scratch, out);
+      Assert.assertEquals(first + second, out.position());
+
+      byte[] framed = new byte[out.position()];
+      out.flip();
+      out.get(framed);
+      ByteBuffer firstBlock = ByteBuffer.wrap(framed, 0, first).slice();
+      Assert.assertEquals(first, BlockCompression.peekBlockSize(firstBlock));
+      Assert.assertTrue(BlockCompression.isSequenced(firstBlock));
+      Assert.assertEquals(ByteBuffer.wrap(block), BlockCompression.decompress(firstBlock));
+      ByteBuffer secondBlock = ByteBuffer.wrap(framed, first, second).slice();
+      Assert.assertEquals(second, BlockCompression.peekBlockSize(secondBlock));
+      Assert.assertEquals(ByteBuffer.wrap(noise), BlockCompression.decompress(secondBlock));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void corruptBlockTest() {
+    byte[] block = new byte[DataFile.BLOCK_SIZE_IN_BYTES];
+    Arrays.fill(block, (byte) 'x');
+    BlockCodec codec = BlockCompression.LZ4;
+    byte[] compressed = new byte[codec.maxCompressedLength(block.length)];
+    int length = codec.compress(block, 0, block.length, compressed, 0);
+    // the matches run past the end of a shorter block
+    codec.decompress(compressed, 0, length, new byte[block.length - 1], 0, block.length - 1);
+  }
+
+  @Test
+  public void deflaterReuseTest() {
+    byte[] block = new byte[DataFile.BLOCK_SIZE_IN_BYTES];
+    for (int i = 0; i < block.length; i++) block[i] = (byte) ("Key" + i / 11).charAt(i % 3);
+    BlockCodec codec = new DeflateCodec(Deflater.BEST_COMPRESSION);
+    byte[] compressed = new byte[codec.maxCompressedLength(block.length)];
+    int length = codec.compress(block, 0, block.length, compressed, 0);
+    // the deflater and the inflater of the thread are reset after each block, even a corrupt one
+    byte[] corrupt = Arrays.copyOf(compressed, length);
+    Arrays.fill(corrupt, length / 2, length, (byte) 0xFF);
+    try {
+      codec.decompress(corrupt, 0, length, new byte[block.length], 0, block.length);
+      Assert.fail("Corrupt block decompressed");
+    } catch (IllegalArgumentException expected) {
+    }
+    for (int i = 0; i < 3; i++) {
+      byte[] again = new byte[compressed.length];
+      Assert.assertEquals(length, codec.compress(block, 0, block.length, again, 0));
+      byte[] decompressed = new byte[block.length];
+      codec.decompress(again, 0, length, decompressed, 0, block.length);
+      Assert.assertArrayEquals(block, decompressed);
+    }
+  }
+
+  @Test
+  public void compressedDataFileTest() throws IOException {
+    for (BlockCodec codec : CODECS) {
+      String path = tempFolder.newFile().getPath();
+      long[] blockOffsets = new long[1000];
+      int blockCount = 0;
+      try (BlockFileWriter writer = new BlockFileWriter(path, codec)) {
+        for (int i = 0; i < 10_000; i++) {
+          long offset = writer.writeInBlocks(new Data(String.format("Key%05d", i), "Value" + i));
+          if (offset >= 0) blockOffsets[blockCount++] = offset;
+        }
+      }
+
+      try (DataFile df = new DataFile(path, true)) {
+        // far fewer bytes than the uncompressed blocks
+        Assert.assertTrue(df.getFileSize() < blockCount * DataFile.BLOCK_SIZE_IN_BYTES / 2);
+        int size = (int) (blockOffsets[1] - blockOffsets[0]);
+        Block block = df.readBlock(blockOffsets[0], size);
+        Assert.assertEquals("Value0", block.get("Key00000").getValue());
+
+        assertRecordsFrom(block.getRecordCount(), new BlockIterator(df, blockOffsets[1]));
+        // the same blocks, sliced out of the mapping
+        MappedDataFile mapped = MappedDataFile.map(path);
+        assertRecordsFrom(block.getRecordCount(), mapped.blockIterator(blockOffsets[1]));
+      }
+    }
+  }
+
+  private static void assertRecordsFrom(int first, Iterator<Data> it) {
+    int i = first;
+    while (it.hasNext()) {
+      Data d = it.next();
+      Assert.assertEquals(String.format("Key%05d", i), d.getKey());
+      Assert.assertEquals("Value" + i, d.getValue());
+      i++;
+    }
+    Assert.assertEquals(10_000, i);
+  }
+}
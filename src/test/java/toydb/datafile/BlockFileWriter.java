@@ -0,0 +1,91 @@
+package toydb.datafile;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import toydb.toydb.Data;
+
+/**
+ * Writes data files block by block, for the tests of the readers : blocks of records padded to
+ * BLOCK_SIZE bytes, as in the SSTables of older versions, blocks of records compressed by a codec,
+ * or framed {@link PrefixBlock}s. The SSTables themselves are written by {@link
+ * toydb.index.SSTableBuilder}.
+ */
+final class BlockFileWriter implements Closeable {
+
+  private FileOutputStream out;
+  // compresses the blocks, null to write them as is
+  private BlockCodec codec;
+  private ByteBuffer block = ByteBuffer.allocate(DataFile.BLOCK_SIZE_IN_BYTES);
+  // location of the next block
+  private long location = 0;
+
+  BlockFileWriter(String path, BlockCodec codec) throws IOException {
+    this.out = new FileOutputStream(path);
+    this.codec = codec;
+  }
+
+  /**
+   * Adds a record to the current block of records, which is written first if the record does not
+   * fit. A record larger than a block gets a block of its own.
+   *
+   * @return the location of the block, if d starts a new block, -1 otherwise
+   */
+  long writeInBlocks(Data d) throws IOException {
+    int recordSize = RecordCodec.encodedSize(d.getKey(), d.getValue());
+    if (block.position() > 0 && block.position() + recordSize > block.capacity()) flushBlock();
+    if (recordSize > block.capacity()) {
+      int blocks = (recordSize + DataFile.BLOCK_SIZE_IN_BYTES - 1) / DataFile.BLOCK_SIZE_IN_BYTES;
+      block = ByteBuffer.allocate(blocks * DataFile.BLOCK_SIZE_IN_BYTES);
+    }
+    long blockLocation = block.position() == 0 ? location : -1;
+    RecordCodec.encode(d.getKey(), d.getValue(), block);
+    return blockLocation;
+  }
+
+  /**
+   * Appends a block built by {@link PrefixBlockBuilder}, framed and compressed by the codec.
+   *
+   * @return the location of the block
+   */
+  long writeBlock(ByteBuffer prefixBlock) throws IOException {
+    byte[] content = new byte[prefixBlock.remaining()];
+    prefixBlock.duplicate().get(content);
+    byte[] framed = frame(codec, content, content.length, true, false);
+    long blockLocation = location;
+    out.write(framed);
+    location += framed.length;
+    return blockLocation;
+  }
+
+  /** The header followed by the bytes of content[0, length), compressed by codec. */
+  static byte[] frame(
+      BlockCodec codec, byte[] content, int length, boolean prefixEncoded, boolean sequenced) {
+    byte[] scratch = codec == null ? null : new byte[codec.maxCompressedLength(length)];
+    ByteBuffer framed = ByteBuffer.allocate(BlockCompression.maxFramedSize(codec, length));
+    BlockCompression.compress(codec, content, length, prefixEncoded, sequenced, scratch, framed);
+    byte[] bytes = new byte[framed.position()];
+    System.arraycopy(framed.array(), 0, bytes, 0, bytes.length);
+    return bytes;
+  }
+
+  /** Writes the current block of records, padded with zeros, or compressed and framed. */
+  private void flushBlock() throws IOException {
+    byte[] bytes =
+        codec == null ? block.array() : frame(codec, block.array(), block.position(), false, false);
+    out.write(bytes);
+    location += bytes.length;
+    block = ByteBuffer.allocate(DataFile.BLOCK_SIZE_IN_BYTES);
+  }
+
+  /** Writes the last block of records, if it holds any record, and closes the file. */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (block.position() > 0) flushBlock();
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package toydb.datafile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ChannelDataFileTest {
+
+  private static final int BLOCK_COUNT = 20;
+  private static final int KEYS_PER_BLOCK = 500;
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void concurrentReadsTest() throws Exception {
+    String path = tempFolder.newFile().getPath();
+    long[] blockStarts = writeBlocks(path);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<Integer>> results = new ArrayList<>();
+    try (ChannelDataFile file = ChannelDataFile.open(path)) {
+      // all the threads read through the same channel
+      for (int t = 0; t < 8; t++) {
+        results.add(
+            executor.submit(
+                () -> {
+                  int found = 0;
+                  for (int i = 0; i < 2_000; i++) {
+                    int key = ThreadLocalRandom.current().nextInt(BLOCK_COUNT * KEYS_PER_BLOCK);
+                    Block block = readBlock(file, blockStarts, key / KEYS_PER_BLOCK);
+                    if (("Value" + key).equals(block.get(key(key)).getValue())) found++;
+                  }
+                  return found;
+                }));
+      }
+      for (Future<Integer> result : results) Assert.assertEquals(2_000, (int) result.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void interruptedReadTest() throws Exception {
+    String path = tempFolder.newFile().getPath();
+    long[] blockStarts = writeBlocks(path);
+
+    try (ChannelDataFile file = ChannelDataFile.open(path)) {
+      // the read of an interrupted thread closes the channel
+      Thread.currentThread().interrupt();
+      try {
+        readBlock(file, blockStarts, 3);
+        Assert.fail();
+      } catch (ClosedByInterruptException e) {
+        Assert.assertTrue(Thread.interrupted());
+      }
+      // which is reopened for the next readers
+      Assert.assertEquals("Value1700", readBlock(file, blockStarts, 3).get(key(1700)).getValue());
+      ByteBuffer tail = ByteBuffer.allocate(64);
+      Assert.assertEquals(10, file.read(file.getFileSize() - 10, tail));
+    }
+  }
+
+  private static Block readBlock(ChannelDataFile file, long[] blockStarts, int blockIndex)
+      throws IOException {
+    long blockEnd =
+        blockIndex + 1 < blockStarts.length ? blockStarts[blockIndex + 1] : file.getFileSize();
+    return file.readBlock(blockStarts[blockIndex], (int) (blockEnd - blockStarts[blockIndex]));
+  }
+
+  private static long[] writeBlocks(String path) throws IOException {
+    long[] blockStarts = new long[BLOCK_COUNT];
+    try (BlockFileWriter writer = new BlockFileWriter(path, BlockCompression.LZ4)) {
+      PrefixBlockBuilder builder = new PrefixBlockBuilder();
+      for (int b = 0; b < BLOCK_COUNT; b++) {
+        builder.reset();
+        for (int i = b * KEYS_PER_BLOCK; i < (b + 1) * KEYS_PER_BLOCK; i++) {
+          builder.add(key(i), "Value" + i);
+        }
+        blockStarts[b] = writer.writeBlock(builder.finish());
+      }
+    }
+    return blockStarts;
+  }
+
+  private static String key(int i) {
+    return String.format("Key%05d", i);
+  }
+}
@@ -0,0 +1,181 @@
+package toydb.datafile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import toydb.toydb.Data;
+
+public class PrefixBlockTest {
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void lookupTest() {
+    PrefixBlockBuilder builder = new PrefixBlockBuilder();
+    for (int i = 0; i < 1000; i++) {
+      // every 7th record is a tombstone
+      builder.add(String.format("user:%06d", 2 * i), i % 7 == 0 ? null : "Value" + i);
+    }
+    Block block = Block.decode(frame(builder.finish()));
+
+    Assert.assertEquals(1000, block.getRecordCount());
+    for (int i = 0; i < 1000; i++) {
+      Data d = block.get(String.format("user:%06d", 2 * i));
+      Assert.assertNotNull(d);
+      if (i % 7 == 0) Assert.assertTrue(d.isTombstone());
+      else Assert.assertEquals("Value" + i, d.getValue());
+      Assert.assertNull(block.get(String.format("user:%06d", 2 * i + 1)));
+    }
+    Assert.assertNull(block.get(""));
+    Assert.assertNull(block.get("user:"));
+    Assert.assertNull(block.get("user:0000100"));
+    Assert.assertNull(block.get("user:00010"));
+    Assert.assertNull(block.get("user:999999"));
+
+    Iterator<Data> it = block.iterator();
+    for (int i = 0; i < 1000; i++) {
+      Data d = it.next();
+      Assert.assertEquals(String.format("user:%06d", 2 * i), d.getKey());
+      Assert.assertEquals(i % 7 == 0 ? null : "Value" + i, d.getValue());
+    }
+    Assert.assertFalse(it.hasNext());
+  }
+
+  @Test
+  public void unicodeKeysTest() {
+    // sorted as Strings, which is not the order of their UTF-8 bytes
+    String[] keys = {
+      "",
+      "a",
+      "ab",
+      "ab\u00e9",
+      "ab\u00e9\u00e9",
+      "ab\u4e16",
+      "\u4e16\u754c",
+      "\ud83d\ude00",
+      "\ud83d\ude00x",
+      "\uff21",
+      "\uff21\uff22"
+    };
+    String[] sorted = keys.clone();
+    Arrays.sort(sorted);
+    Assert.assertArrayEquals(sorted, keys);
+
+    PrefixBlockBuilder builder = new PrefixBlockBuilder();
+    for (String key : keys) builder.add(key, "Value" + key);
+    Block block = Block.decode(frame(builder.finish()));
+    for (String key : keys) Assert.assertEquals("Value" + key, block.get(key).getValue());
+    Assert.assertNull(block.get("\u4e16"));
+    Assert.assertNull(block.get("\ud83d\ude01"));
+
+    List<String> iterated = new ArrayList<>();
+    for (Data d : block) iterated.add(d.getKey());
+    Assert.assertEquals(Arrays.asList(keys), iterated);
+  }
+
+  @Test
+  public void smallerThanRecordBlockTest() {
+    PrefixBlockBuilder builder = new PrefixBlockBuilder();
+    ByteBuffer records = ByteBuffer.allocate(64 * 1024);
+    for (int i = 0; i < 1000; i++) {
+      String key = String.format("com.example.users/%08d", i);
+      builder.add(key, "v" + i);
+      RecordCodec.encode(key, "v" + i, records);
+    }
+    int size = builder.getSizeInBytes();
+    Assert.assertEquals(size, builder.finish().remaining());
+    Assert.assertTrue(size < records.position() / 2);
+
+    // the builder is reused for the next block
+    builder.reset();
+    Assert.assertTrue(builder.isEmpty());
+    builder.add("Key", "Value");
+    Assert.assertEquals("Value", Block.decode(frame(builder.finish())).get("Key").getValue());
+  }
+
+  @Test
+  public void versionsTest() {
+    PrefixBlockBuilder builder = new PrefixBlockBuilder(true);
+    // key i has i % 4 + 1 versions, of sequences 10 * i + v, newest first. The oldest version of
+    // every 5th key is a tombstone
+    for (int i = 0; i < 200; i++) {
+      for (int v = i % 4; v >= 0; v--) {
+        String value = v == 0 && i % 5 == 0 ? null : "Value" + i + "_" + v;
+        builder.add(String.format("Key%04d", i), value, 10 * i + v);
+      }
+    }
+    ByteBuffer content = builder.finish();
+    byte[] bytes = new byte[content.remaining()];
+    content.get(bytes);
+    byte[] framed = BlockFileWriter.frame(null, bytes, bytes.length, true, true);
+    Block block = Block.decode(ByteBuffer.wrap(framed));
+
+    for (int i = 0; i < 200; i++) {
+      String key = String.format("Key%04d", i);
+      Assert.assertNull(block.get(key, 10 * i - 1));
+      for (int v = 0; v <= i % 4; v++) {
+        Data d = block.get(key, 10 * i + v);
+        Assert.assertEquals(10 * i + v, d.getSequence());
+        Assert.assertEquals(v == 0 && i % 5 == 0 ? null : "Value" + i + "_" + v, d.getValue());
+      }
+      Assert.assertEquals(10 * i + i % 4, block.get(key).getSequence());
+    }
+
+    // all the versions of a key are in the restart interval of its first version
+    List<String> iterated = new ArrayList<>();
+    for (Data d : block) iterated.add(d.getKey() + "@" + d.getSequence());
+    Assert.assertEquals(500, iterated.size());
+    Assert.assertEquals("Key0003@33", iterated.get(6));
+    Assert.assertEquals("Key0003@30", iterated.get(9));
+  }
+
+  @Test
+  public void dataFileTest() throws IOException {
+    for (BlockCodec codec : new BlockCodec[] {null, BlockCompression.LZ4}) {
+      String path = tempFolder.newFile().getPath();
+      List<Long> blockStarts = new ArrayList<>();
+      try (BlockFileWriter writer = new BlockFileWriter(path, codec)) {
+        PrefixBlockBuilder builder = new PrefixBlockBuilder();
+        for (int i = 0; i < 10_000; i++) {
+          if (i % 500 == 0 && i > 0) {
+            blockStarts.add(writer.writeBlock(builder.finish()));
+            builder.reset();
+          }
+          builder.add(String.format("Key%05d", i), "Value" + i);
+        }
+        blockStarts.add(writer.writeBlock(builder.finish()));
+      }
+
+      MappedDataFile mapped = MappedDataFile.map(path);
+      try (DataFile df = new DataFile(path, true)) {
+        long blockEnd = blockStarts.get(2);
+        Block block = df.readBlock(blockStarts.get(1), (int) (blockEnd - blockStarts.get(1)));
+        Assert.assertEquals("Value700", block.get("Key00700").getValue());
+        block = mapped.readBlock(blockStarts.get(1), (int) (blockEnd - blockStarts.get(1)));
+        Assert.assertEquals("Value999", block.get("Key00999").getValue());
+        Assert.assertNull(block.get("Key01000"));
+
+        BlockIterator it = new BlockIterator(df, blockStarts.get(1));
+        for (int i = 500; i < 10_000; i++) {
+          Data d = it.next();
+          Assert.assertEquals(String.format("Key%05d", i), d.getKey());
+          Assert.assertEquals("Value" + i, d.getValue());
+        }
+        Assert.assertFalse(it.hasNext());
+      }
+    }
+  }
+
+  private static ByteBuffer frame(ByteBuffer block) {
+    byte[] content = new byte[block.remaining()];
+    block.get(content);
+    return ByteBuffer.wrap(BlockFileWriter.frame(null, content, content.length, true, false));
+  }
+}
@@ -0,0 +1,157 @@
+package toydb.datafile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import toydb.toydb.Data;
+
+public class RecordCodecTest {
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void encodeDecodeTest() {
+    String[][] records = {
+      {"Key10", "Value10"},
+      {"k", ""},
+      // characters above 0xFF
+      {"\u043A\u043B\u044E\u0447", "\u0437\u043D\u0430\u0447\u0435\u043D\u0438\u0435"},
+      // a surrogate pair, NUL and 2 byte characters
+      {"emoji\uD83D\uDE00", "\u0000\u00FF\u0100"},
+      {"long", new String(new char[300]).replace('\0', 'x')}, // lengths which need 2 varint bytes
+      {"deleted", null} // a tombstone
+    };
+
+    ByteBuffer bb = ByteBuffer.allocate(1024);
+    for (String[] record : records) {
+      int size = RecordCodec.encode(record[0], record[1], bb);
+      Assert.assertEquals(RecordCodec.encodedSize(record[0], record[1]), size);
+    }
+    bb.flip();
+
+    for (String[] record : records) {
+      int size = RecordCodec.encodedSize(record[0], record[1]);
+      Assert.assertEquals(size, RecordCodec.peekRecordSize(bb));
+      ByteBuffer keyOnly = bb.duplicate();
+      ByteBuffer valueOnly = bb.duplicate();
+      Assert.assertEquals(record[1] == null, RecordCodec.isTombstone(bb));
+      Data d = RecordCodec.decode(bb);
+
+      Assert.assertEquals(record[1] == null, d.isTombstone());
+      Assert.assertEquals(record[0], d.getKey());
+      Assert.assertEquals(record[1], d.getValue());
+      Assert.assertEquals(record[0], RecordCodec.decodeKey(keyOnly));
+      Assert.assertEquals(record[1], RecordCodec.decodeValue(valueOnly));
+      Assert.assertEquals(bb.position(), keyOnly.position());
+      Assert.assertEquals(bb.position(), valueOnly.position());
+    }
+    Assert.assertFalse(bb.hasRemaining());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void emptyKeyTest() {
+    RecordCodec.encode("", "Value", ByteBuffer.allocate(16));
+  }
+
+  @Test
+  public void dataFileBlocksTest() throws IOException {
+    File file = new File(tempFolder.getRoot(), "blocks");
+    List<Long> blockStarts = new ArrayList<>();
+    try (BlockFileWriter writer = new BlockFileWriter(file.getPath(), null)) {
+      for (int i = 0; i < 2_000; i++) {
+        long location = writer.writeInBlocks(new Data("Key" + i, "Value" + i));
+        if (location != -1) blockStarts.add(location);
+      }
+    }
+    DataFile df = new DataFile(file.getPath(), true);
+
+    Assert.assertTrue(blockStarts.size() > 1);
+    Assert.assertEquals(0, df.getFileSize() % DataFile.BLOCK_SIZE_IN_BYTES);
+    for (int i = 0; i < blockStarts.size(); i++) {
+      Assert.assertEquals((long) i * DataFile.BLOCK_SIZE_IN_BYTES, (long) blockStarts.get(i));
+    }
+
+    // the padding at the end of each block is skipped
+    Iterator<Data> it = df.iterator();
+    for (int i = 0; i < 2_000; i++) {
+      Data d = it.next();
+      Assert.assertEquals("Key" + i, d.getKey());
+      Assert.assertEquals("Value" + i, d.getValue());
+    }
+    Assert.assertFalse(it.hasNext());
+
+    DataFileIterator keyIt = new DataFileIterator(df, blockStarts.get(1));
+    String firstKey = keyIt.nextKey();
+    Assert.assertEquals(df.read(blockStarts.get(1)).getKey(), firstKey);
+    Assert.assertEquals(df.read(blockStarts.get(1)).getValue(), keyIt.currentValue());
+  }
+
+  @Test
+  public void iteratorReadErrorTest() throws IOException {
+    File file = new File(tempFolder.getRoot(), "closed");
+    try (DataFile df = new DataFile(file.getPath())) {
+      for (int i = 0; i < 100; i++) df.write(new Data("Key" + i, "Value" + i));
+    }
+    DataFile df = new DataFile(file.getPath(), true);
+    DataFileIterator it = new DataFileIterator(df);
+    df.close();
+    // a read error is not mistaken for the end of the file
+    try {
+      it.hasNext();
+      Assert.fail();
+    } catch (UncheckedIOException e) {
+      Assert.assertTrue(e.getCause() instanceof IOException);
+    }
+  }
+
+  @Test
+  public void mappedDataFileTest() throws IOException {
+    File file = new File(tempFolder.getRoot(), "mapped");
+    List<Long> blockStarts = new ArrayList<>();
+    String largeValue = new String(new char[3 * DataFile.BLOCK_SIZE_IN_BYTES]).replace('\0', 'v');
+    try (BlockFileWriter writer = new BlockFileWriter(file.getPath(), null)) {
+      for (int i = 0; i < 2_000; i++) {
+        // a record larger than a block, in a block of its own
+        String value = i == 1_000 ? largeValue : "Value" + i;
+        long location = writer.writeInBlocks(new Data("Key" + i, value));
+        if (location != -1) blockStarts.add(location);
+      }
+    }
+
+    MappedDataFile mapped = MappedDataFile.map(file.getPath());
+    Assert.assertEquals(file.length(), mapped.getFileSize());
+    Iterator<Data> it = mapped.iterator(0);
+    for (int i = 0; i < 2_000; i++) {
+      Data d = it.next();
+      Assert.assertEquals("Key" + i, d.getKey());
+      Assert.assertEquals(i == 1_000 ? largeValue : "Value" + i, d.getValue());
+    }
+    Assert.assertFalse(it.hasNext());
+
+    for (int i = 0; i < blockStarts.size(); i++) {
+      long blockEnd = i + 1 < blockStarts.size() ? blockStarts.get(i + 1) : file.length();
+      Block block = mapped.readBlock(blockStarts.get(i), (int) (blockEnd - blockStarts.get(i)));
+      String firstKey = mapped.read(blockStarts.get(i)).getKey();
+      Assert.assertEquals(firstKey, block.iterator().next().getKey());
+      Assert.assertNotNull(block.get(firstKey));
+    }
+  }
+
+  @Test
+  public void dataFileAppendTest() throws IOException {
+    DataFile df = new DataFile(new File(tempFolder.getRoot(), "append").getPath());
+    long first = df.write(new Data("Key1", "Value1"));
+    long second = df.write(new Data("Key2", "\u00FC"));
+
+    Assert.assertEquals("Value1", df.read(first).getValue());
+    Assert.assertEquals("\u00FC", df.read(second).getValue());
+  }
+}
@@ -0,0 +1,68 @@
+package toydb.index;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BloomKeyFilterTest {
+
+  private static final int KEY_COUNT = 200_000;
+
+  @Test
+  public void falsePositiveRateTest() {
+    for (boolean blocked : new boolean[] {false, true}) {
+      for (double rate : new double[] {0.01, 0.001}) {
+        BloomKeyFilter filter = build(KEY_COUNT, rate, blocked);
+        for (int i = 0; i < KEY_COUNT; i++) Assert.assertTrue(filter.mightContain("Key" + i));
+
+        int falsePositives = 0;
+        for (int i = 0; i < KEY_COUNT; i++) {
+          if (filter.mightContain("Absent" + i)) falsePositives++;
+        }
+        double measured = (double) falsePositives / KEY_COUNT;
+        Assert.assertTrue(blocked + " " + rate + " : " + measured, measured < 1.5 * rate);
+      }
+    }
+  }
+
+  @Test
+  public void sizedForKeyCountTest() {
+    // about 9.6 bits per key for 1%, whatever the number of keys
+    for (int keyCount : new int[] {1_000, 100_000, 1_000_000}) {
+      BloomKeyFilter filter = build(keyCount, 0.01, false);
+      double bitsPerKey = 8.0 * filter.getSizeInBytes() / keyCount;
+      Assert.assertEquals(9.6, bitsPerKey, 0.2);
+      Assert.assertEquals(7, filter.getHashCount());
+    }
+    Assert.assertEquals(8, build(0, 0.01, false).getSizeInBytes());
+    // a whole number of 64 byte blocks
+    Assert.assertEquals(0, build(1_000, 0.01, true).getSizeInBytes() % 64);
+  }
+
+  @Test
+  public void serializationTest() throws IOException {
+    for (boolean blocked : new boolean[] {false, true}) {
+      BloomKeyFilter filter = build(10_000, 0.01, blocked);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      filter.writeTo(new DataOutputStream(bytes));
+
+      KeyFilter read =
+          KeyFilter.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+      Assert.assertTrue(read instanceof BloomKeyFilter);
+      Assert.assertEquals(blocked, ((BloomKeyFilter) read).isBlocked());
+      for (int i = 0; i < 20_000; i++) {
+        Assert.assertEquals(filter.mightContain("Key" + i), read.mightContain("Key" + i));
+      }
+    }
+  }
+
+  private static BloomKeyFilter build(int keyCount, double rate, boolean blocked) {
+    long[] hashes = new long[keyCount];
+    for (int i = 0; i < keyCount; i++) hashes[i] = BloomKeyFilter.hash("Key" + i);
+    return BloomKeyFilter.build(hashes, keyCount, rate, blocked);
+  }
+}
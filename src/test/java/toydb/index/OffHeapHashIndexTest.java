@@ -0,0 +1,70 @@
+package toydb.index;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OffHeapHashIndexTest {
+
+  @Test
+  public void randomOperationsTest() {
+    OffHeapHashIndex index = new OffHeapHashIndex(16);
+    Map<String, Long> expected = new HashMap<>();
+    Random random = new Random(42);
+    for (int i = 0; i < 200_000; i++) {
+      String key = "Key" + random.nextInt(50_000);
+      if (random.nextInt(4) == 0) {
+        index.removeFromIndex(key);
+        expected.remove(key);
+      } else {
+        index.updateLocation(key, i);
+        expected.put(key, (long) i);
+      }
+    }
+
+    Assert.assertEquals(expected.size(), index.size());
+    for (int i = 0; i < 50_000; i++) {
+      String key = "Key" + i;
+      Assert.assertEquals(expected.get(key), index.getLocationFromIndex(key));
+      long location = expected.containsKey(key) ? expected.get(key) : -1;
+      Assert.assertEquals(location, index.getLocation(key));
+    }
+  }
+
+  @Test
+  public void keyEncodingTest() {
+    OffHeapHashIndex index = new OffHeapHashIndex();
+    String[] keys = {
+      "k",
+      "\u00FC", // 2 bytes
+      "\u043A\u043B\u044E\u0447", // 2 bytes each
+      "\u20AC", // 3 bytes
+      "emoji\uD83D\uDE00", // a surrogate pair, 4 bytes
+      "unpaired\uD83D",
+      "\u0000"
+    };
+    for (int i = 0; i < keys.length; i++) index.updateIndex(keys[i], (long) i);
+    for (int i = 0; i < keys.length; i++) {
+      Assert.assertEquals(i, index.getLocation(keys[i]));
+    }
+    // prefixes and extensions of the stored keys are different keys
+    Assert.assertEquals(-1, index.getLocation("emoji"));
+    Assert.assertEquals(-1, index.getLocation("kk"));
+    Assert.assertEquals(-1, index.getLocation(""));
+  }
+
+  @Test
+  public void removedKeysAreReclaimedTest() {
+    OffHeapHashIndex index = new OffHeapHashIndex(1000);
+    long initialSize = index.getOffHeapSizeInBytes();
+    for (int round = 0; round < 100; round++) {
+      for (int i = 0; i < 500; i++) index.updateLocation("Key" + round + "_" + i, i);
+      for (int i = 0; i < 500; i++) index.removeFromIndex("Key" + round + "_" + i);
+    }
+    Assert.assertEquals(0, index.size());
+    // the table is rehashed in place, along with its key chunk
+    Assert.assertEquals(initialSize + 1024 * 1024, index.getOffHeapSizeInBytes());
+  }
+}
@@ -0,0 +1,37 @@
+package toydb.index;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SSTableBuilderTest {
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void closeTest() throws IOException {
+    File dataFile = new File(tempFolder.getRoot(), "aborted");
+    File indexFile = new File(dataFile.getPath() + SparseIndexFile.FILE_SUFFIX);
+    String value = new String(new char[1000]).replace('\0', 'v');
+
+    // a builder closed before it is finished deletes its partial data file
+    try (SSTableBuilder builder = new SSTableBuilder(dataFile.getPath())) {
+      for (int i = 0; i < 1_000; i++) builder.add(String.format("Key%04d", i), value, i);
+      Assert.assertTrue(dataFile.length() > 0);
+    }
+    Assert.assertFalse(dataFile.exists());
+    Assert.assertFalse(indexFile.exists());
+
+    // the next builder of the thread reuses the write buffer, and a finished SSTable is kept
+    SparseIndexFile sparseIndex;
+    try (SSTableBuilder builder = new SSTableBuilder(dataFile.getPath())) {
+      for (int i = 0; i < 1_000; i++) builder.add(String.format("Key%04d", i), value, i);
+      sparseIndex = builder.finish();
+    }
+    Assert.assertEquals(dataFile.length(), sparseIndex.getDataFileSize());
+    Assert.assertTrue(indexFile.exists());
+  }
+}
@@ -0,0 +1,65 @@
+package toydb.metrics;
+
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void bucketsTest() {
+    // every value falls into a bucket whose highest value is at most 1% larger
+    Random random = new Random(42);
+    for (int i = 0; i < 100_000; i++) {
+      long value = random.nextInt(1000) == 0 ? i : random.nextLong() & LatencyHistogram.MAX_VALUE;
+      int bucket = LatencyHistogram.bucketIndex(value);
+      Assert.assertTrue(bucket >= 0 && bucket < LatencyHistogram.BUCKET_COUNT);
+      long highest = LatencyHistogram.highestValue(bucket);
+      Assert.assertTrue(value + " " + highest, highest >= value && highest <= value * 1.01);
+      Assert.assertTrue(bucket == 0 || LatencyHistogram.highestValue(bucket - 1) < value);
+    }
+  }
+
+  @Test
+  public void percentilesTest() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long nanos = 1; nanos <= 100_000; nanos++) histogram.record(nanos * 1000);
+    HistogramSnapshot snapshot = histogram.snapshot();
+
+    Assert.assertEquals(100_000, snapshot.getCount());
+    Assert.assertEquals(50_000_500, snapshot.getMean(), 1);
+    Assert.assertEquals(100_000_000, snapshot.getMax());
+    Assert.assertEquals(50_000_000, snapshot.getValueAtPercentile(50), 500_000);
+    Assert.assertEquals(99_000_000, snapshot.getValueAtPercentile(99), 990_000);
+    Assert.assertEquals(100_000_000, snapshot.getValueAtPercentile(100));
+    Assert.assertEquals(0, new LatencyHistogram().snapshot().getValueAtPercentile(99));
+  }
+
+  @Test
+  public void outOfRangeTest() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    histogram.record(Long.MAX_VALUE);
+    HistogramSnapshot snapshot = histogram.snapshot();
+    Assert.assertEquals(2, snapshot.getCount());
+    Assert.assertEquals(0, snapshot.getValueAtPercentile(50));
+    Assert.assertEquals(LatencyHistogram.MAX_VALUE, snapshot.getMax());
+  }
+
+  @Test
+  public void concurrentRecordTest() throws InterruptedException {
+    LatencyHistogram histogram = new LatencyHistogram();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] =
+          new Thread(
+              () -> {
+                for (int i = 0; i < 100_000; i++) histogram.record(i);
+              });
+      threads[t].start();
+    }
+    for (Thread thread : threads) thread.join();
+    Assert.assertEquals(400_000, histogram.snapshot().getCount());
+    Assert.assertEquals(99_999, histogram.snapshot().getMax());
+  }
+}
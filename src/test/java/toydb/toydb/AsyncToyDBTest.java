@@ -0,0 +1,105 @@
+package toydb.toydb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AsyncToyDBTest {
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void readWriteTest() throws Exception {
+    DBOptions options = new DBOptions().setMemtableMaxSizeInBytes(16 * 1024);
+    SSTableBasedToyDB db = new SSTableBasedToyDB(tempFolder.getRoot().getPath(), options);
+    AsyncToyDB asyncDB = new AsyncToyDB(db, 4, 2, 100_000);
+
+    List<CompletableFuture<Void>> writes = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      writes.add(asyncDB.put(String.format("Key%05d", i), "Value" + i));
+    }
+    CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).get();
+    asyncDB.delete("Key00007").get();
+    WriteBatch batch = new WriteBatch();
+    batch.put("Key00001", "Batch1").delete("Key00002");
+    asyncDB.write(batch).get();
+
+    List<CompletableFuture<String>> reads = new ArrayList<>();
+    for (int i = 0; i < 10_000; i += 3) reads.add(asyncDB.get(String.format("Key%05d", i)));
+    for (int i = 0; i < reads.size(); i++) {
+      Assert.assertEquals("Value" + i * 3, reads.get(i).get());
+    }
+    Assert.assertNull(asyncDB.get("Key00007").get());
+    Map<String, String> values =
+        asyncDB.multiGet(Arrays.asList("Key00001", "Key00002", "Key00004")).get();
+    Assert.assertEquals("Batch1", values.get("Key00001"));
+    Assert.assertFalse(values.containsKey("Key00002"));
+    Assert.assertEquals("Value4", values.get("Key00004"));
+
+    List<Data> records = asyncDB.scan("Key00100", null, 10).get();
+    Assert.assertEquals(10, records.size());
+    Assert.assertEquals("Key00109", records.get(9).getKey());
+
+    asyncDB.close();
+    Assert.assertEquals(0, asyncDB.getInFlightCount());
+    db.close();
+  }
+
+  @Test
+  public void errorsTest() throws Exception {
+    SSTableBasedToyDB db = new SSTableBasedToyDB(tempFolder.getRoot().getPath());
+    AsyncToyDB asyncDB = new AsyncToyDB(db);
+    Snapshot snapshot = db.getSnapshot();
+    snapshot.close();
+    try {
+      asyncDB.get("Key", snapshot).get();
+      Assert.fail();
+    } catch (ExecutionException e) {
+      // the failure is not printed, but handed over to the caller
+      Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+
+    asyncDB.close();
+    try {
+      asyncDB.put("Key", "Value").get();
+      Assert.fail();
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    db.close();
+  }
+
+  @Test
+  public void backpressureTest() throws Exception {
+    SSTableBasedToyDB db = new SSTableBasedToyDB(tempFolder.getRoot().getPath());
+    for (int i = 0; i < 1_000; i++) db.put("Key" + i, "Value" + i);
+    AsyncToyDB asyncDB = new AsyncToyDB(db, 1, 1, 8);
+
+    // submitted faster than a single reader serves them
+    List<CompletableFuture<String>> reads = new ArrayList<>();
+    for (int i = 0; i < 1_000; i++) reads.add(asyncDB.get("Key" + i));
+    int served = 0;
+    int rejected = 0;
+    for (int i = 0; i < reads.size(); i++) {
+      try {
+        Assert.assertEquals("Value" + i, reads.get(i).get());
+        served++;
+      } catch (ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        rejected++;
+      }
+    }
+    Assert.assertTrue(served >= 8);
+    Assert.assertEquals(asyncDB.getRejectedCount(), rejected);
+    asyncDB.close();
+    db.close();
+  }
+}
@@ -3,49 +3,829 @@ package toydb.toydb;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import toydb.cache.BlockCache;
+import toydb.common.CloseableIterator;
+import toydb.common.Pair;
+import toydb.compaction.CompactionStats;
+import toydb.compaction.LeveledCompactionPolicy;
+import toydb.compaction.SizeTieredCompactionPolicy;
+import toydb.datafile.BlockCodec;
+import toydb.datafile.BlockCompression;
+import toydb.index.FilterStats;
+import toydb.index.Memtable;
+import toydb.index.SparseIndexFile;
+import toydb.metrics.HistogramSnapshot;
+import toydb.metrics.MetricsSnapshot;
+import toydb.wal.WalSyncMode;
 
 public class SSTableBasedToyDBTest {
 
-  private static final String TOY_DB_DIR = "/Users/priyanka/MyTestDB";
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
 
   @Test
   public void simpleTest() throws IOException, InterruptedException {
-
-    //System.out.println("Current process id : " + ProcessHandle.current().pid());
+    // timings of puts and gets are measured by the JMH benchmarks, see ToyDBBenchmark
     ExecutorService executorService = Executors.newFixedThreadPool(4);
-    File dir = new File(TOY_DB_DIR);
-    for (File f : dir.listFiles()) f.delete();
-    ToyDB db = new SSTableBasedToyDB(TOY_DB_DIR);
+    ToyDB db = new SSTableBasedToyDB(tempFolder.getRoot().getPath());
 
-    long writeStartMillis = System.currentTimeMillis();
-    for (int i = 1; i <= 1_000_000; i++) {
+    for (int i = 1; i <= 200_000; i++) {
       db.put("Key" + i, "Value" + i);
     }
-    long writeEndMillis = System.currentTimeMillis();
 
-    /*AtomicInteger mismatches = new AtomicInteger(0);
+    AtomicInteger mismatches = new AtomicInteger(0);
     AtomicInteger matches = new AtomicInteger(0);
+    for (int i = 1; i <= 200_000; i += 7) {
+      executorService.submit(new GetValueTask(i, db, matches, mismatches));
+    }
+    executorService.shutdown();
+    Assert.assertTrue(executorService.awaitTermination(10, TimeUnit.MINUTES));
+    Assert.assertEquals(0, mismatches.get());
+    Assert.assertEquals((200_000 + 6) / 7, matches.get());
+    ((SSTableBasedToyDB) db).close();
+  }
 
-    for (int i = 1; i <= 100_000; i++) {
+  @Test
+  public void backgroundFlushTest() throws IOException {
+    DBOptions options =
+        new DBOptions().setMemtableMaxSizeInBytes(16 * 1024).setMaxImmutableMemtables(1);
+    SSTableBasedToyDB db = new SSTableBasedToyDB(tempFolder.getRoot().getPath(), options);
 
-      executorService.submit(new GetValueTask(i, db, matches, mismatches));
+    for (int i = 1; i <= 20_000; i++) {
+      db.put("Key" + i, "Value" + i);
+    }
+    // keys of the memtables which are still waiting to be flushed are served from memory
+    for (int i = 1; i <= 20_000; i += 97) {
+      Assert.assertEquals("Value" + i, db.get("Key" + i));
+    }
+
+    db.close();
+    for (int i = 1; i <= 20_000; i += 89) {
+      Assert.assertEquals("Value" + i, db.get("Key" + i));
+    }
+    Assert.assertNull(db.get("Key0"));
+  }
+
+  @Test
+  public void reopenTest() throws IOException {
+    String dbPath = tempFolder.getRoot().getPath();
+    // no compaction, so that several SSTables are left to reopen
+    DBOptions options =
+        new DBOptions().setMemtableMaxSizeInBytes(16 * 1024).setCompactionPolicy(sstables -> null);
+    SSTableBasedToyDB db = new SSTableBasedToyDB(dbPath, options);
+    for (int i = 1; i <= 10_000; i++) {
+      db.put("Key" + i, "Value" + i);
+    }
+    db.close();
+
+    Manifest manifest = new Manifest(dbPath);
+    manifest.load();
+    Assert.assertTrue(manifest.getSSTableNames().size() > 1);
+
+    // a corrupt sparse index file is rebuilt from its data file
+    String corrupted = manifest.getSSTableNames().get(1);
+    Files.write(Paths.get(dbPath, corrupted + SparseIndexFile.FILE_SUFFIX), new byte[] {1, 2, 3});
+
+    SSTableBasedToyDB reopenedDb = new SSTableBasedToyDB(dbPath, options);
+    for (int i = 1; i <= 10_000; i++) {
+      Assert.assertEquals("Value" + i, reopenedDb.get("Key" + i));
+    }
+    reopenedDb.put("Key1", "NewValue1");
+    Assert.assertEquals("NewValue1", reopenedDb.get("Key1"));
+    reopenedDb.close();
+
+    SSTableBasedToyDB reopenedTwiceDb = new SSTableBasedToyDB(dbPath, options);
+    Assert.assertEquals("NewValue1", reopenedTwiceDb.get("Key1"));
+    Assert.assertEquals("Value2", reopenedTwiceDb.get("Key2"));
+    reopenedTwiceDb.close();
+  }
+
+  @Test
+  public void concurrentReadWriteTest() throws Exception {
+    DBOptions options = new DBOptions().setMemtableMaxSizeInBytes(64 * 1024);
+    SSTableBasedToyDB db = new SSTableBasedToyDB(tempFolder.getRoot().getPath(), options);
+    ExecutorService executorService = Executors.newFixedThreadPool(8);
+    int writers = 4;
+    int keysPerWriter = 10_000;
+
+    List<Future<?>> futures = new ArrayList<>();
+    for (int w = 0; w < writers; w++) {
+      int writerId = w;
+      futures.add(
+          executorService.submit(
+              () -> {
+                for (int i = 0; i < keysPerWriter; i++) {
+                  db.put("Key" + writerId + "_" + i, "Value" + i);
+                }
+              }));
+      // readers run alongside the writers, and must see every key written by their writer
+      futures.add(
+          executorService.submit(
+              () -> {
+                for (int i = 0; i < keysPerWriter; i += 50) {
+                  String key = "Key" + writerId + "_" + i;
+                  String value;
+                  while ((value = db.get(key)) == null) Thread.yield();
+                  Assert.assertEquals("Value" + i, value);
+                }
+              }));
+    }
+    for (Future<?> f : futures) f.get();
+    executorService.shutdown();
+    db.close();
+
+    for (int w = 0; w < writers; w++) {
+      for (int i = 0; i < keysPerWriter; i += 37) {
+        Assert.assertEquals("Value" + i, db.get("Key" + w + "_" + i));
+      }
+    }
+  }
+
+  @Test
+  public void writeAheadLogReplayTest() throws IOException {
+    String dbPath = tempFolder.getRoot().getPath();
+    DBOptions options = new DBOptions().setWalSyncMode(WalSyncMode.EVERY_WRITE);
+    // the DB is never closed, as if the process had crashed
+    SSTableBasedToyDB crashedDb = new SSTableBasedToyDB(dbPath, options);
+    for (int i = 1; i <= 1000; i++) {
+      crashedDb.put("Key" + i, "Value" + i);
+    }
+    crashedDb.put("Key1", "NewValue1");
+
+    SSTableBasedToyDB recoveredDb = new SSTableBasedToyDB(dbPath, options);
+    Assert.assertEquals("NewValue1", recoveredDb.get("Key1"));
+    for (int i = 2; i <= 1000; i++) {
+      Assert.assertEquals("Value" + i, recoveredDb.get("Key" + i));
+    }
+    recoveredDb.close();
+
+    SSTableBasedToyDB reopenedDb = new SSTableBasedToyDB(dbPath, options);
+    Assert.assertEquals("NewValue1", reopenedDb.get("Key1"));
+    Assert.assertEquals("Value1000", reopenedDb.get("Key1000"));
+    reopenedDb.close();
+  }
+
+  @Test
+  public void writeBatchTest() throws IOException {
+    String dbPath = tempFolder.getRoot().getPath();
+    DBOptions options =
+        new DBOptions()
+            .setMemtableMaxSizeInBytes(16 * 1024)
+            .setWalSyncMode(WalSyncMode.EVERY_WRITE);
+    SSTableBasedToyDB db = new SSTableBasedToyDB(dbPath, options);
+    for (int i = 1; i <= 100; i++) db.put("Key" + i, "Value" + i);
+
+    // batches larger than a memtable go to a memtable of their own
+    WriteBatch batch = new WriteBatch();
+    for (int round = 1; round <= 3; round++) {
+      for (int i = 1; i <= 2_000; i++) batch.put("Key" + i, "Value" + i + "_" + round);
+      for (int i = 1; i <= 2_000; i += 3) batch.delete("Key" + i);
+      db.write(batch);
+      batch.clear();
+    }
+    for (int i = 1; i <= 2_000; i++) {
+      Assert.assertEquals(i % 3 == 1 ? null : "Value" + i + "_3", db.get("Key" + i));
+    }
+    db.close();
+
+    // the DB is never closed, as if the process had crashed : the batch written last is torn.
+    // Its writes fit in the active memtable, so that no flush runs in the background.
+    SSTableBasedToyDB crashedDb = new SSTableBasedToyDB(dbPath, options);
+    crashedDb.write(
+        new WriteBatch().put("Key1", "NewValue1").put("Key2", "NewValue2").delete("Key2"));
+    Assert.assertEquals("NewValue1", crashedDb.get("Key1"));
+    Assert.assertNull(crashedDb.get("Key2"));
+    crashedDb.write(
+        new WriteBatch().put("Key3", "LostValue3").put("Key4", "LostValue4").delete("Key5"));
+    File wal = null;
+    for (File f : tempFolder.getRoot().listFiles()) {
+      if (f.getName().startsWith(Memtable.WAL_FILE_PREFIX)
+          && (wal == null || f.lastModified() >= wal.lastModified())) {
+        wal = f;
+      }
+    }
+    try (RandomAccessFile walFile = new RandomAccessFile(wal, "rw")) {
+      walFile.setLength(walFile.length() - 3);
+    }
+
+    SSTableBasedToyDB recoveredDb = new SSTableBasedToyDB(dbPath, options);
+    Assert.assertEquals("NewValue1", recoveredDb.get("Key1"));
+    Assert.assertNull(recoveredDb.get("Key2"));
+    Assert.assertEquals("Value3_3", recoveredDb.get("Key3"));
+    Assert.assertNull(recoveredDb.get("Key4"));
+    Assert.assertEquals("Value5_3", recoveredDb.get("Key5"));
+    recoveredDb.close();
+  }
+
+  @Test
+  public void blockCacheTest() throws IOException {
+    DBOptions options =
+        new DBOptions()
+            .setMemtableMaxSizeInBytes(16 * 1024)
+            .setCompactionPolicy(sstables -> null)
+            .setMmapReads(false);
+    SSTableBasedToyDB db = new SSTableBasedToyDB(tempFolder.getRoot().getPath(), options);
+    for (int i = 1; i <= 5_000; i++) {
+      db.put("Key" + i, "Value" + i);
+    }
+    db.close();
+
+    BlockCache blockCache = db.getBlockCache();
+    for (int round = 0; round < 3; round++) {
+      for (int i = 1; i <= 5_000; i += 41) {
+        Assert.assertEquals("Value" + i, db.get("Key" + i));
+      }
+    }
+    // the blocks read in the first round are served from the cache in the next rounds
+    Assert.assertTrue(blockCache.getHitCount() >= 2 * blockCache.getMissCount());
+  }
+
+  @Test
+  public void filterStatsTest() throws IOException {
+    String dbPath = tempFolder.getRoot().getPath();
+    DBOptions options =
+        new DBOptions()
+            .setMemtableMaxSizeInBytes(64 * 1024)
+            .setCompactionPolicy(sstables -> null)
+            .setBloomFilterFalsePositiveRate(0.02)
+            .setBlockedBloomFilter(true);
+    SSTableBasedToyDB db = new SSTableBasedToyDB(dbPath, options);
+    for (int i = 1; i <= 20_000; i++) {
+      db.put("Key" + i, "Value" + i);
+    }
+    db.close();
+
+    // the filters are read back with the SSTables
+    db = new SSTableBasedToyDB(dbPath, options);
+    for (int i = 1; i <= 20_000; i++) {
+      Assert.assertNull(db.get("Key" + i + "x"));
+      if (i % 7 == 0) Assert.assertEquals("Value" + i, db.get("Key" + i));
+    }
+    Map<String, FilterStats> filterStats = db.getFilterStats();
+    db.close();
+
+    Assert.assertTrue(filterStats.size() > 1);
+    long useful = 0;
+    long falsePositives = 0;
+    for (FilterStats stats : filterStats.values()) {
+      // sized for the keys of the SSTable, not for a fixed number of keys
+      Assert.assertEquals(8.5, stats.getBitsPerKey(), 1);
+      Assert.assertTrue(stats.getPositiveCount() >= stats.getFalsePositiveCount());
+      useful += stats.getUsefulCount();
+      falsePositives += stats.getFalsePositiveCount();
+    }
+    double falsePositiveRate = (double) falsePositives / (useful + falsePositives);
+    Assert.assertTrue("" + falsePositiveRate, falsePositiveRate > 0 && falsePositiveRate < 0.03);
+  }
+
+  @Test
+  public void metricsTest() throws IOException {
+    DBOptions options =
+        new DBOptions().setMemtableMaxSizeInBytes(64 * 1024).setBlockCacheSizeInBytes(0);
+    SSTableBasedToyDB db = new SSTableBasedToyDB(tempFolder.getRoot().getPath(), options);
+    for (int i = 1; i <= 20_000; i++) db.put("Key" + i, "Value" + i);
+    for (int i = 1; i <= 100; i++) db.delete("Key" + i);
+    for (int i = 1; i <= 1_000; i++) db.get("Key" + i * 20 + "x");
+    db.multiGet(Arrays.asList("Key500", "Key600"));
+    MetricsSnapshot metrics = db.getMetrics();
+    db.close();
+
+    Assert.assertEquals(20_000, metrics.getHistogram(MetricsSnapshot.PUT).getCount());
+    Assert.assertEquals(100, metrics.getHistogram(MetricsSnapshot.DELETE).getCount());
+    Assert.assertEquals(1_000, metrics.getHistogram(MetricsSnapshot.GET).getCount());
+    Assert.assertEquals(1, metrics.getHistogram(MetricsSnapshot.MULTI_GET).getCount());
+    HistogramSnapshot flushes = metrics.getHistogram(MetricsSnapshot.FLUSH);
+    Assert.assertTrue(flushes.getCount() > 0);
+    Assert.assertTrue(flushes.getValueAtPercentile(50) > 0);
+    Assert.assertTrue(metrics.getCounter(MetricsSnapshot.FLUSH_BYTES) > 0);
+    Assert.assertTrue(metrics.getCounter(MetricsSnapshot.SSTABLE_COUNT) > 0);
+    Assert.assertTrue(metrics.getCounter(MetricsSnapshot.MEMTABLE_BYTES) > 0);
+    Assert.assertEquals(0, metrics.getCounter(MetricsSnapshot.ERRORS));
+    Assert.assertEquals(2, metrics.getCounter(MetricsSnapshot.MULTI_GET_KEYS));
+    // the absent keys are mostly ruled out by the filters, the two keys of the multi get are not
+    Assert.assertTrue(metrics.getCounter(MetricsSnapshot.FILTER_NEGATIVES) > 0);
+    Assert.assertTrue(metrics.getCounter(MetricsSnapshot.FILTER_POSITIVES) >= 2);
+    Assert.assertTrue(metrics.getBytesReadPerGet() > 0);
+    Assert.assertEquals(20_000L, metrics.toMap().get("put.count"));
+    Assert.assertEquals(1L, metrics.toMap().get("multi_get.count"));
+  }
+
+  @Test
+  public void scanTest() throws IOException {
+    scanTest(new DBOptions().setMemtableMaxSizeInBytes(16 * 1024));
+  }
+
+  @Test
+  public void scanWithoutMmapTest() throws IOException {
+    scanTest(new DBOptions().setMemtableMaxSizeInBytes(16 * 1024).setMmapReads(false));
+  }
+
+  @Test
+  public void lz4CompressionTest() throws IOException {
+    scanTest(
+        new DBOptions()
+            .setMemtableMaxSizeInBytes(16 * 1024)
+            .setBlockCodec(BlockCompression.LZ4));
+  }
+
+  @Test
+  public void deflateCompressionWithoutMmapTest() throws IOException {
+    scanTest(
+        new DBOptions()
+            .setMemtableMaxSizeInBytes(16 * 1024)
+            .setMmapReads(false)
+            .setBlockCodec(BlockCompression.DEFLATE));
+  }
+
+  @Test
+  public void mixedCodecsTest() throws IOException {
+    String dbPath = tempFolder.getRoot().getPath();
+    DBOptions options = new DBOptions().setMemtableMaxSizeInBytes(16 * 1024);
+    SSTableBasedToyDB db =
+        new SSTableBasedToyDB(dbPath, options.setBlockCodec(BlockCompression.LZ4));
+    for (int i = 1; i <= 5_000; i++) db.put("Key" + i, "Value" + i);
+    db.close();
+
+    // SSTables compressed by LZ4 are compacted along with uncompressed ones
+    db = new SSTableBasedToyDB(dbPath, options.setBlockCodec(null));
+    for (int i = 2; i <= 5_000; i += 2) db.put("Key" + i, "NewValue" + i);
+    db.close();
+
+    db = new SSTableBasedToyDB(dbPath, options.setBlockCodec(BlockCompression.DEFLATE));
+    for (int i = 1; i <= 5_000; i++) {
+      Assert.assertEquals((i % 2 == 0 ? "NewValue" : "Value") + i, db.get("Key" + i));
+    }
+    db.close();
+  }
+
+  private void scanTest(DBOptions options) throws IOException {
+    SSTableBasedToyDB db = new SSTableBasedToyDB(tempFolder.getRoot().getPath(), options);
+    TreeMap<String, String> expected = new TreeMap<>();
+    Random random = new Random(42);
+    for (int i = 0; i < 20_000; i++) {
+      String key = "Key" + random.nextInt(5_000);
+      String value = "Value" + i;
+      db.put(key, value);
+      expected.put(key, value);
+    }
+
+    // the newest values are spread over the active memtable and several SSTables
+    assertScan(expected.subMap("Key1", "Key2"), db.scan("Key1", "Key2"));
+    assertScan(expected.tailMap("Key4990"), db.scan("Key4990", null));
+    assertScan(expected.subMap("Key", "Kez"), db.scan("", null));
+    assertScan(expected.subMap("Key42", "Key43"), db.prefixScan("Key42"));
+    assertScan(expected.subMap("Kex", "Kex"), db.prefixScan("Kex"));
+
+    db.close();
+    assertScan(expected.subMap("Key1", "Key2"), db.scan("Key1", "Key2"));
+  }
+
+  private static void assertScan(Map<String, String> expected, CloseableIterator<Data> it) {
+    try {
+      for (Map.Entry<String, String> entry : expected.entrySet()) {
+        Assert.assertTrue(it.hasNext());
+        Data d = it.next();
+        Assert.assertEquals(entry.getKey(), d.getKey());
+        Assert.assertEquals(entry.getValue(), d.getValue());
+      }
+      Assert.assertFalse(it.hasNext());
+    } finally {
+      it.close();
+    }
+  }
+
+  @Test
+  public void multiGetTest() throws IOException {
+    multiGetTest(new DBOptions().setMemtableMaxSizeInBytes(16 * 1024));
+  }
+
+  @Test
+  public void multiGetWithoutMmapTest() throws IOException {
+    multiGetTest(new DBOptions().setMemtableMaxSizeInBytes(16 * 1024).setMmapReads(false));
+  }
+
+  private void multiGetTest(DBOptions options) throws IOException {
+    SSTableBasedToyDB db = new SSTableBasedToyDB(tempFolder.getRoot().getPath(), options);
+    TreeMap<String, String> expected = new TreeMap<>();
+    Random random = new Random(7);
+    for (int i = 0; i < 20_000; i++) {
+      String key = "Key" + random.nextInt(5_000);
+      if (i % 10 == 0) {
+        db.delete(key);
+        expected.remove(key);
+      } else {
+        db.put(key, "Value" + i);
+        expected.put(key, "Value" + i);
+      }
+    }
+
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < 6_000; i += 3) keys.add("Key" + i);
+    keys.add("Key3"); // duplicates are looked up once
+    TreeMap<String, String> expectedValues = new TreeMap<>();
+    for (String key : keys) {
+      if (expected.containsKey(key)) expectedValues.put(key, expected.get(key));
+    }
+
+    Assert.assertEquals(expectedValues, db.multiGet(keys));
+    db.close();
+    Assert.assertEquals(expectedValues, db.multiGet(keys));
+    Assert.assertTrue(db.multiGet(new ArrayList<>()).isEmpty());
+  }
+
+  @Test
+  public void sizeTieredCompactionTest() throws IOException {
+    DBOptions options =
+        new DBOptions()
+            .setMemtableMaxSizeInBytes(16 * 1024)
+            .setCompactionPolicy(new SizeTieredCompactionPolicy(4, 32, 64 * 1024));
+    compactionTest(options);
+  }
+
+  @Test
+  public void leveledCompactionTest() throws IOException {
+    DBOptions options =
+        new DBOptions()
+            .setMemtableMaxSizeInBytes(16 * 1024)
+            .setCompactionPolicy(new LeveledCompactionPolicy(4, 64 * 1024, 16 * 1024));
+    String dbPath = compactionTest(options);
+
+    // SSTables above level 0 do not overlap
+    List<Memtable> sstables = openSSTables(dbPath, options);
+    for (int i = 1; i < sstables.size(); i++) {
+      Memtable prev = sstables.get(i - 1);
+      Memtable curr = sstables.get(i);
+      if (prev.getLevel() > 0 && prev.getLevel() == curr.getLevel()) {
+        Assert.assertTrue(prev.getLargestKey().compareTo(curr.getSmallestKey()) < 0);
+      }
+    }
+  }
+
+  @Test
+  public void deleteTest() throws IOException {
+    String dbPath = tempFolder.getRoot().getPath();
+    DBOptions options = new DBOptions().setMemtableMaxSizeInBytes(16 * 1024);
+    SSTableBasedToyDB db = new SSTableBasedToyDB(dbPath, options);
+    TreeMap<String, String> expected = new TreeMap<>();
+    for (int i = 1; i <= 10_000; i++) {
+      db.put("Key" + i, "Value" + i);
+      expected.put("Key" + i, "Value" + i);
+    }
+    // the tombstones land in other memtables than the values they shadow
+    for (int i = 1; i <= 10_000; i += 2) {
+      db.delete("Key" + i);
+      expected.remove("Key" + i);
+    }
+    db.delete("Key0");
+    db.put("Key3", "NewValue3");
+    expected.put("Key3", "NewValue3");
+
+    assertDeleted(expected, db);
+    db.close();
+    assertDeleted(expected, db);
+
+    SSTableBasedToyDB reopenedDb = new SSTableBasedToyDB(dbPath, options);
+    assertDeleted(expected, reopenedDb);
+    reopenedDb.close();
+  }
+
+  private static void assertDeleted(TreeMap<String, String> expected, SSTableBasedToyDB db) {
+    for (int i = 0; i <= 10_000; i++) {
+      Assert.assertEquals(expected.get("Key" + i), db.get("Key" + i));
+    }
+    assertScan(expected, db.scan("", null));
+    assertScan(expected.subMap("Key99", "Key9:"), db.prefixScan("Key99"));
+  }
+
+  @Test
+  public void tombstoneCompactionTest() throws IOException {
+    String dbPath = tempFolder.getRoot().getPath();
+    DBOptions options = new DBOptions().setCompactionPolicy(sstables -> null);
+    SSTableBasedToyDB db = new SSTableBasedToyDB(dbPath, options);
+    for (int i = 1; i <= 1000; i++) db.put("Key" + i, "Value" + i);
+    db.close();
+
+    // the deletes are flushed to an SSTable of tombstones, newer than the one holding the values
+    db = new SSTableBasedToyDB(dbPath, options);
+    for (int i = 1; i <= 1000; i += 2) db.delete("Key" + i);
+    db.close();
+    List<Memtable> sstables = openSSTables(dbPath, options);
+    Assert.assertEquals(2, sstables.size());
+    Assert.assertEquals(500, sstables.get(0).getTombstoneCount());
+
+    // merging the two SSTables drops the tombstones, along with the values they shadow
+    options.setCompactionPolicy(new SizeTieredCompactionPolicy(2, 32, 1024 * 1024));
+    db = new SSTableBasedToyDB(dbPath, options);
+    db.close();
+    sstables = openSSTables(dbPath, options);
+    Assert.assertEquals(1, sstables.size());
+    Assert.assertEquals(500, sstables.get(0).getRecordCount());
+    Assert.assertEquals(0, sstables.get(0).getTombstoneCount());
+
+    // an SSTable which no older SSTable overlaps is rewritten on its own once it holds enough
+    // tombstones
+    dbPath = tempFolder.newFolder().getPath();
+    options.setCompactionPolicy(tables -> null);
+    db = new SSTableBasedToyDB(dbPath, options);
+    for (int i = 1; i <= 1000; i++) db.put("Key" + i, "Value" + i);
+    for (int i = 1; i <= 300; i++) db.delete("Key" + i);
+    db.close();
+    Assert.assertEquals(300, openSSTables(dbPath, options).get(0).getTombstoneCount());
+
+    options.setCompactionPolicy(new LeveledCompactionPolicy());
+    db = new SSTableBasedToyDB(dbPath, options);
+    db.close();
+    sstables = openSSTables(dbPath, options);
+    Assert.assertEquals(1, sstables.size());
+    Assert.assertEquals(700, sstables.get(0).getRecordCount());
+    Assert.assertEquals(0, sstables.get(0).getTombstoneCount());
+    for (int i = 1; i <= 1000; i++) {
+      Assert.assertEquals(i > 300 ? "Value" + i : null, db.get("Key" + i));
+    }
+  }
+
+  @Test
+  public void largeRecordsTest() throws IOException {
+    // values larger than the write buffer of the SSTable builder, between blocks of small records
+    char[] chars = new char[300 * 1024];
+    for (BlockCodec codec : new BlockCodec[] {null, BlockCompression.LZ4}) {
+      String dbPath = tempFolder.newFolder().getPath();
+      DBOptions options =
+          new DBOptions().setMemtableMaxSizeInBytes(1024 * 1024).setBlockCodec(codec);
+      SSTableBasedToyDB db = new SSTableBasedToyDB(dbPath, options);
+      for (int i = 0; i < 2_000; i++) {
+        Arrays.fill(chars, (char) ('a' + i % 26));
+        db.put(String.format("Key%05d", i), i % 100 == 0 ? new String(chars) : "Value" + i);
+      }
+      db.close();
+
+      SSTableBasedToyDB reopenedDb = new SSTableBasedToyDB(dbPath, options);
+      for (int i = 0; i < 2_000; i++) {
+        String value = reopenedDb.get(String.format("Key%05d", i));
+        if (i % 100 == 0) {
+          Assert.assertEquals(chars.length, value.length());
+          Assert.assertEquals('a' + i % 26, value.charAt(chars.length - 1));
+        } else {
+          Assert.assertEquals("Value" + i, value);
+        }
+      }
+      reopenedDb.close();
+    }
+  }
+
+  @Test
+  public void snapshotTest() throws IOException {
+    String dbPath = tempFolder.getRoot().getPath();
+    DBOptions options =
+        new DBOptions()
+            .setMemtableMaxSizeInBytes(16 * 1024)
+            .setCompactionPolicy(new SizeTieredCompactionPolicy(2, 32, 1024 * 1024));
+    SSTableBasedToyDB db = new SSTableBasedToyDB(dbPath, options);
+    int keyCount = 2_000;
+    for (int i = 1; i <= keyCount; i++) db.put("Key" + i, "Value" + i + "_1");
+    Snapshot first = db.getSnapshot();
+    for (int i = 1; i <= keyCount; i++) db.put("Key" + i, "Value" + i + "_2");
+    for (int i = 1; i <= keyCount; i += 3) db.delete("Key" + i);
+    Snapshot second = db.getSnapshot();
+    for (int i = 1; i <= keyCount; i++) db.put("Key" + i, "Value" + i + "_3");
+    // one sequence per write
+    long writeCount = keyCount + (keyCount + 2) / 3;
+    Assert.assertEquals(first.getSequence() + writeCount, second.getSequence());
+
+    // the flushes and compactions keep the versions read by the snapshots
+    db.close();
+    Assert.assertTrue(db.getCompactionStats().getCompactionCount() > 0);
+    TreeMap<String, String> firstValues = new TreeMap<>();
+    TreeMap<String, String> secondValues = new TreeMap<>();
+    for (int i = 1; i <= keyCount; i++) {
+      String key = "Key" + i;
+      firstValues.put(key, "Value" + i + "_1");
+      if (i % 3 != 1) secondValues.put(key, "Value" + i + "_2");
+      Assert.assertEquals("Value" + i + "_1", db.get(key, first));
+      Assert.assertEquals(i % 3 == 1 ? null : "Value" + i + "_2", db.get(key, second));
+      Assert.assertEquals("Value" + i + "_3", db.get(key));
+    }
+    Assert.assertEquals(firstValues, db.multiGet(firstValues.keySet(), first));
+    Assert.assertEquals(secondValues, db.multiGet(firstValues.keySet(), second));
+    assertScan(firstValues, db.scan("Key", null, first));
+    assertScan(secondValues, db.scan("Key", null, second));
+    assertScan(firstValues.subMap("Key10", "Key11"), db.prefixScan("Key10", first));
+
+    first.close();
+    // closing a snapshot twice has no effect
+    first.close();
+    second.close();
+    try {
+      db.get("Key1", first);
+      Assert.fail();
+    } catch (IllegalStateException expected) {
     }
+
+    // the sequences carry on from the SSTables when the DB is reopened
+    SSTableBasedToyDB reopenedDb = new SSTableBasedToyDB(dbPath, options);
+    Snapshot reopened = reopenedDb.getSnapshot();
+    Assert.assertTrue(reopened.getSequence() > second.getSequence());
+    reopenedDb.put("Key1", "Value1_4");
+    Assert.assertEquals("Value1_4", reopenedDb.get("Key1"));
+    Assert.assertEquals("Value1_3", reopenedDb.get("Key1", reopened));
+    reopened.close();
+    reopenedDb.close();
+    reopenedDb = new SSTableBasedToyDB(dbPath, options);
+    Assert.assertEquals("Value1_4", reopenedDb.get("Key1"));
+    reopenedDb.close();
+  }
+
+  @Test
+  public void snapshotIsolationTest() throws Exception {
+    DBOptions options = new DBOptions().setMemtableMaxSizeInBytes(64 * 1024);
+    SSTableBasedToyDB db = new SSTableBasedToyDB(tempFolder.getRoot().getPath(), options);
+    ExecutorService executorService = Executors.newFixedThreadPool(4);
+    int keyCount = 100;
+    for (int i = 0; i < keyCount; i++) db.put("Key" + i, "0");
+
+    // every batch writes the same round to all the keys, so that a snapshot sees a single round
+    Future<?> writer =
+        executorService.submit(
+            () -> {
+              for (int round = 1; round <= 200; round++) {
+                WriteBatch batch = new WriteBatch();
+                for (int i = 0; i < keyCount; i++) batch.put("Key" + i, Integer.toString(round));
+                db.write(batch);
+              }
+            });
+    List<Future<Integer>> readers = new ArrayList<>();
+    for (int t = 0; t < 3; t++) {
+      readers.add(
+          executorService.submit(
+              () -> {
+                int mismatches = 0;
+                while (!writer.isDone()) {
+                  try (Snapshot snapshot = db.getSnapshot()) {
+                    String round = db.get("Key0", snapshot);
+                    for (int i = 1; i < keyCount; i++) {
+                      if (!round.equals(db.get("Key" + i, snapshot))) mismatches++;
+                    }
+                    try (CloseableIterator<Data> it = db.scan("Key", null, snapshot)) {
+                      while (it.hasNext()) {
+                        if (!round.equals(it.next().getValue())) mismatches++;
+                      }
+                    }
+                  }
+                  // without a snapshot, a multi get reads all the keys as of the same sequence
+                  if (new HashSet<>(db.multiGet(keys(keyCount)).values()).size() != 1) mismatches++;
+                }
+                return mismatches;
+              }));
+    }
+    writer.get();
+    for (Future<Integer> reader : readers) Assert.assertEquals(0, (int) reader.get());
     executorService.shutdown();
-    executorService.awaitTermination(10, TimeUnit.MINUTES);
-    System.out.println("Matches : " + matches + "\t Mismatches:" + mismatches);
-    long readEndMillis = System.currentTimeMillis();
+    db.close();
+  }
 
-    System.out.println(
-        "Write time : "
-            + Long.toString(writeEndMillis - writeStartMillis)
-            + " ms, Read Time : "
-            + Long.toString(readEndMillis - writeEndMillis) + " ms");*/
-    System.out.println("Write time : " + Long.toString(writeEndMillis - writeStartMillis) + " ms ");
+  @Test
+  public void publishOrderTest() throws Exception {
+    DBOptions options = new DBOptions().setWalSyncMode(WalSyncMode.EVERY_WRITE);
+    SSTableBasedToyDB db = new SSTableBasedToyDB(tempFolder.getRoot().getPath(), options);
+    ExecutorService executorService = Executors.newFixedThreadPool(6);
+    int writerCount = 4;
+    int writeCount = 250;
+
+    // every write is of a new key, and is visible to its writer once put returns
+    List<Future<Integer>> writers = new ArrayList<>();
+    for (int t = 0; t < writerCount; t++) {
+      String prefix = "Writer" + t + "_";
+      writers.add(
+          executorService.submit(
+              () -> {
+                int missing = 0;
+                for (int i = 0; i < writeCount; i++) {
+                  db.put(prefix + i, "Value" + i);
+                  if (db.get(prefix + i) == null) missing++;
+                }
+                return missing;
+              }));
+    }
+    // the writes are published in the order of their sequences : a snapshot of sequence s sees
+    // the writes of sequences 1 to s, and none of the writes committed in the same group after s
+    List<Future<Integer>> readers = new ArrayList<>();
+    for (int t = 0; t < 2; t++) {
+      readers.add(
+          executorService.submit(
+              () -> {
+                int gaps = 0;
+                while (!writers.stream().allMatch(Future::isDone)) {
+                  try (Snapshot snapshot = db.getSnapshot();
+                      CloseableIterator<Data> it = db.scan("Writer", null, snapshot)) {
+                    long count = 0;
+                    while (it.hasNext()) {
+                      it.next();
+                      count++;
+                    }
+                    if (count != snapshot.getSequence()) gaps++;
+                  }
+                }
+                return gaps;
+              }));
+    }
+    for (Future<Integer> writer : writers) Assert.assertEquals(0, (int) writer.get());
+    for (Future<Integer> reader : readers) Assert.assertEquals(0, (int) reader.get());
+    try (Snapshot snapshot = db.getSnapshot()) {
+      Assert.assertEquals(writerCount * writeCount, snapshot.getSequence());
+    }
+    executorService.shutdown();
+    db.close();
+  }
+
+  @Test
+  public void inFlightReadTest() throws IOException {
+    String dbPath = tempFolder.getRoot().getPath();
+    DBOptions options = new DBOptions();
+    SSTableBasedToyDB db = new SSTableBasedToyDB(dbPath, options);
+    db.put("Key1", "Value1_1");
+    CloseableIterator<Data> it = db.scan("Key", null);
+    db.put("Key1", "Value1_2");
+    db.close();
+    // the flush only keeps the newest version
+    List<Memtable> sstables = openSSTables(dbPath, options);
+    Assert.assertEquals(1, sstables.size());
+    Assert.assertEquals(1, sstables.get(0).getRecordCount());
+    // but a read without a snapshot keeps reading the memtable it started with
+    Assert.assertEquals("Value1_1", it.next().getValue());
+    Assert.assertFalse(it.hasNext());
+    it.close();
+    Assert.assertEquals("Value1_2", db.get("Key1"));
+  }
+
+  private static List<String> keys(int keyCount) {
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < keyCount; i++) keys.add("Key" + i);
+    return keys;
   }
 
+  private static List<Memtable> openSSTables(String dbPath, DBOptions options) throws IOException {
+    Manifest manifest = new Manifest(dbPath);
+    manifest.load();
+    List<Memtable> sstables = new ArrayList<>();
+    for (Pair<String, Integer> sstable : manifest.getSSTables()) {
+      sstables.add(
+          Memtable.open(
+              dbPath, sstable.getFirst(), sstable.getSecond(), options, new BlockCache(0)));
+    }
+    return sstables;
+  }
+
+  /** Overwrites every key a few times, and checks that the newest values survive compaction. */
+  private String compactionTest(DBOptions options) throws IOException {
+    String dbPath = tempFolder.getRoot().getPath();
+    SSTableBasedToyDB db = new SSTableBasedToyDB(dbPath, options);
+    int keyCount = 5_000;
+    for (int round = 1; round <= 4; round++) {
+      for (int i = 1; i <= keyCount; i++) {
+        db.put("Key" + i, "Value" + i + "_" + round);
+      }
+    }
+    db.close();
+
+    CompactionStats stats = db.getCompactionStats();
+    Assert.assertTrue(stats.getCompactionCount() > 0);
+    Assert.assertTrue(stats.getWriteAmplification() > 1);
+    for (int i = 1; i <= keyCount; i++) {
+      Assert.assertEquals("Value" + i + "_4", db.get("Key" + i));
+    }
+
+    // the compacted SSTables hold every key once, and their inputs are deleted
+    Manifest manifest = new Manifest(dbPath);
+    manifest.load();
+    long sstableFiles =
+        Arrays.stream(tempFolder.getRoot().list())
+            .filter(name -> name.startsWith("sortedStringFile_"))
+            .count();
+    Assert.assertEquals(2 * manifest.getSSTableNames().size(), sstableFiles);
+    Assert.assertTrue(stats.getFlushedBytes() / manifest.getSSTableNames().size() > 16 * 1024);
+
+    SSTableBasedToyDB reopenedDb = new SSTableBasedToyDB(dbPath, options);
+    for (int i = 1; i <= keyCount; i += 7) {
+      Assert.assertEquals("Value" + i + "_4", reopenedDb.get("Key" + i));
+    }
+    reopenedDb.close();
+    return dbPath;
+  }
 }
 
 class GetValueTask implements Callable<String> {
@@ -0,0 +1,122 @@
+package toydb.toydb;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import toydb.common.CloseableIterator;
+import toydb.metrics.MetricsSnapshot;
+
+public class ShardedToyDBTest {
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void putGetDeleteTest() throws IOException {
+    String path = tempFolder.getRoot().getPath();
+    Supplier<DBOptions> options = () -> new DBOptions().setMemtableMaxSizeInBytes(16 * 1024);
+    ShardedToyDB db = new ShardedToyDB(path, 4, options);
+    int[] keysPerShard = new int[4];
+    for (int i = 1; i <= 20_000; i++) {
+      db.put("Key" + i, "Value" + i);
+      keysPerShard[db.shardIndex("Key" + i)]++;
+    }
+    for (int i = 1; i <= 20_000; i += 3) db.delete("Key" + i);
+    // the keys are spread evenly over the shards
+    for (int count : keysPerShard) Assert.assertTrue(count > 4_000 && count < 6_000);
+
+    for (int i = 1; i <= 20_000; i += 7) {
+      Assert.assertEquals(i % 3 == 1 ? null : "Value" + i, db.get("Key" + i));
+    }
+    db.close();
+
+    db = new ShardedToyDB(path, 4, options);
+    for (int i = 1; i <= 20_000; i += 7) {
+      Assert.assertEquals(i % 3 == 1 ? null : "Value" + i, db.get("Key" + i));
+    }
+    for (int i = 0; i < 4; i++) Assert.assertTrue(Files.isDirectory(Paths.get(path, "shard_" + i)));
+    db.close();
+  }
+
+  @Test(expected = IOException.class)
+  public void shardCountMismatchTest() throws IOException {
+    String path = tempFolder.getRoot().getPath();
+    new ShardedToyDB(path, 4).close();
+    new ShardedToyDB(path, 2);
+  }
+
+  @Test
+  public void scanTest() throws IOException {
+    ShardedToyDB db = new ShardedToyDB(tempFolder.getRoot().getPath(), 3);
+    for (int i = 0; i < 1_000; i++) db.put(String.format("Key%04d", i), "Value" + i);
+    db.delete("Key0105");
+
+    List<String> keys = new ArrayList<>();
+    try (CloseableIterator<Data> it = db.scan("Key0100", "Key0200")) {
+      while (it.hasNext()) keys.add(it.next().getKey());
+    }
+    Assert.assertEquals(99, keys.size());
+    Assert.assertEquals("Key0100", keys.get(0));
+    Assert.assertEquals("Key0199", keys.get(98));
+    Assert.assertFalse(keys.contains("Key0105"));
+    for (int i = 1; i < keys.size(); i++) {
+      Assert.assertTrue(keys.get(i - 1).compareTo(keys.get(i)) < 0);
+    }
+
+    keys.clear();
+    try (CloseableIterator<Data> it = db.prefixScan("Key09")) {
+      while (it.hasNext()) keys.add(it.next().getKey());
+    }
+    Assert.assertEquals(100, keys.size());
+    Assert.assertEquals("Key0900", keys.get(0));
+    Assert.assertEquals("Key0999", keys.get(99));
+    db.close();
+  }
+
+  @Test
+  public void writeBatchAndMultiGetTest() throws IOException {
+    ShardedToyDB db = new ShardedToyDB(tempFolder.getRoot().getPath(), 4);
+    db.put("Key0", "Old0");
+    WriteBatch batch = new WriteBatch();
+    for (int i = 1; i <= 50; i++) batch.put("Key" + i, "Value" + i);
+    batch.delete("Key0");
+    db.write(batch);
+
+    Map<String, String> values = db.multiGet(Arrays.asList("Key0", "Key1", "Key25", "Key50", "x"));
+    Assert.assertEquals(Arrays.asList("Key1", "Key25", "Key50"), new ArrayList<>(values.keySet()));
+    Assert.assertEquals("Value25", values.get("Key25"));
+    db.close();
+  }
+
+  @Test
+  public void metricsTest() throws IOException {
+    ShardedToyDB db = new ShardedToyDB(tempFolder.getRoot().getPath(), 4);
+    for (int i = 1; i <= 1_000; i++) db.put("Key" + i, "Value" + i);
+    for (int i = 1; i <= 100; i++) db.get("Key" + i);
+    db.multiGet(Arrays.asList("Key1", "Key2", "Key3", "Key4", "Key5", "Key6", "Key7", "Key8"));
+    MetricsSnapshot metrics = db.getMetrics();
+    List<MetricsSnapshot> shardMetrics = db.getShardMetrics();
+    db.close();
+
+    Assert.assertEquals(1_000, metrics.getHistogram(MetricsSnapshot.PUT).getCount());
+    Assert.assertEquals(100, metrics.getHistogram(MetricsSnapshot.GET).getCount());
+    // one multi get for each shard which holds some of the keys
+    Assert.assertTrue(metrics.getHistogram(MetricsSnapshot.MULTI_GET).getCount() > 0);
+    Assert.assertEquals(8, metrics.getCounter(MetricsSnapshot.MULTI_GET_KEYS));
+    Assert.assertEquals(4, shardMetrics.size());
+    long puts = 0;
+    for (MetricsSnapshot m : shardMetrics) {
+      Assert.assertTrue(m.getHistogram(MetricsSnapshot.PUT).getCount() > 0);
+      puts += m.getHistogram(MetricsSnapshot.PUT).getCount();
+    }
+    Assert.assertEquals(1_000, puts);
+  }
+}
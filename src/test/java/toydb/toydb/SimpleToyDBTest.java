@@ -1,3 +1,282 @@
 package toydb.toydb;
 
-public class SimpleToyDBTest {}
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import toydb.common.CloseableIterator;
+import toydb.datafile.RecordCodec;
+import toydb.index.DBIndex;
+import toydb.index.HashBasedIndex;
+import toydb.index.HintFile;
+import toydb.index.OffHeapHashIndex;
+import toydb.index.TreeBasedIndex;
+import toydb.metrics.MetricsSnapshot;
+
+public class SimpleToyDBTest {
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void deleteTest() throws IOException {
+    deleteTest(new HashBasedIndex(), new HashBasedIndex());
+  }
+
+  @Test
+  public void offHeapIndexTest() throws IOException {
+    deleteTest(new OffHeapHashIndex(), new OffHeapHashIndex());
+  }
+
+  private void deleteTest(DBIndex index, DBIndex reopenedIndex) throws IOException {
+    String dbPath = tempFolder.getRoot().getPath();
+    SimpleToyDB db = new SimpleToyDB(dbPath, index);
+    for (int i = 1; i <= 100; i++) db.put("Key" + i, "Value" + i);
+    for (int i = 1; i <= 100; i += 2) db.delete("Key" + i);
+    db.put("Key1", "NewValue1");
+    assertDeleted(db);
+
+    // the tombstones are replayed along with the values when the index is rebuilt
+    assertDeleted(new SimpleToyDB(dbPath, reopenedIndex));
+  }
+
+  private static void assertDeleted(SimpleToyDB db) {
+    Assert.assertEquals("NewValue1", db.get("Key1"));
+    for (int i = 2; i <= 100; i++) {
+      Assert.assertEquals(i % 2 == 0 ? "Value" + i : "", db.get("Key" + i));
+    }
+  }
+
+  @Test
+  public void metricsTest() throws IOException {
+    SimpleToyDB db = new SimpleToyDB(tempFolder.getRoot().getPath());
+    for (int i = 1; i <= 100; i++) db.put("Key" + i, "Value" + i);
+    db.delete("Key1");
+    for (int i = 1; i <= 100; i++) db.get("Key" + i);
+    MetricsSnapshot metrics = db.getMetrics();
+    db.close();
+
+    Assert.assertEquals(100, metrics.getHistogram(MetricsSnapshot.PUT).getCount());
+    Assert.assertEquals(1, metrics.getHistogram(MetricsSnapshot.DELETE).getCount());
+    Assert.assertEquals(100, metrics.getHistogram(MetricsSnapshot.GET).getCount());
+    Assert.assertEquals(1, metrics.getCounter(MetricsSnapshot.SEGMENT_COUNT));
+    // the records of the keys found are read from the segment
+    long bytesRead = 0;
+    for (int i = 2; i <= 100; i++) bytesRead += RecordCodec.encodedSize("Key" + i, "Value" + i);
+    Assert.assertEquals(bytesRead, metrics.getCounter(MetricsSnapshot.BYTES_READ));
+  }
+
+  @Test
+  public void hintFileTest() throws IOException {
+    String dbPath = tempFolder.getRoot().getPath();
+    SimpleToyDB db = new SimpleToyDB(dbPath);
+    for (int i = 1; i <= 1000; i++) db.put("Key" + i, "Value" + i);
+    for (int i = 1; i <= 100; i++) db.delete("Key" + i);
+    db.close();
+    File hintFile = new File(dbPath, "toydb_datafile" + HintFile.FILE_SUFFIX);
+    Assert.assertTrue(hintFile.exists());
+
+    // the DB is never closed, as if the process had crashed : these writes are not in the hint file
+    SimpleToyDB crashedDb = new SimpleToyDB(dbPath, new OffHeapHashIndex());
+    for (int i = 1001; i <= 1100; i++) crashedDb.put("Key" + i, "Value" + i);
+    crashedDb.delete("Key200");
+    crashedDb.put("Key300", "NewValue300");
+
+    assertHinted(new SimpleToyDB(dbPath));
+
+    // a corrupt hint file is ignored, and the whole data file is read
+    try (RandomAccessFile f = new RandomAccessFile(hintFile, "rw")) {
+      f.seek(f.length() / 2);
+      int b = f.read();
+      f.seek(f.length() / 2);
+      f.write(b ^ 0xFF);
+    }
+    assertHinted(new SimpleToyDB(dbPath));
+  }
+
+  @Test
+  public void backgroundHintFileTest() throws Exception {
+    String dbPath = tempFolder.getRoot().getPath();
+    File hintFile = new File(dbPath, "toydb_datafile" + HintFile.FILE_SUFFIX);
+    String padding = new String(new char[1000]).replace('\0', 'x');
+    // the DB is never closed : the hint file is written by the merger thread, every 16 MB written
+    SimpleToyDB db = new SimpleToyDB(dbPath);
+    for (int i = 1; i <= 17_000; i++) db.put("Key" + i, "Value" + i + padding);
+    for (int wait = 0; !hintFile.exists() && wait < 100; wait++) Thread.sleep(100);
+    Assert.assertTrue(hintFile.exists());
+
+    SimpleToyDB reopenedDb = new SimpleToyDB(dbPath);
+    for (int i = 1; i <= 17_000; i += 100) {
+      Assert.assertEquals("Value" + i + padding, reopenedDb.get("Key" + i));
+    }
+    reopenedDb.close();
+  }
+
+  @Test
+  public void tornRecordTest() throws IOException {
+    String dbPath = tempFolder.getRoot().getPath();
+    File hintFile = new File(dbPath, "toydb_datafile" + HintFile.FILE_SUFFIX);
+    SimpleToyDB db = new SimpleToyDB(dbPath);
+    for (int i = 1; i <= 100; i++) db.put("Key" + i, "Value" + i);
+    db.close();
+
+    // a crash in the middle of an append leaves part of a record at the end of the active segment,
+    // whether the startup reads the segment from the hint file on or from its start
+    for (boolean hinted : new boolean[] {true, false}) {
+      if (!hinted) Assert.assertTrue(hintFile.delete());
+      File segment = new File(dbPath, "toydb_datafile_1");
+      long segmentSize = segment.length();
+      ByteBuffer record = ByteBuffer.allocate(RecordCodec.encodedSize("Key101", "Value101"));
+      RecordCodec.encode("Key101", "Value101", record);
+      try (RandomAccessFile f = new RandomAccessFile(segment, "rw")) {
+        f.seek(segmentSize);
+        f.write(record.array(), 0, record.capacity() / 2);
+      }
+
+      // the torn record is dropped, and the next records are appended in its place
+      db = new SimpleToyDB(dbPath);
+      Assert.assertEquals(segmentSize, segment.length());
+      Assert.assertEquals("", db.get("Key101"));
+      db.put("Key102", "Value102");
+      db.close();
+      db = new SimpleToyDB(dbPath);
+      Assert.assertEquals("Value1", db.get("Key1"));
+      Assert.assertEquals("Value100", db.get("Key100"));
+      Assert.assertEquals("Value102", db.get("Key102"));
+      db.close();
+    }
+
+    // a torn record in a sealed segment fails the startup
+    String sealedDbPath = tempFolder.newFolder().getPath();
+    SimpleToyDB sealedDb = new SimpleToyDB(sealedDbPath, new TreeBasedIndex(), 1024, 100);
+    for (int i = 1; i <= 100; i++) sealedDb.put("Key" + i, "Value" + i);
+    sealedDb.close();
+    Assert.assertTrue(new File(sealedDbPath, "toydb_datafile" + HintFile.FILE_SUFFIX).delete());
+    File sealedSegment = new File(sealedDbPath, "toydb_datafile_1");
+    try (RandomAccessFile f = new RandomAccessFile(sealedSegment, "rw")) {
+      f.setLength(f.length() - 3);
+    }
+    try {
+      new SimpleToyDB(sealedDbPath, new TreeBasedIndex(), 1024, 100);
+      Assert.fail();
+    } catch (EOFException expected) {
+    }
+  }
+
+  private static void assertHinted(SimpleToyDB db) {
+    for (int i = 1; i <= 1100; i++) {
+      String expected = i <= 100 || i == 200 ? "" : i == 300 ? "NewValue300" : "Value" + i;
+      Assert.assertEquals(expected, db.get("Key" + i));
+    }
+  }
+
+  @Test
+  public void segmentMergeTest() throws IOException {
+    String dbPath = tempFolder.getRoot().getPath();
+    long segmentSize = 64 * 1024;
+    SimpleToyDB db = new SimpleToyDB(dbPath, new OffHeapHashIndex(), segmentSize, 4);
+    String padding = new String(new char[100]).replace('\0', 'x');
+    long bytesWritten = 0;
+    for (int i = 201; i <= 300; i++) db.put("Key" + i, "Value" + i);
+    for (int round = 1; round <= 100; round++) {
+      for (int i = 1; i <= 200; i++) {
+        String value = "Value" + i + "_" + round + padding;
+        db.put("Key" + i, value);
+        bytesWritten += value.length();
+      }
+      if (round == 50) {
+        for (int i = 201; i <= 300; i++) db.delete("Key" + i);
+      }
+      // reads are served while the old segments are merged
+      Assert.assertEquals("Value200_" + round + padding, db.get("Key200"));
+    }
+    db.close();
+
+    // the overwritten values and the tombstones are dropped by the merges
+    long diskSize = 0;
+    for (File f : tempFolder.getRoot().listFiles()) {
+      if (f.getName().startsWith("toydb_datafile_")) diskSize += f.length();
+    }
+    Assert.assertTrue(diskSize < bytesWritten / 4);
+
+    SimpleToyDB reopenedDb = new SimpleToyDB(dbPath, new HashBasedIndex(), segmentSize, 4);
+    assertMerged(reopenedDb, padding);
+    reopenedDb.close();
+
+    // without the hint file, the segments are read oldest first
+    Assert.assertTrue(new File(dbPath, "toydb_datafile" + HintFile.FILE_SUFFIX).delete());
+    assertMerged(new SimpleToyDB(dbPath, new HashBasedIndex(), segmentSize, 4), padding);
+  }
+
+  @Test
+  public void scanTest() throws IOException {
+    SimpleToyDB db = new SimpleToyDB(tempFolder.getRoot().getPath());
+    for (int i = 30; i >= 1; i--) db.put(String.format("Key%02d", i), "Value" + i);
+    db.put("Other", "Value");
+    db.delete("Key12");
+
+    List<String> keys = new ArrayList<>();
+    try (CloseableIterator<Data> it = db.scan("Key10", "Key15")) {
+      while (it.hasNext()) {
+        Data d = it.next();
+        keys.add(d.getKey());
+        // a key deleted after the scan started is skipped
+        if (d.getKey().equals("Key10")) db.delete("Key11");
+      }
+    }
+    Assert.assertEquals(Arrays.asList("Key10", "Key13", "Key14"), keys);
+
+    keys.clear();
+    try (CloseableIterator<Data> it = db.prefixScan("Key2")) {
+      while (it.hasNext()) keys.add(it.next().getKey());
+    }
+    Assert.assertEquals(10, keys.size());
+    Assert.assertEquals("Key20", keys.get(0));
+    Assert.assertEquals("Key29", keys.get(9));
+    db.close();
+  }
+
+  @Test
+  public void batchedScanTest() throws IOException {
+    batchedScanTest(new SimpleToyDB(tempFolder.newFolder().getPath()));
+    batchedScanTest(new SimpleToyDB(tempFolder.newFolder().getPath(), new OffHeapHashIndex()));
+  }
+
+  /** A scan over several batches of keys, while keys are written ahead of and behind it. */
+  private static void batchedScanTest(SimpleToyDB db) throws IOException {
+    for (int i = 0; i < 2_500; i++) db.put(String.format("Key%05d", i * 2), "Value" + i);
+    int count = 0;
+    String lastKey = "";
+    try (CloseableIterator<Data> it = db.scan("Key", null)) {
+      while (it.hasNext()) {
+        Data d = it.next();
+        Assert.assertTrue(d.getKey().compareTo(lastKey) > 0);
+        lastKey = d.getKey();
+        count++;
+        if (count == 1_500) {
+          // a key put behind the scan is not returned, and a key put ahead of it is
+          db.put("Key00001", "Behind");
+          db.put("Key04001", "Ahead");
+          db.delete("Key04002");
+        }
+      }
+    }
+    Assert.assertEquals(2_500, count);
+    Assert.assertEquals("Key04998", lastKey);
+    db.close();
+  }
+
+  private static void assertMerged(SimpleToyDB db, String padding) {
+    for (int i = 1; i <= 300; i++) {
+      String expected = i > 200 ? "" : "Value" + i + "_100" + padding;
+      Assert.assertEquals(expected, db.get("Key" + i));
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package toydb.wal;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WriteAheadLogTest {
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void replayTest() throws IOException {
+    Path path = tempFolder.getRoot().toPath().resolve("wal.log");
+    try (WriteAheadLog wal = new WriteAheadLog(path, WalSyncMode.OS_BUFFERED)) {
+      for (int i = 0; i < 1000; i++) wal.append(payload("record" + i));
+    }
+    // appending to an existing log keeps its records
+    try (WriteAheadLog wal = new WriteAheadLog(path, WalSyncMode.INTERVAL)) {
+      wal.append(payload("last"));
+    }
+
+    List<String> records = replay(path);
+    Assert.assertEquals(1001, records.size());
+    Assert.assertEquals("record0", records.get(0));
+    Assert.assertEquals("record999", records.get(999));
+    Assert.assertEquals("last", records.get(1000));
+  }
+
+  @Test
+  public void tornTailTest() throws IOException {
+    Path path = tempFolder.getRoot().toPath().resolve("wal.log");
+    try (WriteAheadLog wal = new WriteAheadLog(path, WalSyncMode.EVERY_WRITE)) {
+      wal.append(payload("first"));
+      wal.append(payload("second"));
+    }
+
+    // a crash in the middle of the last record
+    try (RandomAccessFile f = new RandomAccessFile(path.toFile(), "rw")) {
+      f.setLength(f.length() - 2);
+    }
+    Assert.assertEquals(1, replay(path).size());
+
+    // a corrupt first record, nothing after it can be trusted
+    try (RandomAccessFile f = new RandomAccessFile(path.toFile(), "rw")) {
+      f.seek(WriteAheadLog.FRAME_HEADER_SIZE);
+      f.write('X');
+    }
+    Assert.assertEquals(0, replay(path).size());
+  }
+
+  @Test
+  public void groupCommitTest() throws Exception {
+    Path path = tempFolder.getRoot().toPath().resolve("wal.log");
+    int writers = 8;
+    int recordsPerWriter = 200;
+    ExecutorService executorService = Executors.newFixedThreadPool(writers);
+    try (WriteAheadLog wal = new WriteAheadLog(path, WalSyncMode.EVERY_WRITE)) {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int w = 0; w < writers; w++) {
+        int writerId = w;
+        futures.add(
+            executorService.submit(
+                () -> {
+                  for (int i = 0; i < recordsPerWriter; i++) {
+                    wal.append(payload(writerId + "_" + i));
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> f : futures) f.get();
+    }
+    executorService.shutdown();
+
+    List<String> records = replay(path);
+    Assert.assertEquals(writers * recordsPerWriter, records.size());
+    // the records of every writer are in the order it appended them
+    for (int w = 0; w < writers; w++) {
+      int next = 0;
+      for (String record : records) {
+        if (record.startsWith(w + "_")) {
+          Assert.assertEquals(w + "_" + next, record);
+          next++;
+        }
+      }
+      Assert.assertEquals(recordsPerWriter, next);
+    }
+  }
+
+  private static ByteBuffer payload(String str) {
+    return ByteBuffer.wrap(str.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static List<String> replay(Path path) throws IOException {
+    List<String> records = new ArrayList<>();
+    WriteAheadLog.replay(
+        path,
+        payload ->
+            records.add(
+                new String(
+                    payload.array(),
+                    payload.arrayOffset() + payload.position(),
+                    payload.remaining(),
+                    StandardCharsets.UTF_8)));
+    return records;
+  }
+}